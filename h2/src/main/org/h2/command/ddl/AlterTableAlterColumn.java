@@ -7,6 +7,7 @@
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import org.h2.api.ErrorCode;
 import org.h2.command.CommandContainer;
 import org.h2.command.CommandInterface;
@@ -455,6 +456,12 @@ private Table cloneTableStructure(Table table, Column[] columns, Database db,
         data.persistIndexes = table.isPersistIndexes();
         data.isHidden = table.isHidden();
         data.session = session;
+        if (table instanceof TableBase) {
+            List<String> params = ((TableBase) table).getTableEngineParams();
+            if (!params.isEmpty()) {
+                data.tableEngineParams = new ArrayList<>(params);
+            }
+        }
         Table newTable = getSchema().createTable(data);
         newTable.setComment(table.getComment());
         String newTableSQL = newTable.getCreateSQLForMeta();
@@ -74,6 +74,8 @@ public boolean isTransactional() {
         case SetTypes.TIME_ZONE:
         case SetTypes.VARIABLE_BINARY:
         case SetTypes.TRUNCATE_LARGE_LENGTH:
+        case SetTypes.MAX_PARALLEL_WORKERS:
+        case SetTypes.BATCH_EXECUTION:
         case SetTypes.WRITE_DELAY:
             return true;
         default:
@@ -573,6 +575,17 @@ public long update() {
         case SetTypes.TRUNCATE_LARGE_LENGTH:
             session.setTruncateLargeLength(expression.getBooleanValue(session));
             break;
+        case SetTypes.MAX_PARALLEL_WORKERS: {
+            int value = getIntValue();
+            if (value < 1) {
+                throw DbException.getInvalidValueException("MAX_PARALLEL_WORKERS", value);
+            }
+            session.setMaxParallelWorkers(value);
+            break;
+        }
+        case SetTypes.BATCH_EXECUTION:
+            session.setBatchExecution(expression.getBooleanValue(session));
+            break;
         default:
             throw DbException.getInternalError("type="+type);
         }
@@ -252,7 +252,17 @@ public class SetTypes {
      */
     public static final int TRUNCATE_LARGE_LENGTH = DEFAULT_NULL_ORDERING + 1;
 
-    private static final int COUNT = TRUNCATE_LARGE_LENGTH + 1;
+    /**
+     * The type of a SET MAX_PARALLEL_WORKERS statement.
+     */
+    public static final int MAX_PARALLEL_WORKERS = TRUNCATE_LARGE_LENGTH + 1;
+
+    /**
+     * The type of a SET BATCH_EXECUTION statement.
+     */
+    public static final int BATCH_EXECUTION = MAX_PARALLEL_WORKERS + 1;
+
+    private static final int COUNT = BATCH_EXECUTION + 1;
 
     private static final ArrayList<String> TYPES;
 
@@ -310,6 +320,8 @@ private SetTypes() {
         list.add("VARIABLE_BINARY");
         list.add("DEFAULT_NULL_ORDERING");
         list.add("TRUNCATE_LARGE_LENGTH");
+        list.add("MAX_PARALLEL_WORKERS");
+        list.add("BATCH_EXECUTION");
         TYPES = list;
         assert(list.size() == COUNT);
     }
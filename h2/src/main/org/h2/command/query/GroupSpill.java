@@ -0,0 +1,318 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.command.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.h2.engine.Constants;
+import org.h2.engine.Database;
+import org.h2.expression.Expression;
+import org.h2.expression.ExpressionColumn;
+import org.h2.expression.ExpressionVisitor;
+import org.h2.index.HashJoinIndex;
+import org.h2.mvstore.db.MVTempResult;
+import org.h2.result.DefaultRow;
+import org.h2.result.ResultExternal;
+import org.h2.result.Row;
+import org.h2.table.Column;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueBigint;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueRow;
+
+/**
+ * The groups of a grouped query over one table that do not fit into memory.
+ * When the number of groups in memory reaches MAX_MEMORY_ROWS, the rows of
+ * new groups are not aggregated, but written to temporary results. The rows
+ * are partitioned by the hash code of their group key, so that all rows of a
+ * group are in the same partition. After the groups in memory are processed,
+ * the partitions are aggregated one at a time. If the groups of a partition
+ * do not fit into memory either, its rows are partitioned again by other bits
+ * of the hash code.
+ */
+final class GroupSpill {
+
+    /**
+     * The number of bits of the hash code that are used on each level.
+     */
+    private static final int PARTITION_BITS = 4;
+
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    /**
+     * The level after which all bits of the hash code are used, so that the
+     * rows are not partitioned any more.
+     */
+    private static final int MAX_LEVEL = Integer.SIZE / PARTITION_BITS;
+
+    /**
+     * A partition of the spilled rows.
+     */
+    private static final class Partition {
+
+        final ResultExternal rows;
+
+        final int level;
+
+        Partition(ResultExternal rows, int level) {
+            this.rows = rows;
+            this.level = level;
+        }
+
+    }
+
+    private final Database database;
+
+    private final TableFilter filter;
+
+    private final Table table;
+
+    private final int[] keyTypes;
+
+    /**
+     * The columns of the table, with the row id at the end.
+     */
+    private final Expression[] columns;
+
+    /**
+     * The partitions that are not aggregated yet.
+     */
+    private final ArrayDeque<Partition> pending = new ArrayDeque<>();
+
+    /**
+     * The partitions for the rows that are spilled while the current rows are
+     * aggregated, or null if there are none.
+     */
+    private ResultExternal[] partitions;
+
+    /**
+     * The partition whose rows are aggregated, or null.
+     */
+    private Partition current;
+
+    private int level;
+
+    private int maxGroups;
+
+    private long groups, memory;
+
+    private long spilledRows, partitionCount, maxMemoryGroups, maxMemory;
+
+    private GroupSpill(Select select, int[] keyTypes) {
+        database = select.getSession().getDatabase();
+        filter = select.topTableFilter;
+        table = filter.getTable();
+        this.keyTypes = keyTypes;
+        Column[] tableColumns = table.getColumns();
+        int degree = tableColumns.length;
+        columns = new Expression[degree + 1];
+        for (int i = 0; i < degree; i++) {
+            columns[i] = new ExpressionColumn(database, tableColumns[i]);
+        }
+        columns[degree] = new ExpressionColumn(database, table.getRowIdColumn());
+    }
+
+    /**
+     * Create the spilled groups of a prepared grouped query over one table, if
+     * the groups can be spilled. This is the case if the query is
+     * deterministic, and if equal values of its group expressions have equal
+     * hash codes.
+     *
+     * @param select the query
+     * @param groupIndex the indexes of the group expressions
+     * @return the spilled groups, or null if the groups can not be spilled
+     */
+    static GroupSpill get(Select select, int[] groupIndex) {
+        Database database = select.getSession().getDatabase();
+        if (!database.isPersistent() || database.isReadOnly()
+                || !select.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            return null;
+        }
+        ArrayList<Expression> expressions = select.getExpressions();
+        int length = groupIndex.length;
+        int[] keyTypes = new int[length];
+        for (int i = 0; i < length; i++) {
+            int type = expressions.get(groupIndex[i]).getType().getValueType();
+            if (!HashJoinIndex.isHashable(type, database.getCompareMode())) {
+                return null;
+            }
+            keyTypes[i] = type;
+        }
+        return new GroupSpill(select, keyTypes);
+    }
+
+    /**
+     * Start the execution of the query. The statistics of the previous
+     * execution are cleared.
+     */
+    void start() {
+        close();
+        level = 0;
+        maxGroups = database.getMaxMemoryRows();
+        groups = memory = 0;
+        spilledRows = partitionCount = maxMemoryGroups = maxMemory = 0;
+    }
+
+    /**
+     * Add a new group to the groups in memory, or spill the current row of
+     * the table filter if there are too many groups in memory.
+     *
+     * @param key the key of the group
+     * @param groupCount the number of groups in memory
+     * @param size the number of values of the group
+     * @return true if the group was added, false if the row was spilled
+     */
+    boolean addGroup(ValueRow key, int groupCount, int size) {
+        if (groupCount >= maxGroups && level < MAX_LEVEL) {
+            spill(key);
+            return false;
+        }
+        groups++;
+        memory += Constants.MEMORY_OBJECT + key.getMemory() + Constants.MEMORY_ARRAY
+                + size * Constants.MEMORY_POINTER;
+        if (memory > maxMemory) {
+            maxMemoryGroups = groups;
+            maxMemory = memory;
+        }
+        return true;
+    }
+
+    private void spill(ValueRow key) {
+        if (partitions == null) {
+            partitions = new ResultExternal[PARTITIONS];
+        }
+        int p = (hash(key) >>> level * PARTITION_BITS) & (PARTITIONS - 1);
+        ResultExternal rows = partitions[p];
+        if (rows == null) {
+            rows = MVTempResult.of(database, columns, false, null, columns.length, columns.length, null);
+            partitions[p] = rows;
+            partitionCount++;
+        }
+        Row row = filter.get();
+        int degree = columns.length - 1;
+        Value[] values = new Value[degree + 1];
+        for (int i = 0; i < degree; i++) {
+            Value v = row.getValue(i);
+            values[i] = v != null ? v : ValueNull.INSTANCE;
+        }
+        values[degree] = ValueBigint.get(row.getKey());
+        rows.addRow(values);
+        spilledRows++;
+    }
+
+    /**
+     * Get the hash code of a group key, computed from values of the data
+     * types of the group expressions, so that equal keys have equal hash
+     * codes.
+     *
+     * @param key the key
+     * @return the hash code
+     */
+    private int hash(ValueRow key) {
+        Value[] values = key.getList();
+        int h = 0;
+        for (int i = 0, length = values.length; i < length; i++) {
+            Value v = values[i];
+            int type = keyTypes[i];
+            if (v != ValueNull.INSTANCE && v.getValueType() != type) {
+                v = v.convertTo(type);
+            }
+            h = h * 31 + v.hashCode();
+        }
+        // spread the bits, as each level uses a different part of them
+        h ^= h >>> 16;
+        h *= 0x85eb_ca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2_ae35;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * Move to the next partition whose groups are aggregated. The rows that
+     * were spilled while the previous rows were aggregated are added to the
+     * partitions first, and the groups in memory must be removed.
+     *
+     * @return true if there is a next partition
+     */
+    boolean nextPartition() {
+        closeCurrent();
+        if (partitions != null) {
+            for (ResultExternal rows : partitions) {
+                if (rows != null) {
+                    pending.push(new Partition(rows, level + 1));
+                }
+            }
+            partitions = null;
+        }
+        current = pending.poll();
+        if (current == null) {
+            return false;
+        }
+        level = current.level;
+        groups = memory = 0;
+        current.rows.reset();
+        return true;
+    }
+
+    /**
+     * Get the next row of the current partition.
+     *
+     * @return the row, or null if there are no more rows
+     */
+    Row nextRow() {
+        Value[] values = current.rows.next();
+        if (values == null) {
+            return null;
+        }
+        int degree = columns.length - 1;
+        return table.createRow(Arrays.copyOf(values, degree), DefaultRow.MEMORY_CALCULATE,
+                values[degree].getLong());
+    }
+
+    private void closeCurrent() {
+        if (current != null) {
+            current.rows.close();
+            current = null;
+        }
+    }
+
+    /**
+     * Remove all spilled rows. The statistics are kept.
+     */
+    void close() {
+        closeCurrent();
+        if (partitions != null) {
+            for (ResultExternal rows : partitions) {
+                if (rows != null) {
+                    rows.close();
+                }
+            }
+            partitions = null;
+        }
+        for (Partition p; (p = pending.poll()) != null;) {
+            p.rows.close();
+        }
+    }
+
+    /**
+     * Append the statistics of the last execution to the plan, if rows were
+     * spilled.
+     *
+     * @param builder the string builder
+     */
+    void getPlanSQL(StringBuilder builder) {
+        if (spilledRows > 0) {
+            builder.append("\n/* spilled rows: ").append(spilledRows).append(", partitions: ").append(partitionCount)
+                    .append(", groups in memory: ").append(maxMemoryGroups).append(", memory: ").append(maxMemory)
+                    .append(" */");
+        }
+    }
+
+}
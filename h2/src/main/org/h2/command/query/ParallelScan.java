@@ -0,0 +1,395 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.command.query;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.h2.api.ErrorCode;
+import org.h2.command.Prepared;
+import org.h2.engine.SessionLocal;
+import org.h2.expression.Alias;
+import org.h2.expression.Expression;
+import org.h2.expression.ExpressionColumn;
+import org.h2.expression.ExpressionVisitor;
+import org.h2.expression.Parameter;
+import org.h2.expression.ValueExpression;
+import org.h2.expression.aggregate.Aggregate;
+import org.h2.expression.function.JavaFunction;
+import org.h2.index.Cursor;
+import org.h2.message.DbException;
+import org.h2.mvstore.db.MVPrimaryIndex;
+import org.h2.util.HasSQL;
+import org.h2.value.Value;
+import org.h2.value.ValueRow;
+
+/**
+ * The parallel execution of a grouped query over one table. The rows of the
+ * table are split into ranges of keys. The first range is read by the query
+ * itself, and each other range by a copy of the query in a worker thread.
+ * The groups of the copies are then merged into the groups of the query.
+ * <p>
+ * The copies are parsed from the plan of the query, and are kept for the
+ * next execution. Each copy evaluates its expressions with its own worker
+ * session, so that the session of the query is only used by its own
+ * thread. The cursors over the ranges are opened by the query, so that all
+ * copies read the rows visible to its transaction.
+ */
+final class ParallelScan {
+
+    /**
+     * The threads of all parallel queries. There are at most as many threads
+     * as processors; the ranges of concurrent queries wait in the queue.
+     */
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        EXECUTOR = new ThreadPoolExecutor(threadCount, threadCount, 10L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "H2 Parallel Scan");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * How long to wait for a range before the query checks whether it was
+     * canceled, in milliseconds.
+     */
+    private static final long CHECK_CANCELED_MILLIS = 100;
+
+    /**
+     * A copy of the query and its expressions that keep data for each group.
+     */
+    private static final class Copy {
+
+        final Select select;
+
+        final ArrayList<Expression> groupExpressions;
+
+        Copy(Select select, ArrayList<Expression> groupExpressions) {
+            this.select = select;
+            this.groupExpressions = groupExpressions;
+        }
+
+    }
+
+    private final Select select;
+
+    private final ArrayList<Expression> groupExpressions;
+
+    private final ArrayList<Copy> copies = new ArrayList<>();
+
+    private volatile boolean stopped;
+
+    ParallelScan(Select select) {
+        this.select = select;
+        groupExpressions = new ArrayList<>();
+        getGroupExpressions(select, groupExpressions);
+    }
+
+    /**
+     * Check whether a prepared grouped query over one table can be executed
+     * in parallel. This is the case if all its aggregates can be merged, and
+     * all its expressions can be evaluated in other threads.
+     *
+     * @param select the query
+     * @return true if the query can be executed in parallel
+     */
+    static boolean isParallelizable(Select select) {
+        if (select.getParameters() == null
+                || !select.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)
+                || !select.isEverything(ExpressionVisitor.INDEPENDENT_VISITOR)) {
+            return false;
+        }
+        Expression condition = select.getCondition();
+        return (condition == null || collect(condition, null)) && getGroupExpressions(select, new ArrayList<>());
+    }
+
+    /**
+     * Get the expressions of a query that keep data for each group: the
+     * aggregates, and the columns that are not aggregated.
+     *
+     * @param select the query
+     * @param list the list to add the expressions to
+     * @return true if the query can be executed in parallel
+     */
+    private static boolean getGroupExpressions(Select select, ArrayList<Expression> list) {
+        for (Expression e : select.getExpressions()) {
+            if (!collect(e, list)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the expressions that keep data for each group to the list, and
+     * check whether all expressions can be evaluated in other threads. Only
+     * expressions whose subexpressions are all known are accepted, so that
+     * no subquery and no other kind of shared state is missed.
+     *
+     * @param e the expression
+     * @param list the list, or null
+     * @return true if the expression can be evaluated in parallel
+     */
+    private static boolean collect(Expression e, ArrayList<Expression> list) {
+        if (e instanceof Alias) {
+            e = e.getNonAliasExpression();
+        }
+        if (e instanceof ExpressionColumn) {
+            if (list != null) {
+                list.add(e);
+            }
+            return true;
+        } else if (e instanceof ValueExpression || e instanceof Parameter) {
+            return true;
+        } else if (e instanceof Aggregate) {
+            Aggregate a = (Aggregate) e;
+            if (!a.isMergeable()) {
+                return false;
+            }
+            if (list != null) {
+                list.add(e);
+            }
+            // the arguments do not keep data for each group
+            list = null;
+            Expression filterCondition = a.getFilterCondition();
+            if (filterCondition != null && !collect(filterCondition, null)) {
+                return false;
+            }
+        } else if (e instanceof JavaFunction) {
+            return false;
+        }
+        int count = e.getSubexpressionCount();
+        if (count == 0 && !(e instanceof Aggregate)) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            Expression s = e.getSubexpression(i);
+            if (s != null && !collect(s, list)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the rows of the table and collect their groups in the given number
+     * of threads.
+     *
+     * @param columnCount the number of columns
+     * @param workers the number of threads
+     * @return false if the query can not be executed in parallel
+     */
+    boolean gather(int columnCount, int workers) {
+        SessionLocal session = select.getSession();
+        if (!prepareCopies(session, workers - 1)) {
+            return false;
+        }
+        MVPrimaryIndex index = (MVPrimaryIndex) select.topTableFilter.getIndex();
+        long[] splitKeys = index.getSplitKeys(workers);
+        Cursor[] cursors = new Cursor[workers];
+        for (int i = 0; i < workers; i++) {
+            Long first = i == 0 ? null : splitKeys[i - 1];
+            Long last = i == workers - 1 ? null : splitKeys[i] - 1;
+            if (first == null || last == null || first <= last) {
+                // the cursors are opened in the thread of the session
+                cursors[i] = index.find(session, first, last);
+            }
+        }
+        stopped = false;
+        ArrayList<FutureTask<Void>> tasks = new ArrayList<>(workers - 1);
+        RuntimeException exception = null;
+        try {
+            for (int i = 1; i < workers; i++) {
+                Cursor cursor = cursors[i];
+                if (cursor != null) {
+                    Select copy = copies.get(i - 1).select;
+                    copy.initGroupData(columnCount);
+                    FutureTask<Void> task = new FutureTask<>(
+                            () -> copy.gatherPartition(cursor, columnCount, this), null);
+                    tasks.add(task);
+                    EXECUTOR.execute(task);
+                }
+            }
+            if (cursors[0] != null) {
+                select.gatherPartition(cursors[0], columnCount, this);
+            }
+        } catch (RuntimeException e) {
+            stopped = true;
+            exception = e;
+        }
+        // the ranges that no thread has started to read yet are read here,
+        // instead of waiting for the threads of other queries
+        for (FutureTask<Void> task : tasks) {
+            if (EXECUTOR.remove(task)) {
+                if (stopped) {
+                    task.cancel(false);
+                } else {
+                    task.run();
+                }
+            }
+        }
+        boolean interrupted = false;
+        for (FutureTask<Void> task : tasks) {
+            while (true) {
+                Throwable t = null;
+                try {
+                    task.get(CHECK_CANCELED_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (!stopped) {
+                        try {
+                            session.checkCanceled();
+                        } catch (RuntimeException e2) {
+                            t = e2;
+                        }
+                    }
+                    if (t == null) {
+                        continue;
+                    }
+                } catch (ExecutionException e) {
+                    t = e.getCause();
+                } catch (CancellationException e) {
+                    // canceled after another failure
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    t = DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+                if (t != null && exception == null) {
+                    stopped = true;
+                    exception = DbException.convert(t);
+                }
+                if (task.isDone()) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (exception != null) {
+                throw exception;
+            }
+            for (int i = 1; i < workers; i++) {
+                if (cursors[i] != null) {
+                    merge(session, copies.get(i - 1));
+                }
+            }
+        } finally {
+            for (Copy copy : copies) {
+                SelectGroups groupData = copy.select.groupData;
+                if (groupData != null) {
+                    groupData.reset();
+                }
+            }
+        }
+        select.groupData.done();
+        return true;
+    }
+
+    /**
+     * Check whether the execution was stopped because of an exception in
+     * another thread.
+     *
+     * @return true if the execution was stopped
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    private boolean prepareCopies(SessionLocal session, int count) {
+        if (copies.size() < count) {
+            String sql = select.getPlanSQL(HasSQL.DEFAULT_SQL_FLAGS);
+            do {
+                Prepared p = session.prepare(sql, true, true);
+                if (!(p instanceof Select)) {
+                    return false;
+                }
+                Select copy = (Select) p;
+                ArrayList<Expression> list = new ArrayList<>();
+                if (copy.getExpressions().size() != select.getExpressions().size()
+                        || copy.topTableFilter.getTable() != select.topTableFilter.getTable()
+                        || !getGroupExpressions(copy, list) || !isSameExpressions(list)) {
+                    return false;
+                }
+                // the copy is parsed by this session, but executed with its
+                // own session in another thread
+                copy.setSession(session.getDatabase().createWorkerSession(session));
+                copies.add(new Copy(copy, list));
+            } while (copies.size() < count);
+        }
+        ArrayList<Parameter> parameters = select.getParameters();
+        for (int i = 0; i < count; i++) {
+            Select copy = copies.get(i).select;
+            copy.getSession().setTimeZone(session.currentTimeZone());
+            for (Parameter p : copy.getParameters()) {
+                int index = p.getIndex();
+                if (index >= parameters.size()) {
+                    return false;
+                }
+                p.setValue(parameters.get(index).getParamValue());
+            }
+        }
+        return true;
+    }
+
+    private boolean isSameExpressions(ArrayList<Expression> list) {
+        int size = list.size();
+        if (size != groupExpressions.size()) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            Expression a = groupExpressions.get(i), b = list.get(i);
+            if (a instanceof Aggregate) {
+                if (!(b instanceof Aggregate)
+                        || ((Aggregate) a).getAggregateType() != ((Aggregate) b).getAggregateType()) {
+                    return false;
+                }
+            } else if (!(b instanceof ExpressionColumn)
+                    || ((ExpressionColumn) a).getColumn() != ((ExpressionColumn) b).getColumn()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void merge(SessionLocal session, Copy copy) {
+        SelectGroups source = copy.select.groupData;
+        SelectGroups target = select.groupData;
+        source.done();
+        for (ValueRow key; (key = source.next()) != null;) {
+            target.nextGroup(key);
+            for (int i = 0, size = groupExpressions.size(); i < size; i++) {
+                Expression e = groupExpressions.get(i);
+                Expression partial = copy.groupExpressions.get(i);
+                if (e instanceof Aggregate) {
+                    ((Aggregate) e).mergeAggregate(session, (Aggregate) partial);
+                } else {
+                    Value v = (Value) source.getCurrentGroupExprData(partial);
+                    if (v != null) {
+                        Value old = (Value) target.getCurrentGroupExprData(e);
+                        if (old == null) {
+                            target.setCurrentGroupExprData(e, v);
+                        } else if (!session.areEqual(old, v)) {
+                            throw DbException.get(ErrorCode.MUST_GROUP_BY_COLUMN_1, e.getTraceSQL());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
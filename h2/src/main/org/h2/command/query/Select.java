@@ -28,7 +28,10 @@
 import org.h2.expression.ExpressionList;
 import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.Parameter;
+import org.h2.expression.ValueVector;
 import org.h2.expression.Wildcard;
+import org.h2.expression.aggregate.Aggregate;
+import org.h2.expression.aggregate.AggregateType;
 import org.h2.expression.analysis.DataAnalysisOperation;
 import org.h2.expression.analysis.Window;
 import org.h2.expression.condition.Comparison;
@@ -40,6 +43,7 @@
 import org.h2.index.ViewIndex;
 import org.h2.message.DbException;
 import org.h2.mode.DefaultNullOrdering;
+import org.h2.mvstore.db.MVPrimaryIndex;
 import org.h2.result.LazyResult;
 import org.h2.result.LocalResult;
 import org.h2.result.ResultInterface;
@@ -50,6 +54,7 @@
 import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
 import org.h2.table.IndexColumn;
+import org.h2.table.RowBatch;
 import org.h2.table.Table;
 import org.h2.table.TableFilter;
 import org.h2.table.TableType;
@@ -154,6 +159,30 @@ public class Select extends Query {
 
     private boolean isGroupWindowStage2;
 
+    /**
+     * Whether the groups can be collected by more than one thread.
+     */
+    private boolean isParallelQuery;
+
+    private ParallelScan parallelScan;
+
+    /**
+     * Whether the rows can be read and evaluated in batches.
+     */
+    private boolean isBatchQuery;
+
+    /**
+     * The aggregates of a query that collects all rows into one group, if
+     * they can be computed from batches of rows.
+     */
+    private Aggregate[] batchAggregates;
+
+    /**
+     * The rows of the groups that do not fit into memory, or null if the
+     * groups of this query can not be spilled.
+     */
+    private GroupSpill groupSpill;
+
     private HashMap<String, Window> windows;
 
     public Select(SessionLocal session, Select parentSelect) {
@@ -484,15 +513,90 @@ private void queryGroupWindow(int columnCount, LocalResult result, long offset,
 
     private void queryGroup(int columnCount, LocalResult result, long offset, boolean quickOffset) {
         initGroupData(columnCount);
+        if (groupSpill != null) {
+            groupSpill.start();
+        }
         try {
-            gatherGroup(columnCount, DataAnalysisOperation.STAGE_GROUP);
-            processGroupResult(columnCount, result, offset, quickOffset, true);
+            int workers = getParallelWorkers();
+            if (workers > 1) {
+                if (parallelScan == null) {
+                    parallelScan = new ParallelScan(this);
+                }
+                if (!parallelScan.gather(columnCount, workers)) {
+                    isParallelQuery = false;
+                    parallelScan = null;
+                    gatherGroup(columnCount, DataAnalysisOperation.STAGE_GROUP);
+                }
+            } else if (isBatchQuery && session.isBatchExecution()) {
+                gatherGroupBatch(columnCount);
+            } else {
+                gatherGroup(columnCount, DataAnalysisOperation.STAGE_GROUP);
+            }
+            offset = processGroupResult(columnCount, result, offset, quickOffset, true);
+            if (groupSpill != null) {
+                processSpilledGroups(columnCount, result, offset, quickOffset);
+            }
         } finally {
+            if (groupSpill != null) {
+                groupSpill.close();
+            }
             groupData.reset();
         }
     }
 
-    private void initGroupData(int columnCount) {
+    /**
+     * Aggregate the rows of the groups that were spilled, one partition at a
+     * time, and add these groups to the result.
+     *
+     * @param columnCount the number of columns
+     * @param result the result
+     * @param offset the number of rows that are still to be skipped
+     * @param quickOffset whether the offset is applied here
+     */
+    private void processSpilledGroups(int columnCount, LocalResult result, long offset, boolean quickOffset) {
+        while (groupSpill.nextPartition()) {
+            updateAgg(columnCount, DataAnalysisOperation.STAGE_RESET);
+            groupData.reset();
+            long count = 0;
+            for (Row row; (row = groupSpill.nextRow()) != null;) {
+                if ((++count & 127) == 0) {
+                    session.checkCanceled();
+                }
+                topTableFilter.set(row);
+                // the condition was checked before the row was spilled
+                if (groupData.nextSource(groupSpill)) {
+                    updateAgg(columnCount, DataAnalysisOperation.STAGE_GROUP);
+                }
+            }
+            topTableFilter.set(null);
+            groupData.done();
+            offset = processGroupResult(columnCount, result, offset, quickOffset, true);
+        }
+    }
+
+    /**
+     * Get the number of threads that collect the groups of this query.
+     *
+     * @return the number of threads
+     */
+    private int getParallelWorkers() {
+        if (!isParallelQuery) {
+            return 1;
+        }
+        int max = session.getMaxParallelWorkers();
+        if (max <= 1) {
+            return 1;
+        }
+        long rows = topTableFilter.getTable().getRowCountApproximation(session);
+        return (int) Math.max(1L, Math.min(max, rows / Constants.PARALLEL_MIN_ROWS));
+    }
+
+    /**
+     * Initialize or reset the group data.
+     *
+     * @param columnCount the number of columns
+     */
+    void initGroupData(int columnCount) {
         if (groupData == null) {
             setGroupData(SelectGroups.getInstance(session, expressions, isGroupQuery, groupIndex));
         } else {
@@ -518,13 +622,121 @@ private void gatherGroup(int columnCount, int stage) {
             setCurrentRowNumber(rowNumber + 1);
             if (isForUpdate ? isConditionMetForUpdate() : isConditionMet()) {
                 rowNumber++;
-                groupData.nextSource();
+                if (groupSpill == null) {
+                    groupData.nextSource();
+                } else if (!groupData.nextSource(groupSpill)) {
+                    continue;
+                }
                 updateAgg(columnCount, stage);
             }
         }
         groupData.done();
     }
 
+    /**
+     * Read the rows in batches and collect them into one group, for a query
+     * in the batch execution mode. The condition and the arguments of the
+     * aggregates are evaluated for all rows of a batch at once, or for each
+     * row if this is not possible for some of them.
+     *
+     * @param columnCount the number of columns
+     */
+    private void gatherGroupBatch(int columnCount) {
+        Aggregate[] aggregates = batchAggregates;
+        int length = aggregates.length;
+        ValueVector[] arguments = new ValueVector[length];
+        int[] positions = new int[Constants.BATCH_SIZE];
+        long rowNumber = 0;
+        setCurrentRowNumber(0);
+        for (RowBatch batch; (batch = topTableFilter.nextBatch()) != null;) {
+            int count = condition == null ? selectAllRows(batch, positions) : selectRows(batch, positions);
+            for (int i = 0; count > 0 && i < length; i++) {
+                Aggregate aggregate = aggregates[i];
+                if (aggregate.getAggregateType() != AggregateType.COUNT_ALL
+                        && (arguments[i] = aggregate.getBatchArgument(session, batch)) == null) {
+                    count = -1;
+                }
+            }
+            if (count > 0) {
+                groupData.nextSource();
+                for (int i = 0; i < length; i++) {
+                    aggregates[i].updateBatch(session, arguments[i], positions, count);
+                }
+                rowNumber += count;
+            } else if (count < 0) {
+                for (int i = 0, size = batch.size(); i < size; i++) {
+                    topTableFilter.set(batch.get(i));
+                    setCurrentRowNumber(rowNumber + 1);
+                    if (isConditionMet()) {
+                        rowNumber++;
+                        groupData.nextSource();
+                        updateAgg(columnCount, DataAnalysisOperation.STAGE_GROUP);
+                    }
+                }
+            }
+        }
+        topTableFilter.set(null);
+        groupData.done();
+    }
+
+    private static int selectAllRows(RowBatch batch, int[] positions) {
+        int size = batch.size();
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        return size;
+    }
+
+    /**
+     * Evaluate the condition for a batch of rows.
+     *
+     * @param batch the batch of rows
+     * @param positions the array to store the positions of the rows where the
+     *            condition is true
+     * @return the number of these rows, or -1 if the condition can not be
+     *         evaluated in batch mode
+     */
+    private int selectRows(RowBatch batch, int[] positions) {
+        ValueVector vector = condition.getVector(session, batch);
+        if (vector == null) {
+            return -1;
+        }
+        int count = 0;
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            if (vector.isTrue(i)) {
+                positions[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read the rows of one range of the table and collect their groups, for a
+     * query that is executed in parallel. This method is called by the thread
+     * that reads this range.
+     *
+     * @param cursor the cursor over the rows of the range
+     * @param columnCount the number of columns
+     * @param scan the parallel execution of the query
+     */
+    void gatherPartition(Cursor cursor, int columnCount, ParallelScan scan) {
+        long count = 0;
+        while (cursor.next()) {
+            if ((++count & 127) == 0) {
+                session.checkCanceled();
+                if (scan.isStopped()) {
+                    break;
+                }
+            }
+            topTableFilter.set(cursor.get());
+            if (isConditionMet()) {
+                groupData.nextSource();
+                updateAgg(columnCount, DataAnalysisOperation.STAGE_GROUP);
+            }
+        }
+        topTableFilter.set(null);
+    }
+
 
     /**
      * Update any aggregate expressions with the query stage.
@@ -541,7 +753,7 @@ void updateAgg(int columnCount, int stage) {
         }
     }
 
-    private void processGroupResult(int columnCount, LocalResult result, long offset, boolean quickOffset,
+    private long processGroupResult(int columnCount, LocalResult result, long offset, boolean quickOffset,
             boolean withHaving) {
         for (ValueRow currentGroupsKey; (currentGroupsKey = groupData.next()) != null;) {
             Value[] row = constructGroupResultRow(currentGroupsKey.getList(), columnCount);
@@ -557,6 +769,7 @@ private void processGroupResult(int columnCount, LocalResult result, long offset
             }
             result.addRow(rowForResult(row, columnCount));
         }
+        return offset;
     }
 
     private Value[] constructGroupResultRow(Value[] keyValues, int columnCount) {
@@ -716,7 +929,10 @@ private LazyResult queryFlat(int columnCount, ResultTarget result, long offset,
                 limitRows = Long.MAX_VALUE;
             }
         }
-        LazyResultQueryFlat lazyResult = new LazyResultQueryFlat(expressionArray, columnCount, isForUpdate);
+        // rows are read ahead, which is only done if all rows are needed
+        boolean batch = isBatchQuery && session.isBatchExecution() && result != null
+                && (limitRows < 0 || sort != null && !sortUsingIndex);
+        LazyResultQueryFlat lazyResult = new LazyResultQueryFlat(expressionArray, columnCount, isForUpdate, batch);
         skipOffset(lazyResult, offset, quickOffset);
         if (result == null) {
             return lazyResult;
@@ -810,30 +1026,36 @@ protected ResultInterface queryWithoutCache(long maxRows, ResultTarget target) {
         ResultTarget to = result != null ? result : target;
         lazy &= to == null;
         LazyResult lazyResult = null;
-        if (fetch != 0) {
-            // Cannot apply limit now if percent is specified
-            long limit = fetchPercent ? -1 : fetch;
-            if (isQuickAggregateQuery) {
-                queryQuick(columnCount, to, quickOffset && offset > 0);
-            } else if (isWindowQuery) {
-                if (isGroupQuery) {
-                    queryGroupWindow(columnCount, result, offset, quickOffset);
+        try {
+            if (fetch != 0) {
+                // Cannot apply limit now if percent is specified
+                long limit = fetchPercent ? -1 : fetch;
+                if (isQuickAggregateQuery) {
+                    queryQuick(columnCount, to, quickOffset && offset > 0);
+                } else if (isWindowQuery) {
+                    if (isGroupQuery) {
+                        queryGroupWindow(columnCount, result, offset, quickOffset);
+                    } else {
+                        queryWindow(columnCount, result, offset, quickOffset);
+                    }
+                } else if (isGroupQuery) {
+                    if (isGroupSortedQuery) {
+                        lazyResult = queryGroupSorted(columnCount, to, offset, quickOffset);
+                    } else {
+                        queryGroup(columnCount, result, offset, quickOffset);
+                    }
+                } else if (isDistinctQuery) {
+                    queryDistinct(to, offset, limit, withTies, quickOffset);
                 } else {
-                    queryWindow(columnCount, result, offset, quickOffset);
+                    lazyResult = queryFlat(columnCount, to, offset, limit, withTies, quickOffset);
                 }
-            } else if (isGroupQuery) {
-                if (isGroupSortedQuery) {
-                    lazyResult = queryGroupSorted(columnCount, to, offset, quickOffset);
-                } else {
-                    queryGroup(columnCount, result, offset, quickOffset);
+                if (quickOffset) {
+                    offset = 0;
                 }
-            } else if (isDistinctQuery) {
-                queryDistinct(to, offset, limit, withTies, quickOffset);
-            } else {
-                lazyResult = queryFlat(columnCount, to, offset, limit, withTies, quickOffset);
             }
-            if (quickOffset) {
-                offset = 0;
+        } finally {
+            if (!lazy) {
+                topTableFilter.endQuery();
             }
         }
         assert lazy == (lazyResult != null) : lazy;
@@ -1270,10 +1492,54 @@ public void prepare() {
                 }
             }
         }
+        isParallelQuery = isGroupQuery && !isQuickAggregateQuery && !isGroupSortedQuery && !isWindowQuery
+                && !isForUpdate && filters.size() == 1 && topTableFilter.getIndex() instanceof MVPrimaryIndex
+                && ParallelScan.isParallelizable(this);
+        if (!isForUpdate && !isWindowQuery && filters.size() == 1
+                && topTableFilter.getTable().getTableType() == TableType.TABLE) {
+            if (isGroupQuery) {
+                if (!isQuickAggregateQuery && groupIndex == null) {
+                    batchAggregates = getBatchAggregates();
+                    isBatchQuery = batchAggregates != null;
+                }
+            } else {
+                isBatchQuery = condition != null;
+            }
+        }
+        if (isGroupQuery && !isQuickAggregateQuery && !isGroupSortedQuery && !isWindowQuery && !isForUpdate
+                && groupIndex != null && filters.size() == 1
+                && topTableFilter.getTable().getTableType() == TableType.TABLE) {
+            groupSpill = GroupSpill.get(this, groupIndex);
+        }
         expressionArray = expressions.toArray(new Expression[0]);
         isPrepared = true;
     }
 
+    /**
+     * Get the aggregates of a query without GROUP BY where all expressions
+     * are aggregates that can be computed from batches of rows.
+     *
+     * @return the aggregates, or null if some expressions are not such
+     *         aggregates
+     */
+    private Aggregate[] getBatchAggregates() {
+        int size = expressions.size();
+        Aggregate[] aggregates = new Aggregate[size];
+        for (int i = 0; i < size; i++) {
+            Expression e = expressions.get(i).getNonAliasExpression();
+            if (!(e instanceof Aggregate) || !((Aggregate) e).isBatchable()) {
+                return null;
+            }
+            for (int j = 0; j < i; j++) {
+                if (aggregates[j] == e) {
+                    return null;
+                }
+            }
+            aggregates[i] = (Aggregate) e;
+        }
+        return aggregates;
+    }
+
     private void optimizeExpressionsAndPreserveAliases() {
         for (int i = 0; i < expressions.size(); i++) {
             Expression e = expressions.get(i);
@@ -1468,6 +1734,13 @@ public String getPlanSQL(int sqlFlags) {
                 if (isGroupSortedQuery) {
                     builder.append("\n/* group sorted */");
                 }
+                int workers = getParallelWorkers();
+                if (workers > 1) {
+                    builder.append("\n/* parallel: ").append(workers).append(" */");
+                }
+                if (groupSpill != null) {
+                    groupSpill.getPlanSQL(builder);
+                }
             }
             // builder.append("\n/* cost: " + cost + " */");
         }
@@ -1806,6 +2079,12 @@ public void reset() {
             setCurrentRowNumber(0);
             rowNumber = 0;
         }
+
+        @Override
+        public void close() {
+            super.close();
+            topTableFilter.endQuery();
+        }
     }
 
     /**
@@ -1815,31 +2094,96 @@ private final class LazyResultQueryFlat extends LazyResultSelect {
 
         private boolean forUpdate;
 
-        LazyResultQueryFlat(Expression[] expressions, int columnCount, boolean forUpdate) {
+        /**
+         * The positions of the selected rows of the current batch, or null if
+         * the rows are not read in batches.
+         */
+        private final int[] positions;
+
+        private RowBatch batch;
+
+        private int position, count;
+
+        LazyResultQueryFlat(Expression[] expressions, int columnCount, boolean forUpdate, boolean batch) {
             super(expressions, columnCount);
             this.forUpdate = forUpdate;
+            positions = batch ? new int[Constants.BATCH_SIZE] : null;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            batch = null;
+            position = count = 0;
         }
 
         @Override
         protected Value[] fetchNextRow() {
+            if (positions != null) {
+                if (!nextSelectedRow()) {
+                    return null;
+                }
+                setCurrentRowNumber(++rowNumber);
+                return getRow();
+            }
             while (topTableFilter.next()) {
                 setCurrentRowNumber(rowNumber + 1);
                 // This method may lock rows
                 if (forUpdate ? isConditionMetForUpdate() : isConditionMet()) {
                     ++rowNumber;
-                    Value[] row = new Value[columnCount];
-                    for (int i = 0; i < columnCount; i++) {
-                        Expression expr = expressions.get(i);
-                        row[i] = expr.getValue(getSession());
-                    }
-                    return row;
+                    return getRow();
                 }
             }
             return null;
         }
 
+        private Value[] getRow() {
+            Value[] row = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                Expression expr = expressions.get(i);
+                row[i] = expr.getValue(getSession());
+            }
+            return row;
+        }
+
+        /**
+         * Set the next row of the current batch where the condition is true
+         * as the current row, and read the next batch if necessary.
+         *
+         * @return false if there are no more rows
+         */
+        private boolean nextSelectedRow() {
+            while (position == count) {
+                if ((batch = topTableFilter.nextBatch()) == null) {
+                    topTableFilter.set(null);
+                    return false;
+                }
+                position = 0;
+                count = selectRows(batch, positions);
+                if (count < 0) {
+                    count = 0;
+                    for (int i = 0, size = batch.size(); i < size; i++) {
+                        topTableFilter.set(batch.get(i));
+                        setCurrentRowNumber(rowNumber + count + 1);
+                        if (isConditionMet()) {
+                            positions[count++] = i;
+                        }
+                    }
+                }
+            }
+            topTableFilter.set(batch.get(positions[position++]));
+            return true;
+        }
+
         @Override
         protected boolean skipNextRow() {
+            if (positions != null) {
+                if (!nextSelectedRow()) {
+                    return false;
+                }
+                ++rowNumber;
+                return true;
+            }
             while (topTableFilter.next()) {
                 setCurrentRowNumber(rowNumber + 1);
                 // This method does not lock rows
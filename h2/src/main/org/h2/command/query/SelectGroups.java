@@ -17,6 +17,7 @@
 import org.h2.expression.Expression;
 import org.h2.expression.analysis.DataAnalysisOperation;
 import org.h2.expression.analysis.PartitionData;
+import org.h2.message.DbException;
 import org.h2.value.Value;
 import org.h2.value.ValueRow;
 
@@ -79,18 +80,7 @@ public void reset() {
 
         @Override
         public void nextSource() {
-            if (groupIndex == null) {
-                currentGroupsKey = ValueRow.EMPTY;
-            } else {
-                Value[] keyValues = new Value[groupIndex.length];
-                // update group
-                for (int i = 0; i < groupIndex.length; i++) {
-                    int idx = groupIndex[i];
-                    Expression expr = expressions.get(idx);
-                    keyValues[i] = expr.getValue(session);
-                }
-                currentGroupsKey = ValueRow.get(keyValues);
-            }
+            currentGroupsKey = getKey();
             Object[] values = groupByData.get(currentGroupsKey);
             if (values == null) {
                 values = createRow();
@@ -100,6 +90,49 @@ public void nextSource() {
             currentGroupRowId++;
         }
 
+        @Override
+        boolean nextSource(GroupSpill spill) {
+            ValueRow key = getKey();
+            Object[] values = groupByData.get(key);
+            if (values == null) {
+                values = createRow();
+                if (!spill.addGroup(key, groupByData.size(), values.length)) {
+                    return false;
+                }
+                groupByData.put(key, values);
+            }
+            currentGroupsKey = key;
+            currentGroupByExprData = values;
+            currentGroupRowId++;
+            return true;
+        }
+
+        private ValueRow getKey() {
+            if (groupIndex == null) {
+                return ValueRow.EMPTY;
+            }
+            Value[] keyValues = new Value[groupIndex.length];
+            // update group
+            for (int i = 0; i < groupIndex.length; i++) {
+                int idx = groupIndex[i];
+                Expression expr = expressions.get(idx);
+                keyValues[i] = expr.getValue(session);
+            }
+            return ValueRow.get(keyValues);
+        }
+
+        @Override
+        void nextGroup(ValueRow key) {
+            currentGroupsKey = key;
+            Object[] values = groupByData.get(key);
+            if (values == null) {
+                values = createRow();
+                groupByData.put(key, values);
+            }
+            currentGroupByExprData = values;
+            currentGroupRowId++;
+        }
+
         @Override
         void updateCurrentGroupExprData() {
             // this can be null in lazy mode
@@ -172,6 +205,11 @@ public void nextSource() {
             currentGroupRowId++;
         }
 
+        @Override
+        void nextGroup(ValueRow key) {
+            throw DbException.getInternalError();
+        }
+
         @Override
         void updateCurrentGroupExprData() {
             rows.set(rows.size() - 1, currentGroupByExprData);
@@ -385,6 +423,28 @@ public void reset() {
      */
     public abstract void nextSource();
 
+    /**
+     * Invoked for each source row instead of {@link #nextSource()} if the
+     * rows of the groups that do not fit into memory are spilled.
+     *
+     * @param spill the spilled groups
+     * @return true if the row belongs to a group in memory, false if it was
+     *         spilled
+     */
+    boolean nextSource(GroupSpill spill) {
+        nextSource();
+        return true;
+    }
+
+    /**
+     * Invoked for each group of the partial results of a parallel query to
+     * set up the data of this group, so that the partial results can be
+     * merged into it.
+     *
+     * @param key the key of the group
+     */
+    abstract void nextGroup(ValueRow key);
+
     /**
      * Invoked after all source rows are evaluated.
      */
@@ -24,7 +24,7 @@
  * </li></ul>
  * See also java.util.zip.Deflater for details.
  */
-public class CompressDeflate implements Compressor {
+public class CompressDeflate implements DictionaryCompressor {
 
     private int level = Deflater.DEFAULT_COMPRESSION;
     private int strategy = Deflater.DEFAULT_STRATEGY;
@@ -53,8 +53,16 @@ public void setOptions(String options) {
 
     @Override
     public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+        return compress(in, inPos, inLen, out, outPos, null);
+    }
+
+    @Override
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos, byte[] dictionary) {
         Deflater deflater = new Deflater(level);
         deflater.setStrategy(strategy);
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
         deflater.setInput(in, inPos, inLen);
         deflater.finish();
         int compressed = deflater.deflate(out, outPos, out.length - outPos);
@@ -64,7 +72,7 @@ public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
             // try again, using the default strategy and compression level
             strategy = Deflater.DEFAULT_STRATEGY;
             level = Deflater.DEFAULT_COMPRESSION;
-            return compress(in, inPos, inLen, out, outPos);
+            return compress(in, inPos, inLen, out, outPos, dictionary);
         }
         deflater.end();
         return outPos + compressed;
@@ -78,11 +86,20 @@ public int getAlgorithm() {
     @Override
     public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos,
             int outLen) {
+        expand(in, inPos, inLen, out, outPos, outLen, null);
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen, byte[] dictionary) {
         Inflater decompresser = new Inflater();
         decompresser.setInput(in, inPos, inLen);
         decompresser.finished();
         try {
             int len = decompresser.inflate(out, outPos, outLen);
+            if (len == 0 && dictionary != null && decompresser.needsDictionary()) {
+                decompresser.setDictionary(dictionary);
+                len = decompresser.inflate(out, outPos, outLen);
+            }
             if (len != outLen) {
                 throw new DataFormatException(len + " " + outLen);
             }
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+import java.util.StringTokenizer;
+
+import org.h2.api.ErrorCode;
+import org.h2.mvstore.DataUtils;
+
+/**
+ * <p>
+ * This class implements the LZ4 block format, a Lempel-Ziv variant with
+ * byte-aligned output, which is optimized for decompression speed. Only the
+ * block format is used, there are no frame headers or checksums.
+ * </p>
+ * <p>
+ * This algorithm supports the following options:
+ * </p>
+ * <ul>
+ * <li>high: search a chain of previous positions for the longest match
+ * (similar to LZ4 HC), which compresses better but slower; decompression
+ * speed is not affected</li>
+ * <li>fast: only check the last position with the same hash (default)</li>
+ * </ul>
+ * <p>
+ * A dictionary can be used, which is treated as data preceding the input, so
+ * that back-references may point into it.
+ * </p>
+ * <p>
+ * Safety/Use Notes:
+ * </p>
+ * <ul>
+ * <li>Each instance should be used by a single thread only to compress;
+ * expansion is thread-safe.</li>
+ * <li>Invalid compressed data can cause an ArrayIndexOutOfBoundsException.</li>
+ * </ul>
+ * <p>
+ * The compressed data is a sequence of tokens. The high 4 bits of a token are
+ * the number of literals, the low 4 bits are the match length minus 4. If
+ * all 4 bits are set, the length continues in the next bytes, each of which is
+ * added, until a byte other than 255 is found. The literals follow the
+ * literal length, then the offset of the back-reference follows (2 bytes,
+ * little endian), and then the extension of the match length. The last
+ * sequence only contains literals.
+ * </p>
+ */
+public final class CompressLZ4 implements DictionaryCompressor {
+
+    /**
+     * The minimum length of a match.
+     */
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The number of bytes at the end of the input, which are always literals.
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * The last match must start at least this many bytes before the end.
+     */
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * The maximum offset allowed for a back-reference.
+     */
+    private static final int MAX_OFFSET = 0xffff;
+
+    /**
+     * The maximum value of the length fields of a token.
+     */
+    private static final int RUN_MASK = 15;
+
+    /**
+     * The number of bits of the hash table index.
+     */
+    private static final int HASH_LOG = 12;
+
+    /**
+     * The maximum number of previous positions to check in high compression
+     * mode.
+     */
+    private static final int MAX_ATTEMPTS = 64;
+
+    private boolean high;
+
+    /**
+     * The last position for each hash (reused for performance).
+     */
+    private int[] cachedHashTable;
+
+    /**
+     * The previous position with the same hash for each position, in high
+     * compression mode (reused for performance).
+     */
+    private int[] cachedChainTable;
+
+    /**
+     * Create a new compressor, which uses the fast mode.
+     */
+    public CompressLZ4() {
+        // fast mode
+    }
+
+    /**
+     * Create a new compressor.
+     *
+     * @param high whether to use the high compression mode
+     */
+    public CompressLZ4(boolean high) {
+        this.high = high;
+    }
+
+    @Override
+    public void setOptions(String options) {
+        if (options == null) {
+            return;
+        }
+        StringTokenizer tokenizer = new StringTokenizer(options);
+        while (tokenizer.hasMoreElements()) {
+            String option = tokenizer.nextToken();
+            if ("high".equals(option)) {
+                high = true;
+            } else if ("fast".equals(option)) {
+                high = false;
+            } else {
+                throw DataUtils.newMVStoreException(ErrorCode.UNSUPPORTED_COMPRESSION_OPTIONS_1, options);
+            }
+        }
+    }
+
+    @Override
+    public int getAlgorithm() {
+        return Compressor.LZ4;
+    }
+
+    private static int readInt(byte[] in, int pos) {
+        return (in[pos] << 24) | ((in[pos + 1] & 255) << 16) | ((in[pos + 2] & 255) << 8) | (in[pos + 3] & 255);
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+        return compress(in, inPos, inPos, inLen, out, outPos);
+    }
+
+    @Override
+    public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos, byte[] dictionary) {
+        // the dictionary is a prefix of the input, which is not written
+        byte[] data = new byte[dictionary.length + inLen];
+        System.arraycopy(dictionary, 0, data, 0, dictionary.length);
+        System.arraycopy(in, inPos, data, dictionary.length, inLen);
+        return compress(data, 0, dictionary.length, inLen, out, outPos);
+    }
+
+    /**
+     * Compress a number of bytes, where matches may also refer to the window
+     * of bytes before the input.
+     *
+     * @param in the input data
+     * @param windowPos the start of the window
+     * @param inPos the offset at the input array
+     * @param inLen the number of bytes to compress
+     * @param out the output area
+     * @param outPos the offset at the output array
+     * @return the end position
+     */
+    private int compress(byte[] in, int windowPos, int inPos, int inLen, byte[] out, int outPos) {
+        int end = inPos + inLen;
+        int anchor = inPos;
+        if (inLen > MF_LIMIT) {
+            if (cachedHashTable == null) {
+                cachedHashTable = new int[1 << HASH_LOG];
+            }
+            int[] hashTable = cachedHashTable;
+            int[] chainTable = null;
+            if (high && cachedChainTable == null) {
+                cachedChainTable = new int[MAX_OFFSET + 1];
+            }
+            if (high) {
+                chainTable = cachedChainTable;
+            }
+            // entries of the tables may be left over from earlier calls,
+            // so all candidates are verified
+            int matchLimit = end - LAST_LITERALS;
+            int mfLimit = end - MF_LIMIT;
+            int nextToInsert = windowPos;
+            if (chainTable == null) {
+                for (int p = windowPos; p < inPos; p++) {
+                    hashTable[hash(readInt(in, p))] = p;
+                }
+            }
+            int ip = inPos;
+            while (ip < mfLimit) {
+                int ref = -1;
+                int len = 0;
+                if (chainTable == null) {
+                    int v = readInt(in, ip);
+                    int h = hash(v);
+                    int candidate = hashTable[h];
+                    hashTable[h] = ip;
+                    if (candidate >= windowPos && candidate < ip && ip - candidate <= MAX_OFFSET
+                            && readInt(in, candidate) == v) {
+                        ref = candidate;
+                        len = MIN_MATCH + countEqual(in, ip + MIN_MATCH, candidate + MIN_MATCH, matchLimit);
+                    }
+                } else {
+                    for (; nextToInsert < ip; nextToInsert++) {
+                        int h = hash(readInt(in, nextToInsert));
+                        chainTable[nextToInsert & MAX_OFFSET] = hashTable[h];
+                        hashTable[h] = nextToInsert;
+                    }
+                    int v = readInt(in, ip);
+                    int candidate = hashTable[hash(v)];
+                    for (int attempts = MAX_ATTEMPTS; attempts > 0 && candidate >= windowPos && candidate < ip
+                            && ip - candidate <= MAX_OFFSET; attempts--) {
+                        if (readInt(in, candidate) == v) {
+                            int l = MIN_MATCH + countEqual(in, ip + MIN_MATCH, candidate + MIN_MATCH, matchLimit);
+                            if (l > len) {
+                                len = l;
+                                ref = candidate;
+                            }
+                        }
+                        int next = chainTable[candidate & MAX_OFFSET];
+                        if (next >= candidate) {
+                            break;
+                        }
+                        candidate = next;
+                    }
+                }
+                if (len == 0) {
+                    // skip faster over data that does not compress
+                    ip += chainTable == null ? 1 + ((ip - anchor) >>> 6) : 1;
+                    continue;
+                }
+                // extend the match backwards
+                while (ip > anchor && ref > windowPos && in[ip - 1] == in[ref - 1]) {
+                    ip--;
+                    ref--;
+                    len++;
+                }
+                outPos = writeSequence(in, anchor, ip - anchor, ip - ref, len, out, outPos);
+                ip += len;
+                anchor = ip;
+                if (chainTable == null && ip < mfLimit) {
+                    hashTable[hash(readInt(in, ip - 2))] = ip - 2;
+                }
+            }
+        }
+        // the last literals
+        int literals = end - anchor;
+        int tokenPos = outPos++;
+        if (literals >= RUN_MASK) {
+            out[tokenPos] = (byte) (RUN_MASK << 4);
+            outPos = writeLength(literals - RUN_MASK, out, outPos);
+        } else {
+            out[tokenPos] = (byte) (literals << 4);
+        }
+        System.arraycopy(in, anchor, out, outPos, literals);
+        return outPos + literals;
+    }
+
+    private static int countEqual(byte[] in, int pos, int ref, int limit) {
+        int start = pos;
+        while (pos < limit && in[pos] == in[ref]) {
+            pos++;
+            ref++;
+        }
+        return pos - start;
+    }
+
+    private static int writeSequence(byte[] in, int literalPos, int literals, int offset, int matchLen,
+            byte[] out, int outPos) {
+        int tokenPos = outPos++;
+        int token;
+        if (literals >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            outPos = writeLength(literals - RUN_MASK, out, outPos);
+        } else {
+            token = literals << 4;
+        }
+        System.arraycopy(in, literalPos, out, outPos, literals);
+        outPos += literals;
+        out[outPos++] = (byte) offset;
+        out[outPos++] = (byte) (offset >>> 8);
+        int len = matchLen - MIN_MATCH;
+        if (len >= RUN_MASK) {
+            token |= RUN_MASK;
+            outPos = writeLength(len - RUN_MASK, out, outPos);
+        } else {
+            token |= len;
+        }
+        out[tokenPos] = (byte) token;
+        return outPos;
+    }
+
+    private static int writeLength(int len, byte[] out, int outPos) {
+        for (; len >= 255; len -= 255) {
+            out[outPos++] = (byte) 255;
+        }
+        out[outPos++] = (byte) len;
+        return outPos;
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+        expand(in, inPos, inLen, out, outPos, outPos, outLen);
+    }
+
+    @Override
+    public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen, byte[] dictionary) {
+        byte[] data = new byte[dictionary.length + outLen];
+        System.arraycopy(dictionary, 0, data, 0, dictionary.length);
+        expand(in, inPos, inLen, data, 0, dictionary.length, outLen);
+        System.arraycopy(data, dictionary.length, out, outPos, outLen);
+    }
+
+    private static void expand(byte[] in, int inPos, int inLen, byte[] out, int windowPos, int outPos,
+            int outLen) {
+        int inEnd = inPos + inLen;
+        int outStart = outPos;
+        while (true) {
+            int token = in[inPos++] & 255;
+            int literals = token >>> 4;
+            if (literals == RUN_MASK) {
+                int b;
+                do {
+                    b = in[inPos++] & 255;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(in, inPos, out, outPos, literals);
+            inPos += literals;
+            outPos += literals;
+            if (inPos >= inEnd) {
+                break;
+            }
+            int offset = (in[inPos++] & 255) | ((in[inPos++] & 255) << 8);
+            int len = token & RUN_MASK;
+            if (len == RUN_MASK) {
+                int b;
+                do {
+                    b = in[inPos++] & 255;
+                    len += b;
+                } while (b == 255);
+            }
+            len += MIN_MATCH;
+            int ref = outPos - offset;
+            if (offset == 0 || ref < windowPos) {
+                throw DataUtils.newMVStoreException(ErrorCode.COMPRESSION_ERROR, "Invalid offset {0}", offset);
+            }
+            if (offset >= len) {
+                System.arraycopy(out, ref, out, outPos, len);
+                outPos += len;
+            } else {
+                // overlapping copy, repeats the last offset bytes
+                for (int i = 0; i < len; i++) {
+                    out[outPos++] = out[ref++];
+                }
+            }
+        }
+        if (outPos - outStart != outLen) {
+            throw DataUtils.newMVStoreException(ErrorCode.COMPRESSION_ERROR,
+                    "Expected length {0}, got {1}", outLen, outPos - outStart);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+import org.h2.util.StringUtils;
+
+/**
+ * The registry of compression algorithms. Each codec has a name, which is
+ * used in settings, and the algorithm number of the compressed format, which
+ * is stored with the compressed data. Several codecs may share a compressed
+ * format, for example LZ4 and LZ4HC, which only differ in the effort to find
+ * matches.
+ * <p>
+ * Additional codecs can be registered by applications. They must be
+ * registered before data compressed with them is read.
+ * </p>
+ */
+public final class CompressorRegistry {
+
+    private static final ConcurrentHashMap<String, Supplier<Compressor>> CODECS = new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<Integer, Supplier<Compressor>> FORMATS = new ConcurrentHashMap<>();
+
+    /**
+     * The compressors to expand data that are not in use, by algorithm.
+     */
+    private static final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Compressor>> EXPANDERS =
+            new ConcurrentHashMap<>();
+
+    static {
+        register("NO", CompressNo::new);
+        register("LZF", CompressLZF::new);
+        register("DEFLATE", CompressDeflate::new);
+        register("LZ4", CompressLZ4::new);
+        register("LZ4HC", () -> new CompressLZ4(true));
+    }
+
+    private CompressorRegistry() {
+        // utility class
+    }
+
+    /**
+     * Register a codec. The first codec registered for an algorithm number is
+     * used to expand data of this algorithm. The compressors created by the
+     * factory do not need to be thread-safe: each one is only used by one
+     * thread at a time, but may be reused by other threads afterwards.
+     *
+     * @param name the name of the codec (case insensitive)
+     * @param factory the factory, which creates a new compressor
+     * @throws IllegalArgumentException if a codec with this name is already
+     *             registered
+     */
+    public static void register(String name, Supplier<Compressor> factory) {
+        name = StringUtils.toUpperEnglish(name);
+        if (CODECS.putIfAbsent(name, factory) != null) {
+            throw new IllegalArgumentException("Compression algorithm " + name + " is already registered");
+        }
+        FORMATS.putIfAbsent(factory.get().getAlgorithm(), factory);
+    }
+
+    /**
+     * Get the algorithm number of the codec with the given name.
+     *
+     * @param name the name of the codec (case insensitive)
+     * @return the algorithm number, or -1 if no such codec is registered
+     */
+    public static int getAlgorithm(String name) {
+        Compressor compressor = getCompressor(name);
+        return compressor == null ? -1 : compressor.getAlgorithm();
+    }
+
+    /**
+     * Create a new compressor for the codec with the given name.
+     *
+     * @param name the name of the codec (case insensitive)
+     * @return the new compressor, or null if no such codec is registered
+     */
+    public static Compressor getCompressor(String name) {
+        Supplier<Compressor> factory = CODECS.get(StringUtils.toUpperEnglish(name));
+        return factory == null ? null : factory.get();
+    }
+
+    /**
+     * Create a new compressor for the given algorithm number.
+     *
+     * @param algorithm the algorithm number
+     * @return the new compressor, or null if the algorithm is unknown
+     */
+    public static Compressor getCompressor(int algorithm) {
+        Supplier<Compressor> factory = FORMATS.get(algorithm);
+        return factory == null ? null : factory.get();
+    }
+
+    /**
+     * Get a compressor to expand data of the given algorithm. A compressor
+     * that was released before is reused. The caller has to release it with
+     * {@link #releaseExpander(Compressor)} after use, and may not use it
+     * afterwards.
+     *
+     * @param algorithm the algorithm number
+     * @return the compressor, or null if the algorithm is unknown
+     */
+    public static Compressor acquireExpander(int algorithm) {
+        ConcurrentLinkedQueue<Compressor> queue = EXPANDERS.get(algorithm);
+        Compressor expander = queue == null ? null : queue.poll();
+        return expander != null ? expander : getCompressor(algorithm);
+    }
+
+    /**
+     * Release a compressor acquired with {@link #acquireExpander(int)}, so
+     * that it can be reused by another thread.
+     *
+     * @param expander the compressor
+     */
+    public static void releaseExpander(Compressor expander) {
+        EXPANDERS.computeIfAbsent(expander.getAlgorithm(), k -> new ConcurrentLinkedQueue<>()).offer(expander);
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+/**
+ * A compression algorithm, which can use a dictionary with data that is
+ * likely to occur in the input.
+ */
+public interface DictionaryCompressor extends Compressor {
+
+    /**
+     * Compress a number of bytes, using a dictionary. The same dictionary is
+     * required to expand the data.
+     *
+     * @param in the input data
+     * @param inPos the offset at the input array
+     * @param inLen the number of bytes to compress
+     * @param out the output area
+     * @param outPos the offset at the output array
+     * @param dictionary the dictionary
+     * @return the end position
+     */
+    int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos, byte[] dictionary);
+
+    /**
+     * Expand a number of bytes, which were compressed using a dictionary.
+     *
+     * @param in the compressed data
+     * @param inPos the offset at the input array
+     * @param inLen the number of bytes to read
+     * @param out the output area
+     * @param outPos the offset at the output array
+     * @param outLen the size of the uncompressed data
+     * @param dictionary the dictionary used to compress the data
+     */
+    void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen, byte[] dictionary);
+
+}
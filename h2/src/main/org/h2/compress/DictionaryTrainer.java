@@ -0,0 +1,156 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.compress;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds a compression dictionary from sample data. The samples are split into
+ * segments, and the segments containing the byte sequences, which occur in the
+ * most samples, are selected greedily. Sequences of a selected segment no
+ * longer count for other segments, so that the dictionary does not contain
+ * the same data twice. The best segments are placed at the end of the
+ * dictionary, that is, nearest to the data to compress.
+ */
+public final class DictionaryTrainer {
+
+    /**
+     * The length of the byte sequences, which are counted.
+     */
+    private static final int SEQUENCE_LENGTH = 6;
+
+    /**
+     * The length of a segment.
+     */
+    private static final int SEGMENT_LENGTH = 64;
+
+    /**
+     * The number of bits of the frequency table index.
+     */
+    private static final int HASH_LOG = 18;
+
+    private DictionaryTrainer() {
+        // utility class
+    }
+
+    /**
+     * Build a dictionary.
+     *
+     * @param samples the sample data
+     * @param maxSize the maximum size of the dictionary
+     * @return the dictionary, which may be shorter than the maximum size,
+     *         or empty if the samples do not have anything in common
+     */
+    public static byte[] train(List<byte[]> samples, int maxSize) {
+        // the number of samples each sequence occurs in (hashes may collide,
+        // which only affects the quality of the dictionary)
+        int[] frequency = new int[1 << HASH_LOG];
+        int[] lastSeen = new int[1 << HASH_LOG];
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + SEQUENCE_LENGTH <= sample.length; i++) {
+                int h = hash(sample, i);
+                if (lastSeen[h] != s + 1) {
+                    lastSeen[h] = s + 1;
+                    frequency[h]++;
+                }
+            }
+        }
+        PriorityQueue<Segment> queue = new PriorityQueue<>();
+        int stamp = 0;
+        for (byte[] sample : samples) {
+            for (int start = 0; start + SEQUENCE_LENGTH <= sample.length; start += SEGMENT_LENGTH) {
+                Segment segment = new Segment(sample, start, Math.min(start + SEGMENT_LENGTH, sample.length));
+                segment.score = segment.score(frequency, lastSeen, --stamp);
+                if (segment.score > 0) {
+                    queue.add(segment);
+                }
+            }
+        }
+        byte[] dictionary = new byte[maxSize];
+        int pos = maxSize;
+        while (pos > 0 && !queue.isEmpty()) {
+            Segment best = queue.poll();
+            // scores only decrease, so a stale score is an upper bound
+            long score = best.score(frequency, lastSeen, --stamp);
+            if (score <= 0) {
+                continue;
+            }
+            Segment next = queue.peek();
+            if (next != null && score < next.score) {
+                best.score = score;
+                queue.add(best);
+                continue;
+            }
+            int len = Math.min(best.end - best.start, pos);
+            pos -= len;
+            System.arraycopy(best.data, best.end - len, dictionary, pos, len);
+            for (int i = best.start; i + SEQUENCE_LENGTH <= best.end; i++) {
+                frequency[hash(best.data, i)] = 0;
+            }
+        }
+        byte[] result = new byte[maxSize - pos];
+        System.arraycopy(dictionary, pos, result, 0, result.length);
+        return result;
+    }
+
+    private static int hash(byte[] data, int pos) {
+        long v = 0;
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            v = (v << 8) | (data[pos + i] & 255);
+        }
+        return (int) ((v * 0x9E3779B97F4A7C15L) >>> (64 - HASH_LOG));
+    }
+
+    /**
+     * A candidate segment of a sample.
+     */
+    private static final class Segment implements Comparable<Segment> {
+
+        final byte[] data;
+        final int start;
+        final int end;
+        long score;
+
+        Segment(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Calculate the score of this segment, which is the sum of the
+         * frequencies of the distinct sequences, which occur in more than one
+         * sample.
+         *
+         * @param frequency the frequencies
+         * @param lastSeen the markers of sequences already counted
+         * @param stamp the marker for this calculation
+         * @return the score
+         */
+        long score(int[] frequency, int[] lastSeen, int stamp) {
+            long result = 0;
+            for (int i = start; i + SEQUENCE_LENGTH <= end; i++) {
+                int h = hash(data, i);
+                if (lastSeen[h] != stamp) {
+                    lastSeen[h] = stamp;
+                    int f = frequency[h];
+                    if (f > 1) {
+                        result += f;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int compareTo(Segment o) {
+            return Long.compare(o.score, score);
+        }
+    }
+
+}
@@ -198,6 +198,25 @@ public class Constants {
      */
     public static final int COST_ROW_OFFSET = 1000;
 
+    /**
+     * The minimum estimated number of rows of a table to consider a hash join
+     * or a merge join for it. For a smaller table, this is about as fast as
+     * scanning it or searching its indexes.
+     */
+    public static final int JOIN_INDEX_MIN_ROWS = 1000;
+
+    /**
+     * The minimum estimated number of rows that each thread of a parallel
+     * query should read. Smaller tables are read by fewer threads.
+     */
+    public static final int PARALLEL_MIN_ROWS = 10_000;
+
+    /**
+     * The number of rows that are read and evaluated together in the batch
+     * execution mode.
+     */
+    public static final int BATCH_SIZE = 1024;
+
     /**
      * The number of milliseconds after which to check for a deadlock if locking
      * is not successful.
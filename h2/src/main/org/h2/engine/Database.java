@@ -1052,6 +1052,22 @@ private SessionLocal createSession(User user) {
         return new SessionLocal(this, user, id);
     }
 
+    /**
+     * Create a session that evaluates expressions of a query of the given
+     * session in another thread. It has the same user and time zone, but it
+     * is not a user session of the database and does not need to be closed.
+     * It must not be used to access tables, as it would start its own
+     * transaction.
+     *
+     * @param session the session of the query
+     * @return the new session
+     */
+    public synchronized SessionLocal createWorkerSession(SessionLocal session) {
+        SessionLocal workerSession = createSession(session.getUser());
+        workerSession.setTimeZone(session.currentTimeZone());
+        return workerSession;
+    }
+
     /**
      * Remove a session. This method is called after the user has disconnected.
      *
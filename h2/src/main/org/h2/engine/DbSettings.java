@@ -65,6 +65,25 @@ public class DbSettings extends SettingsBase {
      */
     public final int autoCompactFillRate = get("AUTO_COMPACT_FILL_RATE", 90);
 
+    /**
+     * Database setting <code>AUTO_COMPACT_MAX_PAUSE</code> (default: 50).<br />
+     * The maximum time in milliseconds a single step of the throttled
+     * background compaction should block writers. Only used if
+     * AUTO_COMPACT_RATE is set.<br />
+     * This setting only affects MVStore engine.
+     */
+    public final int autoCompactMaxPause = get("AUTO_COMPACT_MAX_PAUSE", 50);
+
+    /**
+     * Database setting <code>AUTO_COMPACT_RATE</code> (default: 0).<br />
+     * The maximum number of KB per second the background compaction may
+     * write. If set, the database file is compacted continuously in small
+     * steps, which are skipped while commits are slower than usual, instead
+     * of in bursts. The default is 0, meaning compaction is not throttled.<br />
+     * This setting only affects MVStore engine.
+     */
+    public final int autoCompactRate = get("AUTO_COMPACT_RATE", 0);
+
     /**
      * Database setting <code>DATABASE_TO_LOWER</code> (default: false).<br />
      * When set to true unquoted identifiers and short name of database are
@@ -80,6 +99,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean databaseToUpper;
 
+    /**
+     * Database setting <code>CACHE_READ_BUFFER_SIZE</code> (default: 0).<br />
+     * The number of page cache reads per cache segment, which are buffered,
+     * so that concurrent reads of the page cache do not need locking. The
+     * value must be 0 or a power of 2. The default is 0, meaning reads are
+     * synchronized.
+     */
+    public final int cacheReadBufferSize = get("CACHE_READ_BUFFER_SIZE", 0);
+
     /**
      * Database setting <code>CASE_INSENSITIVE_IDENTIFIERS</code> (default:
      * false).<br />
@@ -88,6 +116,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean caseInsensitiveIdentifiers = get("CASE_INSENSITIVE_IDENTIFIERS", false);
 
+    /**
+     * Database setting <code>CREATE_INDEX_THREADS</code> (default: 4).<br />
+     * The maximum number of threads that read and sort the rows of a large
+     * table in parallel when an index is created. The number of available
+     * processors is used if it is lower. Set to 1 to read the rows in the
+     * calling thread only.
+     */
+    public final int createIndexThreads = get("CREATE_INDEX_THREADS", 4);
+
     /**
      * Database setting <code>DB_CLOSE_ON_EXIT</code> (default: true).<br />
      * Close the database when the virtual machine exits normally, using a
@@ -136,6 +173,21 @@ public class DbSettings extends SettingsBase {
     public final int estimatedFunctionTableRows = get(
             "ESTIMATED_FUNCTION_TABLE_ROWS", 1000);
 
+    /**
+     * Database setting <code>GROUP_COMMIT_MAX_BATCH</code> (default: 0).<br />
+     * The maximum number of concurrently committing transactions, which share
+     * a single write and sync of the database file. The default is 0, meaning
+     * group commit is disabled.
+     */
+    public final int groupCommitMaxBatch = get("GROUP_COMMIT_MAX_BATCH", 0);
+
+    /**
+     * Database setting <code>GROUP_COMMIT_MAX_WAIT</code> (default: 1000).<br />
+     * The maximum time in microseconds a committing transaction waits for
+     * other transactions to join its group commit batch.
+     */
+    public final int groupCommitMaxWait = get("GROUP_COMMIT_MAX_WAIT", 1000);
+
     /**
      * Database setting <code>LOB_TIMEOUT</code> (default: 300000,
      * which means 5 minutes).<br />
@@ -145,6 +197,13 @@ public class DbSettings extends SettingsBase {
      */
     public final int lobTimeout = get("LOB_TIMEOUT", 300_000);
 
+    /**
+     * Database setting <code>MAPPED_READS</code> (default: false).<br />
+     * Read the database file from memory mapped segments instead of using
+     * positional reads. This has no effect for encrypted databases.
+     */
+    public final boolean mappedReads = get("MAPPED_READS", false);
+
     /**
      * Database setting <code>MAX_COMPACT_TIME</code> (default: 200).<br />
      * The maximum time in milliseconds used to compact a database when closing.
@@ -159,6 +218,14 @@ public class DbSettings extends SettingsBase {
      */
     public final int maxQueryTimeout = get("MAX_QUERY_TIMEOUT", 0);
 
+    /**
+     * Database setting <code>OFF_HEAP_CACHE_SIZE</code> (default: 0).<br />
+     * The size in MB of the cache of serialized pages in direct memory, which
+     * is used in addition to the page cache. The default is 0, meaning this
+     * cache is disabled.
+     */
+    public final int offHeapCacheSize = get("OFF_HEAP_CACHE_SIZE", 0);
+
     /**
      * Database setting <code>OPTIMIZE_DISTINCT</code> (default: true).<br />
      * Improve the performance of simple DISTINCT queries if an index is
@@ -181,6 +248,14 @@ public class DbSettings extends SettingsBase {
     public final boolean optimizeEvaluatableSubqueries = get(
             "OPTIMIZE_EVALUATABLE_SUBQUERIES", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_HASH_JOIN</code> (default: true).<br />
+     * Join a large table with a hash table on the join columns if there is no
+     * usable index on these columns, and the table is not larger than the
+     * preceding tables of the join.
+     */
+    public final boolean optimizeHashJoin = get("OPTIMIZE_HASH_JOIN", true);
+
     /**
      * Database setting <code>OPTIMIZE_INSERT_FROM_SELECT</code>
      * (default: true).<br />
@@ -204,6 +279,14 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeInSelect = get("OPTIMIZE_IN_SELECT", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_MERGE_JOIN</code> (default: true).<br />
+     * Join a table with the first table of a join by continuing the lookups in
+     * a sorted index, if the first table is read in the order of the join
+     * column.
+     */
+    public final boolean optimizeMergeJoin = get("OPTIMIZE_MERGE_JOIN", true);
+
     /**
      * Database setting <code>OPTIMIZE_OR</code> (default: true).<br />
      * Convert (C=? OR C=?) to (C IN(?, ?)).
@@ -275,6 +358,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean compressData = get("COMPRESS", false);
 
+    /**
+     * Database setting <code>COMPRESS_KEYS</code>
+     * (default: false).<br />
+     * Store the sorted keys of a page without the prefix they have in common
+     * with the previous key. Database files written with this setting can not
+     * be opened by older versions.
+     */
+    public final boolean compressKeys = get("COMPRESS_KEYS", false);
+
     /**
      * Database setting <code>IGNORE_CATALOGS</code>
      * (default: false).<br />
@@ -231,6 +231,16 @@ private static final class RowNumberAndValue {
      */
     private boolean truncateLargeLength;
 
+    /**
+     * The maximum number of threads that may execute one query.
+     */
+    private int maxParallelWorkers = 1;
+
+    /**
+     * Whether queries are executed in batches of rows where possible.
+     */
+    private boolean batchExecution;
+
     /**
      * Whether BINARY is parsed as VARBINARY.
      */
@@ -2025,6 +2035,47 @@ public boolean isTruncateLargeLength() {
         return truncateLargeLength;
     }
 
+    /**
+     * Changes the maximum number of threads that may execute one query.
+     *
+     * @param maxParallelWorkers
+     *            the maximum number of threads, {@code 1} to execute all
+     *            queries in the thread of the caller
+     */
+    public void setMaxParallelWorkers(int maxParallelWorkers) {
+        this.maxParallelWorkers = maxParallelWorkers;
+    }
+
+    /**
+     * Returns the maximum number of threads that may execute one query.
+     *
+     * @return the maximum number of threads
+     */
+    public int getMaxParallelWorkers() {
+        return maxParallelWorkers;
+    }
+
+    /**
+     * Changes the batch execution mode.
+     *
+     * @param batchExecution
+     *            {@code true} to evaluate the conditions and aggregates of
+     *            queries over one table for batches of rows where possible,
+     *            {@code false} to evaluate them for each row
+     */
+    public void setBatchExecution(boolean batchExecution) {
+        this.batchExecution = batchExecution;
+    }
+
+    /**
+     * Returns the batch execution mode.
+     *
+     * @return whether queries are executed in batches of rows where possible
+     */
+    public boolean isBatchExecution() {
+        return batchExecution;
+    }
+
     /**
      * Changes parsing of a BINARY data type.
      *
@@ -9,6 +9,7 @@
 import org.h2.expression.IntervalOperation.IntervalOpType;
 import org.h2.expression.function.DateTimeFunction;
 import org.h2.message.DbException;
+import org.h2.table.RowBatch;
 import org.h2.value.DataType;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
@@ -125,6 +126,106 @@ public Value getValue(SessionLocal session) {
         }
     }
 
+    @Override
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        int valueType = type.getValueType();
+        boolean floatingPoint = valueType == Value.DOUBLE;
+        if (!convertRight || !floatingPoint && !ValueVector.isInteger(valueType)) {
+            return null;
+        }
+        ValueVector l = left.getVector(session, batch);
+        if (l == null || !isNumeric(l, floatingPoint)) {
+            return null;
+        }
+        ValueVector r = right.getVector(session, batch);
+        if (r == null || !isNumeric(r, floatingPoint)) {
+            return null;
+        }
+        int size = batch.size();
+        ValueVector result = new ValueVector(valueType, size);
+        boolean lFloatingPoint = ValueVector.isFloatingPoint(l.getValueType()),
+                rFloatingPoint = ValueVector.isFloatingPoint(r.getValueType());
+        for (int i = 0; i < size; i++) {
+            if (l.isNull(i) || r.isNull(i)) {
+                result.setNull(i);
+            } else if (floatingPoint) {
+                double x = lFloatingPoint ? l.getDouble(i) : l.getLong(i);
+                double y = rFloatingPoint ? r.getDouble(i) : r.getLong(i);
+                double z;
+                switch (opType) {
+                case PLUS:
+                    z = x + y;
+                    break;
+                case MINUS:
+                    z = x - y;
+                    break;
+                case MULTIPLY:
+                    z = x * y;
+                    break;
+                default:
+                    if (y == 0d) {
+                        // division by zero is reported in row mode
+                        return null;
+                    }
+                    z = x / y;
+                }
+                result.setDouble(i, z);
+            } else {
+                long x = l.getLong(i), y = r.getLong(i), z;
+                switch (opType) {
+                case PLUS:
+                    z = x + y;
+                    if (((x ^ z) & (y ^ z)) < 0) {
+                        return null;
+                    }
+                    break;
+                case MINUS:
+                    z = x - y;
+                    if (((x ^ y) & (x ^ z)) < 0) {
+                        return null;
+                    }
+                    break;
+                case MULTIPLY:
+                    try {
+                        z = Math.multiplyExact(x, y);
+                    } catch (ArithmeticException e) {
+                        return null;
+                    }
+                    break;
+                default:
+                    if (y == 0 || x == Long.MIN_VALUE && y == -1) {
+                        return null;
+                    }
+                    z = x / y;
+                }
+                if (!isInRange(x, valueType) || !isInRange(y, valueType) || !isInRange(z, valueType)) {
+                    // overflows are reported in row mode
+                    return null;
+                }
+                result.setLong(i, z);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isNumeric(ValueVector v, boolean floatingPoint) {
+        int t = v.getValueType();
+        return ValueVector.isInteger(t) || floatingPoint && ValueVector.isFloatingPoint(t);
+    }
+
+    private static boolean isInRange(long x, int valueType) {
+        switch (valueType) {
+        case Value.TINYINT:
+            return (byte) x == x;
+        case Value.SMALLINT:
+            return (short) x == x;
+        case Value.INTEGER:
+            return (int) x == x;
+        default:
+            return true;
+        }
+    }
+
     @Override
     public Expression optimize(SessionLocal session) {
         left = left.optimize(session);
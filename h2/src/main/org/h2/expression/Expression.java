@@ -13,6 +13,7 @@
 import org.h2.message.DbException;
 import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
+import org.h2.table.RowBatch;
 import org.h2.table.TableFilter;
 import org.h2.util.HasSQL;
 import org.h2.util.StringUtils;
@@ -331,6 +332,19 @@ public boolean getBooleanValue(SessionLocal session) {
         return getValue(session).isTrue();
     }
 
+    /**
+     * Evaluate this expression for all rows of a batch at once. The current
+     * row of the table filter is not set while this method is called.
+     *
+     * @param session the session
+     * @param batch the batch of rows
+     * @return the values, or null if this expression can not be evaluated
+     *         for these rows in batch mode, and must be evaluated for each row
+     */
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        return null;
+    }
+
     /**
      * Create index conditions if possible and attach them to the table filter.
      *
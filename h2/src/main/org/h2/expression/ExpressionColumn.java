@@ -20,6 +20,7 @@
 import org.h2.schema.Schema;
 import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
+import org.h2.table.RowBatch;
 import org.h2.table.Table;
 import org.h2.table.TableFilter;
 import org.h2.util.ParserUtil;
@@ -298,6 +299,11 @@ public Value getValue(SessionLocal session) {
         return value;
     }
 
+    @Override
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        return columnResolver == batch.getFilter() ? batch.getColumn(column) : null;
+    }
+
     @Override
     public TypeInfo getType() {
         return column != null ? column.getType() : rowId ? TypeInfo.TYPE_BIGINT : TypeInfo.TYPE_UNKNOWN;
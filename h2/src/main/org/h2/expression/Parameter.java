@@ -10,6 +10,7 @@
 import org.h2.expression.condition.Comparison;
 import org.h2.message.DbException;
 import org.h2.table.Column;
+import org.h2.table.RowBatch;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
 import org.h2.value.ValueNull;
@@ -58,6 +59,11 @@ public Value getValue(SessionLocal session) {
         return getParamValue();
     }
 
+    @Override
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        return ValueVector.get(getParamValue(), batch.size());
+    }
+
     @Override
     public TypeInfo getType() {
         if (value != null) {
@@ -9,6 +9,7 @@
 import org.h2.expression.condition.Comparison;
 import org.h2.index.IndexCondition;
 import org.h2.message.DbException;
+import org.h2.table.RowBatch;
 import org.h2.table.TableFilter;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
@@ -95,6 +96,11 @@ public Value getValue(SessionLocal session) {
         return value;
     }
 
+    @Override
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        return ValueVector.get(value, batch.size());
+    }
+
     @Override
     public TypeInfo getType() {
         return value.getType();
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.expression;
+
+import org.h2.value.Value;
+import org.h2.value.ValueBigint;
+import org.h2.value.ValueBoolean;
+import org.h2.value.ValueDouble;
+import org.h2.value.ValueInteger;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueReal;
+import org.h2.value.ValueSmallint;
+import org.h2.value.ValueTinyint;
+
+/**
+ * The values of an expression for a batch of rows. The values are stored as
+ * primitives: the values of integer and boolean data types in an array of
+ * longs, and the values of floating point data types in an array of doubles.
+ * NULL values are marked in a bitmap.
+ */
+public final class ValueVector {
+
+    private final int valueType;
+
+    private final int size;
+
+    private final long[] longs;
+
+    private final double[] doubles;
+
+    /**
+     * The bitmap of NULL values, or null if there are none.
+     */
+    private long[] nulls;
+
+    /**
+     * Create a vector of values. All values are initially 0 or FALSE.
+     *
+     * @param valueType the data type of the values
+     * @param size the number of values
+     */
+    public ValueVector(int valueType, int size) {
+        this.valueType = valueType;
+        this.size = size;
+        if (isFloatingPoint(valueType)) {
+            longs = null;
+            doubles = new double[size];
+        } else {
+            longs = new long[size];
+            doubles = null;
+        }
+    }
+
+    /**
+     * Check whether values of the given data type can be stored in a vector.
+     *
+     * @param valueType the data type
+     * @return true if they can be stored
+     */
+    public static boolean isSupported(int valueType) {
+        switch (valueType) {
+        case Value.BOOLEAN:
+        case Value.TINYINT:
+        case Value.SMALLINT:
+        case Value.INTEGER:
+        case Value.BIGINT:
+        case Value.REAL:
+        case Value.DOUBLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Check whether values of the given data type are stored as integers.
+     *
+     * @param valueType the data type
+     * @return true for TINYINT, SMALLINT, INTEGER, and BIGINT
+     */
+    public static boolean isInteger(int valueType) {
+        return valueType >= Value.TINYINT && valueType <= Value.BIGINT;
+    }
+
+    /**
+     * Check whether values of the given data type are stored as doubles.
+     *
+     * @param valueType the data type
+     * @return true for REAL and DOUBLE
+     */
+    public static boolean isFloatingPoint(int valueType) {
+        return valueType == Value.REAL || valueType == Value.DOUBLE;
+    }
+
+    /**
+     * Create a vector where all values are the same.
+     *
+     * @param v the value
+     * @param size the number of values
+     * @return the vector, or null if the value can not be stored in a vector
+     */
+    public static ValueVector get(Value v, int size) {
+        int type = v.getValueType();
+        if (type == Value.NULL) {
+            // NULL of unknown data type
+            type = Value.BOOLEAN;
+        } else if (!isSupported(type)) {
+            return null;
+        }
+        ValueVector vector = new ValueVector(type, size);
+        for (int i = 0; i < size; i++) {
+            vector.set(i, v);
+        }
+        return vector;
+    }
+
+    /**
+     * Check whether the values of this and another vector can be compared
+     * with each other as primitives.
+     *
+     * @param other the other vector
+     * @return true if they can be compared
+     */
+    public boolean isComparable(ValueVector other) {
+        int t = other.valueType;
+        if (valueType == Value.BOOLEAN || t == Value.BOOLEAN) {
+            return valueType == t;
+        }
+        return isFloatingPoint(valueType) == isFloatingPoint(t);
+    }
+
+    public int getValueType() {
+        return valueType;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether the value at the given position is NULL.
+     *
+     * @param i the position
+     * @return true if it is NULL
+     */
+    public boolean isNull(int i) {
+        return nulls != null && (nulls[i >>> 6] & 1L << i) != 0;
+    }
+
+    /**
+     * Check whether the value at the given position is TRUE.
+     *
+     * @param i the position
+     * @return true if it is not NULL and not 0
+     */
+    public boolean isTrue(int i) {
+        return longs[i] != 0 && !isNull(i);
+    }
+
+    /**
+     * Check whether the value at the given position is FALSE.
+     *
+     * @param i the position
+     * @return true if it is 0
+     */
+    public boolean isFalse(int i) {
+        return longs[i] == 0 && !isNull(i);
+    }
+
+    /**
+     * Mark the value at the given position as NULL.
+     *
+     * @param i the position
+     */
+    public void setNull(int i) {
+        if (nulls == null) {
+            nulls = new long[(size + 63) >>> 6];
+        }
+        nulls[i >>> 6] |= 1L << i;
+    }
+
+    public long getLong(int i) {
+        return longs[i];
+    }
+
+    public void setLong(int i, long x) {
+        longs[i] = x;
+    }
+
+    public double getDouble(int i) {
+        return doubles[i];
+    }
+
+    /**
+     * Set a floating point value. Negative zero is stored as zero, as in
+     * {@link ValueDouble#get(double)}.
+     *
+     * @param i the position
+     * @param x the value
+     */
+    public void setDouble(int i, double x) {
+        doubles[i] = x == 0d ? 0d : x;
+    }
+
+    /**
+     * Set the value at the given position.
+     *
+     * @param i the position
+     * @param v the value, which must be NULL or of the data type of this
+     *            vector
+     */
+    public void set(int i, Value v) {
+        if (v == ValueNull.INSTANCE) {
+            setNull(i);
+        } else if (doubles != null) {
+            doubles[i] = v.getDouble();
+        } else if (valueType == Value.BOOLEAN) {
+            longs[i] = v.getBoolean() ? 1 : 0;
+        } else {
+            longs[i] = v.getLong();
+        }
+    }
+
+    /**
+     * Get the value at the given position.
+     *
+     * @param i the position
+     * @return the value
+     */
+    public Value getValue(int i) {
+        if (isNull(i)) {
+            return ValueNull.INSTANCE;
+        }
+        switch (valueType) {
+        case Value.BOOLEAN:
+            return ValueBoolean.get(longs[i] != 0);
+        case Value.TINYINT:
+            return ValueTinyint.get((byte) longs[i]);
+        case Value.SMALLINT:
+            return ValueSmallint.get((short) longs[i]);
+        case Value.INTEGER:
+            return ValueInteger.get((int) longs[i]);
+        case Value.BIGINT:
+            return ValueBigint.get(longs[i]);
+        case Value.REAL:
+            return ValueReal.get((float) doubles[i]);
+        default:
+            return ValueDouble.get(doubles[i]);
+        }
+    }
+
+    /**
+     * Compute the boolean AND or OR of two vectors of boolean values, with the
+     * same rules for NULL values as for single values.
+     *
+     * @param a the first vector
+     * @param b the second vector
+     * @param and true for AND, false for OR
+     * @return the result, or null if one of the vectors is not boolean
+     */
+    public static ValueVector andOr(ValueVector a, ValueVector b, boolean and) {
+        if (a.valueType != Value.BOOLEAN || b.valueType != Value.BOOLEAN) {
+            return null;
+        }
+        int size = a.size;
+        ValueVector result = new ValueVector(Value.BOOLEAN, size);
+        // FALSE for AND and TRUE for OR decide the result
+        long decisive = and ? 0 : 1;
+        for (int i = 0; i < size; i++) {
+            boolean aNull = a.isNull(i), bNull = b.isNull(i);
+            if (!aNull && a.longs[i] == decisive || !bNull && b.longs[i] == decisive) {
+                result.longs[i] = decisive;
+            } else if (aNull || bNull) {
+                result.setNull(i);
+            } else {
+                result.longs[i] = 1 - decisive;
+            }
+        }
+        return result;
+    }
+
+}
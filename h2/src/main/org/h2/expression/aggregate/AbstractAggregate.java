@@ -70,6 +70,15 @@ public void setFilterCondition(Expression filterCondition) {
         this.filterCondition = filterCondition;
     }
 
+    /**
+     * Returns the FILTER condition.
+     *
+     * @return the FILTER condition, or {@code null}
+     */
+    public Expression getFilterCondition() {
+        return filterCondition;
+    }
+
     @Override
     public TypeInfo getType() {
         return type;
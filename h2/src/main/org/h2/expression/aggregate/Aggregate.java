@@ -27,6 +27,7 @@
 import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.ExpressionWithFlags;
 import org.h2.expression.ValueExpression;
+import org.h2.expression.ValueVector;
 import org.h2.expression.aggregate.AggregateDataCollecting.NullCollectionMode;
 import org.h2.expression.analysis.Window;
 import org.h2.expression.function.BitFunction;
@@ -39,6 +40,7 @@
 import org.h2.result.SortOrder;
 import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
+import org.h2.table.RowBatch;
 import org.h2.table.Table;
 import org.h2.table.TableFilter;
 import org.h2.util.StringUtils;
@@ -242,6 +244,102 @@ public int getFlags() {
         return flags;
     }
 
+    /**
+     * Check whether the results of this aggregate for different rows of a
+     * group can be computed separately and merged.
+     *
+     * @return true if partial results can be merged
+     */
+    public boolean isMergeable() {
+        if (over != null || distinct || orderByList != null) {
+            return false;
+        }
+        switch (aggregateType) {
+        case COUNT_ALL:
+        case COUNT:
+        case SUM:
+        case MIN:
+        case MAX:
+        case AVG:
+        case EVERY:
+        case ANY:
+        case BIT_AND_AGG:
+        case BIT_OR_AGG:
+        case BIT_XOR_AGG:
+        case BIT_NAND_AGG:
+        case BIT_NOR_AGG:
+        case BIT_XNOR_AGG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Merge the partial result of the same aggregate of a copy of the query,
+     * that was computed from other rows, into the current group.
+     *
+     * @param session the session
+     * @param partial the aggregate of the copy, which must be positioned on
+     *            the same group
+     */
+    public void mergeAggregate(SessionLocal session, Aggregate partial) {
+        Object data = partial.getGroupData(partial.select.getGroupDataIfCurrent(false), true);
+        if (data != null) {
+            ((AggregateData) getGroupData(select.getGroupDataIfCurrent(false), false)).merge(session,
+                    (AggregateData) data);
+        }
+    }
+
+    /**
+     * Check whether this aggregate can be computed from batches of rows in
+     * the batch execution mode.
+     *
+     * @return true if batches of rows are supported
+     */
+    public boolean isBatchable() {
+        if (over != null || distinct || orderByList != null || filterCondition != null) {
+            return false;
+        }
+        switch (aggregateType) {
+        case COUNT_ALL:
+        case COUNT:
+        case SUM:
+        case MIN:
+        case MAX:
+        case AVG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Evaluate the argument of this aggregate for a batch of rows.
+     *
+     * @param session the session
+     * @param batch the batch of rows
+     * @return the values of the argument, or null if they can not be
+     *         evaluated in batch mode or this aggregate has no argument
+     */
+    public ValueVector getBatchArgument(SessionLocal session, RowBatch batch) {
+        return args.length == 0 ? null : args[0].getVector(session, batch);
+    }
+
+    /**
+     * Add the values of the argument for some rows of a batch to the current
+     * group.
+     *
+     * @param session the session
+     * @param argument the values of the argument, or null for COUNT(*)
+     * @param positions the positions of the rows in the batch
+     * @param count the number of rows
+     */
+    public void updateBatch(SessionLocal session, ValueVector argument, int[] positions, int count) {
+        ((AggregateData) getGroupData(select.getGroupDataIfCurrent(false), false)).addVector(session, argument,
+                positions, count);
+    }
+
     private void sortWithOrderBy(Value[] array) {
         final SortOrder sortOrder = orderBySort;
         Arrays.sort(array,
@@ -6,6 +6,8 @@
 package org.h2.expression.aggregate;
 
 import org.h2.engine.SessionLocal;
+import org.h2.expression.ValueVector;
+import org.h2.message.DbException;
 import org.h2.value.Value;
 
 /**
@@ -21,6 +23,20 @@ abstract class AggregateData {
      */
     abstract void add(SessionLocal session, Value v);
 
+    /**
+     * Add the values of a vector at the given positions to this aggregate.
+     *
+     * @param session the session
+     * @param vector the values
+     * @param positions the positions of the values to add
+     * @param count the number of positions
+     */
+    void addVector(SessionLocal session, ValueVector vector, int[] positions, int count) {
+        for (int i = 0; i < count; i++) {
+            add(session, vector.getValue(positions[i]));
+        }
+    }
+
     /**
      * Get the aggregate result.
      *
@@ -29,4 +45,15 @@ abstract class AggregateData {
      */
     abstract Value getValue(SessionLocal session);
 
+    /**
+     * Add the values of another aggregate of the same kind, that were
+     * collected from other rows.
+     *
+     * @param session the session
+     * @param other the other aggregate
+     */
+    void merge(SessionLocal session, AggregateData other) {
+        throw DbException.getInternalError(getClass().getName());
+    }
+
 }
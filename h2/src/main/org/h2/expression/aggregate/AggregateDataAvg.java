@@ -11,6 +11,7 @@
 
 import org.h2.api.IntervalQualifier;
 import org.h2.engine.SessionLocal;
+import org.h2.expression.ValueVector;
 import org.h2.util.IntervalUtils;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
@@ -62,6 +63,67 @@ void add(SessionLocal session, Value v) {
         }
     }
 
+    @Override
+    void addVector(SessionLocal session, ValueVector vector, int[] positions, int count) {
+        int valueType = vector.getValueType();
+        boolean floatingPoint = ValueVector.isFloatingPoint(valueType);
+        switch (dataType.getValueType()) {
+        case Value.DOUBLE:
+            if (floatingPoint || ValueVector.isInteger(valueType)) {
+                // the values are added in the same order as in row mode
+                double sum = doubleValue;
+                for (int i = 0; i < count; i++) {
+                    int p = positions[i];
+                    if (!vector.isNull(p)) {
+                        sum += floatingPoint ? vector.getDouble(p) : vector.getLong(p);
+                        this.count++;
+                    }
+                }
+                doubleValue = sum;
+                return;
+            }
+            break;
+        case Value.NUMERIC:
+            if (ValueVector.isInteger(valueType)) {
+                long sum = 0;
+                for (int i = 0; i < count; i++) {
+                    int p = positions[i];
+                    if (!vector.isNull(p)) {
+                        long x = vector.getLong(p), s = sum + x;
+                        if (((sum ^ s) & (x ^ s)) < 0) {
+                            addDecimal(BigDecimal.valueOf(sum));
+                            s = x;
+                        }
+                        sum = s;
+                        this.count++;
+                    }
+                }
+                addDecimal(BigDecimal.valueOf(sum));
+                return;
+            }
+            break;
+        default:
+        }
+        super.addVector(session, vector, positions, count);
+    }
+
+    private void addDecimal(BigDecimal bd) {
+        decimalValue = decimalValue == null ? bd : decimalValue.add(bd);
+    }
+
+    @Override
+    void merge(SessionLocal session, AggregateData other) {
+        AggregateDataAvg o = (AggregateDataAvg) other;
+        count += o.count;
+        doubleValue += o.doubleValue;
+        if (o.decimalValue != null) {
+            decimalValue = decimalValue == null ? o.decimalValue : decimalValue.add(o.decimalValue);
+        }
+        if (o.integerValue != null) {
+            integerValue = integerValue == null ? o.integerValue : integerValue.add(o.integerValue);
+        }
+    }
+
     @Override
     Value getValue(SessionLocal session) {
         if (count == 0) {
@@ -6,6 +6,7 @@
 package org.h2.expression.aggregate;
 
 import org.h2.engine.SessionLocal;
+import org.h2.expression.ValueVector;
 import org.h2.value.Value;
 import org.h2.value.ValueBigint;
 import org.h2.value.ValueNull;
@@ -30,6 +31,24 @@ void add(SessionLocal session, Value v) {
         }
     }
 
+    @Override
+    void addVector(SessionLocal session, ValueVector vector, int[] positions, int count) {
+        if (all) {
+            this.count += count;
+        } else {
+            for (int i = 0; i < count; i++) {
+                if (!vector.isNull(positions[i])) {
+                    this.count++;
+                }
+            }
+        }
+    }
+
+    @Override
+    void merge(SessionLocal session, AggregateData other) {
+        count += ((AggregateDataCount) other).count;
+    }
+
     @Override
     Value getValue(SessionLocal session) {
         return ValueBigint.get(count);
@@ -6,11 +6,14 @@
 package org.h2.expression.aggregate;
 
 import org.h2.engine.SessionLocal;
+import org.h2.expression.ValueVector;
 import org.h2.expression.function.BitFunction;
 import org.h2.message.DbException;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
+import org.h2.value.ValueBigint;
 import org.h2.value.ValueBoolean;
+import org.h2.value.ValueDouble;
 import org.h2.value.ValueNull;
 
 /**
@@ -100,6 +103,99 @@ void add(SessionLocal session, Value v) {
         }
     }
 
+    @Override
+    void addVector(SessionLocal session, ValueVector vector, int[] positions, int count) {
+        int valueType = vector.getValueType();
+        switch (aggregateType) {
+        case SUM:
+            if (ValueVector.isInteger(valueType)) {
+                addIntegerSum(session, vector, positions, count);
+                return;
+            } else if (ValueVector.isFloatingPoint(valueType) && dataType.getValueType() == Value.DOUBLE) {
+                addDoubleSum(vector, positions, count);
+                return;
+            }
+            break;
+        case MIN:
+        case MAX:
+            if (valueType != Value.BOOLEAN) {
+                addMinMax(session, vector, positions, count, aggregateType == AggregateType.MIN);
+                return;
+            }
+            break;
+        default:
+        }
+        super.addVector(session, vector, positions, count);
+    }
+
+    private void addIntegerSum(SessionLocal session, ValueVector vector, int[] positions, int count) {
+        // the sum of the values is added at once, the sum of the values and
+        // the previous sum is only checked for overflows when it is added
+        long sum = 0;
+        boolean found = false;
+        for (int i = 0; i < count; i++) {
+            int p = positions[i];
+            if (!vector.isNull(p)) {
+                long x = vector.getLong(p), s = sum + x;
+                if (((sum ^ s) & (x ^ s)) < 0) {
+                    add(session, ValueBigint.get(sum));
+                    s = x;
+                }
+                sum = s;
+                found = true;
+            }
+        }
+        if (found) {
+            add(session, ValueBigint.get(sum));
+        }
+    }
+
+    private void addDoubleSum(ValueVector vector, int[] positions, int count) {
+        // the values are added in the same order as in row mode
+        boolean found = value != null;
+        double sum = found ? value.getDouble() : 0d;
+        for (int i = 0; i < count; i++) {
+            int p = positions[i];
+            if (!vector.isNull(p)) {
+                double x = vector.getDouble(p);
+                sum = found ? sum + x : x;
+                found = true;
+            }
+        }
+        if (found) {
+            value = ValueDouble.get(sum);
+        }
+    }
+
+    private void addMinMax(SessionLocal session, ValueVector vector, int[] positions, int count, boolean min) {
+        boolean floatingPoint = ValueVector.isFloatingPoint(vector.getValueType());
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            int p = positions[i];
+            if (!vector.isNull(p)) {
+                if (best >= 0) {
+                    int cmp = floatingPoint ? Double.compare(vector.getDouble(p), vector.getDouble(best))
+                            : Long.compare(vector.getLong(p), vector.getLong(best));
+                    if (min ? cmp >= 0 : cmp <= 0) {
+                        continue;
+                    }
+                }
+                best = p;
+            }
+        }
+        if (best >= 0) {
+            add(session, vector.getValue(best));
+        }
+    }
+
+    @Override
+    void merge(SessionLocal session, AggregateData other) {
+        Value v = ((AggregateDataDefault) other).value;
+        if (v != null) {
+            add(session, v);
+        }
+    }
+
     @SuppressWarnings("incomplete-switch")
     @Override
     Value getValue(SessionLocal session) {
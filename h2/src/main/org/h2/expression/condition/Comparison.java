@@ -13,12 +13,14 @@
 import org.h2.expression.Parameter;
 import org.h2.expression.TypedValueExpression;
 import org.h2.expression.ValueExpression;
+import org.h2.expression.ValueVector;
 import org.h2.expression.aggregate.Aggregate;
 import org.h2.expression.aggregate.AggregateType;
 import org.h2.index.IndexCondition;
 import org.h2.message.DbException;
 import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
+import org.h2.table.RowBatch;
 import org.h2.table.TableFilter;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
@@ -202,6 +204,63 @@ public Value getValue(SessionLocal session) {
         return compare(session, l, right.getValue(session), compareType);
     }
 
+    @Override
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        if (compareType > NOT_EQUAL_NULL_SAFE) {
+            return null;
+        }
+        ValueVector l = left.getVector(session, batch);
+        if (l == null) {
+            return null;
+        }
+        ValueVector r = right.getVector(session, batch);
+        if (r == null || !l.isComparable(r)) {
+            return null;
+        }
+        boolean floatingPoint = ValueVector.isFloatingPoint(l.getValueType());
+        int size = batch.size();
+        ValueVector result = new ValueVector(Value.BOOLEAN, size);
+        for (int i = 0; i < size; i++) {
+            boolean lNull = l.isNull(i), rNull = r.isNull(i);
+            if (lNull || rNull) {
+                if (compareType == EQUAL_NULL_SAFE) {
+                    result.setLong(i, lNull == rNull ? 1 : 0);
+                } else if (compareType == NOT_EQUAL_NULL_SAFE) {
+                    result.setLong(i, lNull != rNull ? 1 : 0);
+                } else {
+                    result.setNull(i);
+                }
+                continue;
+            }
+            int cmp = floatingPoint ? Double.compare(l.getDouble(i), r.getDouble(i))
+                    : Long.compare(l.getLong(i), r.getLong(i));
+            boolean b;
+            switch (compareType) {
+            case EQUAL:
+            case EQUAL_NULL_SAFE:
+                b = cmp == 0;
+                break;
+            case NOT_EQUAL:
+            case NOT_EQUAL_NULL_SAFE:
+                b = cmp != 0;
+                break;
+            case BIGGER_EQUAL:
+                b = cmp >= 0;
+                break;
+            case BIGGER:
+                b = cmp > 0;
+                break;
+            case SMALLER_EQUAL:
+                b = cmp <= 0;
+                break;
+            default:
+                b = cmp < 0;
+            }
+            result.setLong(i, b ? 1 : 0);
+        }
+        return result;
+    }
+
     @Override
     public boolean getWhenValue(SessionLocal session, Value left) {
         if (!whenOperand) {
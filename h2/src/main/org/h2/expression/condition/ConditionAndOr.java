@@ -10,8 +10,10 @@
 import org.h2.expression.ExpressionVisitor;
 import org.h2.expression.TypedValueExpression;
 import org.h2.expression.ValueExpression;
+import org.h2.expression.ValueVector;
 import org.h2.message.DbException;
 import org.h2.table.ColumnResolver;
+import org.h2.table.RowBatch;
 import org.h2.table.TableFilter;
 import org.h2.value.Value;
 import org.h2.value.ValueBoolean;
@@ -129,6 +131,16 @@ public Value getValue(SessionLocal session) {
         }
     }
 
+    @Override
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        ValueVector l = left.getVector(session, batch);
+        if (l == null) {
+            return null;
+        }
+        ValueVector r = right.getVector(session, batch);
+        return r == null ? null : ValueVector.andOr(l, r, andOrType == AND);
+    }
+
     @Override
     public Expression optimize(SessionLocal session) {
         // NULL handling: see wikipedia,
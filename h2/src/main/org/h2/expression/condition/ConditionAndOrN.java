@@ -13,8 +13,10 @@
 import org.h2.engine.SessionLocal;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionVisitor;
+import org.h2.expression.ValueVector;
 import org.h2.message.DbException;
 import org.h2.table.ColumnResolver;
+import org.h2.table.RowBatch;
 import org.h2.table.TableFilter;
 import org.h2.value.Value;
 import org.h2.value.ValueBoolean;
@@ -150,6 +152,23 @@ public Value getValue(SessionLocal session) {
         }
     }
 
+    @Override
+    public ValueVector getVector(SessionLocal session, RowBatch batch) {
+        ValueVector result = null;
+        for (Expression e : expressions) {
+            ValueVector v = e.getVector(session, batch);
+            if (v == null) {
+                return null;
+            }
+            if (result == null) {
+                result = v;
+            } else if ((result = ValueVector.andOr(result, v, andOrType == ConditionAndOr.AND)) == null) {
+                return null;
+            }
+        }
+        return result;
+    }
+
     private static final Comparator<Expression> COMPARE_BY_COST = new Comparator<Expression>() {
         @Override
         public int compare(Expression lhs, Expression rhs) {
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.h2.command.query.AllColumnsForPlan;
+import org.h2.engine.SessionLocal;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.type.LongDataType;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueRow;
+
+/**
+ * A temporary hash index on the columns of an equi-join, used to join a table
+ * that has no usable index on these columns. The hash table is built when
+ * the first row is looked up, by reading the whole table once. If the table
+ * has more than MAX_MEMORY_ROWS rows, the hash codes and the keys of the rows
+ * are moved to a temporary map of the store, and the rows are read from the
+ * table when they are looked up.
+ */
+public class HashJoinIndex extends JoinIndex {
+
+    /**
+     * The hash table, or null if it is not built or the rows are spilled.
+     */
+    private HashMap<Value, ArrayList<Row>> rows;
+
+    /**
+     * The temporary map with the hash codes (in the upper 32 bits) and the
+     * keys of the rows, or null if the rows are kept in memory.
+     */
+    private MVMap<Long, Long> spilledRows;
+
+    private long spilledRowCount;
+
+    public HashJoinIndex(Table table, Column[] columns) {
+        super(table, table.getName() + "_HASH_JOIN", IndexColumn.wrap(columns), "HASH JOIN");
+    }
+
+    /**
+     * Check whether a column can be used as a key of a hash join. This is only
+     * the case for data types where equal values (as compared in SQL) have
+     * equal hash codes.
+     *
+     * @param column the column
+     * @param compareMode the compare mode of the database
+     * @return true if a hash join can be used for this column
+     */
+    public static boolean isHashable(Column column, CompareMode compareMode) {
+        return isHashable(column.getType().getValueType(), compareMode);
+    }
+
+    /**
+     * Check whether equal values (as compared in SQL) of a data type have
+     * equal hash codes.
+     *
+     * @param valueType the data type
+     * @param compareMode the compare mode of the database
+     * @return true if they have equal hash codes
+     */
+    public static boolean isHashable(int valueType, CompareMode compareMode) {
+        switch (valueType) {
+        case Value.VARCHAR:
+            return CompareMode.OFF.equals(compareMode.getName());
+        case Value.VARBINARY:
+        case Value.BOOLEAN:
+        case Value.TINYINT:
+        case Value.SMALLINT:
+        case Value.INTEGER:
+        case Value.BIGINT:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    @Override
+    public Cursor find(SessionLocal session, SearchRow first, SearchRow last) {
+        if (!isKeyLookup(first, last)) {
+            // not a lookup of one key, but the table filter checks the
+            // conditions again
+            return table.getScanIndex(session).find(session, null, null);
+        }
+        if (rows == null && spilledRows == null) {
+            build(session);
+        }
+        Value key = getKey(first);
+        ArrayList<Row> list = spilledRows != null ? findSpilled(session, key) : rows.get(key);
+        return list == null ? new SingleRowCursor(null) : new MetaCursor(list);
+    }
+
+    private boolean isKeyLookup(SearchRow first, SearchRow last) {
+        if (first == null || last == null) {
+            return false;
+        }
+        for (int i = 0, len = columns.length; i < len; i++) {
+            int id = columnIds[i];
+            Value v = first.getValue(id);
+            if (v == null || !v.equals(last.getValue(id))) {
+                return false;
+            }
+            if (v != ValueNull.INSTANCE && v.getValueType() != columns[i].getType().getValueType()) {
+                // the values of other data types might be equal in SQL, but
+                // have different hash codes
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Value getKey(SearchRow row) {
+        int len = columns.length;
+        if (len == 1) {
+            return row.getValue(columnIds[0]);
+        }
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            values[i] = row.getValue(columnIds[i]);
+        }
+        return ValueRow.get(values);
+    }
+
+    private void build(SessionLocal session) {
+        HashMap<Value, ArrayList<Row>> map = new HashMap<>();
+        int maxMemoryRows = database.getMaxMemoryRows();
+        boolean canSpill = !database.isReadOnly();
+        Cursor cursor = table.getScanIndex(session).find(session, null, null);
+        long count = 0;
+        while (cursor.next()) {
+            if ((++count & 127) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get();
+            Value key = getKey(row);
+            if (spilledRows != null) {
+                spill(key, row);
+            } else {
+                map.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+                if (count > maxMemoryRows && canSpill) {
+                    MVStore store = database.getStore().getMvStore();
+                    spilledRows = store.openMap(database.getStore().nextTemporaryMapName(),
+                            new MVMap.Builder<Long, Long>().singleWriter().keyType(LongDataType.INSTANCE)
+                                    .valueType(LongDataType.INSTANCE));
+                    for (ArrayList<Row> list : map.values()) {
+                        for (Row r : list) {
+                            spill(getKey(r), r);
+                        }
+                    }
+                    map = null;
+                }
+            }
+        }
+        if (spilledRows == null) {
+            rows = map;
+        }
+    }
+
+    private void spill(Value key, Row row) {
+        spilledRows.put(((long) key.hashCode() << 32) | (spilledRowCount++ & 0xffff_ffffL), row.getKey());
+    }
+
+    private ArrayList<Row> findSpilled(SessionLocal session, Value key) {
+        long hash = (long) key.hashCode() << 32;
+        ArrayList<Row> list = null;
+        org.h2.mvstore.Cursor<Long, Long> cursor = spilledRows.cursor(hash, hash | 0xffff_ffffL, false);
+        while (cursor.hasNext()) {
+            cursor.next();
+            Row row = table.getRow(session, cursor.getValue());
+            // rows with a different key can have the same hash code
+            if (key.equals(getKey(row))) {
+                if (list == null) {
+                    list = new ArrayList<>();
+                }
+                list.add(row);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Remove the hash table. It is built again when the next row is looked
+     * up.
+     */
+    @Override
+    public void release() {
+        rows = null;
+        if (spilledRows != null) {
+            database.getStore().getMvStore().removeMap(spilledRows);
+            spilledRows = null;
+            spilledRowCount = 0;
+        }
+    }
+
+    @Override
+    public double getCost(SessionLocal session, int[] masks, TableFilter[] filters, int filter,
+            SortOrder sortOrder, AllColumnsForPlan allColumnsSet) {
+        // the cost of a lookup, the same as for a regular index on these
+        // columns that is not covering; building the hash table is added by
+        // the table filter
+        return 10 * getCostRangeIndex(masks, table.getRowCountApproximation(session), filters, filter, null, false,
+                null);
+    }
+
+    @Override
+    public String getPlanSQL() {
+        return table.getSQL(new StringBuilder(), TRACE_SQL_FLAGS).append(".hashJoin").toString();
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import org.h2.engine.SessionLocal;
+import org.h2.message.DbException;
+import org.h2.result.Row;
+import org.h2.table.IndexColumn;
+import org.h2.table.Table;
+
+/**
+ * The base class for indexes that are created by the optimizer for one table
+ * filter of a join. Such an index keeps state while a query is executed, which
+ * is released when the query ends.
+ */
+public abstract class JoinIndex extends Index {
+
+    private final String operation;
+
+    protected JoinIndex(Table table, String name, IndexColumn[] columns, String operation) {
+        super(table, 0, name, columns, 0, IndexType.createNonUnique(false));
+        this.operation = operation;
+    }
+
+    /**
+     * Release the state of the last execution of the query.
+     */
+    public abstract void release();
+
+    @Override
+    public void close(SessionLocal session) {
+        release();
+    }
+
+    @Override
+    public void add(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException(operation);
+    }
+
+    @Override
+    public void remove(SessionLocal session, Row row) {
+        throw DbException.getUnsupportedException(operation);
+    }
+
+    @Override
+    public void remove(SessionLocal session) {
+        throw DbException.getUnsupportedException(operation);
+    }
+
+    @Override
+    public void truncate(SessionLocal session) {
+        throw DbException.getUnsupportedException(operation);
+    }
+
+    @Override
+    public boolean needRebuild() {
+        return false;
+    }
+
+    @Override
+    public void checkRename() {
+        throw DbException.getUnsupportedException(operation);
+    }
+
+    @Override
+    public long getRowCount(SessionLocal session) {
+        return table.getRowCount(session);
+    }
+
+    @Override
+    public long getRowCountApproximation(SessionLocal session) {
+        return table.getRowCountApproximation(session);
+    }
+
+}
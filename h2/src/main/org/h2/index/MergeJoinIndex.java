@@ -0,0 +1,183 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+import org.h2.command.query.AllColumnsForPlan;
+import org.h2.engine.SessionLocal;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * An index that joins a table with a preceding table that is read in the
+ * order of the join column. The rows are looked up in a sorted index of this
+ * table, but instead of searching the index for each key, the lookup
+ * continues from the position of the previous one, so that both tables are
+ * read in a single pass. Rows with the same key are kept until the next key
+ * is looked up, as the preceding table can contain duplicates.
+ * <p>
+ * If the keys are not ascending, or a key is far ahead of the previous one,
+ * the index is searched again from this key.
+ */
+public class MergeJoinIndex extends JoinIndex {
+
+    /**
+     * The number of rows to skip before the index is searched again.
+     */
+    private static final int MAX_SKIP = 32;
+
+    private final Index base;
+
+    private final int columnId;
+
+    /**
+     * The cursor over the base index, or null if not opened yet.
+     */
+    private Cursor cursor;
+
+    /**
+     * The current row of the cursor, or null if the cursor is at the end.
+     */
+    private SearchRow next;
+
+    /**
+     * The key of the last lookup, or null.
+     */
+    private Value lastKey;
+
+    /**
+     * The rows with the last key, or null if there are none.
+     */
+    private ArrayList<Row> lastRows;
+
+    public MergeJoinIndex(Index base) {
+        super(base.getTable(), base.getName() + "_MERGE_JOIN", base.getIndexColumns(), "MERGE JOIN");
+        this.base = base;
+        columnId = columnIds[0];
+    }
+
+    /**
+     * Get the index that is read.
+     *
+     * @return the base index
+     */
+    public Index getBase() {
+        return base;
+    }
+
+    @Override
+    public Cursor find(SessionLocal session, SearchRow first, SearchRow last) {
+        Value key = getKey(first, last);
+        if (key == null) {
+            return base.find(session, first, last);
+        }
+        if (lastKey == null) {
+            seek(session, key);
+        } else {
+            int comp = session.compare(key, lastKey);
+            if (comp == 0) {
+                return getCursor();
+            } else if (comp < 0) {
+                seek(session, key);
+            } else {
+                skip(session, key);
+            }
+        }
+        ArrayList<Row> rows = null;
+        while (next != null && compareToKey(session, next, key) == 0) {
+            if (rows == null) {
+                rows = new ArrayList<>();
+            }
+            rows.add(cursor.get());
+            moveNext();
+        }
+        lastKey = key;
+        lastRows = rows;
+        return getCursor();
+    }
+
+    /**
+     * Get the key of a lookup of the rows with one value of the first column.
+     *
+     * @param first the first row
+     * @param last the last row
+     * @return the value, or null if this is another kind of lookup
+     */
+    private Value getKey(SearchRow first, SearchRow last) {
+        if (first == null || last == null) {
+            return null;
+        }
+        Value v = first.getValue(columnId);
+        if (v == null || v == ValueNull.INSTANCE || !v.equals(last.getValue(columnId))) {
+            return null;
+        }
+        for (int i = 1, len = columnIds.length; i < len; i++) {
+            int id = columnIds[i];
+            if (first.getValue(id) != null || last.getValue(id) != null) {
+                return null;
+            }
+        }
+        return v;
+    }
+
+    private Cursor getCursor() {
+        return lastRows == null ? new SingleRowCursor(null) : new MetaCursor(lastRows);
+    }
+
+    private void seek(SessionLocal session, Value key) {
+        SearchRow row = table.getTemplateRow();
+        row.setValue(columnId, key);
+        cursor = base.find(session, row, null);
+        moveNext();
+    }
+
+    private void skip(SessionLocal session, Value key) {
+        for (int i = 0; next != null && compareToKey(session, next, key) < 0; i++) {
+            if (i == MAX_SKIP) {
+                seek(session, key);
+                return;
+            }
+            moveNext();
+        }
+    }
+
+    private void moveNext() {
+        next = cursor.next() ? cursor.getSearchRow() : null;
+    }
+
+    private int compareToKey(SessionLocal session, SearchRow row, Value key) {
+        Value v = row.getValue(columnId);
+        // the cursor starts at a key, so NULL values can only follow all keys
+        return v == ValueNull.INSTANCE ? 1 : session.compare(v, key);
+    }
+
+    @Override
+    public void release() {
+        cursor = null;
+        next = null;
+        lastKey = null;
+        lastRows = null;
+    }
+
+    @Override
+    public double getCost(SessionLocal session, int[] masks, TableFilter[] filters, int filter,
+            SortOrder sortOrder, AllColumnsForPlan allColumnsSet) {
+        // the index is not searched for each key, which is estimated to
+        // halve the cost of a lookup; reading the whole index once is added
+        // by the table filter
+        return base.getCost(session, masks, filters, filter, null, allColumnsSet) / 2;
+    }
+
+    @Override
+    public String getPlanSQL() {
+        return base.getPlanSQL() + ".mergeJoin";
+    }
+
+}
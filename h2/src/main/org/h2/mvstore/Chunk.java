@@ -60,6 +60,7 @@ public final class Chunk {
     private static final String ATTR_TOC = "toc";
     private static final String ATTR_OCCUPANCY = "occupancy";
     private static final String ATTR_FLETCHER = "fletcher";
+    private static final String ATTR_DICTIONARY = "dict";
 
     /**
      * The chunk id.
@@ -160,6 +161,13 @@ public final class Chunk {
      */
     private int pinCount;
 
+    /**
+     * The id of the newest compression dictionary, which could be used by
+     * pages of this chunk. Pages of each map use the newest dictionary of the
+     * map with an id not larger than this.
+     */
+    int dictionary;
+
 
     private Chunk(String s) {
         this(DataUtils.parseMap(s), true);
@@ -187,6 +195,7 @@ private Chunk(Map<String, String> map, boolean full) {
             next = DataUtils.readHexLong(map, ATTR_NEXT, 0);
             pinCount = DataUtils.readHexInt(map, ATTR_PIN_COUNT, 0);
             tocPos = DataUtils.readHexInt(map, ATTR_TOC, 0);
+            dictionary = DataUtils.readHexInt(map, ATTR_DICTIONARY, 0);
             byte[] bytes = DataUtils.parseHexBytes(map, ATTR_OCCUPANCY);
             if (bytes == null) {
                 occupancy = new BitSet();
@@ -342,6 +351,9 @@ public String asString() {
         if (tocPos > 0) {
             DataUtils.appendMap(buff, ATTR_TOC, tocPos);
         }
+        if (dictionary != 0) {
+            DataUtils.appendMap(buff, ATTR_DICTIONARY, dictionary);
+        }
         if (!occupancy.isEmpty()) {
             DataUtils.appendMap(buff, ATTR_OCCUPANCY,
                     StringUtils.convertBytesToHex(occupancy.toByteArray()));
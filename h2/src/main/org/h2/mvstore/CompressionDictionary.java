@@ -0,0 +1,102 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.util.Map;
+
+import org.h2.util.StringUtils;
+
+/**
+ * A compression dictionary of a map. Dictionaries are stored in the meta map
+ * and are never changed; a map gets a new dictionary with a new id when it is
+ * trained again. Pages store the id of the dictionary used to compress them.
+ */
+final class CompressionDictionary {
+
+    private static final String ATTR_COUNT = "count";
+    private static final String ATTR_DATA = "data";
+
+    /**
+     * The id of the map.
+     */
+    final int mapId;
+
+    /**
+     * The id, unique within the store. Newer dictionaries have larger ids.
+     */
+    final int id;
+
+    /**
+     * The dictionary data.
+     */
+    final byte[] data;
+
+    /**
+     * The number of entries of the map when the dictionary was trained.
+     */
+    final long entryCount;
+
+    /**
+     * The version of the store, in which the dictionary was added to the meta
+     * map. It may only be used for chunks of newer versions.
+     */
+    long version;
+
+    CompressionDictionary(int mapId, int id, byte[] data, long entryCount) {
+        this.mapId = mapId;
+        this.id = id;
+        this.data = data;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Get the key of a dictionary in the meta map.
+     *
+     * @param mapId the map id
+     * @param id the dictionary id
+     * @return the key
+     */
+    static String getMetaKey(int mapId, int id) {
+        return getMetaKeyPrefix(mapId) + Integer.toHexString(id);
+    }
+
+    /**
+     * Get the prefix of the keys of all dictionaries of a map in the meta map.
+     *
+     * @param mapId the map id
+     * @return the prefix
+     */
+    static String getMetaKeyPrefix(int mapId) {
+        return DataUtils.META_DICTIONARY + Integer.toHexString(mapId) + '.';
+    }
+
+    /**
+     * Parse a dictionary from the meta map.
+     *
+     * @param mapId the map id
+     * @param id the dictionary id
+     * @param s the value in the meta map
+     * @return the dictionary
+     */
+    static CompressionDictionary fromString(int mapId, int id, String s) {
+        Map<String, String> map = DataUtils.parseMap(s);
+        return new CompressionDictionary(mapId, id, DataUtils.parseHexBytes(map, ATTR_DATA),
+                DataUtils.readHexLong(map, ATTR_COUNT, 0));
+    }
+
+    /**
+     * Get the dictionary as a string, as stored in the meta map.
+     *
+     * @return the string
+     */
+    String asString() {
+        StringBuilder buff = new StringBuilder(data.length * 2 + 32);
+        DataUtils.appendMap(buff, ATTR_COUNT, entryCount);
+        DataUtils.appendMap(buff, ATTR_DATA, StringUtils.convertBytesToHex(data));
+        return buff.toString();
+    }
+
+}
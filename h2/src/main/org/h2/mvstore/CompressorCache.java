@@ -0,0 +1,86 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.util.HashMap;
+
+import org.h2.compress.CompressDeflate;
+import org.h2.compress.CompressLZF;
+import org.h2.compress.Compressor;
+import org.h2.compress.CompressorRegistry;
+
+/**
+ * The compressors used to write pages. Compressors are not thread-safe, so
+ * each thread, which serializes pages concurrently with others, uses its own
+ * instance of this class.
+ */
+final class CompressorCache {
+
+    /**
+     * The store-wide compression level (0: none, 1: fast, 2: high).
+     */
+    private final int compressionLevel;
+
+    private Compressor fast;
+
+    private Compressor high;
+
+    /**
+     * The compressors for per-map codecs, by codec name.
+     */
+    private final HashMap<String, Compressor> codecs = new HashMap<>();
+
+    CompressorCache(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Get the compressor for the pages of the given map.
+     *
+     * @param map the map
+     * @return the compressor, or null if pages of this map are not compressed
+     */
+    Compressor getCompressor(MVMap<?, ?> map) {
+        String codec = map.getCompression();
+        if (codec != null) {
+            Compressor compressor = codecs.get(codec);
+            if (compressor == null && !codecs.containsKey(codec)) {
+                compressor = CompressorRegistry.getCompressor(codec);
+                if (compressor != null && compressor.getAlgorithm() == Compressor.NO) {
+                    compressor = null;
+                }
+                codecs.put(codec, compressor);
+            }
+            return compressor;
+        } else if (compressionLevel == 1) {
+            if (fast == null) {
+                fast = new CompressLZF();
+            }
+            return fast;
+        } else if (compressionLevel > 1) {
+            if (high == null) {
+                high = new CompressDeflate();
+            }
+            return high;
+        }
+        return null;
+    }
+
+    /**
+     * Get the page type flags for pages of the given map, if they could be
+     * compressed.
+     *
+     * @param map the map
+     * @return the page type flags
+     */
+    int getCompressType(MVMap<?, ?> map) {
+        if (map.getCompression() != null) {
+            return DataUtils.PAGE_COMPRESSED | DataUtils.PAGE_COMPRESSED_CODEC;
+        }
+        return compressionLevel == 1 ? DataUtils.PAGE_COMPRESSED : DataUtils.PAGE_COMPRESSED_HIGH;
+    }
+
+}
@@ -134,11 +134,38 @@ public final class DataUtils {
      */
     public static final int PAGE_COMPRESSED_HIGH = 2 + 4;
 
+    /**
+     * The bit mask for compressed pages, which store the number of the
+     * compression algorithm before the compressed data. It is combined with
+     * {@link #PAGE_COMPRESSED}.
+     */
+    public static final int PAGE_COMPRESSED_CODEC = 16;
+
+    /**
+     * The bit mask for compressed pages, which store the id of the
+     * compression dictionary after the number of the compression algorithm.
+     * It is combined with {@link #PAGE_COMPRESSED_CODEC}.
+     */
+    public static final int PAGE_COMPRESSED_DICTIONARY = 32;
+
     /**
      * The bit mask for pages with page sequential number.
      */
     public static final int PAGE_HAS_PAGE_NO = 8;
 
+    /**
+     * The bit mask for pages with keys written in the sorted format of the
+     * key type, see
+     * {@link org.h2.mvstore.type.DataType#writeSorted(WriteBuffer, Object, int)}.
+     */
+    public static final int PAGE_SORTED_KEYS = 64;
+
+    /**
+     * The bit mask for leaf pages with values written in column-major layout,
+     * see {@link org.h2.mvstore.type.DataType#isColumnar()}.
+     */
+    public static final int PAGE_COLUMNAR_VALUES = 128;
+
     /**
      * The maximum length of a variable size int.
      */
@@ -194,6 +221,13 @@ public final class DataUtils {
      */
     public static final String META_MAP = "map.";
 
+    /**
+     * The prefix for compression dictionaries ("dict."). This, plus the map id
+     * and the dictionary id (both hex encoded, separated by a dot) is the key,
+     * and the serialized dictionary is the value.
+     */
+    public static final String META_DICTIONARY = "dict.";
+
     /**
      * Get the length of the variable size int.
      *
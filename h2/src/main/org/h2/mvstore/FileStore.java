@@ -7,14 +7,24 @@
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import org.h2.mvstore.cache.FilePathCache;
 import org.h2.store.fs.FilePath;
 import org.h2.store.fs.encrypt.FileEncrypt;
 import org.h2.store.fs.encrypt.FilePathEncrypt;
+import org.h2.util.MemoryUnmapper;
 
 /**
  * The default storage mechanism of the MVStore. This implementation persists
@@ -23,6 +33,11 @@
  */
 public class FileStore {
 
+    /**
+     * The size of the segments, in which the file is mapped into memory.
+     */
+    private static final long MAPPED_SEGMENT_SIZE = 1L << 30;
+
     /**
      * The number of read operations.
      */
@@ -80,6 +95,85 @@ public class FileStore {
      */
     private FileLock fileLock;
 
+    /**
+     * The number of times the file was forced to the storage device.
+     */
+    private final AtomicLong syncCount = new AtomicLong();
+
+    /**
+     * The write count observed by the last completed sync operation.
+     */
+    private long syncedWriteCount;
+
+    /**
+     * Lock used to combine concurrent sync requests.
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * Executor for asynchronous positional writes, or null if all writes
+     * are synchronous.
+     */
+    private ThreadPoolExecutor writeExecutor;
+
+    /**
+     * Single-threaded executor, which runs completion actions of
+     * asynchronous writes in the order of their submission.
+     */
+    private ThreadPoolExecutor completionExecutor;
+
+    /**
+     * Asynchronous writes, which were submitted, but whose completion actions
+     * did not run yet, in the order of submission. Also used as a monitor
+     * for all the state of the write pipeline.
+     */
+    private final ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>();
+
+    /**
+     * The maximum number of asynchronous writes in progress.
+     */
+    private int maxWritesInFlight;
+
+    /**
+     * The number of asynchronous writes in progress.
+     */
+    private int writesInFlight;
+
+    /**
+     * The number of submitted asynchronous writes.
+     */
+    private long submittedWrites;
+
+    /**
+     * The number of asynchronous writes, whose completion actions have run.
+     */
+    private long completedWrites;
+
+    /**
+     * The first failure of an asynchronous write or its completion action.
+     */
+    private Throwable writeFailure;
+
+    /**
+     * The segments of the file, which are mapped into memory for reading, or
+     * null if memory mapped reads are not used. The last segment ends at the
+     * file size at the time it was mapped, and is mapped again if data after
+     * its end is read.
+     */
+    private volatile MappedByteBuffer[] mappedSegments;
+
+    /**
+     * Lock used when the mapped segments are replaced.
+     */
+    private final Object mapLock = new Object();
+
+    /**
+     * Lock held by the readers of the mapped segments, and exclusively when
+     * the segments are unmapped. A segment must not be unmapped while it is
+     * read from, as accessing unmapped memory crashes the process.
+     */
+    private final ReentrantReadWriteLock mappedReadLock = new ReentrantReadWriteLock();
+
     @Override
     public String toString() {
         return fileName;
@@ -93,13 +187,186 @@ public String toString() {
      * @return the byte buffer
      */
     public ByteBuffer readFully(long pos, int len) {
-        ByteBuffer dst = ByteBuffer.allocate(len);
-        DataUtils.readFully(file, pos, dst);
+        awaitOverlappingWrites(pos, len);
+        ByteBuffer dst = null;
+        if (mappedSegments != null) {
+            if (mappedReadLock.getReadHoldCount() > 0) {
+                dst = readMapped(pos, len);
+            } else {
+                // the caller does not keep the segment from being unmapped,
+                // so the data is copied
+                ReentrantReadWriteLock.ReadLock lock = mappedReadLock.readLock();
+                lock.lock();
+                try {
+                    ByteBuffer read = readMapped(pos, len);
+                    if (read != null) {
+                        dst = ByteBuffer.allocate(len);
+                        dst.put(read);
+                        dst.flip();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        if (dst == null) {
+            dst = ByteBuffer.allocate(len);
+            DataUtils.readFully(file, pos, dst);
+        }
         readCount.incrementAndGet();
         readBytes.addAndGet(len);
         return dst;
     }
 
+    /**
+     * Read from the memory mapped segments of the file, without copying.
+     *
+     * @param pos the read position
+     * @param len the number of bytes to read
+     * @return a slice of a mapped segment, or null if memory mapped reads are
+     *         not used, or the data is not within a single segment of the file
+     */
+    private ByteBuffer readMapped(long pos, int len) {
+        MappedByteBuffer[] segments = mappedSegments;
+        if (segments == null) {
+            return null;
+        }
+        int index = (int) (pos / MAPPED_SEGMENT_SIZE);
+        int offset = (int) (pos % MAPPED_SEGMENT_SIZE);
+        if (offset + (long) len > MAPPED_SEGMENT_SIZE) {
+            return null;
+        }
+        if (index >= segments.length || offset + len > segments[index].capacity()) {
+            segments = remap(pos + len);
+            if (segments == null || index >= segments.length || offset + len > segments[index].capacity()) {
+                return null;
+            }
+        }
+        ByteBuffer read = segments[index].duplicate();
+        read.position(offset);
+        read.limit(offset + len);
+        return read.slice();
+    }
+
+    /**
+     * Map the parts of the file, which were appended since the segments were
+     * mapped.
+     *
+     * @param minSize the end of the data to read
+     * @return the mapped segments, or null if memory mapped reads are not used
+     */
+    private MappedByteBuffer[] remap(long minSize) {
+        synchronized (mapLock) {
+            MappedByteBuffer[] segments = mappedSegments;
+            if (segments == null) {
+                return null;
+            }
+            try {
+                long size = file.size();
+                if (size >= minSize) {
+                    mappedSegments = segments = mapSegments(segments, size);
+                }
+            } catch (IOException e) {
+                throw DataUtils.newMVStoreException(
+                        DataUtils.ERROR_READING_FAILED,
+                        "Could not map file {0}", fileName, e);
+            }
+            return segments;
+        }
+    }
+
+    private MappedByteBuffer[] mapSegments(MappedByteBuffer[] segments, long size) throws IOException {
+        int count = (int) ((size + MAPPED_SEGMENT_SIZE - 1) / MAPPED_SEGMENT_SIZE);
+        MappedByteBuffer[] result = Arrays.copyOf(segments, Math.max(count, segments.length));
+        for (int i = 0; i < count; i++) {
+            long start = i * MAPPED_SEGMENT_SIZE;
+            long length = Math.min(MAPPED_SEGMENT_SIZE, size - start);
+            if (result[i] == null || result[i].capacity() < length) {
+                // the old buffer is not unmapped, as it may still be in use
+                // by concurrent readers; it is released by the garbage
+                // collector
+                result[i] = file.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read from memory mapped segments of the file instead of positional
+     * reads. Pages are then deserialized from the mapped memory, without a
+     * system call and a copy into a new buffer for each read, which helps if
+     * the file fits into the memory of the operating system, but not into
+     * the page cache. The file is mapped again if it grows. This method has
+     * no effect for encrypted files, and for files which can not be mapped;
+     * those are read using positional reads.
+     */
+    public void startMappedReads() {
+        synchronized (mapLock) {
+            if (file == null || encryptedFile != null || mappedSegments != null) {
+                return;
+            }
+            try {
+                mappedSegments = mapSegments(new MappedByteBuffer[0], file.size());
+            } catch (IOException | UnsupportedOperationException e) {
+                // use positional reads
+            }
+        }
+    }
+
+    /**
+     * Check whether memory mapped reads are used.
+     *
+     * @return true if the file is read from memory mapped segments
+     */
+    public boolean isMappedReads() {
+        return mappedSegments != null;
+    }
+
+    /**
+     * Start reading from the mapped segments of the file. The buffers
+     * returned by {@link #readFully(long, int)} are then slices of the
+     * segments, which may be used until {@link #endMappedRead()} is called.
+     * The segments are not unmapped in the meantime.
+     *
+     * @return true if {@link #endMappedRead()} needs to be called, false if
+     *         memory mapped reads are not used
+     */
+    public boolean beginMappedRead() {
+        if (mappedSegments == null) {
+            return false;
+        }
+        mappedReadLock.readLock().lock();
+        return true;
+    }
+
+    /**
+     * Stop reading from the mapped segments of the file.
+     */
+    public void endMappedRead() {
+        mappedReadLock.readLock().unlock();
+    }
+
+    /**
+     * Unmap the segments of the file. The caller must hold the write lock of
+     * the mapped readers.
+     *
+     * @param replacement the new segments, or null to stop using memory
+     *        mapped reads
+     */
+    private void unmapSegments(MappedByteBuffer[] replacement) {
+        synchronized (mapLock) {
+            MappedByteBuffer[] segments = mappedSegments;
+            if (segments != null) {
+                mappedSegments = replacement;
+                for (MappedByteBuffer segment : segments) {
+                    if (segment != null) {
+                        MemoryUnmapper.unmap(segment);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Write to the file.
      *
@@ -108,12 +375,257 @@ public ByteBuffer readFully(long pos, int len) {
      */
     public void writeFully(long pos, ByteBuffer src) {
         int len = src.remaining();
+        awaitOverlappingWrites(pos, len);
         fileSize = Math.max(fileSize, pos + len);
+        write(pos, src, len);
+    }
+
+    private void write(long pos, ByteBuffer src, int len) {
         DataUtils.writeFully(file, pos, src);
         writeCount.incrementAndGet();
         writeBytes.addAndGet(len);
     }
 
+    /**
+     * Write to the file asynchronously, if the write pipeline is started,
+     * otherwise synchronously. Several writes may be in flight at the same
+     * time, but their completion actions are always executed one by one, in
+     * the order in which writes were submitted, and only after all earlier
+     * writes have finished. If a write fails, its completion action receives
+     * the exception, later completion actions are not executed, and the
+     * failure is also reported by subsequent calls to this method or
+     * {@link #awaitPendingWrites()}.
+     * <p>
+     * The source buffer must not be modified until the completion action
+     * runs. Reads and writes of overlapping areas of the file wait until the
+     * pending write is finished.
+     *
+     * @param pos the write position
+     * @param src the source buffer
+     * @param onCompletion the action to execute after the write, which gets
+     *            null if the write was successful, or the exception otherwise
+     */
+    public void writeAsync(long pos, ByteBuffer src, Consumer<MVStoreException> onCompletion) {
+        PendingWrite pendingWrite;
+        ThreadPoolExecutor writeExecutor, completionExecutor;
+        synchronized (pendingWrites) {
+            checkWriteFailure();
+            writeExecutor = this.writeExecutor;
+            completionExecutor = this.completionExecutor;
+            if (writeExecutor == null) {
+                pendingWrite = null;
+            } else {
+                int len = src.remaining();
+                awaitOverlappingWrites(pos, len);
+                while (writesInFlight >= maxWritesInFlight) {
+                    waitForWrites();
+                }
+                pendingWrite = new PendingWrite(pos, len, onCompletion);
+                pendingWrites.addLast(pendingWrite);
+                ++submittedWrites;
+                ++writesInFlight;
+                fileSize = Math.max(fileSize, pos + len);
+            }
+        }
+        if (pendingWrite == null) {
+            writeFully(pos, src);
+            onCompletion.accept(null);
+            return;
+        }
+        Runnable task = () -> {
+            try {
+                write(pendingWrite.pos, src, pendingWrite.len);
+            } catch (Throwable e) {
+                pendingWrite.failure = e;
+            }
+            synchronized (pendingWrites) {
+                pendingWrite.done = true;
+                --writesInFlight;
+                pendingWrites.notifyAll();
+            }
+            try {
+                completionExecutor.execute(this::runCompletionActions);
+            } catch (RejectedExecutionException ignore) {
+                // the pipeline is stopped
+            }
+        };
+        try {
+            writeExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the pipeline was stopped concurrently
+            task.run();
+        }
+    }
+
+    /**
+     * Run completion actions of all finished writes at the head of the
+     * queue. Must only be called by the completion executor.
+     */
+    private void runCompletionActions() {
+        while (true) {
+            PendingWrite pendingWrite;
+            boolean failedBefore;
+            synchronized (pendingWrites) {
+                pendingWrite = pendingWrites.peekFirst();
+                if (pendingWrite == null || !pendingWrite.done) {
+                    return;
+                }
+                failedBefore = writeFailure != null;
+                if (pendingWrite.failure != null && !failedBefore) {
+                    writeFailure = pendingWrite.failure;
+                }
+            }
+            if (!failedBefore) {
+                try {
+                    pendingWrite.onCompletion.accept(pendingWrite.failure == null ? null
+                            : toWriteException(pendingWrite.failure));
+                } catch (Throwable e) {
+                    synchronized (pendingWrites) {
+                        if (writeFailure == null) {
+                            writeFailure = e;
+                        }
+                    }
+                }
+            }
+            synchronized (pendingWrites) {
+                pendingWrites.pollFirst();
+                ++completedWrites;
+                pendingWrites.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until all asynchronous writes submitted so far are finished and
+     * their completion actions have run. Must not be called from within a
+     * completion action.
+     */
+    public void awaitPendingWrites() {
+        synchronized (pendingWrites) {
+            long target = submittedWrites;
+            while (completedWrites < target) {
+                waitForWrites();
+            }
+            checkWriteFailure();
+        }
+    }
+
+    private void awaitOverlappingWrites(long pos, int len) {
+        synchronized (pendingWrites) {
+            while (writesInFlight > 0 && isOverlappingWriteInFlight(pos, len)) {
+                waitForWrites();
+            }
+        }
+    }
+
+    private boolean isOverlappingWriteInFlight(long pos, int len) {
+        for (PendingWrite pendingWrite : pendingWrites) {
+            if (!pendingWrite.done && pendingWrite.pos < pos + len && pos < pendingWrite.pos + pendingWrite.len) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void waitForWrites() {
+        try {
+            pendingWrites.wait();
+        } catch (InterruptedException e) {
+            throw DataUtils.newMVStoreException(
+                    DataUtils.ERROR_WRITING_FAILED,
+                    "Interrupted while waiting for writes to {0}", fileName, e);
+        }
+    }
+
+    private void checkWriteFailure() {
+        Throwable e = writeFailure;
+        if (e != null) {
+            throw toWriteException(e);
+        }
+    }
+
+    private MVStoreException toWriteException(Throwable e) {
+        if (e instanceof MVStoreException) {
+            return (MVStoreException) e;
+        }
+        return DataUtils.newMVStoreException(
+                DataUtils.ERROR_WRITING_FAILED,
+                "Writing to {0} failed", fileName, e);
+    }
+
+    /**
+     * Start the asynchronous write pipeline, so that up to the given number of
+     * writes submitted with {@link #writeAsync(long, ByteBuffer, Consumer)}
+     * are performed concurrently by a dedicated pool of threads. The
+     * underlying file channel must support concurrent positional writes.
+     *
+     * @param threadCount the number of writes in flight
+     */
+    public void startWritePipeline(int threadCount) {
+        synchronized (pendingWrites) {
+            if (writeExecutor != null || threadCount <= 0 || file == null || readOnly) {
+                return;
+            }
+            maxWritesInFlight = threadCount;
+            writeExecutor = createExecutor(threadCount, "H2-write");
+            completionExecutor = createExecutor(1, "H2-write-completion");
+        }
+    }
+
+    /**
+     * Wait for the asynchronous writes in progress and stop the write
+     * pipeline. Completion actions, which did not run within a short time,
+     * are discarded.
+     */
+    public void stopWritePipeline() {
+        ThreadPoolExecutor writeExecutor, completionExecutor;
+        synchronized (pendingWrites) {
+            writeExecutor = this.writeExecutor;
+            completionExecutor = this.completionExecutor;
+            this.writeExecutor = null;
+            this.completionExecutor = null;
+        }
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+            completionExecutor.shutdown();
+            try {
+                writeExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                if (!completionExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+                    completionExecutor.shutdownNow();
+                }
+            } catch (InterruptedException ignore) {/**/}
+            synchronized (pendingWrites) {
+                completedWrites = submittedWrites;
+                pendingWrites.clear();
+                pendingWrites.notifyAll();
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threadCount, String threadName) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 10L, TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<>(),
+                                        r -> {
+                                            Thread thread = new Thread(r, threadName);
+                                            thread.setDaemon(true);
+                                            return thread;
+                                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get the number of asynchronous writes, which were submitted, but whose
+     * completion actions did not run yet.
+     *
+     * @return the number of pending writes
+     */
+    public int getPendingWriteCount() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size();
+        }
+    }
+
     /**
      * Try to open the file.
      *
@@ -177,6 +689,14 @@ public void open(String fileName, boolean readOnly, char[] encryptionKey) {
      * Close this store.
      */
     public void close() {
+        stopWritePipeline();
+        ReentrantReadWriteLock.WriteLock lock = mappedReadLock.writeLock();
+        lock.lock();
+        try {
+            unmapSegments(null);
+        } finally {
+            lock.unlock();
+        }
         try {
             if(file != null && file.isOpen()) {
                 if (fileLock != null) {
@@ -195,20 +715,42 @@ public void close() {
     }
 
     /**
-     * Flush all changes.
+     * Flush all finished writes. Asynchronous writes, which are still in
+     * progress, are not waited for. Concurrent requests are combined, so
+     * that a caller, whose writes were already forced by a sync operation
+     * of another thread, returns without forcing the file again.
      */
     public void sync() {
         if (file != null) {
-            try {
-                file.force(true);
-            } catch (IOException e) {
-                throw DataUtils.newMVStoreException(
-                        DataUtils.ERROR_WRITING_FAILED,
-                        "Could not sync file {0}", fileName, e);
+            long requested = writeCount.get();
+            synchronized (syncLock) {
+                if (syncedWriteCount >= requested && syncCount.get() > 0) {
+                    return;
+                }
+                long current = writeCount.get();
+                try {
+                    file.force(true);
+                } catch (IOException e) {
+                    throw DataUtils.newMVStoreException(
+                            DataUtils.ERROR_WRITING_FAILED,
+                            "Could not sync file {0}", fileName, e);
+                }
+                syncedWriteCount = current;
+                syncCount.incrementAndGet();
             }
         }
     }
 
+    /**
+     * Get the number of times the file was forced to the storage device since
+     * this store was opened.
+     *
+     * @return the number of sync operations
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
     /**
      * Get the file size.
      *
@@ -224,23 +766,34 @@ public long size() {
      * @param size the new file size
      */
     public void truncate(long size) {
-        int attemptCount = 0;
-        while (true) {
-            try {
-                writeCount.incrementAndGet();
-                file.truncate(size);
-                fileSize = Math.min(fileSize, size);
-                return;
-            } catch (IOException e) {
-                if (++attemptCount == 10) {
-                    throw DataUtils.newMVStoreException(
-                            DataUtils.ERROR_WRITING_FAILED,
-                            "Could not truncate file {0} to size {1}",
-                            fileName, size, e);
+        // wait until no reader is inside a segment, and keep the file from
+        // being mapped again until it is truncated
+        ReentrantReadWriteLock.WriteLock lock = mappedReadLock.writeLock();
+        lock.lock();
+        try {
+            // segments must not extend past the end of the file, they are
+            // mapped again when read from
+            unmapSegments(new MappedByteBuffer[0]);
+            int attemptCount = 0;
+            while (true) {
+                try {
+                    writeCount.incrementAndGet();
+                    file.truncate(size);
+                    fileSize = Math.min(fileSize, size);
+                    return;
+                } catch (IOException e) {
+                    if (++attemptCount == 10) {
+                        throw DataUtils.newMVStoreException(
+                                DataUtils.ERROR_WRITING_FAILED,
+                                "Could not truncate file {0} to size {1}",
+                                fileName, size, e);
+                    }
+                    System.gc();
+                    Thread.yield();
                 }
-                System.gc();
-                Thread.yield();
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -424,4 +977,29 @@ public String getFileName() {
         return fileName;
     }
 
+    /**
+     * An asynchronous write, submitted to the write pipeline.
+     */
+    private static final class PendingWrite {
+
+        final long pos;
+
+        final int len;
+
+        final Consumer<MVStoreException> onCompletion;
+
+        /**
+         * Whether the write itself is finished (successfully or not).
+         */
+        boolean done;
+
+        Throwable failure;
+
+        PendingWrite(long pos, int len, Consumer<MVStoreException> onCompletion) {
+            this.pos = pos;
+            this.len = len;
+            this.onCompletion = onCompletion;
+        }
+    }
+
 }
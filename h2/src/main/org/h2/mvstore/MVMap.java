@@ -10,6 +10,7 @@
 import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -19,6 +20,7 @@
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.h2.compress.CompressorRegistry;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
 import org.h2.util.MemoryEstimator;
@@ -50,6 +52,18 @@
     private final DataType<V> valueType;
     private final int keysPerPage;
     private final boolean singleWriter;
+
+    /**
+     * The name of the compression codec for pages of this map, or null to
+     * use the compression level of the store.
+     */
+    private final String compression;
+
+    /**
+     * The maximum size of the compression dictionary, which is trained for
+     * the pages of this map, or 0 if no dictionary is used.
+     */
+    private final int dictionarySize;
     private final K[] keysBuffer;
     private final V[] valuesBuffer;
 
@@ -63,6 +77,18 @@
     private volatile  boolean closed;
     private boolean readOnly;
     private boolean isVolatile;
+
+    /**
+     * Whether pages are split at the end instead of in the middle when a key
+     * is added at the right edge of the tree.
+     */
+    private boolean appendOptimized;
+
+    /**
+     * Whether a bulk load is in progress. Pages of the map are then not
+     * rewritten by compaction, as the loader replaces the root.
+     */
+    private volatile boolean bulkLoading;
     private final AtomicLong avgKeySize;
     private final AtomicLong avgValSize;
 
@@ -72,6 +98,12 @@
      */
     static final long INITIAL_VERSION = -1;
 
+    /**
+     * The maximum size of a compression dictionary. Back-references of LZ4
+     * can not reach further.
+     */
+    static final int MAX_DICTIONARY_SIZE = 0xffff;
+
 
     protected MVMap(Map<String, Object> config, DataType<K> keyType, DataType<V> valueType) {
         this((MVStore) config.get("store"), keyType, valueType,
@@ -79,7 +111,9 @@ protected MVMap(Map<String, Object> config, DataType<K> keyType, DataType<V> val
                 DataUtils.readHexLong(config, "createVersion", 0),
                 new AtomicReference<>(),
                 ((MVStore) config.get("store")).getKeysPerPage(),
-                config.containsKey("singleWriter") && (Boolean) config.get("singleWriter")
+                config.containsKey("singleWriter") && (Boolean) config.get("singleWriter"),
+                checkCompression((String) config.get("compression")),
+                DataUtils.readHexInt(config, "dictionary", 0)
         );
         setInitialRoot(createEmptyLeaf(), store.getCurrentVersion());
     }
@@ -88,17 +122,19 @@ protected MVMap(Map<String, Object> config, DataType<K> keyType, DataType<V> val
     @SuppressWarnings("CopyConstructorMissesField")
     protected MVMap(MVMap<K, V> source) {
         this(source.store, source.keyType, source.valueType, source.id, source.createVersion,
-                new AtomicReference<>(source.root.get()), source.keysPerPage, source.singleWriter);
+                new AtomicReference<>(source.root.get()), source.keysPerPage, source.singleWriter,
+                source.compression, source.dictionarySize);
     }
 
     // meta map constructor
     MVMap(MVStore store, int id, DataType<K> keyType, DataType<V> valueType) {
-        this(store, keyType, valueType, id, 0, new AtomicReference<>(), store.getKeysPerPage(), false);
+        this(store, keyType, valueType, id, 0, new AtomicReference<>(), store.getKeysPerPage(), false, null, 0);
         setInitialRoot(createEmptyLeaf(), store.getCurrentVersion());
     }
 
     private MVMap(MVStore store, DataType<K> keyType, DataType<V> valueType, int id, long createVersion,
-            AtomicReference<RootReference<K,V>> root, int keysPerPage, boolean singleWriter) {
+            AtomicReference<RootReference<K,V>> root, int keysPerPage, boolean singleWriter, String compression,
+            int dictionarySize) {
         this.store = store;
         this.id = id;
         this.createVersion = createVersion;
@@ -109,11 +145,20 @@ private MVMap(MVStore store, DataType<K> keyType, DataType<V> valueType, int id,
         this.keysBuffer = singleWriter ? keyType.createStorage(keysPerPage) : null;
         this.valuesBuffer = singleWriter ? valueType.createStorage(keysPerPage) : null;
         this.singleWriter = singleWriter;
+        this.compression = compression;
+        this.dictionarySize = dictionarySize;
         this.avgKeySize = keyType.isMemoryEstimationAllowed() ? new AtomicLong() : null;
         this.avgValSize = valueType.isMemoryEstimationAllowed() ? new AtomicLong() : null;
 
     }
 
+    private static String checkCompression(String compression) {
+        if (compression != null && CompressorRegistry.getAlgorithm(compression) < 0) {
+            throw DataUtils.newIllegalArgumentException("Unsupported compression algorithm {0}", compression);
+        }
+        return compression;
+    }
+
     /**
      * Clone the current map.
      *
@@ -619,6 +664,25 @@ boolean isSingleWriter() {
         return singleWriter;
     }
 
+    /**
+     * Get the name of the compression codec used for pages of this map.
+     *
+     * @return the codec name, or null if the compression level of the store
+     *         is used
+     */
+    public final String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Get the maximum size of the compression dictionary of this map.
+     *
+     * @return the size in bytes, or 0 if no dictionary is used
+     */
+    public final int getDictionarySize() {
+        return dictionarySize;
+    }
+
     /**
      * Read a page.
      *
@@ -672,8 +736,13 @@ final boolean rewritePage(long pagePos) {
             return true;
         }
         assert p.isSaved();
-        K key = p.getKey(0);
-        if (!isClosed()) {
+        // the keys of a node are separators, which are not necessarily in the map
+        Page<K,V> leaf = p;
+        while (!leaf.isLeaf()) {
+            leaf = leaf.getChildPage(0);
+        }
+        K key = leaf.getKey(0);
+        if (!isClosed() && !bulkLoading) {
             RewriteDecisionMaker<V> decisionMaker = new RewriteDecisionMaker<>(p.getPos());
             V result = operate(key, null, decisionMaker);
             boolean res = decisionMaker.getDecision() != Decision.ABORT;
@@ -922,6 +991,30 @@ public final void setVolatile(boolean isVolatile) {
         this.isVolatile = isVolatile;
     }
 
+    /**
+     * Set whether the map is optimized for keys which are mostly added in
+     * ascending order, as row ids or timestamps. If a key is added after the
+     * last key of the map and the page has to be split, the old page is left
+     * full and the new page only contains the new key, instead of splitting
+     * the page in the middle. This way, pages of such maps are completely
+     * filled instead of half. Keys added elsewhere are not affected.
+     *
+     * @param appendOptimized the new value
+     */
+    public final void setAppendOptimized(boolean appendOptimized) {
+        this.appendOptimized = appendOptimized;
+    }
+
+    /**
+     * Whether the map is optimized for keys added in ascending order.
+     *
+     * @return true if it is
+     * @see #setAppendOptimized(boolean)
+     */
+    public final boolean isAppendOptimized() {
+        return appendOptimized;
+    }
+
     /**
      * Whether this is volatile map, meaning that changes
      * are not persisted. By default (even if the store is not persisted),
@@ -1107,6 +1200,12 @@ protected String asString(String name) {
         if (type != null) {
             DataUtils.appendMap(buff, "type", type);
         }
+        if (compression != null) {
+            DataUtils.appendMap(buff, "compression", compression);
+        }
+        if (dictionarySize != 0) {
+            DataUtils.appendMap(buff, "dictionary", dictionarySize);
+        }
         return buff.toString();
     }
 
@@ -1423,6 +1522,27 @@ public void trimLast() {
         }
     }
 
+    /**
+     * Create a loader that builds the tree of this map bottom-up from entries
+     * supplied in ascending key order. Pages are filled completely and written
+     * once, instead of being copied and split by each put. The map must be
+     * empty, and must not be modified by other threads until the load is
+     * finished. Entries are visible to readers only after
+     * {@link BulkLoader#finish()}, except for parts of the tree that are
+     * published early to let large loads be stored incrementally.
+     *
+     * @return the loader
+     * @throws IllegalStateException if the map is not empty, or a bulk load
+     *             is already in progress
+     */
+    public final BulkLoader<K,V> bulkLoader() {
+        if (!isEmpty() || bulkLoading) {
+            throw new IllegalStateException("Map is not empty or already being loaded");
+        }
+        bulkLoading = true;
+        return new BulkLoader<>(this);
+    }
+
     @Override
     public final String toString() {
         return asString(null);
@@ -1466,6 +1586,8 @@ public final String toString() {
 
         private DataType<K> keyType;
         private DataType<V> valueType;
+        private String compression;
+        private int dictionarySize;
 
         /**
          * Create a new builder with the default key and value data types.
@@ -1518,6 +1640,45 @@ public BasicBuilder<M, K, V> valueType(DataType<? super V> valueType) {
             return this;
         }
 
+        /**
+         * Set the compression codec for pages of this map, for example "LZ4"
+         * for a map, which is often read, or "DEFLATE" for a large map with
+         * rarely used data. The codec is stored in the map metadata, and takes
+         * precedence over the compression level of the store. The codec "NO"
+         * disables compression for this map.
+         *
+         * @param codec the name of a codec registered in
+         *            {@link CompressorRegistry}
+         * @return this
+         */
+        public BasicBuilder<M, K, V> compression(String codec) {
+            if (CompressorRegistry.getAlgorithm(codec) < 0) {
+                throw DataUtils.newIllegalArgumentException("Unsupported compression algorithm {0}", codec);
+            }
+            compression = codec;
+            return this;
+        }
+
+        /**
+         * Compress the pages of this map using a dictionary, which is trained
+         * from existing leaf pages when the store is compacted, and again
+         * whenever the map has doubled in size. This helps for pages, which
+         * are too small to compress well on their own, but contain similar
+         * data, for example rows with repeated strings. The dictionary is only
+         * used with a codec, which supports dictionaries (LZ4, LZ4HC,
+         * DEFLATE).
+         *
+         * @param maxSize the maximum size of the dictionary in bytes
+         * @return this
+         */
+        public BasicBuilder<M, K, V> compressionDictionary(int maxSize) {
+            if (maxSize <= 0 || maxSize > MAX_DICTIONARY_SIZE) {
+                throw DataUtils.newIllegalArgumentException("Unsupported dictionary size {0}", maxSize);
+            }
+            dictionarySize = maxSize;
+            return this;
+        }
+
         @Override
         public M create(MVStore store, Map<String, Object> config) {
             if (getKeyType() == null) {
@@ -1531,6 +1692,13 @@ public M create(MVStore store, Map<String, Object> config) {
             config.put("store", store);
             config.put("key", keyType);
             config.put("val", valueType);
+            if (compression != null) {
+                // the codec of an existing map is kept
+                config.putIfAbsent("compression", compression);
+            }
+            if (dictionarySize != 0) {
+                config.putIfAbsent("dictionary", dictionarySize);
+            }
             return create(config);
         }
 
@@ -1566,6 +1734,18 @@ public Builder<K, V> valueType(DataType<? super V> dataType) {
             return this;
         }
 
+        @Override
+        public Builder<K, V> compression(String codec) {
+            super.compression(codec);
+            return this;
+        }
+
+        @Override
+        public Builder<K, V> compressionDictionary(int maxSize) {
+            super.compressionDictionary(maxSize);
+            return this;
+        }
+
         /**
          * Set up this Builder to produce MVMap, which can be used in append mode
          * by a single thread.
@@ -1818,14 +1998,17 @@ public V operate(K key, V value, DecisionMaker<? super V> decisionMaker) {
                         value = decisionMaker.selectValue(result, value);
                         p = p.copy();
                         if (index < 0) {
+                            boolean append = appendOptimized && isRightEdge(-index - 1, tip);
                             p.insertLeaf(-index - 1, key, value);
                             int keyCount;
                             while ((keyCount = p.getKeyCount()) > store.getKeysPerPage()
                                     || p.getMemory() > store.getMaxPageSize()
                                     && keyCount > (p.isLeaf() ? 1 : 2)) {
                                 long totalCount = p.getTotalCount();
-                                int at = keyCount >> 1;
-                                K k = p.getKey(at);
+                                // a node keeps at least one key in the new page
+                                int at = append ? keyCount - (p.isLeaf() ? 1 : 2) : keyCount >> 1;
+                                // a separator pushed up from a leaf does not need to be a real key
+                                K k = p.isLeaf() ? keyType.getSeparator(p.getKey(at - 1), p.getKey(at)) : p.getKey(at);
                                 Page<K,V> split = p.split(at);
                                 unsavedMemoryHolder.value += p.getMemory() + split.getMemory();
                                 if (pos == null) {
@@ -1869,6 +2052,26 @@ public V operate(K key, V value, DecisionMaker<? super V> decisionMaker) {
         }
     }
 
+    /**
+     * Check whether the given insertion point is after the last key of the
+     * map.
+     *
+     * @param insertionPoint the position in the leaf
+     * @param pos the cursor position of the leaf
+     * @return true if it is
+     */
+    private static <K,V> boolean isRightEdge(int insertionPoint, CursorPos<K,V> pos) {
+        if (insertionPoint != pos.page.getKeyCount()) {
+            return false;
+        }
+        for (pos = pos.parent; pos != null; pos = pos.parent) {
+            if (pos.index != pos.page.getKeyCount()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private RootReference<K,V> lockRoot(RootReference<K,V> rootReference, int attempt) {
         while(true) {
             RootReference<K,V> lockedRootReference = tryLock(rootReference, attempt++);
@@ -2102,6 +2305,257 @@ public String toString() {
         }
     }
 
+    /**
+     * Builds the tree of an empty map bottom-up from entries in ascending key
+     * order. Leaves are filled up to the page size and passed to the level
+     * above, where the same happens with the child references, so each page is
+     * created once and never split. Once enough unsaved pages have
+     * accumulated, the completed part of the tree is made the root of the map
+     * together with a temporary right-most path, so that the store can write
+     * it and release the memory; this path is rebuilt on the next publish.
+     *
+     * @param <K> the key class
+     * @param <V> the value class
+     */
+    public static final class BulkLoader<K,V> {
+
+        private final MVMap<K,V> map;
+        private final int keysPerPage;
+        private final long maxPageSize;
+
+        /**
+         * The entries of the leaf being filled.
+         */
+        private final K[] keys;
+        private final V[] values;
+        private int keyCount;
+        private long leafMemory;
+        private K lastKey;
+
+        /**
+         * The last key of the previous leaf, or null.
+         */
+        private K lastLeafKey;
+
+        /**
+         * The children that are not yet part of an internal page, per level,
+         * starting with the level above the leaves.
+         */
+        private final ArrayList<Level<K,V>> levels = new ArrayList<>();
+
+        /**
+         * The memory of the pages created since the last publish.
+         */
+        private long unpublishedMemory;
+
+        /**
+         * The root page that was set by the last publish (or found at start),
+         * and the temporary internal pages of its right-most path.
+         */
+        private Page<K,V> publishedRoot;
+        private List<Page<K,V>> publishedPath = new ArrayList<>();
+        private boolean finished;
+
+        BulkLoader(MVMap<K,V> map) {
+            this.map = map;
+            keysPerPage = map.keysPerPage;
+            maxPageSize = map.store.getMaxPageSize();
+            keys = map.keyType.createStorage(keysPerPage);
+            values = map.valueType.createStorage(keysPerPage);
+            publishedRoot = map.getRootPage();
+        }
+
+        /**
+         * Add an entry. The key must be larger than all keys added so far.
+         *
+         * @param key the key (may not be null)
+         * @param value the value (may not be null)
+         * @throws IllegalArgumentException if the key is not larger than the
+         *             previous key
+         */
+        public void add(K key, V value) {
+            if (finished) {
+                throw new IllegalStateException("Bulk load is finished");
+            }
+            DataUtils.checkArgument(key != null && value != null, "Key and value may not be null");
+            if (lastKey != null && map.compare(key, lastKey) <= 0) {
+                throw DataUtils.newIllegalArgumentException(
+                        "Key {0} is not larger than the previous key {1}", key, lastKey);
+            }
+            lastKey = key;
+            if (keyCount == keysPerPage || keyCount > 0 && leafMemory >= maxPageSize) {
+                flushLeaf();
+                if (map.isPersistent() && unpublishedMemory > map.store.getAutoCommitMemory()
+                        && map.store.getAutoCommitMemory() > 0) {
+                    publish();
+                }
+            }
+            keys[keyCount] = key;
+            values[keyCount] = value;
+            keyCount++;
+            leafMemory += map.keyType.getMemory(key) + map.valueType.getMemory(value) + 2 * MEMORY_POINTER;
+        }
+
+        /**
+         * Complete the tree and make it the root of the map. This method needs
+         * to be called even if the load is abandoned, to end the bulk load
+         * mode of the map.
+         */
+        public void finish() {
+            if (!finished) {
+                finished = true;
+                try {
+                    flushLeaf();
+                    publish();
+                } finally {
+                    map.bulkLoading = false;
+                }
+            }
+        }
+
+        private void flushLeaf() {
+            if (keyCount > 0) {
+                Page<K,V> leaf = Page.createLeaf(map, Arrays.copyOf(keys, keyCount),
+                        Arrays.copyOf(values, keyCount), 0);
+                K firstKey = keys[0];
+                if (lastLeafKey != null) {
+                    firstKey = map.keyType.getSeparator(lastLeafKey, firstKey);
+                }
+                lastLeafKey = keys[keyCount - 1];
+                Arrays.fill(keys, 0, keyCount, null);
+                Arrays.fill(values, 0, keyCount, null);
+                keyCount = 0;
+                leafMemory = 0;
+                addPage(0, firstKey, leaf);
+            }
+        }
+
+        private void addPage(int level, K firstKey, Page<K,V> page) {
+            if (map.isPersistent()) {
+                unpublishedMemory += page.getMemory();
+            }
+            if (level == levels.size()) {
+                levels.add(new Level<>());
+            }
+            Level<K,V> l = levels.get(level);
+            int size = l.children.size();
+            if (size > keysPerPage || size > 1 && l.memory >= maxPageSize) {
+                K key = l.firstKeys.get(0);
+                Page<K,V> node = l.createNode(map, null, null);
+                l.clear();
+                addPage(level + 1, key, node);
+            }
+            l.add(map.keyType, firstKey, new Page.PageReference<>(page));
+        }
+
+        /**
+         * Make the completed pages plus a new right-most path the root of the
+         * map, and remove the previous right-most path.
+         */
+        private void publish() {
+            ArrayList<Page<K,V>> path = new ArrayList<>();
+            Page.PageReference<K,V> top = null;
+            K topKey = null;
+            for (Level<K,V> l : levels) {
+                int size = l.children.size() + (top == null ? 0 : 1);
+                if (size == 1) {
+                    if (top == null) {
+                        top = l.children.get(0);
+                        topKey = l.firstKeys.get(0);
+                    }
+                } else if (size > 1) {
+                    K key = l.firstKeys.get(0);
+                    Page<K,V> node = l.createNode(map, topKey, top);
+                    path.add(node);
+                    top = new Page.PageReference<>(node);
+                    topKey = key;
+                }
+            }
+            Page<K,V> rootPage;
+            if (top == null) {
+                rootPage = map.createEmptyLeaf();
+            } else {
+                rootPage = top.getPage();
+                if (rootPage == null) {
+                    rootPage = map.readPage(top.getPos());
+                }
+            }
+            int unsavedMemory = (int) unpublishedMemory;
+            for (Page<K,V> p : path) {
+                unsavedMemory += p.getMemory();
+            }
+            map.beforeWrite();
+            RootReference<K,V> rootReference = map.lockRoot(map.getRoot(), 1);
+            Page<K,V> newRootPage = null;
+            try {
+                if (rootReference.root != publishedRoot) {
+                    throw DataUtils.newMVStoreException(DataUtils.ERROR_INTERNAL,
+                            "Map {0} was modified during bulk load", map.getId());
+                }
+                long version = rootReference.version;
+                for (Page<K,V> p : publishedPath) {
+                    unsavedMemory += p.removePage(version);
+                }
+                newRootPage = rootPage;
+            } finally {
+                map.unlockRoot(newRootPage);
+            }
+            if (map.isPersistent()) {
+                map.store.registerUnsavedMemory(unsavedMemory);
+            }
+            publishedRoot = rootPage;
+            publishedPath = path;
+            unpublishedMemory = 0;
+        }
+    }
+
+    /**
+     * The children of an internal page that is still being filled.
+     *
+     * @param <K> the key class
+     * @param <V> the value class
+     */
+    private static final class Level<K,V> {
+
+        final ArrayList<K> firstKeys = new ArrayList<>();
+        final ArrayList<Page.PageReference<K,V>> children = new ArrayList<>();
+        long memory;
+
+        Level() {}
+
+        void add(DataType<K> keyType, K firstKey, Page.PageReference<K,V> child) {
+            firstKeys.add(firstKey);
+            children.add(child);
+            memory += keyType.getMemory(firstKey) + MEMORY_POINTER + Page.PAGE_MEMORY_CHILD;
+        }
+
+        /**
+         * Create an internal page from the children, optionally followed by
+         * one more child.
+         */
+        Page<K,V> createNode(MVMap<K,V> map, K lastFirstKey, Page.PageReference<K,V> last) {
+            int size = children.size() + (last == null ? 0 : 1);
+            K[] keys = map.keyType.createStorage(size - 1);
+            Page.PageReference<K,V>[] refs = Page.createRefStorage(size);
+            long totalCount = 0;
+            for (int i = 0; i < size; i++) {
+                Page.PageReference<K,V> ref = i < children.size() ? children.get(i) : last;
+                if (i > 0) {
+                    keys[i - 1] = i < children.size() ? firstKeys.get(i) : lastFirstKey;
+                }
+                refs[i] = ref;
+                totalCount += ref.count;
+            }
+            return Page.createNode(map, keys, refs, totalCount, 0);
+        }
+
+        void clear() {
+            firstKeys.clear();
+            children.clear();
+            memory = 0;
+        }
+    }
+
     private static final class IntValueHolder {
         int value;
 
@@ -18,12 +18,14 @@
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -44,8 +46,12 @@
 import org.h2.compress.CompressDeflate;
 import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
+import org.h2.compress.DictionaryTrainer;
 import org.h2.mvstore.cache.CacheLongKeyLIRS;
+import org.h2.mvstore.cache.OffHeapPageCache;
 import org.h2.mvstore.type.StringDataType;
+import org.h2.store.fs.FilePath;
+import org.h2.store.fs.disk.FilePathDisk;
 import org.h2.util.MathUtils;
 import org.h2.util.Utils;
 
@@ -166,9 +172,16 @@ public class MVStore implements AutoCloseable {
     static final int BLOCK_SIZE = 4 * 1024;
 
     private static final int FORMAT_WRITE_MIN = 2;
-    private static final int FORMAT_WRITE_MAX = 2;
+    private static final int FORMAT_WRITE_MAX = 3;
     private static final int FORMAT_READ_MIN = 2;
-    private static final int FORMAT_READ_MAX = 2;
+    private static final int FORMAT_READ_MAX = 3;
+
+    /**
+     * The format of new stores. The format is upgraded when the first page is
+     * written, which older versions can not read, see
+     * {@link #getPageFormat(int)}.
+     */
+    private static final int FORMAT_DEFAULT = 2;
 
     /**
      * Store is open.
@@ -194,6 +207,22 @@ public class MVStore implements AutoCloseable {
 
     private static final int PIPE_LENGTH = 1;
 
+    /**
+     * The minimum number of unsaved pages in a chunk to serialize them
+     * using multiple threads.
+     */
+    private static final int PARALLEL_SERIALIZATION_MIN_PAGES = 64;
+
+    /**
+     * The number of pages a serialization worker takes at a time.
+     */
+    private static final int PARALLEL_SERIALIZATION_BATCH = 8;
+
+    /**
+     * The number of leaf pages sampled to train a compression dictionary.
+     */
+    private static final int DICTIONARY_SAMPLE_PAGES = 64;
+
 
     /**
      * Lock which governs access to major store operations: store(), close(), ...
@@ -219,6 +248,17 @@ public class MVStore implements AutoCloseable {
      */
     private ThreadPoolExecutor bufferSaveExecutor;
 
+    /**
+     * Executor for serialization and compression of individual pages
+     * in parallel, or null if pages are serialized by a single thread
+     */
+    private final ThreadPoolExecutor serializationWorkers;
+
+    /**
+     * The number of threads used to serialize pages of a chunk.
+     */
+    private final int serializationThreads;
+
     private volatile boolean reuseSpace = true;
 
     private volatile int state;
@@ -245,6 +285,13 @@ public class MVStore implements AutoCloseable {
      */
     private final CacheLongKeyLIRS<long[]> chunksToC;
 
+    /**
+     * The second level page cache, which contains serialized pages, as they
+     * are stored in the file, in direct memory. It is used if a page is not in
+     * the page cache. Keyed by page position. Null if disabled.
+     */
+    private final OffHeapPageCache offHeapCache;
+
     /**
      * The newest chunk. If nothing was stored yet, this field is not set.
      */
@@ -292,10 +339,52 @@ public class MVStore implements AutoCloseable {
      */
     private final int compressionLevel;
 
+    /**
+     * Whether the sorted keys of new pages are written relative to each
+     * other, if the key type supports it.
+     */
+    private final boolean compressKeys;
+
     private Compressor compressorFast;
 
     private Compressor compressorHigh;
 
+    /**
+     * The compressors used to write pages while holding the serialization
+     * lock.
+     */
+    private final CompressorCache compressorCache;
+
+    /**
+     * The newest compression dictionary of each map, which may be used to
+     * write pages, by map id.
+     */
+    private final ConcurrentHashMap<Integer, CompressionDictionary> activeDictionaries = new ConcurrentHashMap<>();
+
+    /**
+     * The compression dictionaries, which were added to the meta map, but not
+     * stored so far. Guarded by the serialization lock.
+     */
+    private final ArrayList<CompressionDictionary> pendingDictionaries = new ArrayList<>();
+
+    /**
+     * The data of older compression dictionaries, which are needed to read
+     * pages, by map id and dictionary id.
+     */
+    private final ConcurrentHashMap<Long, byte[]> dictionaryCache = new ConcurrentHashMap<>();
+
+    /**
+     * The id of the last compression dictionary. Guarded by the serialization
+     * lock.
+     */
+    private int lastDictionaryId;
+
+    /**
+     * The id of the last compression dictionary, which may be used to write
+     * pages. Guarded by the serialization lock.
+     */
+    private int lastActiveDictionaryId;
+
     private final boolean recoveryMode;
 
     public final UncaughtExceptionHandler backgroundExceptionHandler;
@@ -354,11 +443,114 @@ public class MVStore implements AutoCloseable {
      */
     private int autoCommitDelay;
 
+    /**
+     * The maximum number of commits combined into a single chunk write and
+     * sync by {@link #groupCommit()}, or 0 if group commit is disabled.
+     */
+    private final int groupCommitMaxBatch;
+
+    /**
+     * The maximum time in nanoseconds a group commit waits for other commits
+     * to join its batch.
+     */
+    private final long groupCommitMaxWait;
+
+    /**
+     * The monitor for the group commit state and counters below.
+     */
+    private final Object groupCommitLock = new Object();
+
+    /**
+     * The group commit batch, which is still open for other commits to join,
+     * or null.
+     */
+    private GroupCommitBatch groupCommitBatch;
+
+    private long groupCommitCount;
+    private long groupCommitTransactionCount;
+    private int groupCommitLargestBatch;
+
+    /**
+     * The format required by the pages written so far.
+     */
+    private volatile int pageFormat = FORMAT_DEFAULT;
+
     private final int autoCompactFillRate;
     private long autoCompactLastFileOpCount;
 
+    /**
+     * The number of bytes per second the background compaction may re-write
+     * or move, or 0 if background compaction is not throttled.
+     */
+    private final long autoCompactRate;
+
+    /**
+     * The maximum time in nanoseconds a single throttled compaction step
+     * should hold the store lock.
+     */
+    private final long autoCompactMaxPause;
+
+    /**
+     * The number of bytes the throttled compaction may still write, before
+     * it has to wait for the budget to grow again. Negative if the last step
+     * wrote more than the budget.
+     */
+    private long autoCompactBudget;
+
+    /**
+     * The time (System.nanoTime()) the compaction budget was last updated.
+     */
+    private long autoCompactBudgetTime;
+
+    /**
+     * The maximum number of bytes the next throttled compaction step may
+     * write. It is halved if a step takes longer than the maximum pause, and
+     * doubled if a step is much faster.
+     */
+    private long autoCompactStepSize;
+
+    /**
+     * Whether compaction is running, so that its own commits are not taken
+     * into account for the commit latency.
+     */
+    private boolean compactionInProgress;
+
+    /**
+     * The moving average of the duration of a store operation, in
+     * nanoseconds.
+     */
+    private volatile long commitLatencyAverage;
+
+    /**
+     * The time (System.nanoTime()) of the last store operation, which took
+     * much longer than average, or 0.
+     */
+    private volatile long slowCommitTime;
+
+    private volatile long compactStepCount;
+    private volatile long compactBackoffCount;
+    private volatile long compactRewrittenChunkCount;
+    private volatile long compactWrittenBytes;
+    private volatile long compactMaxStepTime;
+
     private volatile MVStoreException panicException;
 
+    /**
+     * The action to run before the roots of the maps are captured for a new
+     * version, or null.
+     */
+    private volatile Runnable beforeStoreAction;
+
+    /**
+     * The action to run in the background thread after each write, or null.
+     */
+    private volatile Runnable backgroundAction;
+
+    /**
+     * Whether the store file was not closed properly the last time.
+     */
+    private boolean uncleanShutdown;
+
     private long lastTimeAbsolute;
 
     private long leafCount;
@@ -376,6 +568,8 @@ public class MVStore implements AutoCloseable {
     MVStore(Map<String, Object> config) {
         recoveryMode = config.containsKey("recoveryMode");
         compressionLevel = DataUtils.getConfigParam(config, "compress", 0);
+        compressorCache = new CompressorCache(compressionLevel);
+        compressKeys = config.containsKey("compressKeys");
         String fileName = (String) config.get("fileName");
         FileStore fileStore = (FileStore) config.get("fileStore");
         if (fileStore == null) {
@@ -390,10 +584,15 @@ public class MVStore implements AutoCloseable {
             fileStoreIsProvided = true;
         }
         this.fileStore = fileStore;
+        groupCommitMaxBatch = fileStore == null ? 0
+                : Math.max(0, DataUtils.getConfigParam(config, "groupCommitMaxBatch", 0));
+        groupCommitMaxWait = TimeUnit.MICROSECONDS.toNanos(
+                Math.max(0, DataUtils.getConfigParam(config, "groupCommitMaxWait", 1000)));
 
         int pgSplitSize = 48; // for "mem:" case it is # of keys
         CacheLongKeyLIRS.Config cc = null;
         CacheLongKeyLIRS.Config cc2 = null;
+        long offHeapCacheSize = 0;
         if (this.fileStore != null) {
             int mb = DataUtils.getConfigParam(config, "cacheSize", 16);
             if (mb > 0) {
@@ -403,9 +602,12 @@ public class MVStore implements AutoCloseable {
                 if (o != null) {
                     cc.segmentCount = (Integer)o;
                 }
+                cc.readBufferSize = DataUtils.getConfigParam(config, "cacheReadBufferSize", 0);
             }
             cc2 = new CacheLongKeyLIRS.Config();
             cc2.maxMemory = 1024L * 1024L;
+            mb = DataUtils.getConfigParam(config, "offHeapCacheSize", 0);
+            offHeapCacheSize = mb * 1024L * 1024L;
             pgSplitSize = 16 * 1024;
         }
         if (cc != null) {
@@ -414,6 +616,7 @@ public class MVStore implements AutoCloseable {
             cache = null;
         }
         chunksToC = cc2 == null ? null : new CacheLongKeyLIRS<>(cc2);
+        offHeapCache = offHeapCacheSize <= 0 ? null : new OffHeapPageCache(offHeapCacheSize);
 
         pgSplitSize = DataUtils.getConfigParam(config, "pageSplitSize", pgSplitSize);
         // Make sure pages will fit into cache
@@ -432,6 +635,8 @@ public class MVStore implements AutoCloseable {
             kb = DataUtils.getConfigParam(config, "autoCommitBufferSize", kb);
             autoCommitMemory = kb * 1024;
             autoCompactFillRate = DataUtils.getConfigParam(config, "autoCompactFillRate", 90);
+            autoCompactRate = DataUtils.getConfigParam(config, "autoCompactRate", 0) * 1024L;
+            autoCompactMaxPause = DataUtils.getConfigParam(config, "autoCompactMaxPause", 50) * 1_000_000L;
             char[] encryptionKey = (char[]) config.get("encryptionKey");
             // there is no need to lock store here, since it is not opened (or even created) yet,
             // just to make some assertions happy, when they ensure single-threaded access
@@ -447,7 +652,7 @@ public class MVStore implements AutoCloseable {
                         creationTime = getTimeAbsolute();
                         storeHeader.put(HDR_H, 2);
                         storeHeader.put(HDR_BLOCK_SIZE, BLOCK_SIZE);
-                        storeHeader.put(HDR_FORMAT, FORMAT_WRITE_MAX);
+                        storeHeader.put(HDR_FORMAT, FORMAT_DEFAULT);
                         storeHeader.put(HDR_CREATED, creationTime);
                         setLastChunk(null);
                         writeStoreHeader();
@@ -467,19 +672,36 @@ public class MVStore implements AutoCloseable {
             }
             lastCommitTime = getTimeSinceCreation();
 
+            // only positional writes to a plain file may be performed
+            // concurrently
+            boolean concurrentWrites = !fileStoreIsProvided && encryptionKey == null
+                    && FilePath.get(fileName) instanceof FilePathDisk;
+            this.fileStore.startWritePipeline(
+                    concurrentWrites ? DataUtils.getConfigParam(config, "writeThreads", 0) : 0);
+            if (config.containsKey("mappedReads")) {
+                this.fileStore.startMappedReads();
+            }
+
             meta = openMetaMap();
             scrubLayoutMap();
             scrubMetaMap();
+            loadDictionaries();
 
             // setAutoCommitDelay starts the thread, but only if
             // the parameter is different from the old value
             int delay = DataUtils.getConfigParam(config, "autoCommitDelay", 1000);
             setAutoCommitDelay(delay);
+            serializationThreads = fileStore.isReadOnly() ? 1 : Math.max(1, DataUtils.getConfigParam(config,
+                    "serializationThreads", Math.min(4, Runtime.getRuntime().availableProcessors())));
         } else {
             autoCommitMemory = 0;
             autoCompactFillRate = 0;
+            autoCompactRate = 0;
+            autoCompactMaxPause = 0;
+            serializationThreads = 1;
             meta = openMetaMap();
         }
+        serializationWorkers = serializationThreads > 1 ? createSerializationWorkers(serializationThreads) : null;
         onVersionChange(currentVersion);
     }
 
@@ -573,6 +795,25 @@ private void scrubMetaMap() {
         }
     }
 
+    private void loadDictionaries() {
+        String prefix = DataUtils.META_DICTIONARY;
+        for (Iterator<String> it = meta.keyIterator(prefix); it.hasNext();) {
+            String key = it.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            int separator = key.indexOf('.', prefix.length());
+            int mapId = DataUtils.parseHexInt(key.substring(prefix.length(), separator));
+            int id = DataUtils.parseHexInt(key.substring(separator + 1));
+            CompressionDictionary current = activeDictionaries.get(mapId);
+            if (current == null || current.id < id) {
+                activeDictionaries.put(mapId, CompressionDictionary.fromString(mapId, id, meta.get(key)));
+            }
+            lastDictionaryId = Math.max(lastDictionaryId, id);
+        }
+        lastActiveDictionaryId = lastDictionaryId;
+    }
+
     private void unlockAndCheckPanicCondition() {
         storeLock.unlock();
         if (getPanicException() != null) {
@@ -990,6 +1231,7 @@ private void readStoreHeader() {
         }
 
         if (!assumeCleanShutdown) {
+            uncleanShutdown = newest != null;
             boolean quickRecovery = false;
             if (!recoveryMode) {
                 // now we know, that previous shutdown did not go well and file
@@ -1318,6 +1560,9 @@ private void closeStore(boolean normalShutdown, int allowedCompactionTime) {
                                     doMaintenance(autoCompactFillRate);
                                 }
 
+                                // the completion of the writes needs the
+                                // save chunk lock
+                                fileStore.awaitPendingWrites();
                                 saveChunkLock.lock();
                                 try {
                                     shrinkFileIfPossible(0);
@@ -1341,12 +1586,17 @@ private void closeStore(boolean normalShutdown, int allowedCompactionTime) {
                             chunks.clear();
                             maps.clear();
                         } finally {
-                            if (fileStore != null && !fileStoreIsProvided) {
-                                fileStore.close();
+                            if (fileStore != null) {
+                                if (fileStoreIsProvided) {
+                                    fileStore.stopWritePipeline();
+                                } else {
+                                    fileStore.close();
+                                }
                             }
                         }
                     } finally {
                         state = STATE_CLOSED;
+                        shutdownExecutor(serializationWorkers);
                     }
                 }
             } finally {
@@ -1474,6 +1724,149 @@ private long commit(Predicate<MVStore> check) {
         return currentVersion;
     }
 
+    /**
+     * Commit the changes and sync them to disk. If group commit is enabled,
+     * the calling thread either becomes the leader of a new batch, or joins
+     * the batch which is currently open. The leader waits until the batch is
+     * full or the maximum wait time has passed, then writes a single chunk and
+     * syncs the file once for all commits of the batch, and finally releases
+     * them together. If group commit is disabled, this is the same as
+     * {@link #commit()}.
+     *
+     * @return the new version (incremented if there were changes)
+     */
+    public long groupCommit() {
+        return groupCommit(true);
+    }
+
+    /**
+     * Commit the changes and sync them to disk, see {@link #groupCommit()}.
+     * If no other commits are expected, a new batch is written immediately
+     * instead of waiting for other commits to join it.
+     * <p>
+     * If the thread is interrupted, a leader stops waiting for other commits,
+     * and a commit that joined a batch still waits until the batch is
+     * written. The interrupt status is restored afterwards.
+     *
+     * @param concurrent whether other commits may follow, for example
+     *            because other transactions are open
+     * @return the new version (incremented if there were changes)
+     */
+    public long groupCommit(boolean concurrent) {
+        if (groupCommitMaxBatch <= 0 || storeLock.isHeldByCurrentThread()) {
+            return commit();
+        }
+        boolean interrupted = false;
+        GroupCommitBatch batch;
+        try {
+            synchronized (groupCommitLock) {
+                batch = groupCommitBatch;
+                if (batch != null) {
+                    if (++batch.size >= groupCommitMaxBatch) {
+                        // wake up the leader, the batch is full
+                        groupCommitLock.notifyAll();
+                    }
+                    while (!batch.done) {
+                        try {
+                            groupCommitLock.wait();
+                        } catch (InterruptedException e) {
+                            // the commit is not durable before the batch is
+                            // written
+                            interrupted = true;
+                        }
+                    }
+                    Throwable failure = batch.failure;
+                    if (failure != null) {
+                        if (failure instanceof Error) {
+                            throw (Error) failure;
+                        }
+                        throw (RuntimeException) failure;
+                    }
+                    return currentVersion;
+                }
+                batch = groupCommitBatch = new GroupCommitBatch();
+                if (concurrent) {
+                    long deadline = System.nanoTime() + groupCommitMaxWait;
+                    long remaining;
+                    while (batch.size < groupCommitMaxBatch && (remaining = deadline - System.nanoTime()) > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(groupCommitLock, remaining);
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                            break;
+                        }
+                    }
+                }
+                // commits arriving from now on start a new batch
+                groupCommitBatch = null;
+            }
+            try {
+                commit();
+                sync();
+            } catch (Throwable t) {
+                batch.failure = t;
+                throw t;
+            } finally {
+                synchronized (groupCommitLock) {
+                    batch.done = true;
+                    groupCommitCount++;
+                    groupCommitTransactionCount += batch.size;
+                    groupCommitLargestBatch = Math.max(groupCommitLargestBatch, batch.size);
+                    groupCommitLock.notifyAll();
+                }
+            }
+            return currentVersion;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Check whether group commit is enabled.
+     *
+     * @return true if {@link #groupCommit()} combines concurrent commits
+     */
+    public boolean isGroupCommit() {
+        return groupCommitMaxBatch > 0;
+    }
+
+    /**
+     * Get the number of batches written by group commit.
+     *
+     * @return the number of batches
+     */
+    public long getGroupCommitCount() {
+        synchronized (groupCommitLock) {
+            return groupCommitCount;
+        }
+    }
+
+    /**
+     * Get the number of commits, which were written as part of a group
+     * commit batch. Divided by {@link #getGroupCommitCount()}, this is the
+     * average batch size.
+     *
+     * @return the number of commits
+     */
+    public long getGroupCommitTransactionCount() {
+        synchronized (groupCommitLock) {
+            return groupCommitTransactionCount;
+        }
+    }
+
+    /**
+     * Get the size of the largest group commit batch so far.
+     *
+     * @return the number of commits in the largest batch
+     */
+    public int getGroupCommitLargestBatch() {
+        synchronized (groupCommitLock) {
+            return groupCommitLargestBatch;
+        }
+    }
+
     private void store(boolean syncWrite) {
         assert storeLock.isHeldByCurrentThread();
         assert !saveChunkLock.isHeldByCurrentThread();
@@ -1492,7 +1885,11 @@ private void store(boolean syncWrite) {
                             throw DataUtils.newMVStoreException(
                                     DataUtils.ERROR_WRITING_FAILED, "This store is read-only");
                         }
+                        long start = System.nanoTime();
                         storeNow(syncWrite, 0, () -> reuseSpace ? 0 : getAfterLastBlock());
+                        if (!compactionInProgress) {
+                            updateCommitLatency(System.nanoTime() - start);
+                        }
                     }
                 } finally {
                     // in any case reset the current store version,
@@ -1503,8 +1900,21 @@ private void store(boolean syncWrite) {
         }
     }
 
+    private void updateCommitLatency(long latency) {
+        long average = commitLatencyAverage;
+        // ignore short commits, where the variation is mostly noise
+        if (average > 0 && latency > 2 * average && latency > 1_000_000) {
+            slowCommitTime = System.nanoTime();
+        }
+        commitLatencyAverage = average == 0 ? latency : average + (latency - average) / 8;
+    }
+
     private void storeNow(boolean syncWrite, long reservedLow, Supplier<Long> reservedHighSupplier) {
         try {
+            Runnable action = beforeStoreAction;
+            if (action != null) {
+                action.run();
+            }
             lastCommitTime = getTimeSinceCreation();
             int currentUnsavedPageCount = unsavedMemory;
             // it is ok, since that path suppose to be single-threaded under storeLock
@@ -1591,12 +2001,13 @@ private void serializeAndStore(boolean syncRun, long reservedLow, Supplier<Long>
                                     ArrayList<Page<?,?>> changed, long time, long version) {
         serializationLock.lock();
         try {
+            activateDictionaries(version);
             Chunk c = createChunk(time, version);
             chunks.put(c.id, c);
             WriteBuffer buff = getWriteBuffer();
             serializeToBuffer(buff, changed, c, reservedLow, reservedHighSupplier);
 
-            submitOrRun(bufferSaveExecutor, () -> storeBuffer(c, buff, changed), syncRun);
+            submitOrRun(bufferSaveExecutor, () -> storeBuffer(c, buff, changed, syncRun), syncRun);
 
         } catch (MVStoreException e) {
             panic(e);
@@ -1648,6 +2059,7 @@ private Chunk createChunk(long time, long version) {
         c.version = version;
         c.next = Long.MAX_VALUE;
         c.occupancy = new BitSet();
+        c.dictionary = lastActiveDictionaryId;
         return c;
     }
 
@@ -1660,12 +2072,13 @@ private void serializeToBuffer(WriteBuffer buff, ArrayList<Page<?, ?>> changed,
 
         long version = c.version;
         List<Long> toc = new ArrayList<>();
+        Map<Page<?,?>, byte[]> payloads = serializePayloads(changed);
         for (Page<?,?> p : changed) {
             String key = MVMap.getMapRootKey(p.getMapId());
             if (p.getTotalCount() == 0) {
                 layout.remove(key);
             } else {
-                p.writeUnsavedRecursive(c, buff, toc);
+                p.writeUnsavedRecursive(c, buff, toc, payloads);
                 long root = p.getPos();
                 layout.put(key, Long.toHexString(root));
             }
@@ -1683,7 +2096,7 @@ private void serializeToBuffer(WriteBuffer buff, ArrayList<Page<?, ?>> changed,
         onVersionChange(version);
 
         Page<String,String> layoutRoot = layoutRootReference.root;
-        layoutRoot.writeUnsavedRecursive(c, buff, toc);
+        layoutRoot.writeUnsavedRecursive(c, buff, toc, null);
         c.layoutRootPos = layoutRoot.getPos();
         changed.add(layoutRoot);
 
@@ -1741,31 +2154,134 @@ private void serializeToBuffer(WriteBuffer buff, ArrayList<Page<?, ?>> changed,
         }
     }
 
-    private void storeBuffer(Chunk c, WriteBuffer buff, ArrayList<Page<?,?>> changed) {
-        saveChunkLock.lock();
+    /**
+     * Serialize (and compress) keys and values of all unsaved pages of the
+     * changed maps using multiple threads. Each worker uses its own buffer
+     * and compressor, and results are later stitched into the chunk in the
+     * usual order by a single thread, which assigns positions and builds
+     * the table of content.
+     *
+     * @param changed the roots of the changed maps
+     * @return the serialized payloads by page, or null if pages
+     *         are to be serialized while they are written
+     */
+    private Map<Page<?,?>, byte[]> serializePayloads(ArrayList<Page<?,?>> changed) {
+        if (serializationWorkers == null) {
+            return null;
+        }
+        ArrayList<Page<?,?>> pages = new ArrayList<>();
+        for (Page<?,?> p : changed) {
+            if (p.getTotalCount() > 0) {
+                p.collectUnsaved(pages);
+            }
+        }
+        int pageCount = pages.size();
+        if (pageCount < PARALLEL_SERIALIZATION_MIN_PAGES) {
+            return null;
+        }
+        byte[][] results = new byte[pageCount][];
+        AtomicInteger nextIndex = new AtomicInteger();
+        Runnable task = () -> {
+            WriteBuffer buff = new WriteBuffer();
+            CompressorCache compressors = new CompressorCache(compressionLevel);
+            int start;
+            while ((start = nextIndex.getAndAdd(PARALLEL_SERIALIZATION_BATCH)) < pageCount) {
+                int end = Math.min(start + PARALLEL_SERIALIZATION_BATCH, pageCount);
+                for (int i = start; i < end; i++) {
+                    results[i] = pages.get(i).serializePayload(buff, compressors);
+                }
+            }
+        };
+        int workerCount = Math.min(serializationThreads, pageCount / PARALLEL_SERIALIZATION_BATCH) - 1;
+        ArrayList<Future<?>> futures = new ArrayList<>(workerCount);
         try {
-            buff.position(0);
-            long filePos = c.block * BLOCK_SIZE;
-            write(filePos, buff.getBuffer());
-            releaseWriteBuffer(buff);
+            for (int i = 0; i < workerCount; i++) {
+                futures.add(serializationWorkers.submit(task));
+            }
+        } catch (RejectedExecutionException ignore) {
+            // store is closing, current thread will do the rest
+        }
+        // current thread participates as well
+        task.run();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_INTERNAL, "{0}", e.toString(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MVStoreException) {
+                throw (MVStoreException) cause;
+            }
+            throw DataUtils.newMVStoreException(DataUtils.ERROR_INTERNAL, "{0}", cause.toString(), cause);
+        }
+        IdentityHashMap<Page<?,?>, byte[]> payloads = new IdentityHashMap<>(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            payloads.put(pages.get(i), results[i]);
+        }
+        return payloads;
+    }
 
-            // end of the used space is not necessarily the end of the file
-            boolean storeAtEndOfFile = filePos + buff.limit() >= fileStore.size();
-            boolean writeStoreHeader = isWriteStoreHeader(c, storeAtEndOfFile);
-            lastChunk = c;
-            if (writeStoreHeader) {
-                writeStoreHeader();
+    private void storeBuffer(Chunk c, WriteBuffer buff, ArrayList<Page<?,?>> changed, boolean syncRun) {
+        try {
+            saveChunkLock.lock();
+            try {
+                upgradeFormat();
+                buff.position(0);
+                long filePos = c.block * BLOCK_SIZE;
+                // end of the used space is not necessarily the end of the file
+                boolean storeAtEndOfFile = filePos + buff.limit() >= fileStore.size();
+                fileStore.writeAsync(filePos, buff.getBuffer(),
+                        failure -> onChunkWritten(c, buff, changed, storeAtEndOfFile, failure));
+            } finally {
+                saveChunkLock.unlock();
             }
-            if (!storeAtEndOfFile) {
-                // may only shrink after the store header was written
-                shrinkFileIfPossible(1);
+            if (syncRun) {
+                fileStore.awaitPendingWrites();
             }
         } catch (MVStoreException e) {
             panic(e);
         } catch (Throwable e) {
             panic(DataUtils.newMVStoreException(DataUtils.ERROR_INTERNAL, "{0}", e.toString(), e));
-        } finally {
-            saveChunkLock.unlock();
+        }
+    }
+
+    /**
+     * Complete the write of a chunk. Chunks complete in the order in which
+     * they were written, even if several writes were in flight.
+     *
+     * @param c the written chunk
+     * @param buff the buffer, which can be re-used now
+     * @param changed the roots of the saved pages
+     * @param storeAtEndOfFile whether the chunk was written at the end of the file
+     * @param failure the exception if the write failed, or null
+     */
+    private void onChunkWritten(Chunk c, WriteBuffer buff, ArrayList<Page<?,?>> changed,
+            boolean storeAtEndOfFile, MVStoreException failure) {
+        if (failure != null) {
+            panic(failure);
+        }
+        releaseWriteBuffer(buff);
+        if (isOpenOrStopping()) {
+            saveChunkLock.lock();
+            try {
+                boolean writeStoreHeader = isWriteStoreHeader(c, storeAtEndOfFile);
+                lastChunk = c;
+                if (writeStoreHeader) {
+                    writeStoreHeader();
+                }
+                if (!storeAtEndOfFile) {
+                    // may only shrink after the store header was written
+                    shrinkFileIfPossible(1);
+                }
+            } catch (MVStoreException e) {
+                panic(e);
+            } catch (Throwable e) {
+                panic(DataUtils.newMVStoreException(DataUtils.ERROR_INTERNAL, "{0}", e.toString(), e));
+            } finally {
+                saveChunkLock.unlock();
+            }
         }
 
         for (Page<?, ?> p : changed) {
@@ -1773,6 +2289,53 @@ private void storeBuffer(Chunk c, WriteBuffer buff, ArrayList<Page<?,?>> changed
         }
     }
 
+    /**
+     * Account for a written page. If older versions can not read the page,
+     * the format of the store is upgraded before the chunk is written.
+     *
+     * @param type the type of the page
+     */
+    void accountForPageType(int type) {
+        int format = getPageFormat(type);
+        if (format > pageFormat) {
+            pageFormat = format;
+        }
+    }
+
+    /**
+     * Get the format, which is required to read a page.
+     *
+     * @param type the type of the page
+     * @return the format
+     */
+    private static int getPageFormat(int type) {
+        // older versions would expand these pages with the compressor of
+        // the store, and without the dictionary, and would read the keys and
+        // values in the plain format
+        return (type & (DataUtils.PAGE_COMPRESSED_CODEC | DataUtils.PAGE_COMPRESSED_DICTIONARY
+                | DataUtils.PAGE_SORTED_KEYS | DataUtils.PAGE_COLUMNAR_VALUES)) != 0 ? 3 : FORMAT_DEFAULT;
+    }
+
+    /**
+     * Write the store header with the format required by the pages of the
+     * chunk to be written, so that older versions refuse to open the file
+     * before they could read such a page.
+     */
+    private void upgradeFormat() {
+        assert saveChunkLock.isHeldByCurrentThread();
+        int format = pageFormat;
+        int readFormat = DataUtils.readHexInt(storeHeader, HDR_FORMAT_READ,
+                DataUtils.readHexInt(storeHeader, HDR_FORMAT, 1));
+        if (format > readFormat) {
+            storeHeader.put(HDR_FORMAT, format);
+            storeHeader.put(HDR_FORMAT_READ, format);
+            writeStoreHeader();
+            // the pending writes are not waited for, their completion needs
+            // the save chunk lock
+            fileStore.sync();
+        }
+    }
+
     private boolean isWriteStoreHeader(Chunk c, boolean storeAtEndOfFile) {
         // whether we need to write the store header
         boolean writeStoreHeader = false;
@@ -1921,7 +2484,7 @@ private void shrinkFileIfPossible(int minPercent) {
             return;
         }
         if (isOpenOrStopping()) {
-            sync();
+            fileStore.sync();
         }
         fileStore.truncate(end);
     }
@@ -2018,7 +2581,40 @@ public void compactMoveChunks() {
      * @param moveSize the number of bytes to move
      */
     boolean compactMoveChunks(int targetFillRate, long moveSize) {
-        boolean res = false;
+        return moveChunks(targetFillRate, moveSize, false) > 0;
+    }
+
+    /**
+     * Shrink the file while it is in use. Chunks at the end of the file are
+     * moved into free space closer to the beginning, and then the file is
+     * truncated. At most the given number of bytes (but at least one chunk)
+     * are moved, so that writers are only blocked for a short time; reads are
+     * not blocked at all. To shrink the file as much as possible, call this
+     * method until it returns false.
+     * <p>
+     * Unlike {@link #compactMoveChunks()}, only chunks which fit into a free
+     * area before them are moved, so the file never grows temporarily.
+     *
+     * @param moveSize the maximum number of bytes to move
+     * @return whether any chunk was moved
+     */
+    public boolean compactShrink(int moveSize) {
+        return moveChunks(101, moveSize, true) > 0;
+    }
+
+    /**
+     * Move chunks next to each other, see
+     * {@link #compactMoveChunks(int, long)} and {@link #compactShrink(int)}.
+     *
+     * @param targetFillRate do nothing if the file store fill rate is higher
+     *            than this
+     * @param moveSize the number of bytes to move
+     * @param fromEnd whether to only move chunks at the end of the file into
+     *            free space before them
+     * @return the number of bytes of the moved chunks
+     */
+    private long moveChunks(int targetFillRate, long moveSize, boolean fromEnd) {
+        long res = 0;
         storeLock.lock();
         try {
             checkOpen();
@@ -2033,10 +2629,14 @@ boolean compactMoveChunks(int targetFillRate, long moveSize) {
                 // are done under serializationLock, and upon this dummy task completion
                 // it will be no pending / in-progress task here
                 submitOrRun(bufferSaveExecutor, () -> {}, true);
+                if (fileStore != null) {
+                    // the completion of the writes needs the save chunk lock
+                    fileStore.awaitPendingWrites();
+                }
                 saveChunkLock.lock();
                 try {
                     if (lastChunk != null && reuseSpace && getFillRate() <= targetFillRate) {
-                        res = compactMoveChunks(moveSize);
+                        res = fromEnd ? moveChunksFromEnd(moveSize) : compactMoveChunks(moveSize);
                     }
                 } finally {
                     saveChunkLock.unlock();
@@ -2055,21 +2655,73 @@ boolean compactMoveChunks(int targetFillRate, long moveSize) {
         return res;
     }
 
-    private boolean compactMoveChunks(long moveSize) {
+    private long compactMoveChunks(long moveSize) {
         assert storeLock.isHeldByCurrentThread();
         dropUnusedChunks();
         long start = fileStore.getFirstFree() / BLOCK_SIZE;
         Iterable<Chunk> chunksToMove = findChunksToMove(start, moveSize);
         if (chunksToMove == null) {
-            return false;
+            return 0;
+        }
+        long bytes = 0;
+        for (Chunk c : chunksToMove) {
+            bytes += (long) c.len * BLOCK_SIZE;
         }
         compactMoveChunks(chunksToMove);
-        return true;
+        return Math.max(bytes, 1);
     }
 
-    private Iterable<Chunk> findChunksToMove(long startBlock, long moveSize) {
-        long maxBlocksToMove = moveSize / BLOCK_SIZE;
-        Iterable<Chunk> result = null;
+    private long moveChunksFromEnd(long moveSize) {
+        assert storeLock.isHeldByCurrentThread();
+        dropUnusedChunks();
+        ArrayList<Chunk> list = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.isSaved()) {
+                list.add(chunk);
+            }
+        }
+        list.sort(Chunk.PositionComparator.INSTANCE.reversed());
+        // the chunks at the end of the file, each of which fits into a free
+        // area before it, and the start of the first of them
+        ArrayList<Chunk> move = new ArrayList<>();
+        long boundary = -1;
+        long blocks = 0;
+        for (Chunk chunk : list) {
+            if (!move.isEmpty() && (blocks + chunk.len) * BLOCK_SIZE > moveSize
+                    || fileStore.predictAllocation(chunk.len, chunk.block, -1) >= chunk.block) {
+                break;
+            }
+            move.add(chunk);
+            blocks += chunk.len;
+            boundary = chunk.block;
+        }
+        if (move.isEmpty()) {
+            return 0;
+        }
+        // this will ensure better recognition of the last chunk
+        // in case of power failure
+        writeStoreHeader();
+        sync();
+        long bytes = 0;
+        for (Chunk chunk : move) {
+            if (moveChunkInside(chunk, boundary)) {
+                bytes += (long) chunk.len * BLOCK_SIZE;
+            }
+        }
+        if (bytes > 0) {
+            // the old copies of the moved chunks must not be overwritten
+            // until the new metadata is stored
+            store(boundary, -1);
+            sync();
+            shrinkFileIfPossible(0);
+            sync();
+        }
+        return bytes;
+    }
+
+    private Iterable<Chunk> findChunksToMove(long startBlock, long moveSize) {
+        long maxBlocksToMove = moveSize / BLOCK_SIZE;
+        Iterable<Chunk> result = null;
         if (maxBlocksToMove > 0) {
             PriorityQueue<Chunk> queue = new PriorityQueue<>(chunks.size() / 2 + 1,
                     (o1, o2) -> {
@@ -2260,6 +2912,7 @@ public void sync() {
         checkOpen();
         FileStore f = fileStore;
         if (f != null) {
+            f.awaitPendingWrites();
             f.sync();
         }
     }
@@ -2313,7 +2966,7 @@ public boolean compact(int targetFillRate, int write) {
                 try {
                     if (storeLock.tryLock(10, TimeUnit.MILLISECONDS)) {
                         try {
-                            return rewriteChunks(write, 100);
+                            return rewriteChunks(write, 100) > 0;
                         } finally {
                             storeLock.unlock();
                         }
@@ -2326,21 +2979,37 @@ public boolean compact(int targetFillRate, int write) {
         return false;
     }
 
-    private boolean rewriteChunks(int writeLimit, int targetFillRate) {
+    /**
+     * Re-write the chunks with the lowest fill rate.
+     *
+     * @param writeLimit the maximum number of live bytes to re-write
+     * @param targetFillRate the maximum fill rate of the chunks to re-write
+     * @return the number of live bytes of the re-written chunks (at least 1),
+     *         or 0 if no page was re-written
+     */
+    private long rewriteChunks(int writeLimit, int targetFillRate) {
         serializationLock.lock();
         try {
             TxCounter txCounter = registerVersionUsage();
             try {
+                trainDictionaries();
                 acceptChunkOccupancyChanges(getTimeSinceCreation(), currentVersion);
                 Iterable<Chunk> old = findOldChunks(writeLimit, targetFillRate);
                 if (old != null) {
                     HashSet<Integer> idSet = createIdSet(old);
-                    return !idSet.isEmpty() && compactRewrite(idSet) > 0;
+                    long bytes = 0;
+                    for (Chunk c : old) {
+                        bytes += c.maxLenLive;
+                    }
+                    if (!idSet.isEmpty() && compactRewrite(idSet) > 0) {
+                        compactRewrittenChunkCount += idSet.size();
+                        return Math.max(bytes, 1);
+                    }
                 }
             } finally {
                 deregisterVersionUsage(txCounter);
             }
-            return false;
+            return 0;
         } finally {
             serializationLock.unlock();
         }
@@ -2560,8 +3229,10 @@ <K,V> Page<K,V> readPage(MVMap<K,V> map, long pos) {
             if (p == null) {
                 Chunk chunk = getChunk(pos);
                 int pageOffset = DataUtils.getPageOffset(pos);
+                // the page is deserialized directly from the mapped segment
+                boolean mapped = fileStore.beginMappedRead();
                 try {
-                    ByteBuffer buff = chunk.readBufferForPage(fileStore, pageOffset, pos);
+                    ByteBuffer buff = readBufferForPage(chunk, pageOffset, pos);
                     p = Page.read(buff, pos, map);
                 } catch (MVStoreException e) {
                     throw e;
@@ -2569,6 +3240,10 @@ <K,V> Page<K,V> readPage(MVMap<K,V> map, long pos) {
                     throw DataUtils.newMVStoreException(DataUtils.ERROR_FILE_CORRUPT,
                             "Unable to read the page at position {0}, chunk {1}, offset {2}",
                             pos, chunk.id, pageOffset, e);
+                } finally {
+                    if (mapped) {
+                        fileStore.endMappedRead();
+                    }
                 }
                 cachePage(p);
             }
@@ -2581,6 +3256,35 @@ <K,V> Page<K,V> readPage(MVMap<K,V> map, long pos) {
         }
     }
 
+    /**
+     * Read the serialized page from the off-heap cache, or from the file.
+     * Pages read from the file are added to the off-heap cache.
+     *
+     * @param chunk the chunk
+     * @param pageOffset the offset of the page within the chunk
+     * @param pos the page position
+     * @return the buffer, positioned at the start of the page
+     */
+    private ByteBuffer readBufferForPage(Chunk chunk, int pageOffset, long pos) {
+        if (offHeapCache == null) {
+            return chunk.readBufferForPage(fileStore, pageOffset, pos);
+        }
+        ByteBuffer buff = offHeapCache.get(pos);
+        if (buff == null) {
+            buff = chunk.readBufferForPage(fileStore, pageOffset, pos);
+            // only keep the page itself, the buffer may contain more data
+            int len = buff.remaining();
+            int pageLength = len >= 4 ? buff.getInt(buff.position()) : 0;
+            if (pageLength >= 4 && pageLength < len) {
+                len = pageLength;
+            }
+            ByteBuffer data = buff.duplicate();
+            data.limit(data.position() + len);
+            offHeapCache.put(pos, data);
+        }
+        return buff;
+    }
+
     private long[] getToC(Chunk chunk) {
         if (chunk.tocPos == 0) {
             // legacy chunk without table of content
@@ -2654,8 +3358,221 @@ Compressor getCompressorHigh() {
         return compressorHigh;
     }
 
-    int getCompressionLevel() {
-        return compressionLevel;
+    /**
+     * Check whether the sorted keys of new pages are written relative to
+     * each other.
+     *
+     * @return true if the keys are compressed
+     */
+    boolean isCompressKeys() {
+        return compressKeys;
+    }
+
+    /**
+     * Get the compressors to write pages. They may only be used by the thread
+     * holding the serialization lock.
+     *
+     * @return the compressors
+     */
+    CompressorCache getCompressorCache() {
+        assert serializationLock.isHeldByCurrentThread();
+        return compressorCache;
+    }
+
+    /**
+     * Get the compression dictionary to write pages of a map. This may only
+     * be called while a chunk is serialized.
+     *
+     * @param mapId the map id
+     * @return the dictionary, or null if the map has none
+     */
+    CompressionDictionary getActiveDictionary(int mapId) {
+        return activeDictionaries.get(mapId);
+    }
+
+    /**
+     * Get the data of a compression dictionary to read pages of a map.
+     *
+     * @param mapId the map id
+     * @param id the dictionary id
+     * @return the dictionary data
+     * @throws MVStoreException if the dictionary does not exist
+     */
+    byte[] getDictionary(int mapId, int id) {
+        CompressionDictionary active = activeDictionaries.get(mapId);
+        if (active != null && active.id == id) {
+            return active.data;
+        }
+        long key = ((long) mapId << 32) | (id & 0xffff_ffffL);
+        byte[] data = dictionaryCache.get(key);
+        if (data == null) {
+            String s = meta.get(CompressionDictionary.getMetaKey(mapId, id));
+            if (s == null) {
+                throw DataUtils.newMVStoreException(DataUtils.ERROR_FILE_CORRUPT,
+                        "Compression dictionary {0} of map {1} not found", id, mapId);
+            }
+            data = CompressionDictionary.fromString(mapId, id, s).data;
+            dictionaryCache.put(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * Train a new compression dictionary for the pages of a map, using a
+     * sample of its leaf pages. The dictionary is stored in the meta map, and
+     * is used for pages written with the next commit or later. Pages written
+     * before remain readable with the dictionary they were written with.
+     *
+     * @param map the map, which must have a dictionary size
+     * @return whether a new dictionary was created; false if the map does not
+     *         contain enough data
+     */
+    public boolean trainDictionary(MVMap<?, ?> map) {
+        int maxSize = map.getDictionarySize();
+        DataUtils.checkArgument(maxSize > 0, "Map {0} does not use a compression dictionary", map.getId());
+        serializationLock.lock();
+        try {
+            checkOpen();
+            ArrayList<byte[]> samples = new ArrayList<>();
+            HashSet<Page<?, ?>> sampled = new HashSet<>();
+            WriteBuffer buff = new WriteBuffer();
+            // the same data always results in the same dictionary
+            Random random = new Random(((long) map.getId() << 32) + lastDictionaryId + 1);
+            Page<?, ?> root = map.getRootPage();
+            long sampleSize = 0;
+            for (int i = 0; i < DICTIONARY_SAMPLE_PAGES * 2 && samples.size() < DICTIONARY_SAMPLE_PAGES; i++) {
+                // sample random leaves, which may also be unsaved
+                Page<?, ?> p = root;
+                while (!p.isLeaf()) {
+                    p = p.getChildPage(random.nextInt(p.getRawChildPageCount()));
+                }
+                if (p.getKeyCount() > 0 && sampled.add(p)) {
+                    buff.clear();
+                    p.writeKeysAndValues(buff);
+                    ByteBuffer byteBuffer = buff.getBuffer();
+                    byte[] sample = new byte[byteBuffer.position()];
+                    byteBuffer.flip();
+                    byteBuffer.get(sample);
+                    samples.add(sample);
+                    sampleSize += sample.length;
+                }
+            }
+            if (sampleSize < maxSize) {
+                return false;
+            }
+            byte[] data = DictionaryTrainer.train(samples, maxSize);
+            if (data.length == 0) {
+                return false;
+            }
+            CompressionDictionary dictionary = new CompressionDictionary(map.getId(), ++lastDictionaryId, data,
+                    map.sizeAsLong());
+            meta.put(CompressionDictionary.getMetaKey(dictionary.mapId, dictionary.id), dictionary.asString());
+            markMetaChanged();
+            // the change is stored in the chunk of the next version at the
+            // latest
+            dictionary.version = currentVersion;
+            pendingDictionaries.add(dictionary);
+            return true;
+        } finally {
+            serializationLock.unlock();
+        }
+    }
+
+    /**
+     * Start to use the compression dictionaries, which are stored in the
+     * chunk of the given version.
+     *
+     * @param version the version of the chunk to be written
+     */
+    private void activateDictionaries(long version) {
+        for (Iterator<CompressionDictionary> it = pendingDictionaries.iterator(); it.hasNext();) {
+            CompressionDictionary dictionary = it.next();
+            if (dictionary.version < version) {
+                activeDictionaries.put(dictionary.mapId, dictionary);
+                lastActiveDictionaryId = dictionary.id;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Train compression dictionaries for the open maps, which have none so
+     * far, or which have doubled in size since their dictionary was trained,
+     * and remove dictionaries, which are no longer used.
+     */
+    private void trainDictionaries() {
+        for (MVMap<?, ?> map : maps.values()) {
+            if (map.getDictionarySize() > 0 && !map.isClosed()) {
+                CompressionDictionary dictionary = activeDictionaries.get(map.getId());
+                for (CompressionDictionary pending : pendingDictionaries) {
+                    if (pending.mapId == map.getId()) {
+                        dictionary = pending;
+                    }
+                }
+                if (dictionary == null || map.sizeAsLong() >= dictionary.entryCount * 2) {
+                    trainDictionary(map);
+                }
+            }
+        }
+        removeUnusedDictionaries();
+    }
+
+    /**
+     * Remove the compression dictionaries, which were replaced by a newer
+     * dictionary of the same map before all chunks still in use were written.
+     */
+    private void removeUnusedDictionaries() {
+        int oldestUsed = lastActiveDictionaryId;
+        for (Chunk c : chunks.values()) {
+            oldestUsed = Math.min(oldestUsed, c.dictionary);
+        }
+        HashMap<Integer, ArrayList<Integer>> dictionaries = new HashMap<>();
+        String prefix = DataUtils.META_DICTIONARY;
+        for (Iterator<String> it = meta.keyIterator(prefix); it.hasNext();) {
+            String key = it.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            int separator = key.indexOf('.', prefix.length());
+            int mapId = DataUtils.parseHexInt(key.substring(prefix.length(), separator));
+            int id = DataUtils.parseHexInt(key.substring(separator + 1));
+            dictionaries.computeIfAbsent(mapId, k -> new ArrayList<>()).add(id);
+        }
+        for (Map.Entry<Integer, ArrayList<Integer>> e : dictionaries.entrySet()) {
+            int mapId = e.getKey();
+            ArrayList<Integer> ids = e.getValue();
+            Collections.sort(ids);
+            // pages of a chunk use the newest dictionary of the map, which was
+            // active when the chunk was written
+            for (int i = 0; i + 1 < ids.size() && ids.get(i + 1) <= oldestUsed; i++) {
+                int id = ids.get(i);
+                meta.remove(CompressionDictionary.getMetaKey(mapId, id));
+                markMetaChanged();
+                dictionaryCache.remove(((long) mapId << 32) | (id & 0xffff_ffffL));
+            }
+        }
+    }
+
+    /**
+     * Remove all compression dictionaries of a map.
+     *
+     * @param mapId the map id
+     */
+    private void removeDictionaries(int mapId) {
+        activeDictionaries.remove(mapId);
+        String prefix = CompressionDictionary.getMetaKeyPrefix(mapId);
+        ArrayList<String> keys = new ArrayList<>();
+        for (Iterator<String> it = meta.keyIterator(prefix); it.hasNext();) {
+            String key = it.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            keys.add(key);
+        }
+        for (String key : keys) {
+            meta.remove(key);
+            markMetaChanged();
+        }
     }
 
     public int getPageSplitSize() {
@@ -2720,6 +3637,40 @@ public void setRetentionTime(int ms) {
         this.retentionTime = ms;
     }
 
+    /**
+     * Set the action to run while a version is stored, right before the roots
+     * of the maps are captured. The action runs while holding the store lock,
+     * and changes made by it are included in the stored version. This is used
+     * by the transaction store to write pending undo log records.
+     *
+     * @param action the action, or null
+     */
+    public void setBeforeStoreAction(Runnable action) {
+        this.beforeStoreAction = action;
+    }
+
+    /**
+     * Set the action to run in the background thread, after pending changes
+     * were written and the file was compacted if needed. The action should do
+     * a limited amount of work per call. It is not called if the store has no
+     * background thread.
+     *
+     * @param action the action, or null
+     */
+    public void setBackgroundAction(Runnable action) {
+        this.backgroundAction = action;
+    }
+
+    /**
+     * Check whether the file was not closed properly the last time it was
+     * open, so that the latest changes of some maps may be incomplete.
+     *
+     * @return true if the previous shutdown was not clean
+     */
+    public boolean isUncleanShutdown() {
+        return uncleanShutdown;
+    }
+
     /**
      * How many versions to retain for in-memory stores. If not set, 5 old
      * versions are retained.
@@ -2931,6 +3882,9 @@ public void rollbackTo(long version) {
         storeLock.lock();
         try {
             checkOpen();
+            if (fileStore != null) {
+                fileStore.awaitPendingWrites();
+            }
             currentVersion = version;
             if (version == 0) {
                 // special case: remove all data
@@ -3024,6 +3978,9 @@ private void clearCaches() {
         if (chunksToC != null) {
             chunksToC.clear();
         }
+        if (offHeapCache != null) {
+            offHeapCache.clear();
+        }
     }
 
     private long getRootPos(int mapId) {
@@ -3121,6 +4078,7 @@ public void removeMap(MVMap<?,?> map) {
             if (meta.remove(DataUtils.META_NAME + name) != null) {
                 markMetaChanged();
             }
+            removeDictionaries(id);
         } finally {
             storeLock.unlock();
         }
@@ -3191,7 +4149,11 @@ void writeInBackground() {
                 }
             }
             int fillRate = getFillRate();
-            if (fileStore.isFragmented() && fillRate < autoCompactFillRate) {
+            if (autoCompactRate > 0) {
+                if (autoCompactFillRate > 0) {
+                    compactThrottled(fillRate);
+                }
+            } else if (fileStore.isFragmented() && fillRate < autoCompactFillRate) {
                 if (storeLock.tryLock(10, TimeUnit.MILLISECONDS)) {
                     try {
                         int moveSize = autoCommitMemory;
@@ -3213,7 +4175,7 @@ void writeInBackground() {
                             if (!isIdle()) {
                                 writeLimit /= 4;
                             }
-                            if (rewriteChunks(writeLimit, chunksFillRate)) {
+                            if (rewriteChunks(writeLimit, chunksFillRate) > 0) {
                                 dropUnusedChunks();
                             }
                         } finally {
@@ -3222,6 +4184,10 @@ void writeInBackground() {
                     }
                 }
             }
+            Runnable action = backgroundAction;
+            if (action != null) {
+                action.run();
+            }
             autoCompactLastFileOpCount = fileStore.getWriteCount() + fileStore.getReadCount();
         } catch (InterruptedException ignore) {
         } catch (Throwable e) {
@@ -3232,6 +4198,132 @@ void writeInBackground() {
         }
     }
 
+    /**
+     * Run one step of the throttled background compaction. The chunks with
+     * the lowest fill rate (relative to their age) are re-written, or, if
+     * the file is fragmented, chunks at the end of the file are moved into
+     * free space, and the file is truncated. The number of bytes written is limited by the compaction rate,
+     * and by the step size, which adapts so that a step does not hold the
+     * store lock much longer than the maximum pause. Nothing is done for a
+     * second after a commit was much slower than usual.
+     *
+     * @param fillRate the current fill rate of the file
+     */
+    private void compactThrottled(int fillRate) throws InterruptedException {
+        long now = System.nanoTime();
+        long elapsed = autoCompactBudgetTime == 0 ? 0 : now - autoCompactBudgetTime;
+        autoCompactBudgetTime = now;
+        // allow a burst of at most one second
+        autoCompactBudget = Math.min(autoCompactRate,
+                autoCompactBudget + (long) (autoCompactRate * (elapsed / 1_000_000_000d)));
+        long slow = slowCommitTime;
+        if (slow != 0 && now - slow < 1_000_000_000L) {
+            // a commit was slow within the last second:
+            // back off, and don't catch up later
+            compactBackoffCount++;
+            autoCompactBudget = Math.min(autoCompactBudget, 0);
+            return;
+        }
+        if (autoCompactStepSize == 0) {
+            autoCompactStepSize = autoCompactRate;
+        }
+        long limit = Math.min(autoCompactBudget, autoCompactStepSize);
+        if (limit < BLOCK_SIZE || lastChunk == null) {
+            return;
+        }
+        boolean move = fileStore.isFragmented() && fillRate < autoCompactFillRate;
+        int chunksFillRate = getRewritableChunksFillRate();
+        boolean rewrite = chunksFillRate < autoCompactFillRate;
+        if (!move && !rewrite) {
+            return;
+        }
+        if (!storeLock.tryLock(10, TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        long start = System.nanoTime();
+        long written;
+        compactionInProgress = true;
+        try {
+            int writeLimit = (int) Math.min(limit, Integer.MAX_VALUE);
+            written = move ? moveChunks(101, writeLimit, true) : 0;
+            if (written == 0 && rewrite) {
+                // only chunks below the average fill rate
+                written = rewriteChunks(writeLimit, chunksFillRate);
+                if (written > 0) {
+                    dropUnusedChunks();
+                }
+            }
+        } finally {
+            compactionInProgress = false;
+            unlockAndCheckPanicCondition();
+        }
+        if (written > 0) {
+            compactWrittenBytes += written;
+            long time = System.nanoTime() - start;
+            if (time > autoCompactMaxPause) {
+                autoCompactStepSize = Math.max(BLOCK_SIZE, autoCompactStepSize / 2);
+            } else if (time < autoCompactMaxPause / 2) {
+                autoCompactStepSize = Math.min(autoCompactRate, autoCompactStepSize * 2);
+            }
+            // a step may write more than the budget, which is then paid back
+            autoCompactBudget -= written;
+            compactStepCount++;
+            compactMaxStepTime = Math.max(compactMaxStepTime, time);
+        } else {
+            // the step size could be smaller than any candidate chunk
+            autoCompactStepSize = Math.min(autoCompactRate, autoCompactStepSize * 2);
+        }
+    }
+
+    /**
+     * Get the number of steps the throttled background compaction did, which
+     * re-wrote or moved data.
+     *
+     * @return the number of steps
+     */
+    public long getCompactStepCount() {
+        return compactStepCount;
+    }
+
+    /**
+     * Get the number of times the throttled background compaction skipped a
+     * step, because commits were slower than usual.
+     *
+     * @return the number of skipped steps
+     */
+    public long getCompactBackoffCount() {
+        return compactBackoffCount;
+    }
+
+    /**
+     * Get the number of chunks re-written by compaction so far.
+     *
+     * @return the number of chunks
+     */
+    public long getCompactRewrittenChunkCount() {
+        return compactRewrittenChunkCount;
+    }
+
+    /**
+     * Get the number of bytes the throttled background compaction re-wrote
+     * (live data of the re-written chunks) or moved so far.
+     *
+     * @return the number of bytes
+     */
+    public long getCompactWrittenBytes() {
+        return compactWrittenBytes;
+    }
+
+    /**
+     * Get the longest time a step of the throttled background compaction took
+     * so far.
+     *
+     * @return the time in milliseconds
+     */
+    public long getCompactMaxStepTime() {
+        return compactMaxStepTime / 1_000_000L;
+    }
+
     private void doMaintenance(int targetFillRate) {
         if (autoCompactFillRate > 0 && lastChunk != null && reuseSpace) {
             try {
@@ -3256,7 +4348,8 @@ private void doMaintenance(int targetFillRate) {
                     try {
                         int writeLimit = autoCommitMemory * targetFillRate / Math.max(projectedFillRate, 1);
                         if (projectedFillRate < fillRate) {
-                            if ((!rewriteChunks(writeLimit, targetFillRate) || dropUnusedChunks() == 0) && cnt > 0) {
+                            if ((rewriteChunks(writeLimit, targetFillRate) == 0 || dropUnusedChunks() == 0)
+                                    && cnt > 0) {
                                 break;
                             }
                         }
@@ -3410,6 +4503,18 @@ private static ThreadPoolExecutor createSingleThreadExecutor(String threadName)
                                         });
     }
 
+    private static ThreadPoolExecutor createSerializationWorkers(int threadCount) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 10L, TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<>(),
+                                        r -> {
+                                            Thread thread = new Thread(r, "H2-serialization-worker");
+                                            thread.setDaemon(true);
+                                            return thread;
+                                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public boolean isBackgroundThread() {
         return Thread.currentThread() == backgroundWriterThread.get();
     }
@@ -3492,6 +4597,39 @@ public CacheLongKeyLIRS<Page<?,?>> getCache() {
         return cache;
     }
 
+    /**
+     * Get the amount of direct memory used by the off-heap page cache, in MB.
+     *
+     * @return the amount of memory used
+     */
+    public int getOffHeapCacheSizeUsed() {
+        if (offHeapCache == null) {
+            return 0;
+        }
+        return (int) (offHeapCache.getUsedMemory() >> 20);
+    }
+
+    /**
+     * Get the maximum size of the off-heap page cache, in MB.
+     *
+     * @return the cache size, or 0 if there is no off-heap cache
+     */
+    public int getOffHeapCacheSize() {
+        if (offHeapCache == null) {
+            return 0;
+        }
+        return (int) (offHeapCache.getMaxMemory() >> 20);
+    }
+
+    /**
+     * Get the off-heap page cache.
+     *
+     * @return the cache, or null if there is no off-heap cache
+     */
+    public OffHeapPageCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
     /**
      * Whether the store is read-only.
      *
@@ -3509,6 +4647,20 @@ public int getTocCacheHitRatio() {
         return getCacheHitRatio(chunksToC);
     }
 
+    /**
+     * Get the hit ratio of the off-heap page cache, which is only used for
+     * pages missing in the page cache.
+     *
+     * @return the hit ratio in percent, or 0 if there is no off-heap cache
+     */
+    public int getOffHeapCacheHitRatio() {
+        if (offHeapCache == null) {
+            return 0;
+        }
+        long hits = offHeapCache.getHits();
+        return (int) (100 * hits / (hits + offHeapCache.getMisses() + 1));
+    }
+
     private static int getCacheHitRatio(CacheLongKeyLIRS<?> cache) {
         if (cache == null) {
             return 0;
@@ -3624,10 +4776,15 @@ private int dropUnusedChunks() {
                     if (chunks.remove(chunk.id) != null) {
                         // purge dead pages from cache
                         long[] toc = chunksToC.remove(chunk.id);
-                        if (toc != null && cache != null) {
+                        if (toc != null && (cache != null || offHeapCache != null)) {
                             for (long tocElement : toc) {
                                 long pagePos = DataUtils.getPagePos(chunk.id, tocElement);
-                                cache.remove(pagePos);
+                                if (cache != null) {
+                                    cache.remove(pagePos);
+                                }
+                                if (offHeapCache != null) {
+                                    offHeapCache.remove(pagePos);
+                                }
                             }
                         }
 
@@ -3752,6 +4909,26 @@ public void run() {
         }
     }
 
+    /**
+     * A batch of commits, which share a single chunk write and sync.
+     */
+    private static final class GroupCommitBatch {
+        /**
+         * The number of commits in this batch, including the leader.
+         */
+        int size = 1;
+
+        /**
+         * Whether the batch was written and synced.
+         */
+        boolean done;
+
+        /**
+         * The exception or error thrown while writing the batch, or null.
+         */
+        Throwable failure;
+    }
+
     private static class RemovedPageInfo implements Comparable<RemovedPageInfo> {
         final long version;
         final long removedPageInfo;
@@ -3888,6 +5065,26 @@ public Builder autoCompactFillRate(int percent) {
             return set("autoCompactFillRate", percent);
         }
 
+        /**
+         * Throttle the background compaction. Instead of compacting in bursts,
+         * the background writer then continuously re-writes the chunks with
+         * the lowest fill rate, and moves chunks if the file is fragmented,
+         * until the auto-compact fill rate is reached. The amount of data
+         * written per second is limited, each step is kept short, and no
+         * compaction is done while commits take longer than usual. Chunks
+         * with more live data than can be written in one second are not
+         * re-written. By default, the background compaction is not throttled.
+         *
+         * @param kbPerSecond the maximum number of KB to write per second,
+         *            0 to disable throttling
+         * @param maxPauseMillis the maximum time in milliseconds a single
+         *            step should block writers
+         * @return this
+         */
+        public Builder autoCompactRate(int kbPerSecond, int maxPauseMillis) {
+            return set("autoCompactRate", kbPerSecond).set("autoCompactMaxPause", maxPauseMillis);
+        }
+
         /**
          * Use the following file name. If the file does not exist, it is
          * automatically created. The parent directory already must exist.
@@ -3970,6 +5167,37 @@ public Builder cacheConcurrency(int concurrency) {
             return set("cacheConcurrency", concurrency);
         }
 
+        /**
+         * Set the number of page cache reads per cache segment, which are
+         * buffered. Reads of the page cache then do not need any locking, and
+         * the buffered reads are applied to the state of the cache in
+         * batches. This reduces contention if many threads read the same
+         * pages concurrently, at the cost of a slightly less precise cache
+         * replacement. The default is 0, meaning reads are synchronized.
+         *
+         * @param size the number of buffered reads (0 or a power of 2)
+         * @return this
+         */
+        public Builder cacheReadBufferSize(int size) {
+            return set("cacheReadBufferSize", size);
+        }
+
+        /**
+         * Set the size of the off-heap page cache, in MB. This cache keeps
+         * pages in their serialized (and possibly compressed) form in direct
+         * memory, and is used when a page is not in the page cache, before
+         * the page is read from the file. Unlike the page cache, it does not
+         * increase the pauses of the garbage collector much. The direct memory
+         * is allocated in slabs that are reused, so that at most the given
+         * amount is used. The default is 0 (disabled).
+         *
+         * @param mb the cache size in MB
+         * @return this
+         */
+        public Builder offHeapCacheSize(int mb) {
+            return set("offHeapCacheSize", mb);
+        }
+
         /**
          * Compress data before writing using the LZF algorithm. This will save
          * about 50% of the disk space, but will slow down read and write
@@ -4000,6 +5228,23 @@ public Builder compressHigh() {
             return set("compress", 2);
         }
 
+        /**
+         * Write the keys of a page relative to each other, for key types
+         * which support it, for example without the prefix a key has in
+         * common with the previous one. This saves disk space for long keys
+         * with common prefixes, such as strings or the rows of secondary
+         * indexes. Files with pages written this way can not be opened by
+         * older versions.
+         * <p>
+         * This setting only affects writes; pages are read in the format
+         * they were written.
+         *
+         * @return this
+         */
+        public Builder compressKeys() {
+            return set("compressKeys", 1);
+        }
+
         /**
          * Set the amount of memory a page should contain at most, in bytes,
          * before it is split. The default is 16 KB for persistent stores and 4
@@ -4043,6 +5288,65 @@ public Builder fileStore(FileStore store) {
             return set("fileStore", store);
         }
 
+        /**
+         * Enable group commit. Threads calling {@link MVStore#groupCommit()}
+         * concurrently are then combined into batches, which share a single
+         * chunk write and a single sync of the file. By default, group commit
+         * is disabled.
+         *
+         * @param maxBatchSize the maximum number of commits in a batch,
+         *            0 to disable group commit
+         * @param maxWaitMicros the maximum time in microseconds to wait for
+         *            other commits to join a batch
+         * @return this
+         */
+        public Builder groupCommit(int maxBatchSize, int maxWaitMicros) {
+            return set("groupCommitMaxBatch", maxBatchSize).set("groupCommitMaxWait", maxWaitMicros);
+        }
+
+        /**
+         * Set the number of chunk writes, which may be in flight at the same
+         * time. Chunks are then written asynchronously by a pool of threads
+         * using positional writes, while their completion (update of the
+         * store header, release of saved pages) happens in chunk order. This
+         * is only supported for unencrypted files of the default file system.
+         * The default is 0 (synchronous writes).
+         *
+         * @param threadCount the number of writes in flight, 0 to disable
+         * @return this
+         */
+        public Builder writeThreads(int threadCount) {
+            return set("writeThreads", threadCount);
+        }
+
+        /**
+         * Read the file from memory mapped segments instead of using
+         * positional reads. Pages are then deserialized directly from the
+         * mapped memory. This is faster for read-mostly stores, which are
+         * larger than the cache, but fit into the memory of the operating
+         * system. Encrypted files, and files of file systems, which do not
+         * support memory mapping, are still read using positional reads.
+         *
+         * @return this
+         */
+        public Builder mappedReads() {
+            return set("mappedReads", 1);
+        }
+
+        /**
+         * Set the number of threads used to serialize and compress pages
+         * when a chunk is written. Pages of different maps, as well as
+         * independent subtrees of the same map, are then serialized in
+         * parallel. The default is the number of available processors, but
+         * at most 4. The value 1 disables parallel serialization.
+         *
+         * @param threadCount the number of threads
+         * @return this
+         */
+        public Builder serializationThreads(int threadCount) {
+            return set("serializationThreads", threadCount);
+        }
+
         /**
          * Open the store.
          *
@@ -20,6 +20,7 @@
 import org.h2.compress.CompressDeflate;
 import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
+import org.h2.compress.CompressorRegistry;
 import org.h2.engine.Constants;
 import org.h2.message.DbException;
 import org.h2.mvstore.tx.TransactionStore;
@@ -185,7 +186,7 @@ public static void dump(String fileName, Writer writer, boolean details) {
                     /*int pageNo =*/ DataUtils.readVarInt(chunk);
                     int mapId = DataUtils.readVarInt(chunk);
                     int entries = DataUtils.readVarInt(chunk);
-                    int type = chunk.get();
+                    int type = chunk.get() & 0xff;
                     boolean compressed = (type & DataUtils.PAGE_COMPRESSED) != 0;
                     boolean node = (type & DataUtils.PAGE_TYPE_NODE) != 0;
                     if (details) {
@@ -232,8 +233,14 @@ public static void dump(String fileName, Writer writer, boolean details) {
                     if (mapId == 0 && details) {
                         ByteBuffer data;
                         if (compressed) {
-                            boolean fast = (type & DataUtils.PAGE_COMPRESSED_HIGH) != DataUtils.PAGE_COMPRESSED_HIGH;
-                            Compressor compressor = getCompressor(fast);
+                            Compressor compressor;
+                            if ((type & DataUtils.PAGE_COMPRESSED_CODEC) != 0) {
+                                compressor = CompressorRegistry.getCompressor(DataUtils.readVarInt(chunk));
+                            } else {
+                                boolean fast = (type & DataUtils.PAGE_COMPRESSED_HIGH)
+                                        != DataUtils.PAGE_COMPRESSED_HIGH;
+                                compressor = getCompressor(fast);
+                            }
                             int lenAdd = DataUtils.readVarInt(chunk);
                             int compLen = pageSize + start - chunk.position();
                             byte[] comp = Utils.newBytes(compLen);
@@ -244,9 +251,13 @@ public static void dump(String fileName, Writer writer, boolean details) {
                         } else {
                             data = chunk;
                         }
-                        for (int i = 0; i < entries; i++) {
-                            String k = StringDataType.INSTANCE.read(data);
-                            keys[i] = k;
+                        if ((type & DataUtils.PAGE_SORTED_KEYS) != 0) {
+                            StringDataType.INSTANCE.readSorted(data, keys, entries);
+                        } else {
+                            for (int i = 0; i < entries; i++) {
+                                String k = StringDataType.INSTANCE.read(data);
+                                keys[i] = k;
+                            }
                         }
                         if (node) {
                             // meta map node
@@ -520,6 +531,9 @@ public static void compact(MVStore source, MVStore target) {
                     // ignore
                 } else if (key.startsWith(DataUtils.META_NAME)) {
                     // ignore
+                } else if (key.startsWith(DataUtils.META_DICTIONARY)) {
+                    // ignore, map ids may differ and pages are written
+                    // without dictionary
                 } else {
                     targetMeta.put(key, m.getValue());
                 }
@@ -542,6 +556,14 @@ public static void compact(MVStore source, MVStore target) {
                     mp.singleWriter();
                 }
                 MVMap<Object, Object> sourceMap = source.openMap(mapName, mp);
+                String compression = sourceMap.getCompression();
+                if (compression != null) {
+                    mp.compression(compression);
+                }
+                int dictionarySize = sourceMap.getDictionarySize();
+                if (dictionarySize > 0) {
+                    mp.compressionDictionary(dictionarySize);
+                }
                 MVMap<Object, Object> targetMap = target.openMap(mapName, mp);
                 targetMap.copyFrom(sourceMap);
                 targetMeta.put(MVMap.getMapKey(targetMap.getId()), sourceMeta.get(MVMap.getMapKey(sourceMap.getId())));
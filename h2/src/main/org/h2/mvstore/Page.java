@@ -12,8 +12,12 @@
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import org.h2.compress.Compressor;
+import org.h2.compress.CompressorRegistry;
+import org.h2.compress.DictionaryCompressor;
+import org.h2.mvstore.type.DataType;
 import org.h2.util.Utils;
 
 /**
@@ -598,7 +602,7 @@ private void read(ByteBuffer buff) {
 
         int keyCount = DataUtils.readVarInt(buff);
         keys = createKeyStorage(keyCount);
-        int type = buff.get();
+        int type = buff.get() & 0xff;
         if(isLeaf() != ((type & 1) == PAGE_TYPE_LEAF)) {
             throw DataUtils.newMVStoreException(
                     DataUtils.ERROR_FILE_CORRUPT,
@@ -615,7 +619,26 @@ private void read(ByteBuffer buff) {
         boolean compressed = (type & DataUtils.PAGE_COMPRESSED) != 0;
         if (compressed) {
             Compressor compressor;
-            if ((type & DataUtils.PAGE_COMPRESSED_HIGH) ==
+            boolean acquired = false;
+            byte[] dictionary = null;
+            if ((type & DataUtils.PAGE_COMPRESSED_CODEC) != 0) {
+                int algorithm = DataUtils.readVarInt(buff);
+                compressor = CompressorRegistry.acquireExpander(algorithm);
+                if (compressor == null) {
+                    throw DataUtils.newMVStoreException(DataUtils.ERROR_UNSUPPORTED_FORMAT,
+                            "Unsupported compression algorithm {0} in chunk {1}", algorithm, chunkId);
+                }
+                acquired = true;
+                if ((type & DataUtils.PAGE_COMPRESSED_DICTIONARY) != 0) {
+                    if (!(compressor instanceof DictionaryCompressor)) {
+                        CompressorRegistry.releaseExpander(compressor);
+                        throw DataUtils.newMVStoreException(DataUtils.ERROR_FILE_CORRUPT,
+                                "Compression algorithm {0} in chunk {1} does not support a dictionary",
+                                algorithm, chunkId);
+                    }
+                    dictionary = map.getStore().getDictionary(mapId, DataUtils.readVarInt(buff));
+                }
+            } else if ((type & DataUtils.PAGE_COMPRESSED_HIGH) ==
                     DataUtils.PAGE_COMPRESSED_HIGH) {
                 compressor = map.getStore().getCompressorHigh();
             } else {
@@ -634,10 +657,26 @@ private void read(ByteBuffer buff) {
             }
             int l = compLen + lenAdd;
             buff = ByteBuffer.allocate(l);
-            compressor.expand(comp, pos, compLen, buff.array(),
-                    buff.arrayOffset(), l);
+            try {
+                if (dictionary != null) {
+                    ((DictionaryCompressor) compressor).expand(comp, pos, compLen, buff.array(), buff.arrayOffset(),
+                            l, dictionary);
+                } else {
+                    compressor.expand(comp, pos, compLen, buff.array(),
+                            buff.arrayOffset(), l);
+                }
+            } finally {
+                if (acquired) {
+                    // the compressor may be used by another thread now
+                    CompressorRegistry.releaseExpander(compressor);
+                }
+            }
+        }
+        if ((type & DataUtils.PAGE_SORTED_KEYS) != 0) {
+            map.getKeyType().readSorted(buff, keys, keyCount);
+        } else {
+            map.getKeyType().read(buff, keys, keyCount);
         }
-        map.getKeyType().read(buff, keys, keyCount);
         if (isLeaf()) {
             readPayLoad(buff);
         }
@@ -688,9 +727,11 @@ private boolean markAsRemoved() {
      * @param chunk the chunk
      * @param buff the target buffer
      * @param toc prospective table of content
+     * @param payloads pre-serialized payloads of unsaved pages, or null
      * @return the position of the buffer just after the type
      */
-    protected final int write(Chunk chunk, WriteBuffer buff, List<Long> toc) {
+    protected final int write(Chunk chunk, WriteBuffer buff, List<Long> toc,
+            Map<Page<?,?>, byte[]> payloads) {
         pageNo = toc.size();
         int keyCount = getKeyCount();
         int start = buff.position();
@@ -704,44 +745,21 @@ protected final int write(Chunk chunk, WriteBuffer buff, List<Long> toc) {
         buff.put((byte)type);
         int childrenPos = buff.position();
         writeChildren(buff, true);
-        int compressStart = buff.position();
-        map.getKeyType().write(buff, keys, keyCount);
-        writeValues(buff);
         MVStore store = map.getStore();
-        int expLen = buff.position() - compressStart;
-        if (expLen > 16) {
-            int compressionLevel = store.getCompressionLevel();
-            if (compressionLevel > 0) {
-                Compressor compressor;
-                int compressType;
-                if (compressionLevel == 1) {
-                    compressor = store.getCompressorFast();
-                    compressType = DataUtils.PAGE_COMPRESSED;
-                } else {
-                    compressor = store.getCompressorHigh();
-                    compressType = DataUtils.PAGE_COMPRESSED_HIGH;
-                }
-                byte[] comp = new byte[expLen * 2];
-                ByteBuffer byteBuffer = buff.getBuffer();
-                int pos = 0;
-                byte[] exp;
-                if (byteBuffer.hasArray()) {
-                    exp = byteBuffer.array();
-                    pos = byteBuffer.arrayOffset()  + compressStart;
-                } else {
-                    exp = Utils.newBytes(expLen);
-                    buff.position(compressStart).get(exp);
-                }
-                int compLen = compressor.compress(exp, pos, expLen, comp, 0);
-                int plus = DataUtils.getVarIntLen(expLen - compLen);
-                if (compLen + plus < expLen) {
-                    buff.position(typePos)
-                        .put((byte) (type | compressType));
-                    buff.position(compressStart)
-                        .putVarInt(expLen - compLen)
-                        .put(comp, 0, compLen);
-                }
-            }
+        byte[] payload = payloads == null ? null : payloads.get(this);
+        int payloadType;
+        if (payload != null) {
+            payloadType = payload[0] & 0xff;
+            buff.put(payload, 1, payload.length - 1);
+        } else {
+            payloadType = writePayload(buff, store.getCompressorCache());
+        }
+        if (payloadType != 0) {
+            store.accountForPageType(payloadType);
+            int end = buff.position();
+            buff.position(typePos)
+                .put((byte) (type | payloadType))
+                .position(end);
         }
         int pageLength = buff.position() - start;
         long tocElement = DataUtils.getTocElement(getMapId(), start, buff.position() - start, type);
@@ -777,6 +795,126 @@ protected final int write(Chunk chunk, WriteBuffer buff, List<Long> toc) {
         return childrenPos;
     }
 
+    /**
+     * Write keys and values of this page to the buffer, starting at its
+     * current position, and compress them in place if it pays off.
+     *
+     * @param buff the target buffer
+     * @param compressors the compressors of the current thread
+     * @return the key format and compression type flags to add to the page
+     *         type
+     */
+    private int writePayload(WriteBuffer buff, CompressorCache compressors) {
+        int compressStart = buff.position();
+        int keyFormat = writeKeysAndValues(buff);
+        int expLen = buff.position() - compressStart;
+        Compressor compressor;
+        if (expLen > 16 && (compressor = compressors.getCompressor(map)) != null) {
+            int compressType = compressors.getCompressType(map);
+            byte[] comp = new byte[expLen * 2];
+            ByteBuffer byteBuffer = buff.getBuffer();
+            int pos = 0;
+            byte[] exp;
+            if (byteBuffer.hasArray()) {
+                exp = byteBuffer.array();
+                pos = byteBuffer.arrayOffset()  + compressStart;
+            } else {
+                exp = Utils.newBytes(expLen);
+                buff.position(compressStart).get(exp);
+            }
+            boolean withCodec = (compressType & DataUtils.PAGE_COMPRESSED_CODEC) != 0;
+            CompressionDictionary dictionary = null;
+            if (withCodec && isLeaf() && compressor instanceof DictionaryCompressor) {
+                dictionary = map.getStore().getActiveDictionary(map.getId());
+            }
+            int compLen;
+            if (dictionary != null) {
+                compressType |= DataUtils.PAGE_COMPRESSED_DICTIONARY;
+                compLen = ((DictionaryCompressor) compressor).compress(exp, pos, expLen, comp, 0, dictionary.data);
+            } else {
+                compLen = compressor.compress(exp, pos, expLen, comp, 0);
+            }
+            int plus = DataUtils.getVarIntLen(expLen - compLen);
+            int algorithm = compressor.getAlgorithm();
+            if (withCodec) {
+                plus += DataUtils.getVarIntLen(algorithm);
+            }
+            if (dictionary != null) {
+                plus += DataUtils.getVarIntLen(dictionary.id);
+            }
+            if (compLen + plus < expLen) {
+                buff.position(compressStart);
+                if (withCodec) {
+                    buff.putVarInt(algorithm);
+                }
+                if (dictionary != null) {
+                    buff.putVarInt(dictionary.id);
+                }
+                buff.putVarInt(expLen - compLen)
+                    .put(comp, 0, compLen);
+                return keyFormat | compressType;
+            }
+            buff.position(compressStart + expLen);
+        }
+        return keyFormat;
+    }
+
+    /**
+     * Write the keys and values of this page, without compression.
+     *
+     * @param buff the target buffer
+     * @return {@link DataUtils#PAGE_SORTED_KEYS} if the keys were written in
+     *         the sorted format, combined with
+     *         {@link DataUtils#PAGE_COLUMNAR_VALUES} for the leaf pages of a
+     *         map whose values are written in column-major layout
+     */
+    final int writeKeysAndValues(WriteBuffer buff) {
+        DataType<K> keyType = map.getKeyType();
+        int keyCount = getKeyCount();
+        int keyFormat = 0;
+        if (map.getStore().isCompressKeys() && keyType.writeSorted(buff, keys, keyCount)) {
+            keyFormat = DataUtils.PAGE_SORTED_KEYS;
+        } else {
+            keyType.write(buff, keys, keyCount);
+        }
+        writeValues(buff);
+        if (isLeaf() && map.getValueType().isColumnar()) {
+            keyFormat |= DataUtils.PAGE_COLUMNAR_VALUES;
+        }
+        return keyFormat;
+    }
+
+    /**
+     * Serialize keys and values of this page into a standalone byte array,
+     * so that this work can be done ahead of time, by another thread,
+     * while the page itself is later stitched into the chunk by
+     * {@link #write(Chunk, WriteBuffer, List, Map)}.
+     * The first byte of the result holds the flags to add to the page type.
+     *
+     * @param buff the scratch buffer to use
+     * @param compressors the compressors of the current thread
+     * @return the serialized payload
+     */
+    final byte[] serializePayload(WriteBuffer buff, CompressorCache compressors) {
+        buff.clear();
+        buff.put((byte) 0);
+        int type = writePayload(buff, compressors);
+        ByteBuffer byteBuffer = buff.getBuffer();
+        byte[] payload = new byte[byteBuffer.position()];
+        byteBuffer.flip();
+        byteBuffer.get(payload);
+        payload[0] = (byte) type;
+        return payload;
+    }
+
+    /**
+     * Collect this page and all its unsaved descendants, which would be
+     * written by {@link #writeUnsavedRecursive(Chunk, WriteBuffer, List, Map)}.
+     *
+     * @param target the list to add pages to
+     */
+    abstract void collectUnsaved(List<Page<?,?>> target);
+
     /**
      * Write values that the buffer contains to the buff.
      *
@@ -798,8 +936,10 @@ protected final int write(Chunk chunk, WriteBuffer buff, List<Long> toc) {
      * @param chunk the chunk
      * @param buff the target buffer
      * @param toc prospective table of content
+     * @param payloads pre-serialized payloads of unsaved pages, or null
      */
-    abstract void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc);
+    abstract void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc,
+            Map<Page<?,?>, byte[]> payloads);
 
     /**
      * Unlink the children recursively after all data is written.
@@ -1310,10 +1450,11 @@ protected void writeChildren(WriteBuffer buff, boolean withCounts) {
         }
 
         @Override
-        void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc) {
+        void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc,
+                Map<Page<?,?>, byte[]> payloads) {
             if (!isSaved()) {
-                int patch = write(chunk, buff, toc);
-                writeChildrenRecursive(chunk, buff, toc);
+                int patch = write(chunk, buff, toc, payloads);
+                writeChildrenRecursive(chunk, buff, toc, payloads);
                 int old = buff.position();
                 buff.position(patch);
                 writeChildren(buff, false);
@@ -1321,18 +1462,37 @@ void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc) {
             }
         }
 
-        void writeChildrenRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc) {
+        void writeChildrenRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc,
+                Map<Page<?,?>, byte[]> payloads) {
             int len = getRawChildPageCount();
             for (int i = 0; i < len; i++) {
                 PageReference<K,V> ref = children[i];
                 Page<K,V> p = ref.getPage();
                 if (p != null) {
-                    p.writeUnsavedRecursive(chunk, buff, toc);
+                    p.writeUnsavedRecursive(chunk, buff, toc, payloads);
                     ref.resetPos();
                 }
             }
         }
 
+        @Override
+        void collectUnsaved(List<Page<?,?>> target) {
+            if (!isSaved()) {
+                target.add(this);
+                collectUnsavedChildren(target);
+            }
+        }
+
+        void collectUnsavedChildren(List<Page<?,?>> target) {
+            int len = getRawChildPageCount();
+            for (int i = 0; i < len; i++) {
+                Page<K,V> p = children[i].getPage();
+                if (p != null) {
+                    p.collectUnsaved(target);
+                }
+            }
+        }
+
         @Override
         void releaseSavedPages() {
             int len = getRawChildPageCount();
@@ -1385,11 +1545,21 @@ private static <K,V> PageReference<K,V>[] constructEmptyPageRefs(int size) {
         }
 
         @Override
-        void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc) {
+        void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc,
+                Map<Page<?,?>, byte[]> payloads) {
+            if (complete) {
+                super.writeUnsavedRecursive(chunk, buff, toc, payloads);
+            } else if (!isSaved()) {
+                writeChildrenRecursive(chunk, buff, toc, payloads);
+            }
+        }
+
+        @Override
+        void collectUnsaved(List<Page<?,?>> target) {
             if (complete) {
-                super.writeUnsavedRecursive(chunk, buff, toc);
+                super.collectUnsaved(target);
             } else if (!isSaved()) {
-                writeChildrenRecursive(chunk, buff, toc);
+                collectUnsavedChildren(target);
             }
         }
 
@@ -1599,9 +1769,17 @@ protected void writeValues(WriteBuffer buff) {
         protected void writeChildren(WriteBuffer buff, boolean withCounts) {}
 
         @Override
-        void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc) {
+        void writeUnsavedRecursive(Chunk chunk, WriteBuffer buff, List<Long> toc,
+                Map<Page<?,?>, byte[]> payloads) {
+            if (!isSaved()) {
+                write(chunk, buff, toc, payloads);
+            }
+        }
+
+        @Override
+        void collectUnsaved(List<Page<?,?>> target) {
             if (!isSaved()) {
-                write(chunk, buff, toc);
+                target.add(this);
             }
         }
 
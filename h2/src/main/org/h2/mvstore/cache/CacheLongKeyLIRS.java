@@ -12,6 +12,10 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import org.h2.mvstore.DataUtils;
 
 /**
@@ -39,6 +43,13 @@
  * of other entries have been moved to the front (8 per segment by default).
  * Write access and moving entries to the top of the stack is synchronized per
  * segment.
+ * <p>
+ * Optionally, reads do not synchronize at all. Instead, read entries are
+ * recorded in a small buffer per segment, and the buffered accesses are
+ * applied to the stack and queues in a batch, by one thread at a time, once
+ * the buffer is half full, or when an entry is added. If the buffer is full,
+ * older accesses are lost, which only affects the precision of the
+ * replacement algorithm.
  *
  * @author Thomas Mueller
  * @param <V> the value type
@@ -58,6 +69,18 @@
     private final int stackMoveDistance;
     private final int nonResidentQueueSize;
     private final int nonResidentQueueSizeHigh;
+    private final int readBufferSize;
+
+    /**
+     * The number of cache hits. The hits are not counted in the segments, as
+     * reads may still use a segment after it was replaced by a resize.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of cache misses.
+     */
+    private final LongAdder misses = new LongAdder();
 
     /**
      * Create a new cache with the given memory size.
@@ -75,6 +98,11 @@ public CacheLongKeyLIRS(Config config) {
         this.segmentCount = config.segmentCount;
         this.segmentMask = segmentCount - 1;
         this.stackMoveDistance = config.stackMoveDistance;
+        DataUtils.checkArgument(
+                config.readBufferSize == 0 || Integer.bitCount(config.readBufferSize) == 1
+                && config.readBufferSize >= 2,
+                "The read buffer size must be 0 or a power of 2, is {0}", config.readBufferSize);
+        this.readBufferSize = config.readBufferSize;
         segments = new Segment[segmentCount];
         clear();
         // use the high bits for the segment
@@ -88,8 +116,10 @@ public void clear() {
         long max = getMaxItemSize();
         for (int i = 0; i < segmentCount; i++) {
             segments[i] = new Segment<>(max, stackMoveDistance, 8, nonResidentQueueSize,
-                                        nonResidentQueueSizeHigh);
+                                        nonResidentQueueSizeHigh, readBufferSize);
         }
+        hits.reset();
+        misses.reset();
     }
 
     /**
@@ -237,7 +267,17 @@ public V get(long key) {
         int hash = getHash(key);
         Segment<V> s = getSegment(hash);
         Entry<V> e = s.find(key, hash);
-        return s.get(e);
+        V value;
+        if (readBufferSize == 0) {
+            value = s.get(e);
+        } else {
+            value = e == null ? null : e.getValue();
+            if (value != null) {
+                s.recordAccess(e);
+            }
+        }
+        (value == null ? misses : hits).increment();
+        return value;
     }
 
     private Segment<V> getSegment(int hash) {
@@ -374,11 +414,7 @@ public int sizeHot() {
      * @return the cache hits
      */
     public long getHits() {
-        long x = 0;
-        for (Segment<V> s : segments) {
-            x += s.hits;
-        }
-        return x;
+        return hits.sum();
     }
 
     /**
@@ -387,11 +423,7 @@ public long getHits() {
      * @return the cache misses
      */
     public long getMisses() {
-        int x = 0;
-        for (Segment<V> s : segments) {
-            x += s.misses;
-        }
-        return x;
+        return misses.sum();
     }
 
     /**
@@ -519,16 +551,6 @@ public void trimNonResidentQueue() {
          */
         int queue2Size;
 
-        /**
-         * The number of cache hits.
-         */
-        long hits;
-
-        /**
-         * The number of cache misses.
-         */
-        long misses;
-
         /**
          * The map array. The size is always a power of 2.
          */
@@ -602,6 +624,23 @@ public void trimNonResidentQueue() {
          */
         private int stackMoveCounter;
 
+        /**
+         * The entries, which were read, but whose access was not applied to
+         * the stack and queues yet, or null if reads are synchronized. The
+         * length is a power of 2.
+         */
+        private final AtomicReferenceArray<Entry<V>> readBuffer;
+
+        /**
+         * The number of accesses recorded in the read buffer.
+         */
+        private final AtomicInteger readBufferCounter;
+
+        /**
+         * Whether a thread is applying the accesses of the read buffer.
+         */
+        private final AtomicBoolean readBufferDraining;
+
         /**
          * Create a new cache segment.
          *  @param maxMemory the maximum memory to use
@@ -610,10 +649,21 @@ public void trimNonResidentQueue() {
          * @param len the number of hash table buckets (must be a power of 2)
          * @param nonResidentQueueSize the non-resident queue size low watermark factor
          * @param nonResidentQueueSizeHigh  the non-resident queue size high watermark factor
+         * @param readBufferSize the size of the read buffer, or 0 if reads are
+         *        synchronized
          */
         Segment(long maxMemory, int stackMoveDistance, int len,
-                int nonResidentQueueSize, int nonResidentQueueSizeHigh) {
+                int nonResidentQueueSize, int nonResidentQueueSizeHigh, int readBufferSize) {
             setMaxMemory(maxMemory);
+            if (readBufferSize > 0) {
+                readBuffer = new AtomicReferenceArray<>(readBufferSize);
+                readBufferCounter = new AtomicInteger();
+                readBufferDraining = new AtomicBoolean();
+            } else {
+                readBuffer = null;
+                readBufferCounter = null;
+                readBufferDraining = null;
+            }
             this.stackMoveDistance = stackMoveDistance;
             this.nonResidentQueueSize = nonResidentQueueSize;
             this.nonResidentQueueSizeHigh = nonResidentQueueSizeHigh;
@@ -644,9 +694,8 @@ public void trimNonResidentQueue() {
          */
         Segment(Segment<V> old, int len) {
             this(old.maxMemory, old.stackMoveDistance, len,
-                    old.nonResidentQueueSize, old.nonResidentQueueSizeHigh);
-            hits = old.hits;
-            misses = old.misses;
+                    old.nonResidentQueueSize, old.nonResidentQueueSizeHigh,
+                    old.readBuffer == null ? 0 : old.readBuffer.length());
             Entry<V> s = old.stack.stackPrev;
             while (s != old.stack) {
                 Entry<V> e = new Entry<>(s);
@@ -712,17 +761,54 @@ private void addToMap(Entry<V> e) {
          */
         synchronized V get(Entry<V> e) {
             V value = e == null ? null : e.getValue();
-            if (value == null) {
-                // the entry was not found
-                // or it was a non-resident entry
-                misses++;
-            } else {
+            // the value is null if the entry was not found
+            // or if it was a non-resident entry
+            if (value != null) {
                 access(e);
-                hits++;
             }
             return value;
         }
 
+        /**
+         * Record the access of a resident entry in the read buffer, without
+         * synchronization. If the buffer is half full, and no other thread
+         * does it already, the buffered accesses are applied.
+         *
+         * @param e the entry
+         */
+        void recordAccess(Entry<V> e) {
+            int length = readBuffer.length();
+            int index = readBufferCounter.getAndIncrement();
+            readBuffer.lazySet(index & (length - 1), e);
+            if (((index + 1) & ((length >>> 1) - 1)) == 0
+                    && readBufferDraining.compareAndSet(false, true)) {
+                try {
+                    synchronized (this) {
+                        drainReadBuffer();
+                    }
+                } finally {
+                    readBufferDraining.set(false);
+                }
+            }
+        }
+
+        /**
+         * Apply the accesses recorded in the read buffer. The caller must
+         * synchronize on this segment.
+         */
+        private void drainReadBuffer() {
+            if (readBuffer != null) {
+                for (int i = 0, length = readBuffer.length(); i < length; i++) {
+                    Entry<V> e = readBuffer.getAndSet(i, null);
+                    // entries removed in the meantime are neither in the
+                    // stack nor in a queue, so that access() ignores them
+                    if (e != null) {
+                        access(e);
+                    }
+                }
+            }
+        }
+
         /**
          * Access an item, moving the entry to the top of the stack or front of
          * the queue if found.
@@ -788,6 +874,7 @@ private void access(Entry<V> e) {
          * @return the old value, or null if there was no resident entry
          */
         synchronized V put(long key, int hash, V value, int memory) {
+            drainReadBuffer();
             Entry<V> e = find(key, hash);
             boolean existed = e != null;
             V old = null;
@@ -1166,7 +1253,15 @@ boolean isHot() {
         }
 
         V getValue() {
-            return value == null ? reference.get() : value;
+            V v = value;
+            if (v != null) {
+                return v;
+            }
+            // reads may not be synchronized, and the entry could become
+            // resident concurrently (the value is set before the reference
+            // is cleared)
+            WeakReference<V> ref = reference;
+            return ref == null ? value : ref.get();
         }
 
         int getMemory() {
@@ -1206,5 +1301,12 @@ public static class Config {
          * as a factor of the number of all other entries in the map
          */
         public final int nonResidentQueueSizeHigh = 12;
+
+        /**
+         * The number of read accesses per segment, which are buffered, so
+         * that reads do not need to synchronize (0 or a power of 2). The
+         * default is 0, meaning reads are synchronized.
+         */
+        public int readBufferSize;
     }
 }
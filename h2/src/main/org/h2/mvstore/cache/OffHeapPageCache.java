@@ -0,0 +1,270 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A cache of serialized pages in direct memory.
+ * <p>
+ * The pages are copied into a ring of direct memory slabs. The slabs are
+ * allocated when they are first needed, and are then reused, so that the
+ * direct memory used never exceeds the cache size, and does not depend on the
+ * garbage collector releasing buffers. A new page overwrites the oldest pages.
+ * Pages that are read while they are among the oldest ones are written again,
+ * so that frequently used pages stay in the cache.
+ * <p>
+ * The index from the page position to the location in the slabs is a
+ * {@link CacheLongKeyLIRS}. A location whose bytes were overwritten is
+ * detected when the page is read, and is then removed. Pages are copied out
+ * of the slabs, so that the slabs can be overwritten while a page that was
+ * read is still in use.
+ */
+public final class OffHeapPageCache {
+
+    /**
+     * The maximum size of a slab.
+     */
+    private static final int MAX_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The location of a page in the slabs.
+     */
+    private static final class Slot {
+
+        /**
+         * The number of bytes that were written to the slabs before the page.
+         */
+        final long start;
+
+        final int length;
+
+        Slot(long start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+    }
+
+    private final CacheLongKeyLIRS<Slot> index;
+
+    private final ByteBuffer[] slabs;
+
+    private final int slabSize;
+
+    private final long capacity;
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * The number of bytes written to the slabs, guarded by the lock.
+     */
+    private long head;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxMemory the maximum direct memory to use, in bytes
+     */
+    public OffHeapPageCache(long maxMemory) {
+        slabSize = (int) Math.max(1, Math.min(maxMemory, MAX_SLAB_SIZE));
+        int slabCount = (int) Math.max(1, maxMemory / slabSize);
+        slabs = new ByteBuffer[slabCount];
+        capacity = (long) slabCount * slabSize;
+        CacheLongKeyLIRS.Config config = new CacheLongKeyLIRS.Config();
+        config.maxMemory = capacity;
+        index = new CacheLongKeyLIRS<>(config);
+    }
+
+    /**
+     * Get a copy of a page.
+     *
+     * @param pos the position of the page
+     * @return the page, or null if it is not in the cache
+     */
+    public ByteBuffer get(long pos) {
+        Slot slot = index.get(pos);
+        if (slot != null) {
+            byte[] data = new byte[slot.length];
+            long stamp = lock.tryOptimisticRead();
+            boolean valid = copy(slot, data);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    valid = copy(slot, data);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (valid) {
+                hits.increment();
+                ByteBuffer buff = ByteBuffer.wrap(data);
+                if (isOld(slot)) {
+                    put(pos, buff.duplicate());
+                }
+                return buff;
+            }
+            index.remove(pos);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Copy the page from the slabs, if it was not overwritten.
+     *
+     * @param slot the location of the page
+     * @param data the target array
+     * @return false if the page was overwritten
+     */
+    private boolean copy(Slot slot, byte[] data) {
+        if (slot.start < head - capacity) {
+            return false;
+        }
+        ByteBuffer slab = slabs[getSlabIndex(slot.start)];
+        if (slab == null) {
+            // not written yet, only possible if the read is not validated
+            return false;
+        }
+        slab = slab.duplicate();
+        slab.position((int) (slot.start % slabSize));
+        slab.get(data);
+        return true;
+    }
+
+    /**
+     * Check whether a page is among the oldest quarter of the slabs, and is
+     * going to be overwritten soon.
+     *
+     * @param slot the location of the page
+     * @return true if it is
+     */
+    private boolean isOld(Slot slot) {
+        long stamp = lock.tryOptimisticRead();
+        long h = head;
+        return lock.validate(stamp) && slot.start < h - capacity + capacity / 4;
+    }
+
+    /**
+     * Add a page to the cache. The page is copied, and the remaining bytes of
+     * the buffer are the page. Pages that are larger than a slab are not
+     * cached.
+     *
+     * @param pos the position of the page
+     * @param page the page
+     */
+    public void put(long pos, ByteBuffer page) {
+        int length = page.remaining();
+        if (length > slabSize) {
+            return;
+        }
+        long start;
+        long stamp = lock.writeLock();
+        try {
+            start = head;
+            int offset = (int) (start % slabSize);
+            if (offset + length > slabSize) {
+                // pages do not span slabs
+                start += slabSize - offset;
+                offset = 0;
+            }
+            int slabIndex = getSlabIndex(start);
+            ByteBuffer slab = slabs[slabIndex];
+            if (slab == null) {
+                slab = ByteBuffer.allocateDirect(slabSize);
+                slabs[slabIndex] = slab;
+            }
+            slab = slab.duplicate();
+            slab.position(offset);
+            slab.put(page);
+            head = start + length;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        index.put(pos, new Slot(start, length), length);
+    }
+
+    private int getSlabIndex(long start) {
+        return (int) (start / slabSize % slabs.length);
+    }
+
+    /**
+     * Remove a page.
+     *
+     * @param pos the position of the page
+     */
+    public void remove(long pos) {
+        index.remove(pos);
+    }
+
+    /**
+     * Remove all pages. The slabs are kept, and are reused.
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            // all pages written so far are overwritten
+            head += capacity;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        index.clear();
+    }
+
+    /**
+     * Get the direct memory allocated for the slabs.
+     *
+     * @return the memory, in bytes
+     */
+    public long getUsedMemory() {
+        long stamp = lock.readLock();
+        try {
+            long used = 0;
+            for (ByteBuffer slab : slabs) {
+                if (slab != null) {
+                    used += slabSize;
+                }
+            }
+            return used;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get the maximum direct memory of the cache.
+     *
+     * @return the memory, in bytes
+     */
+    public long getMaxMemory() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of pages that were found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of pages that were not found in the cache.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import org.h2.api.ErrorCode;
+import org.h2.engine.Constants;
+import org.h2.message.DbException;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.result.SearchRow;
+import org.h2.value.TypeInfo;
+import org.h2.value.Value;
+import org.h2.value.ValueBigint;
+import org.h2.value.ValueInteger;
+import org.h2.value.ValueSmallint;
+import org.h2.value.ValueTinyint;
+
+/**
+ * The rows of a page in column-major layout, as used for the leaf pages of
+ * tables with the COLUMNAR setting.
+ * <p>
+ * The values of each column are stored together, with an encoding chosen per
+ * column and page: runs of the same value, a dictionary of the distinct
+ * values, the differences between consecutive integers, or the plain values.
+ * Each column is prefixed with its length, so that it is kept encoded when
+ * the page is read, and only decoded when one of its values is accessed.
+ * <p>
+ * The format is: the number of columns, the row keys if they are stored
+ * (the first one, then the differences), then each column as its length,
+ * its encoding, and the encoded values.
+ */
+final class ColumnarBlock implements LazyRow.Decoder {
+
+    private static final int PLAIN = 0;
+    private static final int RUN_LENGTH = 1;
+    private static final int DICTIONARY = 2;
+    private static final int DELTA = 3;
+
+    private final ValueDataType valueDataType;
+    private final TypeInfo[] columnTypes;
+
+    /**
+     * The rows, or null if all columns are decoded.
+     */
+    private LazyRow[] rows;
+
+    /**
+     * The encoded columns, null for the columns that are decoded.
+     */
+    private final byte[][] columns;
+
+    private int encodedColumnCount;
+
+    private ColumnarBlock(ValueDataType valueDataType, TypeInfo[] columnTypes, LazyRow[] rows, byte[][] columns) {
+        this.valueDataType = valueDataType;
+        this.columnTypes = columnTypes;
+        this.rows = rows;
+        this.columns = columns;
+        encodedColumnCount = columns.length;
+    }
+
+    /**
+     * Write the rows in column-major layout.
+     *
+     * @param buff the target buffer
+     * @param rows the rows
+     * @param len the number of rows, at least 1
+     * @param valueDataType the data type of the values
+     * @param storeKeys whether to store the row keys
+     */
+    static void write(WriteBuffer buff, SearchRow[] rows, int len, ValueDataType valueDataType,
+            boolean storeKeys) {
+        int columnCount = rows[0].getColumnCount();
+        buff.putVarInt(columnCount);
+        if (storeKeys) {
+            long last = 0;
+            for (int i = 0; i < len; i++) {
+                long key = rows[i].getKey();
+                buff.putVarLong(zigZag(key - last));
+                last = key;
+            }
+        }
+        WriteBuffer columnBuffer = new WriteBuffer();
+        for (int c = 0; c < columnCount; c++) {
+            columnBuffer.clear();
+            writeColumn(columnBuffer, rows, len, c, valueDataType);
+            ByteBuffer b = columnBuffer.getBuffer();
+            b.flip();
+            buff.putVarInt(b.remaining()).put(b);
+        }
+    }
+
+    /**
+     * Read rows written in column-major layout. The values are not decoded
+     * yet.
+     *
+     * @param buff the source buffer
+     * @param storage the array to store the rows in
+     * @param len the number of rows
+     * @param valueDataType the data type of the values
+     * @param columnTypes the column types, or null
+     * @param storeKeys whether the row keys are stored
+     */
+    static void read(ByteBuffer buff, SearchRow[] storage, int len, ValueDataType valueDataType,
+            TypeInfo[] columnTypes, boolean storeKeys) {
+        int columnCount = DataUtils.readVarInt(buff);
+        long[] keys = null;
+        if (storeKeys) {
+            keys = new long[len];
+            long last = 0;
+            for (int i = 0; i < len; i++) {
+                keys[i] = last += unZigZag(DataUtils.readVarLong(buff));
+            }
+        }
+        byte[][] columns = new byte[columnCount][];
+        int encodedLength = 0;
+        for (int c = 0; c < columnCount; c++) {
+            byte[] b = new byte[DataUtils.readVarInt(buff)];
+            buff.get(b);
+            columns[c] = b;
+            encodedLength += b.length;
+        }
+        // assume the decoded values are a few times larger than the encoded ones
+        int memory = Constants.MEMORY_ROW + Constants.MEMORY_ARRAY
+                + columnCount * (Constants.MEMORY_POINTER + Constants.MEMORY_OBJECT) + 2 * encodedLength / len;
+        LazyRow[] rows = new LazyRow[len];
+        ColumnarBlock block = new ColumnarBlock(valueDataType, columnTypes, rows, columns);
+        for (int i = 0; i < len; i++) {
+            LazyRow row = new LazyRow(block, columnCount, memory);
+            if (keys != null) {
+                row.setKey(keys[i]);
+            }
+            storage[i] = rows[i] = row;
+        }
+    }
+
+    private static void writeColumn(WriteBuffer buff, SearchRow[] rows, int len, int column,
+            ValueDataType valueDataType) {
+        Value previous = rows[0].getValue(column);
+        int integerType = getIntegerType(previous);
+        int runs = 1;
+        for (int i = 1; i < len; i++) {
+            Value v = rows[i].getValue(column);
+            if (!RowDataType.isSameValue(previous, v)) {
+                runs++;
+            }
+            if (v.getValueType() != integerType) {
+                integerType = Value.UNKNOWN;
+            }
+            previous = v;
+        }
+        if (runs * 4 <= len) {
+            buff.put((byte) RUN_LENGTH);
+            for (int i = 0; i < len;) {
+                Value v = rows[i].getValue(column);
+                int start = i;
+                while (++i < len && RowDataType.isSameValue(v, rows[i].getValue(column))) {
+                    // count the run
+                }
+                buff.putVarInt(i - start);
+                valueDataType.write(buff, v);
+            }
+        } else if (integerType != Value.UNKNOWN) {
+            buff.put((byte) DELTA).put((byte) integerType);
+            long last = 0;
+            for (int i = 0; i < len; i++) {
+                long x = rows[i].getValue(column).getLong();
+                buff.putVarLong(zigZag(x - last));
+                last = x;
+            }
+        } else if (!writeDictionary(buff, rows, len, column, valueDataType)) {
+            buff.put((byte) PLAIN);
+            for (int i = 0; i < len; i++) {
+                valueDataType.write(buff, rows[i].getValue(column));
+            }
+        }
+    }
+
+    private static boolean writeDictionary(WriteBuffer buff, SearchRow[] rows, int len, int column,
+            ValueDataType valueDataType) {
+        int maxSize = len / 4;
+        HashMap<Value, Integer> dictionary = new HashMap<>();
+        int[] indexes = new int[len];
+        for (int i = 0; i < len; i++) {
+            Value v = rows[i].getValue(column);
+            if (!RowDataType.isShareable(v)) {
+                return false;
+            }
+            Integer index = dictionary.get(v);
+            if (index == null) {
+                if (dictionary.size() == maxSize) {
+                    return false;
+                }
+                dictionary.put(v, index = dictionary.size());
+            }
+            indexes[i] = index;
+        }
+        Value[] values = new Value[dictionary.size()];
+        for (HashMap.Entry<Value, Integer> e : dictionary.entrySet()) {
+            values[e.getValue()] = e.getKey();
+        }
+        buff.put((byte) DICTIONARY).putVarInt(values.length);
+        for (Value v : values) {
+            valueDataType.write(buff, v);
+        }
+        for (int i = 0; i < len; i++) {
+            buff.putVarInt(indexes[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean decode(LazyRow row, int column) {
+        byte[] b = columns[column];
+        if (b == null) {
+            // decoded by another thread in the meantime
+            return encodedColumnCount == 0;
+        }
+        ByteBuffer buff = ByteBuffer.wrap(b);
+        TypeInfo columnType = columnTypes != null ? columnTypes[column] : null;
+        LazyRow[] rows = this.rows;
+        int len = rows.length;
+        int encoding = buff.get();
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < len; i++) {
+                rows[i].setDecodedValue(column, valueDataType.readValue(buff, columnType));
+            }
+            break;
+        case RUN_LENGTH:
+            for (int i = 0; i < len;) {
+                int run = DataUtils.readVarInt(buff);
+                Value v = valueDataType.readValue(buff, columnType);
+                for (int end = i + run; i < end; i++) {
+                    rows[i].setDecodedValue(column, v);
+                }
+            }
+            break;
+        case DICTIONARY: {
+            Value[] values = new Value[DataUtils.readVarInt(buff)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = valueDataType.readValue(buff, columnType);
+            }
+            for (int i = 0; i < len; i++) {
+                rows[i].setDecodedValue(column, values[DataUtils.readVarInt(buff)]);
+            }
+            break;
+        }
+        case DELTA: {
+            int integerType = buff.get();
+            long x = 0;
+            for (int i = 0; i < len; i++) {
+                x += unZigZag(DataUtils.readVarLong(buff));
+                rows[i].setDecodedValue(column, getIntegerValue(integerType, x));
+            }
+            break;
+        }
+        default:
+            throw DbException.get(ErrorCode.FILE_CORRUPTED_1, "column encoding: " + encoding);
+        }
+        columns[column] = null;
+        if (--encodedColumnCount == 0) {
+            this.rows = null;
+            return true;
+        }
+        return false;
+    }
+
+    private static int getIntegerType(Value v) {
+        int type = v.getValueType();
+        switch (type) {
+        case Value.TINYINT:
+        case Value.SMALLINT:
+        case Value.INTEGER:
+        case Value.BIGINT:
+            return type;
+        default:
+            return Value.UNKNOWN;
+        }
+    }
+
+    private static Value getIntegerValue(int integerType, long x) {
+        switch (integerType) {
+        case Value.TINYINT:
+            return ValueTinyint.get((byte) x);
+        case Value.SMALLINT:
+            return ValueSmallint.get((short) x);
+        case Value.INTEGER:
+            return ValueInteger.get((int) x);
+        case Value.BIGINT:
+            return ValueBigint.get(x);
+        default:
+            throw DbException.get(ErrorCode.FILE_CORRUPTED_1, "integer type: " + integerType);
+        }
+    }
+
+    private static long zigZag(long x) {
+        return (x << 1) ^ (x >> 63);
+    }
+
+    private static long unZigZag(long x) {
+        return (x >>> 1) ^ -(x & 1);
+    }
+}
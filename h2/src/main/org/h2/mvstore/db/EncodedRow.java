@@ -0,0 +1,91 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.nio.ByteBuffer;
+import org.h2.engine.Constants;
+import org.h2.value.TypeInfo;
+
+/**
+ * The encoded values of a row read from a row-major page, kept as a copy of
+ * the bytes of the row and the offset of each column within them.
+ * <p>
+ * When a page is read, the values are only skipped to find the offsets, and
+ * a value is decoded when it is first accessed. The bytes are released once
+ * all columns are decoded.
+ */
+final class EncodedRow implements LazyRow.Decoder {
+
+    private final ValueDataType valueDataType;
+    private final TypeInfo[] columnTypes;
+
+    /**
+     * The encoded values, or null if all columns are decoded.
+     */
+    private byte[] data;
+
+    /**
+     * The offset of each column, -1 for the columns that are decoded.
+     */
+    private final int[] offsets;
+
+    private int encodedColumnCount;
+
+    private EncodedRow(ValueDataType valueDataType, TypeInfo[] columnTypes, byte[] data, int[] offsets) {
+        this.valueDataType = valueDataType;
+        this.columnTypes = columnTypes;
+        this.data = data;
+        this.offsets = offsets;
+        encodedColumnCount = offsets.length;
+    }
+
+    /**
+     * Read the values of a row written in the row-major format. The values
+     * are not decoded yet.
+     *
+     * @param buff the source buffer
+     * @param valueDataType the data type of the values
+     * @param columnTypes the column types, or null
+     * @param columnCount the number of columns
+     * @return the row
+     */
+    static LazyRow read(ByteBuffer buff, ValueDataType valueDataType, TypeInfo[] columnTypes, int columnCount) {
+        int start = buff.position();
+        int[] offsets = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            offsets[i] = buff.position() - start;
+            ValueDataType.skipValue(buff);
+        }
+        int length = buff.position() - start;
+        byte[] data = new byte[length];
+        buff.position(start);
+        buff.get(data);
+        // assume the decoded values are about twice as large as the encoded ones
+        int memory = Constants.MEMORY_ROW + Constants.MEMORY_OBJECT + 3 * Constants.MEMORY_ARRAY
+                + columnCount * (Constants.MEMORY_POINTER + 4) + 3 * length;
+        return new LazyRow(new EncodedRow(valueDataType, columnTypes, data, offsets), columnCount, memory);
+    }
+
+    @Override
+    public synchronized boolean decode(LazyRow row, int column) {
+        int offset = offsets[column];
+        if (offset < 0) {
+            // decoded by another thread in the meantime
+            return encodedColumnCount == 0;
+        }
+        byte[] data = this.data;
+        ByteBuffer buff = ByteBuffer.wrap(data, offset, data.length - offset);
+        row.setDecodedValue(column, valueDataType.readValue(buff, columnTypes != null ? columnTypes[column] : null));
+        assert column + 1 == offsets.length ? buff.position() == data.length
+                : offsets[column + 1] < 0 || buff.position() == offsets[column + 1];
+        offsets[column] = -1;
+        if (--encodedColumnCount == 0) {
+            this.data = null;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import org.h2.result.DefaultRow;
+import org.h2.value.Value;
+
+/**
+ * A row read from a page, whose column values are decoded when they are
+ * first accessed. A column that is never read is never decoded.
+ * <p>
+ * Values are only ever added by the decoder, and a value that was set
+ * explicitly is not overwritten.
+ */
+final class LazyRow extends DefaultRow {
+
+    /**
+     * Decodes the values of a column.
+     */
+    interface Decoder {
+
+        /**
+         * Decode the value of the given column of the row, and possibly of
+         * other rows, using {@link LazyRow#setDecodedValue(int, Value)}.
+         *
+         * @param row the row
+         * @param column the column index
+         * @return true if all values of the row are decoded now
+         */
+        boolean decode(LazyRow row, int column);
+    }
+
+    /**
+     * The decoder, or null if all values are decoded.
+     */
+    private volatile Decoder decoder;
+
+    LazyRow(Decoder decoder, int columnCount, int memory) {
+        super(new Value[columnCount], memory);
+        this.decoder = decoder;
+    }
+
+    @Override
+    public Value getValue(int i) {
+        if (i >= 0) {
+            Value v = data[i];
+            if (v == null) {
+                decode(i);
+                v = data[i];
+            }
+            return v;
+        }
+        return super.getValue(i);
+    }
+
+    @Override
+    public Value[] getValueList() {
+        decodeAll();
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+
+    /**
+     * Set the value of a column, unless it is already set.
+     *
+     * @param column the column index
+     * @param v the value
+     */
+    void setDecodedValue(int column, Value v) {
+        if (data[column] == null) {
+            data[column] = v;
+        }
+    }
+
+    private void decode(int column) {
+        Decoder decoder = this.decoder;
+        if (decoder != null && decoder.decode(this, column)) {
+            this.decoder = null;
+        }
+    }
+
+    private void decodeAll() {
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == null) {
+                decode(i);
+            }
+        }
+    }
+}
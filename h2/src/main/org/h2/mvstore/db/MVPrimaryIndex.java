@@ -48,10 +48,15 @@ public MVPrimaryIndex(Database db, MVTable table, int id, IndexColumn[] columns,
         super(table, id, table.getName() + "_DATA", columns, 0, indexType);
         this.mvTable = table;
         RowDataType valueType = table.getRowFactory().getRowDataType();
+        if (table.isColumnar()) {
+            valueType = valueType.getColumnarType();
+        }
         mapName = "table." + getId();
         Transaction t = mvTable.getTransactionBegin();
         dataMap = t.openMap(mapName, LongDataType.INSTANCE, valueType);
         dataMap.map.setVolatile(!table.isPersistData() || !indexType.isPersistent());
+        // new rows usually get the next row id
+        dataMap.map.setAppendOptimized(true);
         if (!db.isStarting()) {
             dataMap.clear();
         }
@@ -366,7 +371,34 @@ public void addBufferedRows(List<String> bufferNames) {
         throw new UnsupportedOperationException();
     }
 
-    private Cursor find(SessionLocal session, Long first, Long last) {
+    /**
+     * Get the keys that split the rows of this index into the given number of
+     * ranges with about the same number of rows. Uncommitted rows of other
+     * sessions are counted as well.
+     *
+     * @param count the number of ranges
+     * @return the first key of each range except the first one, ascending
+     */
+    public long[] getSplitKeys(int count) {
+        MVMap<Long, VersionedValue<SearchRow>> map = dataMap.map;
+        long size = map.sizeAsLong();
+        long[] keys = new long[count - 1];
+        for (int i = 1; i < count; i++) {
+            Long key = map.getKey(size * i / count);
+            keys[i - 1] = key != null ? key : Long.MAX_VALUE;
+        }
+        return keys;
+    }
+
+    /**
+     * Find the rows with keys in the given range.
+     *
+     * @param session the session
+     * @param first the lowest key, or null for no limit
+     * @param last the highest key, or null for no limit
+     * @return the cursor
+     */
+    public Cursor find(SessionLocal session, Long first, Long last) {
         TransactionMap<Long,SearchRow> map = getMap(session);
         if (first != null && last != null && first.longValue() == last.longValue()) {
             return new SingleRowCursor(setRowKey((Row) map.getFromSnapshot(first), first));
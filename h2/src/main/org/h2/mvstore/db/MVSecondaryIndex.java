@@ -129,22 +129,45 @@ public void addBufferedRows(List<String> bufferNames) {
             }
         }
 
+        // the merged rows are sorted, so a new index is built bottom-up, and
+        // duplicates are detected by comparing with the previous row
+        TransactionMap.CommittedLoader<SearchRow,Value> loader =
+                dataMap.sizeAsLongMax() == 0 ? dataMap.committedLoader() : null;
+        SearchRow previous = null;
+        SearchRow previousUnique = null;
         try {
             while (!queue.isEmpty()) {
                 Source s = queue.poll();
                 SearchRow row = s.next();
 
-                if (uniqueColumnColumn > 0 && !mayHaveNullDuplicates(row)) {
-                    checkUnique(true, dataMap, row, Long.MIN_VALUE);
+                if (loader != null) {
+                    if (uniqueColumnColumn > 0 && !mayHaveNullDuplicates(row)) {
+                        RowFactory uniqueRowFactory = getUniqueRowFactory();
+                        if (previous == null) {
+                            previousUnique = uniqueRowFactory.createRow();
+                        } else if (uniqueRowFactory.getRowDataType().compare(previousUnique, row) == 0) {
+                            throw getDuplicateKeyException(previous.toString());
+                        }
+                        previous = row;
+                        previousUnique.copyFrom(row);
+                        previousUnique.setKey(SearchRow.MATCH_ALL_ROW_KEY);
+                    }
+                    loader.add(row, ValueNull.INSTANCE);
+                } else {
+                    if (uniqueColumnColumn > 0 && !mayHaveNullDuplicates(row)) {
+                        checkUnique(true, dataMap, row, Long.MIN_VALUE);
+                    }
+                    dataMap.putCommitted(row, ValueNull.INSTANCE);
                 }
 
-                dataMap.putCommitted(row, ValueNull.INSTANCE);
-
                 if (s.hasNext()) {
                     queue.offer(s);
                 }
             }
         } finally {
+            if (loader != null) {
+                loader.finish();
+            }
             MVStore mvStore = database.getStore().getMvStore();
             for (String tempMapName : bufferNames) {
                 mvStore.removeMap(tempMapName);
@@ -7,6 +7,12 @@
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.h2.api.DatabaseEventListener;
@@ -21,6 +27,7 @@
 import org.h2.message.DbException;
 import org.h2.message.Trace;
 import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStoreException;
 import org.h2.mvstore.tx.Transaction;
 import org.h2.mvstore.tx.TransactionStore;
@@ -30,6 +37,7 @@
 import org.h2.table.RegularTable;
 import org.h2.util.DebuggingThreadLocal;
 import org.h2.util.Utils;
+import org.h2.value.VersionedValue;
 
 /**
  * A table stored in a MVStore.
@@ -89,6 +97,12 @@ public String getEventText() {
         }
     }
 
+    /**
+     * The table engine parameter to store the rows in column-major layout.
+     */
+    public static final String COLUMNAR = "COLUMNAR";
+
+    private final boolean columnar;
     private final MVPrimaryIndex primaryIndex;
     private final ArrayList<Index> indexes = Utils.newSmallArrayList();
     private final AtomicLong lastModificationId = new AtomicLong();
@@ -112,12 +126,23 @@ public MVTable(CreateTableData data, Store store) {
         this.store = store;
         this.transactionStore = store.getTransactionStore();
         traceLock = database.getTrace(Trace.LOCK);
+        columnar = getTableEngineParams().stream().anyMatch(COLUMNAR::equalsIgnoreCase);
 
         primaryIndex = new MVPrimaryIndex(database, this, getId(),
                 IndexColumn.wrap(getColumns()), IndexType.createScan(true));
         indexes.add(primaryIndex);
     }
 
+    /**
+     * Check whether the rows of this table are stored in column-major layout.
+     * This is set with the table engine parameter {@link #COLUMNAR}.
+     *
+     * @return true if the layout is column-major
+     */
+    public boolean isColumnar() {
+        return columnar;
+    }
+
     public String getMapName() {
         return primaryIndex.getMapName();
     }
@@ -391,11 +416,17 @@ private void rebuildIndexBlockMerge(SessionLocal session, MVIndex<?,?> index) {
         Index scan = getScanIndex(session);
         long remaining = scan.getRowCount(session);
         long total = remaining;
+        int bufferSize = database.getMaxMemoryRows() / 2;
+        int threadCount = Math.min(database.getSettings().createIndexThreads,
+                Runtime.getRuntime().availableProcessors());
+        if (threadCount > 1 && total > bufferSize && primaryIndex.getMVMap().sizeAsLong() >= threadCount) {
+            rebuildIndexParallel(session, index, total, bufferSize, threadCount);
+            return;
+        }
         Cursor cursor = scan.find(session, null, null);
         long i = 0;
         Store store = session.getDatabase().getStore();
 
-        int bufferSize = database.getMaxMemoryRows() / 2;
         ArrayList<Row> buffer = new ArrayList<>(bufferSize);
         String n = getName() + ':' + index.getName();
         ArrayList<String> bufferNames = Utils.newSmallArrayList();
@@ -427,6 +458,100 @@ private void rebuildIndexBlockMerge(SessionLocal session, MVIndex<?,?> index) {
         }
     }
 
+    /**
+     * Build the index from rows that are read in parallel. The primary key
+     * range is split into one part per thread, using the position of the keys
+     * in the primary index. Each thread reads its part, and sorts and writes
+     * it in blocks to temporary maps, which are then merged into the index.
+     * The buffer size is shared by the threads, so that about the same number
+     * of rows is kept in memory as when using a single thread.
+     */
+    private void rebuildIndexParallel(SessionLocal session, MVIndex<?,?> index, long total, int bufferSize,
+            int threadCount) {
+        // the cursors are opened by the current thread, as this uses the
+        // transaction of the session, which is not thread safe
+        MVMap<Long,VersionedValue<SearchRow>> map = primaryIndex.getMVMap();
+        long size = map.sizeAsLong();
+        ArrayList<Cursor> cursors = new ArrayList<>(threadCount);
+        Long first = null;
+        for (int i = 1; i <= threadCount; i++) {
+            Long last = null;
+            if (i < threadCount) {
+                Long next = map.getKey(size * i / threadCount);
+                if (next != null) {
+                    last = next - 1;
+                }
+            }
+            cursors.add(primaryIndex.find(session, first, last));
+            if (last == null) {
+                break;
+            }
+            first = last + 1;
+        }
+        Store store = database.getStore();
+        int workerBufferSize = Math.max(1, bufferSize / cursors.size());
+        AtomicLong rowCount = new AtomicLong();
+        ArrayList<String> bufferNames = new ArrayList<>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(cursors.size(), cursors.size(),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "H2-create-index-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        String n = getName() + ':' + index.getName();
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>(cursors.size());
+            for (Cursor cursor : cursors) {
+                futures.add(executor.submit(() -> {
+                    ArrayList<Row> buffer = new ArrayList<>(workerBufferSize);
+                    while (!Thread.currentThread().isInterrupted() && cursor.next()) {
+                        buffer.add(cursor.get());
+                        rowCount.incrementAndGet();
+                        if (buffer.size() >= workerBufferSize) {
+                            addSortedRunToBuffer(store, index, buffer, bufferNames);
+                        }
+                    }
+                    if (!buffer.isEmpty()) {
+                        addSortedRunToBuffer(store, index, buffer, bufferNames);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(100, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n, rowCount.get(), total);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        } catch (ExecutionException e) {
+            throw DbException.convert(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n, rowCount.get(), total);
+        if (rowCount.get() != total) {
+            throw DbException.getInternalError("rowcount remaining=" + (total - rowCount.get()) + ' ' + getName());
+        }
+        index.addBufferedRows(bufferNames);
+    }
+
+    private static void addSortedRunToBuffer(Store store, MVIndex<?,?> index, ArrayList<Row> buffer,
+            ArrayList<String> bufferNames) {
+        sortRows(buffer, index);
+        String mapName = store.nextTemporaryMapName();
+        index.addRowsToBuffer(buffer, mapName);
+        synchronized (bufferNames) {
+            bufferNames.add(mapName);
+        }
+        buffer.clear();
+    }
+
     private void rebuildIndexBuffered(SessionLocal session, Index index) {
         Index scan = getScanIndex(session);
         long remaining = scan.getRowCount(session);
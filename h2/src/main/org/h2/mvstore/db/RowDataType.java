@@ -15,11 +15,16 @@
 import org.h2.mvstore.type.MetaType;
 import org.h2.mvstore.type.StatefulDataType;
 import org.h2.result.RowFactory;
+import org.h2.result.RowFactory.DefaultRowFactory;
 import org.h2.result.SearchRow;
 import org.h2.store.DataHandler;
 import org.h2.value.CompareMode;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
+import org.h2.value.ValueCollectionBase;
+import org.h2.value.ValueLob;
+import org.h2.value.ValueVarchar;
+import org.h2.value.ValueVarcharIgnoreCase;
 
 /**
  * The data type for rows.
@@ -33,6 +38,7 @@ public final class RowDataType extends BasicDataType<SearchRow> implements State
     private final int[]         indexes;
     private final int           columnCount;
     private final boolean       storeKeys;
+    private final boolean       columnar;
 
     public RowDataType(CastDataProvider provider, CompareMode compareMode, DataHandler handler, int[] sortTypes,
             int[] indexes, int columnCount, boolean storeKeys) {
@@ -41,9 +47,36 @@ public RowDataType(CastDataProvider provider, CompareMode compareMode, DataHandl
         this.indexes = indexes;
         this.columnCount = columnCount;
         this.storeKeys = storeKeys;
+        this.columnar = false;
         assert indexes == null || sortTypes.length == indexes.length;
     }
 
+    private RowDataType(RowDataType source) {
+        this.valueDataType = source.valueDataType;
+        this.sortTypes = source.sortTypes;
+        this.indexes = source.indexes;
+        this.columnCount = source.columnCount;
+        this.storeKeys = source.storeKeys;
+        this.columnar = true;
+    }
+
+    /**
+     * Get a data type for the same rows, which writes the rows of a page in
+     * column-major layout. Values of such rows are decoded when they are
+     * first accessed. This is only supported for complete rows.
+     *
+     * @return the data type
+     */
+    public RowDataType getColumnarType() {
+        assert indexes == null;
+        return columnar ? this : new RowDataType(this);
+    }
+
+    @Override
+    public boolean isColumnar() {
+        return columnar;
+    }
+
     public int[] getIndexes() {
         return indexes;
     }
@@ -143,9 +176,20 @@ public int getMemory(SearchRow row) {
         return row.getMemory();
     }
 
+    /**
+     * Read a row. Complete rows of the default row factory are kept encoded,
+     * and their values are decoded when they are first accessed.
+     */
     @Override
     public SearchRow read(ByteBuffer buff) {
         RowFactory rowFactory = valueDataType.getRowFactory();
+        if (indexes == null && rowFactory instanceof DefaultRowFactory) {
+            long key = storeKeys ? DataUtils.readVarLong(buff) : 0;
+            LazyRow row = EncodedRow.read(buff, valueDataType, rowFactory.getColumnTypes(),
+                    rowFactory.getColumnCount());
+            row.setKey(key);
+            return row;
+        }
         SearchRow row = rowFactory.createRow();
         if (storeKeys) {
             row.setKey(DataUtils.readVarLong(buff));
@@ -181,6 +225,208 @@ public void write(WriteBuffer buff, SearchRow row) {
         }
     }
 
+    @Override
+    public void write(WriteBuffer buff, Object storage, int len) {
+        if (columnar) {
+            if (len > 1) {
+                buff.put((byte) 1);
+                ColumnarBlock.write(buff, cast(storage), len, valueDataType, storeKeys);
+                return;
+            }
+            buff.put((byte) 0);
+        }
+        super.write(buff, storage, len);
+    }
+
+    @Override
+    public void read(ByteBuffer buff, Object storage, int len) {
+        if (columnar && buff.get() != 0) {
+            ColumnarBlock.read(buff, cast(storage), len, valueDataType,
+                    valueDataType.getRowFactory().getColumnTypes(), storeKeys);
+        } else {
+            super.read(buff, storage, len);
+        }
+    }
+
+    /**
+     * Write the rows with front coding: the columns a row has in common with
+     * the previous row are not written again. If the first different column
+     * is a VARCHAR value in both rows, only the part after their common
+     * prefix is written.
+     */
+    @Override
+    public boolean writeSorted(WriteBuffer buff, Object storage, int len) {
+        SearchRow[] rows = cast(storage);
+        // for each row, the number of common columns times two, plus one if
+        // the next column has a common prefix
+        int[] headers = new int[len];
+        int[] prefixes = new int[len];
+        boolean shared = false;
+        for (int i = 1; i < len; i++) {
+            SearchRow previous = rows[i - 1], row = rows[i];
+            int columns = getSortedColumnCount(row);
+            int c = 0;
+            while (c < columns && isSameValue(previous.getValue(getColumn(c)), row.getValue(getColumn(c)))) {
+                c++;
+            }
+            int header = c << 1;
+            if (c < columns) {
+                int prefix = getCommonPrefixLength(previous.getValue(getColumn(c)), row.getValue(getColumn(c)));
+                if (prefix > 0) {
+                    header |= 1;
+                    prefixes[i] = prefix;
+                }
+            }
+            headers[i] = header;
+            shared |= header != 0;
+        }
+        if (!shared) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            SearchRow row = rows[i];
+            if (storeKeys) {
+                buff.putVarLong(row.getKey());
+            }
+            int header = headers[i];
+            buff.putVarInt(header);
+            int c = header >>> 1;
+            if ((header & 1) != 0) {
+                String s = row.getValue(getColumn(c++)).getString();
+                int prefix = prefixes[i], suffix = s.length() - prefix;
+                buff.putVarInt(prefix).putVarInt(suffix).putStringData(s.substring(prefix), suffix);
+            }
+            for (int columns = getSortedColumnCount(row); c < columns; c++) {
+                valueDataType.write(buff, row.getValue(getColumn(c)));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void readSorted(ByteBuffer buff, Object storage, int len) {
+        SearchRow[] rows = cast(storage);
+        RowFactory rowFactory = valueDataType.getRowFactory();
+        TypeInfo[] columnTypes = rowFactory.getColumnTypes();
+        SearchRow previous = null;
+        for (int i = 0; i < len; i++) {
+            SearchRow row = rowFactory.createRow();
+            if (storeKeys) {
+                row.setKey(DataUtils.readVarLong(buff));
+            }
+            int header = DataUtils.readVarInt(buff);
+            int c = 0;
+            for (int shared = header >>> 1; c < shared; c++) {
+                int index = getColumn(c);
+                row.setValue(index, previous.getValue(index));
+            }
+            if ((header & 1) != 0) {
+                int index = getColumn(c++);
+                int prefix = DataUtils.readVarInt(buff);
+                String s = previous.getValue(index).getString().substring(0, prefix)
+                        .concat(DataUtils.readString(buff));
+                row.setValue(index, ValueVarchar.get(s));
+            }
+            for (int columns = getSortedColumnCount(row); c < columns; c++) {
+                int index = getColumn(c);
+                row.setValue(index, valueDataType.readValue(buff, columnTypes != null ? columnTypes[index] : null));
+            }
+            rows[i] = previous = row;
+        }
+    }
+
+    /**
+     * Get a copy of the right row, where the first column that is different
+     * from the left row is cut to the shortest distinguishing prefix, if it is
+     * a VARCHAR column. The other columns and the key are kept, so that the
+     * separator is ordered like any other row.
+     */
+    @Override
+    public SearchRow getSeparator(SearchRow left, SearchRow right) {
+        for (int c = 0, columns = getSortedColumnCount(right); c < columns; c++) {
+            int index = getColumn(c);
+            Value l = left.getValue(index), r = right.getValue(index);
+            if (valueDataType.compareValues(l, r, sortTypes[c]) == 0) {
+                continue;
+            }
+            if (l.getValueType() == Value.VARCHAR && r.getValueType() == Value.VARCHAR) {
+                String s = r.getString();
+                int length = getCommonPrefixLength(l, r) + 1;
+                if (length < s.length()) {
+                    Value v = ValueVarchar.get(s.substring(0, length));
+                    // the comparison may not be binary, for example with a collation
+                    if (valueDataType.compareValues(l, v, sortTypes[c]) < 0
+                            && valueDataType.compareValues(v, r, sortTypes[c]) <= 0) {
+                        SearchRow row = valueDataType.getRowFactory().createRow();
+                        row.setKey(right.getKey());
+                        for (int i = 0; i < columns; i++) {
+                            int j = getColumn(i);
+                            row.setValue(j, i == c ? v : right.getValue(j));
+                        }
+                        return row;
+                    }
+                }
+            }
+            break;
+        }
+        return right;
+    }
+
+    private int getSortedColumnCount(SearchRow row) {
+        return indexes == null ? row.getColumnCount() : indexes.length;
+    }
+
+    private int getColumn(int i) {
+        return indexes == null ? i : indexes[i];
+    }
+
+    /**
+     * Check whether the values are the same, so that one of them can be
+     * stored in place of the other one.
+     *
+     * @param a the first value
+     * @param b the second value
+     * @return true if they are the same
+     */
+    static boolean isSameValue(Value a, Value b) {
+        if (a == b) {
+            return true;
+        } else if (a.getClass() != b.getClass() || a instanceof ValueCollectionBase || a instanceof ValueLob) {
+            return false;
+        }
+        // equal values of this type may have a different case
+        return a instanceof ValueVarcharIgnoreCase ? a.getString().equals(b.getString()) : a.equals(b);
+    }
+
+    /**
+     * Check whether the value can be stored in place of every value that is
+     * equal to it.
+     *
+     * @param v the value
+     * @return true if equal values are the same
+     */
+    static boolean isShareable(Value v) {
+        return !(v instanceof ValueCollectionBase || v instanceof ValueLob || v instanceof ValueVarcharIgnoreCase);
+    }
+
+    /**
+     * Get the length of the common prefix of two VARCHAR values.
+     *
+     * @return the length, 0 if one of the values is not a VARCHAR value
+     */
+    private static int getCommonPrefixLength(Value a, Value b) {
+        if (a.getValueType() != Value.VARCHAR || b.getValueType() != Value.VARCHAR) {
+            return 0;
+        }
+        String x = a.getString(), y = b.getString();
+        int len = Math.min(x.length(), y.length());
+        int i = 0;
+        while (i < len && x.charAt(i) == y.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) {
@@ -190,6 +436,7 @@ public boolean equals(Object obj) {
         }
         RowDataType other = (RowDataType) obj;
         return columnCount == other.columnCount
+            && columnar == other.columnar
             && Arrays.equals(indexes, other.indexes)
             && Arrays.equals(sortTypes, other.sortTypes)
             && valueDataType.equals(other.valueDataType);
@@ -199,6 +446,7 @@ public boolean equals(Object obj) {
     public int hashCode() {
         int res = super.hashCode();
         res = res * 31 + columnCount;
+        res = res * 31 + (columnar ? 1 : 0);
         res = res * 31 + Arrays.hashCode(indexes);
         res = res * 31 + Arrays.hashCode(sortTypes);
         res = res * 31 + valueDataType.hashCode();
@@ -210,7 +458,7 @@ public void save(WriteBuffer buff, MetaType<Database> metaType) {
         buff.putVarInt(columnCount);
         writeIntArray(buff, sortTypes);
         writeIntArray(buff, indexes);
-        buff.put(storeKeys ? (byte) 1 : (byte) 0);
+        buff.put((byte) ((storeKeys ? 1 : 0) | (columnar ? 2 : 0)));
     }
 
     private static void writeIntArray(WriteBuffer buff, int[] array) {
@@ -240,11 +488,13 @@ public RowDataType create(ByteBuffer buff, MetaType<Database> metaDataType, Data
             int columnCount = DataUtils.readVarInt(buff);
             int[] sortTypes = readIntArray(buff);
             int[] indexes = readIntArray(buff);
-            boolean storeKeys = buff.get() != 0;
+            int flags = buff.get();
+            boolean storeKeys = (flags & 1) != 0;
             CompareMode compareMode = database == null ? CompareMode.getInstance(null, 0) : database.getCompareMode();
             RowFactory rowFactory = RowFactory.getDefaultRowFactory().createRowFactory(database, compareMode, database,
                     sortTypes, indexes, null, columnCount, storeKeys);
-            return rowFactory.getRowDataType();
+            RowDataType rowDataType = rowFactory.getRowDataType();
+            return (flags & 2) != 0 ? rowDataType.getColumnarType() : rowDataType;
         }
 
         private static int[] readIntArray(ByteBuffer buff) {
@@ -107,6 +107,10 @@ public Store(Database db) {
                 if (autoCompactFillRate <= 100) {
                     builder.autoCompactFillRate(autoCompactFillRate);
                 }
+                int autoCompactRate = db.getSettings().autoCompactRate;
+                if (autoCompactRate > 0) {
+                    builder.autoCompactRate(autoCompactRate, db.getSettings().autoCompactMaxPause);
+                }
             }
             if (key != null) {
                 encrypted = true;
@@ -117,6 +121,24 @@ public Store(Database db) {
                 // use a larger page split size to improve the compression ratio
                 builder.pageSplitSize(64 * 1024);
             }
+            if (db.getSettings().compressKeys) {
+                builder.compressKeys();
+            }
+            int groupCommitMaxBatch = db.getSettings().groupCommitMaxBatch;
+            if (groupCommitMaxBatch > 0) {
+                builder.groupCommit(groupCommitMaxBatch, db.getSettings().groupCommitMaxWait);
+            }
+            if (db.getSettings().mappedReads) {
+                builder.mappedReads();
+            }
+            int cacheReadBufferSize = db.getSettings().cacheReadBufferSize;
+            if (cacheReadBufferSize > 0) {
+                builder.cacheReadBufferSize(cacheReadBufferSize);
+            }
+            int offHeapCacheSize = db.getSettings().offHeapCacheSize;
+            if (offHeapCacheSize > 0) {
+                builder.offHeapCacheSize(offHeapCacheSize);
+            }
             builder.backgroundExceptionHandler((t, e) -> db.setBackgroundException(DbException.convert(e)));
             // always start without background thread first, and if necessary,
             // it will be set up later, after db has been fully started,
@@ -772,6 +772,165 @@ Value readValue(ByteBuffer buff, TypeInfo columnType) {
         }
     }
 
+    /**
+     * Skip a value, without creating it.
+     *
+     * @param buff the source buffer
+     */
+    static void skipValue(ByteBuffer buff) {
+        int type = buff.get() & 255;
+        switch (type) {
+        case NULL:
+        case BOOLEAN_TRUE:
+        case BOOLEAN_FALSE:
+        case NUMERIC_0_1:
+        case NUMERIC_0_1 + 1:
+        case REAL_0_1:
+        case REAL_0_1 + 1:
+        case DOUBLE_0_1:
+        case DOUBLE_0_1 + 1:
+            break;
+        case INT_NEG:
+        case INTEGER:
+        case ENUM:
+        case REAL:
+            readVarInt(buff);
+            break;
+        case BIGINT_NEG:
+        case BIGINT:
+        case NUMERIC_SMALL_0:
+        case DATE:
+        case DOUBLE:
+            readVarLong(buff);
+            break;
+        case TINYINT:
+            skip(buff, 1);
+            break;
+        case SMALLINT:
+            skip(buff, 2);
+            break;
+        case UUID:
+            skip(buff, 16);
+            break;
+        case NUMERIC_SMALL:
+            readVarInt(buff);
+            readVarLong(buff);
+            break;
+        case NUMERIC:
+            readVarInt(buff);
+            skip(buff, readVarInt(buff));
+            break;
+        case DECFLOAT: {
+            readVarInt(buff);
+            int len = readVarInt(buff);
+            if (len > 0) {
+                skip(buff, len);
+            }
+            break;
+        }
+        case TIME:
+            readVarLong(buff);
+            readVarInt(buff);
+            break;
+        case TIME_TZ:
+            readVarInt(buff);
+            readVarInt(buff);
+            readTimeZone(buff);
+            break;
+        case TIMESTAMP:
+            readVarLong(buff);
+            readVarLong(buff);
+            readVarInt(buff);
+            break;
+        case TIMESTAMP_TZ_OLD:
+            readVarLong(buff);
+            readVarLong(buff);
+            readVarInt(buff);
+            readVarInt(buff);
+            break;
+        case TIMESTAMP_TZ:
+            readVarLong(buff);
+            readVarLong(buff);
+            readVarInt(buff);
+            readTimeZone(buff);
+            break;
+        case VARBINARY:
+        case BINARY:
+        case JAVA_OBJECT:
+        case GEOMETRY:
+        case JSON:
+            skip(buff, readVarInt(buff));
+            break;
+        case VARCHAR:
+        case VARCHAR_IGNORECASE:
+        case CHAR:
+            skipString(buff, readVarInt(buff));
+            break;
+        case INTERVAL: {
+            int ordinal = buff.get();
+            if (ordinal < 0) {
+                ordinal = ~ordinal;
+            }
+            readVarLong(buff);
+            if (ordinal >= 5) {
+                readVarLong(buff);
+            }
+            break;
+        }
+        case BLOB:
+        case CLOB: {
+            int smallLen = readVarInt(buff);
+            if (smallLen >= 0) {
+                skip(buff, smallLen);
+            } else if (smallLen == -3) {
+                readVarInt(buff);
+                readVarLong(buff);
+                readVarLong(buff);
+            } else {
+                throw DbException.get(ErrorCode.FILE_CORRUPTED_1, "lob type: " + smallLen);
+            }
+            if (type == CLOB) {
+                readVarLong(buff);
+            }
+            break;
+        }
+        case ARRAY:
+        case ROW:
+            for (int i = readVarInt(buff); i > 0; i--) {
+                skipValue(buff);
+            }
+            break;
+        default:
+            if (type >= INT_0_15 && type < INT_0_15 + 16 || type >= BIGINT_0_7 && type < BIGINT_0_7 + 8) {
+                break;
+            } else if (type >= VARBINARY_0_31 && type < VARBINARY_0_31 + 32) {
+                skip(buff, type - VARBINARY_0_31);
+                break;
+            } else if (type >= VARCHAR_0_31 && type < VARCHAR_0_31 + 32) {
+                skipString(buff, type - VARCHAR_0_31);
+                break;
+            }
+            throw DbException.get(ErrorCode.FILE_CORRUPTED_1, "type: " + type);
+        }
+    }
+
+    private static void skip(ByteBuffer buff, int len) {
+        buff.position(buff.position() + len);
+    }
+
+    private static void skipString(ByteBuffer buff, int len) {
+        int pos = buff.position();
+        for (int i = 0; i < len; i++) {
+            int x = buff.get(pos++) & 0xff;
+            if (x >= 0xe0) {
+                pos += 2;
+            } else if (x >= 0x80) {
+                pos++;
+            }
+        }
+        buff.position(pos);
+    }
+
     private LobDataDatabase readLobDataDatabase(ByteBuffer buff) {
         int tableId = readVarInt(buff);
         long lobId = readVarLong(buff);
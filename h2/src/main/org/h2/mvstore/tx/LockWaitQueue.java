@@ -0,0 +1,198 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.tx;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * The transactions waiting for a lock on one map entry, in the order in which
+ * they started to wait.
+ * <p>
+ * When the transaction holding the entry ends, only the first waiter is woken
+ * up and retries. If it gets the entry, the other waiters now wait for it, so
+ * that the wait-for graph used for deadlock detection stays accurate. If
+ * another transaction got the entry first, the waiter joins again, and all
+ * waiters now wait for that transaction. If it gives up, the next waiter is
+ * woken up. A queue only exists while there are waiters, and all its state
+ * is guarded by its monitor.
+ */
+final class LockWaitQueue {
+
+    /**
+     * The key of the queue map.
+     */
+    final Key key;
+
+    private final ArrayDeque<Transaction> waiters = new ArrayDeque<>(4);
+
+    /**
+     * The transaction holding the entry, as far as it is known.
+     */
+    private Transaction blocker;
+
+    /**
+     * Whether the queue was removed from the queue map, because the last
+     * waiter left.
+     */
+    private boolean removed;
+
+    LockWaitQueue(Key key) {
+        this.key = key;
+    }
+
+    /**
+     * Add the transaction to the end of the queue, unless it is already
+     * waiting in it, and set the transaction it waits for. If the entry is
+     * now held by another transaction, the other waiters wait for it too.
+     *
+     * @param t the waiting transaction
+     * @param blocker the transaction holding the entry
+     * @return false if the queue was removed and can not be used any longer
+     */
+    synchronized boolean join(Transaction t, Transaction blocker) {
+        if (removed) {
+            return false;
+        }
+        if (!waiters.contains(t)) {
+            waiters.addLast(t);
+        }
+        t.blockingTransaction = blocker;
+        if (this.blocker != blocker && blocker.getStatus() == Transaction.STATUS_OPEN) {
+            // the entry changed hands, the others wait for the new holder
+            setBlocker(blocker);
+        } else {
+            // the same holder, or one that ended before the entry changed hands
+            blocker.addLockWaitQueue(this);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the transaction is the first waiter.
+     *
+     * @param t the transaction
+     * @return true if it is the first one
+     */
+    synchronized boolean isFirst(Transaction t) {
+        return waiters.peekFirst() == t;
+    }
+
+    /**
+     * Clear the transaction the given waiter waits for, because it is going
+     * to retry.
+     *
+     * @param t the waiting transaction
+     */
+    synchronized void stopBlocking(Transaction t) {
+        t.blockingTransaction = null;
+    }
+
+    /**
+     * Remove the transaction from the queue.
+     *
+     * @param t the transaction
+     * @param acquired whether the transaction got the entry
+     * @return true if the queue is empty now and was removed
+     */
+    synchronized boolean leave(Transaction t, boolean acquired) {
+        t.blockingTransaction = null;
+        boolean wasFirst = waiters.peekFirst() == t;
+        waiters.remove(t);
+        if (waiters.isEmpty()) {
+            removed = true;
+            return true;
+        }
+        if (acquired) {
+            // the entry is handed over, the others wait for the new holder
+            setBlocker(t);
+        } else if (wasFirst) {
+            waiters.peekFirst().signalLockWait();
+        }
+        return false;
+    }
+
+    private void setBlocker(Transaction blocker) {
+        this.blocker = blocker;
+        // waiters without a blocker are retrying and set it when they join
+        for (Transaction w : waiters) {
+            if (w.blockingTransaction != null) {
+                w.blockingTransaction = blocker;
+            }
+        }
+        blocker.addLockWaitQueue(this);
+    }
+
+    /**
+     * Wake up the first waiter, so that it checks whether it can retry.
+     */
+    synchronized void signalFirst() {
+        Transaction first = waiters.peekFirst();
+        if (first != null) {
+            first.signalLockWait();
+        }
+    }
+
+    /**
+     * Add the waiters of this queue to the list.
+     *
+     * @param list the list to add to
+     */
+    synchronized void addLockWaits(List<TransactionStore.LockWait> list) {
+        int position = 0;
+        for (Transaction w : waiters) {
+            list.add(new TransactionStore.LockWait(key.mapName, key.key, w, w.blockingTransaction, ++position));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return key.toString();
+    }
+
+    /**
+     * Identifies a map entry.
+     */
+    static final class Key {
+
+        /**
+         * The name of the map.
+         */
+        final String mapName;
+
+        /**
+         * The key of the entry.
+         */
+        final Object key;
+
+        Key(String mapName, Object key) {
+            this.mapName = mapName;
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return mapName.hashCode() * 31 + key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mapName.equals(other.mapName) && key.equals(other.key);
+        }
+
+        @Override
+        public String toString() {
+            return "<" + mapName + "> " + key;
+        }
+    }
+}
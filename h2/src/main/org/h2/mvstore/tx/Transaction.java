@@ -5,6 +5,8 @@
  */
 package org.h2.mvstore.tx;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -70,6 +72,12 @@ public final class Transaction {
     private static final String[] STATUS_NAMES = {
             "CLOSED", "OPEN", "PREPARED", "COMMITTED", "ROLLING_BACK", "ROLLED_BACK"
     };
+    /**
+     * The maximum number of undo log records kept in memory before the undo
+     * log map is used.
+     */
+    private static final int UNDO_BUFFER_SIZE = 16;
+
     /**
      * How many bits of the "operation id" we store in the transaction belong to the
      * log id (the rest belong to the transaction id).
@@ -141,24 +149,51 @@ public final class Transaction {
     private final int ownerId;
 
     /**
-     * Blocking transaction, if any
+     * Blocking transaction, if any. This is the edge of the wait-for graph,
+     * guarded by the monitor of lockWaitQueue.
+     */
+    volatile Transaction blockingTransaction;
+
+    /**
+     * The queue of the map entry on which this transaction is blocked, if any.
+     */
+    private LockWaitQueue lockWaitQueue;
+
+    /**
+     * The lock wait queues in which other transaction(s) wait for this one,
+     * guarded by the monitor of this transaction.
+     */
+    private ArrayList<LockWaitQueue> blockedQueues;
+
+    /**
+     * Whether this transaction was woken up while waiting in a lock wait
+     * queue, guarded by the monitor of this transaction.
+     */
+    private boolean lockWaitSignalled;
+
+    /**
+     * Undo log records of a short transaction, indexed by log id. They are
+     * written into the undo log map only if the transaction grows beyond
+     * {@link #UNDO_BUFFER_SIZE} changes, is prepared or named, or when the
+     * store is about to persist its changes. Guarded by this object.
      */
-    private volatile Transaction blockingTransaction;
+    private Record<?,?>[] undoBuffer;
 
     /**
-     * Map on which this transaction is blocked.
+     * The number of records in undoBuffer.
      */
-    private String blockingMapName;
+    private volatile int undoBufferCount;
 
     /**
-     * Key in blockingMap on which this transaction is blocked.
+     * Whether the undo log map is used for this transaction.
+     * Once set, it never goes back to the buffer.
      */
-    private Object blockingKey;
+    private volatile boolean undoLogged;
 
     /**
-     * Whether other transaction(s) are waiting for this to close.
+     * Whether the buffered records are being committed.
      */
-    private volatile boolean notificationRequested;
+    private boolean bufferedCommit;
 
     /**
      * RootReferences for undo log snapshots
@@ -188,6 +223,8 @@ public final class Transaction {
         this.ownerId = ownerId;
         this.isolationLevel = isolationLevel;
         this.listener = listener;
+        // recovered transactions already have their undo log map
+        this.undoLogged = status != STATUS_OPEN || logId != 0;
     }
 
     public int getId() {
@@ -270,6 +307,7 @@ public boolean hasChanges() {
     public void setName(String name) {
         checkNotClosed();
         this.name = name;
+        flushUndoBuffer();
         store.storeTransaction(this);
     }
 
@@ -277,6 +315,16 @@ public String getName() {
         return name;
     }
 
+    /**
+     * Get the identification of the owner of this transaction, usually a
+     * database session.
+     *
+     * @return the owner id
+     */
+    public int getOwnerId() {
+        return ownerId;
+    }
+
     public int getBlockerId() {
         Transaction blocker = this.blockingTransaction;
         return blocker == null ? 0 : blocker.ownerId;
@@ -407,6 +455,23 @@ long log(Record<?,?> logRecord) {
         }
         int currentStatus = getStatus(currentState);
         checkOpen(currentStatus);
+        if (!undoLogged) {
+            synchronized (this) {
+                if (!undoLogged) {
+                    if (logId < UNDO_BUFFER_SIZE) {
+                        if (undoBuffer == null) {
+                            undoBuffer = new Record<?,?>[UNDO_BUFFER_SIZE];
+                        }
+                        assert logId == undoBufferCount : logId + " != " + undoBufferCount;
+                        undoBuffer[(int) logId] = logRecord;
+                        undoBufferCount = (int) logId + 1;
+                        return TransactionStore.getOperationId(transactionId, logId);
+                    }
+                    flushUndoBuffer();
+                }
+                return store.addUndoLogRecord(transactionId, logId, logRecord);
+            }
+        }
         long undoKey = store.addUndoLogRecord(transactionId, logId, logRecord);
         return undoKey;
     }
@@ -425,7 +490,91 @@ void logUndo() {
         }
         int currentStatus = getStatus(currentState);
         checkOpen(currentStatus);
-        store.removeUndoLogRecord(transactionId);
+        removeUndoLogRecord(logId);
+    }
+
+    /**
+     * Get an undo log record which is not yet written to the undo log map.
+     *
+     * @param logId the log id
+     * @return the record, or null if the undo log map has to be used
+     */
+    synchronized Record<?,?> getBufferedUndoLogRecord(long logId) {
+        return !undoLogged && logId < undoBufferCount ? undoBuffer[(int) logId] : null;
+    }
+
+    /**
+     * Remove the last undo log record, from the buffer or the undo log map.
+     *
+     * @param logId the log id of the record
+     */
+    synchronized void removeUndoLogRecord(long logId) {
+        if (undoLogged) {
+            store.removeUndoLogRecord(transactionId);
+        } else {
+            assert logId == undoBufferCount - 1 : logId + " != " + (undoBufferCount - 1);
+            undoBuffer[(int) logId] = null;
+            undoBufferCount = (int) logId;
+        }
+    }
+
+    /**
+     * Whether this transaction has undo log records which are not written to
+     * the undo log map yet.
+     *
+     * @return true if yes
+     */
+    boolean hasBufferedUndoLogRecords() {
+        return undoBufferCount > 0;
+    }
+
+    /**
+     * Write the buffered undo log records into the undo log map, so that they
+     * are persisted together with the changes they describe. This is called
+     * before the store captures the roots of its maps, and when a transaction
+     * is prepared or named. If the buffered records are being committed, the
+     * commit marker is written as well, so that the commit is completed on
+     * recovery.
+     */
+    synchronized void flushUndoBuffer() {
+        if (!undoLogged) {
+            for (int i = 0; i < undoBufferCount; i++) {
+                store.addUndoLogRecord(transactionId, i, undoBuffer[i]);
+            }
+            if (bufferedCommit) {
+                store.markUndoLogAsCommitted(transactionId);
+            }
+            undoLogged = true;
+            undoBufferCount = 0;
+            undoBuffer = null;
+        }
+    }
+
+    /**
+     * Start to commit the buffered undo log records.
+     *
+     * @return the records to commit, or null if the undo log map is used
+     */
+    synchronized Record<?,?>[] startBufferedCommit() {
+        if (undoLogged) {
+            return null;
+        }
+        bufferedCommit = true;
+        return Arrays.copyOf(undoBuffer, undoBufferCount);
+    }
+
+    /**
+     * Finish the commit of the buffered undo log records. If they were written
+     * to the undo log map in the meantime, it is cleared.
+     */
+    synchronized void endBufferedCommit() {
+        bufferedCommit = false;
+        if (undoLogged) {
+            store.undoLogs.get(transactionId).clear();
+        } else {
+            undoBufferCount = 0;
+            undoBuffer = null;
+        }
     }
 
     /**
@@ -483,6 +632,7 @@ public <K, V> TransactionMap<K,V> openMapX(MVMap<K,VersionedValue<V>> map) {
      */
     public void prepare() {
         setStatus(STATUS_PREPARED);
+        flushUndoBuffer();
         store.storeTransaction(this);
     }
 
@@ -490,7 +640,7 @@ public void prepare() {
      * Commit the transaction. Afterwards, this transaction is closed.
      */
     public void commit() {
-        assert store.openTransactions.get().get(transactionId);
+        assert store.openTransactions.get(transactionId);
         markTransactionEnd();
         Throwable ex = null;
         boolean hasChanges = false;
@@ -533,7 +683,7 @@ public void rollbackToSavepoint(long savepointId) {
         try {
             store.rollbackTo(this, logId, savepointId);
         } finally {
-            notifyAllWaitingTransactions();
+            signalLockWaiters();
             long expectedState = composeState(STATUS_ROLLING_BACK, logId, hasRollback(lastState));
             long newState = composeState(STATUS_OPEN, savepointId, true);
             do {
@@ -645,21 +795,52 @@ void closeIt() {
         long lastState = setStatus(STATUS_CLOSED);
         store.store.deregisterVersionUsage(txCounter);
         if((hasChanges(lastState) || hasRollback(lastState))) {
-            notifyAllWaitingTransactions();
+            signalLockWaiters();
         }
     }
 
-    private void notifyAllWaitingTransactions() {
-        if (notificationRequested) {
-            synchronized (this) {
-                notifyAll();
+    /**
+     * Remember that the first waiter of the queue has to be woken up when this
+     * transaction ends or rolls back to a savepoint.
+     *
+     * @param queue the queue
+     */
+    synchronized void addLockWaitQueue(LockWaitQueue queue) {
+        if (blockedQueues == null) {
+            blockedQueues = new ArrayList<>(2);
+        } else if (blockedQueues.contains(queue)) {
+            return;
+        }
+        blockedQueues.add(queue);
+    }
+
+    private void signalLockWaiters() {
+        ArrayList<LockWaitQueue> queues;
+        synchronized (this) {
+            queues = blockedQueues;
+            blockedQueues = null;
+        }
+        if (queues != null) {
+            for (LockWaitQueue queue : queues) {
+                queue.signalFirst();
             }
         }
     }
 
+    /**
+     * Wake up this transaction if it waits in a lock wait queue.
+     */
+    synchronized void signalLockWait() {
+        lockWaitSignalled = true;
+        notifyAll();
+    }
+
     /**
      * Make this transaction to wait for the specified transaction to be closed,
-     * because both of them try to modify the same map entry.
+     * because both of them try to modify the same map entry. Transactions
+     * waiting for the same entry are queued, and only the first one is allowed
+     * to retry. The caller has to call {@link #leaveLockWaitQueue(boolean)}
+     * afterwards.
      *
      * @param toWaitFor transaction to wait for
      * @param mapName name of the map containing blocking entry
@@ -667,19 +848,37 @@ private void notifyAllWaitingTransactions() {
      * @return true if other transaction was closed and this one can proceed, false if timed out
      */
     public boolean waitFor(Transaction toWaitFor, String mapName, Object key) {
-        blockingTransaction = toWaitFor;
-        blockingMapName = mapName;
-        blockingKey = key;
+        LockWaitQueue queue = lockWaitQueue;
+        if (queue == null) {
+            lockWaitQueue = queue = store.joinLockWaitQueue(this, toWaitFor, mapName, key);
+        } else {
+            assert queue.key.mapName.equals(mapName) && queue.key.key.equals(key);
+            if (!queue.join(this, toWaitFor)) {
+                throw DataUtils.newMVStoreException(DataUtils.ERROR_INTERNAL,
+                        "Lock wait queue {0} was removed", queue);
+            }
+        }
         if (isDeadlocked(toWaitFor)) {
             tryThrowDeadLockException(false);
         }
-        boolean result = toWaitFor.waitForThisToEnd(timeoutMillis, this);
-        blockingMapName = null;
-        blockingKey = null;
-        blockingTransaction = null;
+        boolean result = waitForTurn(queue);
+        queue.stopBlocking(this);
         return result;
     }
 
+    /**
+     * Leave the lock wait queue this transaction waited in, if any.
+     *
+     * @param acquired whether this transaction got the map entry
+     */
+    void leaveLockWaitQueue(boolean acquired) {
+        LockWaitQueue queue = lockWaitQueue;
+        if (queue != null) {
+            lockWaitQueue = null;
+            store.leaveLockWaitQueue(this, queue, acquired);
+        }
+    }
+
     private boolean isDeadlocked(Transaction toWaitFor) {
         // use transaction sequence No as a tie-breaker
         // the youngest transaction should be selected as a victim
@@ -697,10 +896,9 @@ private boolean isDeadlocked(Transaction toWaitFor) {
                 if (youngest == this) {
                     return true;
                 }
-                Transaction btx = youngest.blockingTransaction;
-                if (btx != null) {
+                if (youngest.blockingTransaction != null) {
                     youngest.setStatus(STATUS_ROLLING_BACK);
-                    btx.notifyAllWaitingTransactions();
+                    youngest.signalLockWait();
                     return false;
                 }
             }
@@ -715,9 +913,11 @@ private void tryThrowDeadLockException(boolean throwIt) {
         for (Transaction tx = this, nextTx;
                 !visited.get(tx.transactionId) &&  (nextTx = tx.blockingTransaction) != null; tx = nextTx) {
             visited.set(tx.transactionId);
+            LockWaitQueue queue = tx.lockWaitQueue;
             details.append(String.format(
                     "Transaction %d attempts to update map <%s> entry with key <%s> modified by transaction %s%n",
-                    tx.transactionId, tx.blockingMapName, tx.blockingKey, tx.blockingTransaction));
+                    tx.transactionId, queue == null ? null : queue.key.mapName, queue == null ? null : queue.key.key,
+                    nextTx));
             if (nextTx == this) {
                 throwIt = true;
             }
@@ -727,27 +927,37 @@ private void tryThrowDeadLockException(boolean throwIt) {
         }
     }
 
-    private synchronized boolean waitForThisToEnd(int millis, Transaction waiter) {
-        long until = System.currentTimeMillis() + millis;
-        notificationRequested = true;
-        long state;
-        int status;
-        while((status = getStatus(state = statusAndLogId.get())) != STATUS_CLOSED
-                && status != STATUS_ROLLED_BACK && !hasRollback(state)) {
-            if (waiter.getStatus() != STATUS_OPEN) {
-                waiter.tryThrowDeadLockException(true);
+    private boolean waitForTurn(LockWaitQueue queue) {
+        long until = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            if (getStatus() != STATUS_OPEN) {
+                tryThrowDeadLockException(true);
+            }
+            Transaction blocker = blockingTransaction;
+            if (blocker == null || blocker.hasReleasedLocks() && queue.isFirst(this)) {
+                return true;
             }
             long dur = until - System.currentTimeMillis();
-            if(dur <= 0) {
+            if (dur <= 0) {
                 return false;
             }
-            try {
-                wait(dur);
-            } catch (InterruptedException ex) {
-                return false;
+            synchronized (this) {
+                if (!lockWaitSignalled) {
+                    try {
+                        wait(dur);
+                    } catch (InterruptedException ex) {
+                        return false;
+                    }
+                }
+                lockWaitSignalled = false;
             }
         }
-        return true;
+    }
+
+    private boolean hasReleasedLocks() {
+        long state = statusAndLogId.get();
+        int status = getStatus(state);
+        return status == STATUS_CLOSED || status == STATUS_ROLLED_BACK || hasRollback(state);
     }
 
     /**
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.tx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The set of transaction ids in use, which also allocates new ids.
+ * <p>
+ * It is a two-level bitmap: one bit per id, and one summary bit per word of
+ * 64 ids which is set when the word is full. Allocation always returns the
+ * lowest free id, so that undo log maps are re-used, but skips full words
+ * using the summary. Each change is a single compare-and-set on one word, so
+ * concurrent begin and end of transactions do not copy any shared state.
+ * <p>
+ * The summary bits are hints only: they are re-checked after being set, so
+ * that a word with a free id is never skipped for long.
+ */
+final class TransactionIdAllocator {
+
+    /**
+     * One bit per id.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * One bit per element of words, set if that word is (probably) full.
+     */
+    private final AtomicLongArray fullWords;
+
+    /**
+     * One more than the highest id that was ever in use.
+     */
+    private final AtomicInteger length = new AtomicInteger();
+
+    /**
+     * Create a new allocator.
+     *
+     * @param maxId the highest possible id
+     */
+    TransactionIdAllocator(int maxId) {
+        int wordCount = (maxId >>> 6) + 1;
+        words = new AtomicLongArray(wordCount);
+        fullWords = new AtomicLongArray((wordCount + 63) >>> 6);
+    }
+
+    /**
+     * Allocate the lowest free id, starting from 1.
+     *
+     * @param maxId the highest id to allocate
+     * @return the id, or -1 if all ids up to maxId are in use
+     */
+    int allocate(int maxId) {
+        int maxWord = Math.min(maxId >>> 6, words.length() - 1);
+        for (int s = 0, summaryCount = (maxWord >>> 6) + 1; s < summaryCount; s++) {
+            long summary = fullWords.get(s);
+            while (summary != -1L) {
+                int bit = Long.numberOfTrailingZeros(~summary);
+                int w = (s << 6) + bit;
+                if (w > maxWord) {
+                    return -1;
+                }
+                long word;
+                long free;
+                while ((free = ~used(w, word = words.get(w))) != 0) {
+                    int id = (w << 6) + Long.numberOfTrailingZeros(free);
+                    if (id > maxId) {
+                        return -1;
+                    }
+                    if (words.compareAndSet(w, word, word | Long.lowestOneBit(free))) {
+                        length.accumulateAndGet(id + 1, Math::max);
+                        return id;
+                    }
+                }
+                if (markFull(w)) {
+                    summary |= 1L << bit;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Mark the given id as used. This is used to register the transactions
+     * found on recovery.
+     *
+     * @param id the id
+     */
+    void set(int id) {
+        long mask = 1L << id;
+        long word = words.getAndAccumulate(id >>> 6, mask, (a, b) -> a | b);
+        assert (word & mask) == 0 : id;
+        length.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Release the given id, so that it can be allocated again.
+     *
+     * @param id the id
+     */
+    void release(int id) {
+        int w = id >>> 6;
+        long mask = 1L << id;
+        long word = words.getAndAccumulate(w, ~mask, (a, b) -> a & b);
+        assert (word & mask) != 0 : id;
+        long summaryMask = 1L << w;
+        if ((fullWords.get(w >>> 6) & summaryMask) != 0) {
+            fullWords.getAndAccumulate(w >>> 6, ~summaryMask, (a, b) -> a & b);
+        }
+    }
+
+    /**
+     * Check whether the given id is in use.
+     *
+     * @param id the id
+     * @return true if it is in use
+     */
+    boolean get(int id) {
+        int w = id >>> 6;
+        return w < words.length() && (words.get(w) & (1L << id)) != 0;
+    }
+
+    /**
+     * Get the next id in use, starting with the given one.
+     *
+     * @param fromId the id to start with
+     * @return the id, or -1 if there is none
+     */
+    int nextSetBit(int fromId) {
+        int end = length.get();
+        if (fromId >= end) {
+            return -1;
+        }
+        int w = fromId >>> 6;
+        long word = words.get(w) & (-1L << fromId);
+        while (true) {
+            if (word != 0) {
+                int id = (w << 6) + Long.numberOfTrailingZeros(word);
+                return id < end ? id : -1;
+            }
+            if (++w > (end - 1) >>> 6) {
+                return -1;
+            }
+            word = words.get(w);
+        }
+    }
+
+    /**
+     * Get one more than the highest id that was ever in use.
+     *
+     * @return the upper bound of the ids in use
+     */
+    int length() {
+        return length.get();
+    }
+
+    private static long used(int w, long word) {
+        // id 0 is never used
+        return w == 0 ? word | 1L : word;
+    }
+
+    private boolean markFull(int w) {
+        long summaryMask = 1L << w;
+        fullWords.getAndAccumulate(w >>> 6, summaryMask, (a, b) -> a | b);
+        // re-check, an id of this word might have been released in the meantime
+        if (used(w, words.get(w)) != -1L) {
+            fullWords.getAndAccumulate(w >>> 6, ~summaryMask, (a, b) -> a & b);
+            return false;
+        }
+        return true;
+    }
+}
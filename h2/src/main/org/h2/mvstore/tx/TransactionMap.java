@@ -329,6 +329,17 @@ public V putCommitted(K key, V value) {
         return result;
     }
 
+    /**
+     * Create a loader that adds entries in ascending key order to this empty
+     * map, without adding undo log entries. The entries are added to the
+     * underlying map using {@link MVMap#bulkLoader()}.
+     *
+     * @return the loader
+     */
+    public CommittedLoader<K,V> committedLoader() {
+        return new CommittedLoader<>(map.bulkLoader());
+    }
+
     private V set(K key, V value) {
         txDecisionMaker.initialize(key, value);
         return set(key, txDecisionMaker);
@@ -339,28 +350,34 @@ private V set(Object key, TxDecisionMaker<K,V> decisionMaker) {
         Transaction blockingTransaction;
         VersionedValue<V> result;
         String mapName = null;
-        do {
-            assert transaction.getBlockerId() == 0;
-            @SuppressWarnings("unchecked")
-            K k = (K) key;
-            // second parameter (value) is not really used,
-            // since TxDecisionMaker has it embedded
-            result = map.operate(k, null, decisionMaker);
-
-            MVMap.Decision decision = decisionMaker.getDecision();
-            assert decision != null;
-            assert decision != MVMap.Decision.REPEAT;
-            blockingTransaction = decisionMaker.getBlockingTransaction();
-            if (decision != MVMap.Decision.ABORT || blockingTransaction == null) {
-                hasChanges |= decision != MVMap.Decision.ABORT;
-                V res = result == null ? null : result.getCurrentValue();
-                return res;
-            }
-            decisionMaker.reset();
-            if (mapName == null) {
-                mapName = map.getName();
-            }
-        } while (transaction.waitFor(blockingTransaction, mapName, key));
+        boolean acquired = false;
+        try {
+            do {
+                assert transaction.getBlockerId() == 0;
+                @SuppressWarnings("unchecked")
+                K k = (K) key;
+                // second parameter (value) is not really used,
+                // since TxDecisionMaker has it embedded
+                result = map.operate(k, null, decisionMaker);
+
+                MVMap.Decision decision = decisionMaker.getDecision();
+                assert decision != null;
+                assert decision != MVMap.Decision.REPEAT;
+                blockingTransaction = decisionMaker.getBlockingTransaction();
+                if (decision != MVMap.Decision.ABORT || blockingTransaction == null) {
+                    acquired = decision != MVMap.Decision.ABORT;
+                    hasChanges |= acquired;
+                    V res = result == null ? null : result.getCurrentValue();
+                    return res;
+                }
+                decisionMaker.reset();
+                if (mapName == null) {
+                    mapName = map.getName();
+                }
+            } while (transaction.waitFor(blockingTransaction, mapName, key));
+        } finally {
+            transaction.leaveLockWaitQueue(acquired);
+        }
 
         throw DataUtils.newMVStoreException(DataUtils.ERROR_TRANSACTION_LOCKED,
                 "Map entry <{0}> with key <{1}> and value {2} is locked by tx {3} and can not be updated by tx {4}"
@@ -782,6 +799,39 @@ public DataType<K> getKeyType() {
         return map.getKeyType();
     }
 
+    /**
+     * Adds committed entries in ascending key order to an empty map.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    public static final class CommittedLoader<K,V> {
+
+        private final MVMap.BulkLoader<K,VersionedValue<V>> loader;
+
+        CommittedLoader(MVMap.BulkLoader<K,VersionedValue<V>> loader) {
+            this.loader = loader;
+        }
+
+        /**
+         * Add an entry. The key must be larger than all keys added so far.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        public void add(K key, V value) {
+            DataUtils.checkArgument(value != null, "The value may not be null");
+            loader.add(key, VersionedValueCommitted.getInstance(value));
+        }
+
+        /**
+         * Complete the load, see {@link MVMap.BulkLoader#finish()}.
+         */
+        public void finish() {
+            loader.finish();
+        }
+    }
+
     /**
      * The iterator for read uncommitted isolation level. This iterator is also
      * used for unique indexes.
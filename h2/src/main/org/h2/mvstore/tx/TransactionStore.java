@@ -11,6 +11,8 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.h2.engine.IsolationLevel;
@@ -62,18 +64,22 @@ public class TransactionStore {
      * <p>
      * Key: opId, value: [ mapId, key, oldValue ].
      */
-    @SuppressWarnings("unchecked")
-    final MVMap<Long,Record<?,?>>[] undoLogs = new MVMap[MAX_OPEN_TRANSACTIONS];
+    final SegmentedArray<MVMap<Long,Record<?,?>>> undoLogs = new SegmentedArray<>();
     private final MVMap.Builder<Long, Record<?,?>> undoLogBuilder;
 
     private final DataType<?> dataType;
 
     /**
-     * This BitSet is used as vacancy indicator for transaction slots in transactions[].
-     * It provides easy way to find first unoccupied slot, and also allows for copy-on-write
-     * non-blocking updates.
+     * The vacancy indicator for transaction slots in transactions[].
+     * It provides easy way to find first unoccupied slot, with non-blocking
+     * updates of single words.
      */
-    final AtomicReference<VersionedBitSet> openTransactions = new AtomicReference<>(new VersionedBitSet());
+    final TransactionIdAllocator openTransactions = new TransactionIdAllocator(MAX_OPEN_TRANSACTIONS);
+
+    /**
+     * The last transaction sequence number.
+     */
+    private final AtomicLong lastSequenceNum = new AtomicLong();
 
     /**
      * This is intended to be the source of ultimate truth about transaction being committed.
@@ -95,10 +101,18 @@ public class TransactionStore {
     /**
      * Array holding all open transaction objects.
      * Position in array is "transaction id".
-     * VolatileReferenceArray would do the job here, but there is no such thing in Java yet
      */
-    private final AtomicReferenceArray<Transaction> transactions =
-                                                        new AtomicReferenceArray<>(MAX_OPEN_TRANSACTIONS + 1);
+    private final SegmentedArray<Transaction> transactions = new SegmentedArray<>();
+
+    /**
+     * Cleans up uncommitted leftovers of transactions which no longer exist.
+     */
+    private final VersionCleaner versionCleaner = new VersionCleaner(this);
+
+    /**
+     * The queues of transactions waiting for a lock on a map entry.
+     */
+    private final ConcurrentHashMap<LockWaitQueue.Key, LockWaitQueue> lockWaitQueues = new ConcurrentHashMap<>();
 
     private static final String TYPE_REGISTRY_NAME = "_";
 
@@ -113,10 +127,11 @@ public class TransactionStore {
     private static final char UNDO_LOG_OPEN = '.';
 
     /**
-     * Hard limit on the number of concurrently opened transactions
+     * Hard limit on the number of concurrently opened transactions. It must
+     * fit into the bits of the operation id which are not used by the log id.
      */
     // TODO: introduce constructor parameter instead of a static field, driven by URL parameter
-    private static final int MAX_OPEN_TRANSACTIONS = 65535;
+    private static final int MAX_OPEN_TRANSACTIONS = (1 << 20) - 1;
 
     /**
      * Generate a string used to name undo log map for a specific transaction.
@@ -157,6 +172,8 @@ public TransactionStore(MVStore store, MetaType<?> metaDataType, DataType<?> dat
         this.typeRegistry = openTypeRegistry(store, metaDataType);
         this.preparedTransactions = store.openMap("openTransactions", new MVMap.Builder<>());
         this.undoLogBuilder = createUndoLogBuilder();
+        store.setBeforeStoreAction(this::flushUndoBuffers);
+        store.setBackgroundAction(versionCleaner::cleanInBackground);
     }
 
     @SuppressWarnings({"unchecked","rawtypes"})
@@ -197,8 +214,7 @@ public void init(RollbackListener listener) {
                         if (store.hasData(mapName)) {
                             int transactionId = StringUtils.parseUInt31(mapName, UNDO_LOG_NAME_PREFIX.length() + 1,
                                     mapName.length());
-                            VersionedBitSet openTxBitSet = openTransactions.get();
-                            if (!openTxBitSet.get(transactionId)) {
+                            if (!openTransactions.get(transactionId)) {
                                 Object[] data = preparedTransactions.get(transactionId);
                                 int status;
                                 String name;
@@ -210,7 +226,7 @@ public void init(RollbackListener listener) {
                                     name = (String) data[1];
                                 }
                                 MVMap<Long, Record<?,?>> undoLog = store.openMap(mapName, undoLogBuilder);
-                                undoLogs[transactionId] = undoLog;
+                                undoLogs.set(transactionId, undoLog);
                                 Long lastUndoKey = undoLog.lastKey();
                                 assert lastUndoKey != null;
                                 assert getTransactionId(lastUndoKey) == transactionId;
@@ -244,13 +260,19 @@ public void init(RollbackListener listener) {
         }
     }
 
-    private void markUndoLogAsCommitted(int transactionId) {
+    /**
+     * Append the commit marker to the undo log of the given transaction.
+     *
+     * @param transactionId id of the transaction
+     */
+    void markUndoLogAsCommitted(int transactionId) {
         addUndoLogRecord(transactionId, LOG_ID_MASK, Record.COMMIT_MARKER);
     }
 
     /**
      * Commit all transactions that are in the committed state, and
-     * rollback all open transactions.
+     * rollback all open transactions. If the store was not closed properly,
+     * a scan for uncommitted leftovers in the open maps is requested.
      */
     public void endLeftoverTransactions() {
         List<Transaction> list = getOpenTransactions();
@@ -262,6 +284,18 @@ public void endLeftoverTransactions() {
                 t.rollback();
             }
         }
+        if (store.isUncleanShutdown() && !store.isReadOnly()) {
+            versionCleaner.requestScan();
+        }
+    }
+
+    /**
+     * Get the cleaner of uncommitted leftovers.
+     *
+     * @return the version cleaner
+     */
+    public VersionCleaner getVersionCleaner() {
+        return versionCleaner;
     }
 
     int getMaxTransactionId() {
@@ -340,8 +374,7 @@ public List<Transaction> getOpenTransactions() {
         }
         ArrayList<Transaction> list = new ArrayList<>();
         int transactionId = 0;
-        BitSet bitSet = openTransactions.get();
-        while((transactionId = bitSet.nextSetBit(transactionId + 1)) > 0) {
+        while((transactionId = openTransactions.nextSetBit(transactionId + 1)) > 0) {
             Transaction transaction = getTransaction(transactionId);
             if(transaction != null) {
                 if(transaction.getStatus() != Transaction.STATUS_CLOSED) {
@@ -352,6 +385,54 @@ public List<Transaction> getOpenTransactions() {
         return list;
     }
 
+    /**
+     * Get the transactions which are waiting for a lock on a map entry. The
+     * waiters of each entry are listed in the order in which they will retry.
+     *
+     * @return the list of lock waits
+     */
+    public List<LockWait> getLockWaits() {
+        ArrayList<LockWait> list = new ArrayList<>();
+        for (LockWaitQueue queue : lockWaitQueues.values()) {
+            queue.addLockWaits(list);
+        }
+        return list;
+    }
+
+    /**
+     * Add the transaction to the lock wait queue of the given map entry.
+     *
+     * @param t the waiting transaction
+     * @param blocker the transaction holding the entry
+     * @param mapName the name of the map
+     * @param key the key of the entry
+     * @return the queue
+     */
+    LockWaitQueue joinLockWaitQueue(Transaction t, Transaction blocker, String mapName, Object key) {
+        LockWaitQueue.Key queueKey = new LockWaitQueue.Key(mapName, key);
+        while (true) {
+            LockWaitQueue queue = lockWaitQueues.computeIfAbsent(queueKey, LockWaitQueue::new);
+            if (queue.join(t, blocker)) {
+                return queue;
+            }
+            // the last waiter has just left, the queue is about to be removed
+            lockWaitQueues.remove(queueKey, queue);
+        }
+    }
+
+    /**
+     * Remove the transaction from the lock wait queue.
+     *
+     * @param t the transaction
+     * @param queue the queue
+     * @param acquired whether the transaction got the map entry
+     */
+    void leaveLockWaitQueue(Transaction t, LockWaitQueue queue, boolean acquired) {
+        if (queue.leave(t, acquired)) {
+            lockWaitQueues.remove(queue.key, queue);
+        }
+    }
+
     /**
      * Close the transaction store.
      */
@@ -387,28 +468,19 @@ private Transaction registerTransaction(int txId, int status, String name, long
                                             int timeoutMillis, int ownerId,
                                             IsolationLevel isolationLevel, RollbackListener listener) {
         int transactionId;
-        long sequenceNo;
-        boolean success;
-        do {
-            VersionedBitSet original = openTransactions.get();
-            if (txId == 0) {
-                transactionId = original.nextClearBit(1);
-            } else {
-                transactionId = txId;
-                assert !original.get(transactionId);
-            }
-            if (transactionId > maxTransactionId) {
+        if (txId == 0) {
+            transactionId = openTransactions.allocate(maxTransactionId);
+            if (transactionId < 0) {
                 throw DataUtils.newMVStoreException(
                         DataUtils.ERROR_TOO_MANY_OPEN_TRANSACTIONS,
                         "There are {0} open transactions",
-                        transactionId - 1);
+                        maxTransactionId);
             }
-            VersionedBitSet clone = original.clone();
-            clone.set(transactionId);
-            sequenceNo = clone.getVersion() + 1;
-            clone.setVersion(sequenceNo);
-            success = openTransactions.compareAndSet(original, clone);
-        } while(!success);
+        } else {
+            transactionId = txId;
+            openTransactions.set(transactionId);
+        }
+        long sequenceNo = lastSequenceNum.incrementAndGet();
 
         Transaction transaction = new Transaction(this, transactionId, sequenceNo, status, name, logId,
                 timeoutMillis, ownerId, isolationLevel, listener);
@@ -416,10 +488,10 @@ private Transaction registerTransaction(int txId, int status, String name, long
         assert transactions.get(transactionId) == null;
         transactions.set(transactionId, transaction);
 
-        if (undoLogs[transactionId] == null) {
+        if (undoLogs.get(transactionId) == null) {
             String undoName = getUndoLogName(transactionId);
             MVMap<Long,Record<?,?>> undoLog = store.openMap(undoName, undoLogBuilder);
-            undoLogs[transactionId] = undoLog;
+            undoLogs.set(transactionId, undoLog);
         }
         return transaction;
     }
@@ -446,7 +518,7 @@ void storeTransaction(Transaction t) {
      * @param record Record(mapId, key, previousValue) to add
      */
     long addUndoLogRecord(int transactionId, long logId, Record<?,?> record) {
-        MVMap<Long, Record<?,?>> undoLog = undoLogs[transactionId];
+        MVMap<Long, Record<?,?>> undoLog = undoLogs.get(transactionId);
         long undoKey = getOperationId(transactionId, logId);
         if (logId == 0 && !undoLog.isEmpty()) {
             throw DataUtils.newMVStoreException(
@@ -464,7 +536,7 @@ long addUndoLogRecord(int transactionId, long logId, Record<?,?> record) {
      * @param transactionId id of the transaction
      */
     void removeUndoLogRecord(int transactionId) {
-        undoLogs[transactionId].trimLast();
+        undoLogs.get(transactionId).trimLast();
     }
 
     /**
@@ -485,10 +557,15 @@ void removeMap(TransactionMap<?,?> map) {
     void commit(Transaction t, boolean recovery) {
         if (!store.isClosed()) {
             int transactionId = t.transactionId;
+            Record<?,?>[] bufferedRecords = recovery ? null : t.startBufferedCommit();
+            if (bufferedRecords != null) {
+                commitBuffered(t, bufferedRecords);
+                return;
+            }
             // First, mark log as "committed".
             // It does not change the way this transaction is treated by others,
             // but preserves fact of commit in case of abrupt termination.
-            MVMap<Long,Record<?,?>> undoLog = undoLogs[transactionId];
+            MVMap<Long,Record<?,?>> undoLog = undoLogs.get(transactionId);
             Cursor<Long,Record<?,?>> cursor;
             if(recovery) {
                 removeUndoLogRecord(transactionId);
@@ -506,16 +583,7 @@ void commit(Transaction t, boolean recovery) {
             try {
                 while (cursor.hasNext()) {
                     Long undoKey = cursor.next();
-                    Record<?,?> op = cursor.getValue();
-                    int mapId = op.mapId;
-                    MVMap<Object, VersionedValue<Object>> map = openMap(mapId);
-                    if (map != null && !map.isClosed()) { // might be null if map was removed later
-                        Object key = op.key;
-                        commitDecisionMaker.setUndoKey(undoKey);
-                        // second parameter (value) is not really
-                        // used by CommitDecisionMaker
-                        map.operate(key, null, commitDecisionMaker);
-                    }
+                    commit(cursor.getValue(), undoKey, commitDecisionMaker);
                 }
             } finally {
                 try {
@@ -527,6 +595,58 @@ void commit(Transaction t, boolean recovery) {
         }
     }
 
+    /**
+     * Commit a transaction whose undo log records were never written to the
+     * undo log map. If the store persists its changes while the commit is in
+     * progress, the records are written together with the commit marker,
+     * so that the commit is completed on recovery.
+     *
+     * @param t transaction to commit
+     * @param records the undo log records, indexed by log id
+     */
+    private void commitBuffered(Transaction t, Record<?,?>[] records) {
+        int transactionId = t.transactionId;
+        flipCommittingTransactionsBit(transactionId, true);
+        CommitDecisionMaker<Object> commitDecisionMaker = new CommitDecisionMaker<>();
+        try {
+            for (int logId = 0; logId < records.length; logId++) {
+                commit(records[logId], getOperationId(transactionId, logId), commitDecisionMaker);
+            }
+        } finally {
+            try {
+                t.endBufferedCommit();
+            } finally {
+                flipCommittingTransactionsBit(transactionId, false);
+            }
+        }
+    }
+
+    private void commit(Record<?,?> op, long undoKey, CommitDecisionMaker<Object> commitDecisionMaker) {
+        int mapId = op.mapId;
+        MVMap<Object, VersionedValue<Object>> map = openMap(mapId);
+        if (map != null && !map.isClosed()) { // might be null if map was removed later
+            Object key = op.key;
+            commitDecisionMaker.setUndoKey(undoKey);
+            // second parameter (value) is not really
+            // used by CommitDecisionMaker
+            map.operate(key, null, commitDecisionMaker);
+        }
+    }
+
+    /**
+     * Write the buffered undo log records of all open transactions into their
+     * undo log maps. This is called by the store before it captures the roots
+     * of the maps, so that no change is persisted without its undo log record.
+     */
+    private void flushUndoBuffers() {
+        for (int i = openTransactions.nextSetBit(0); i >= 0; i = openTransactions.nextSetBit(i + 1)) {
+            Transaction t = transactions.get(i);
+            if (t != null) {
+                t.flushUndoBuffer();
+            }
+        }
+    }
+
     private void flipCommittingTransactionsBit(int transactionId, boolean flag) {
         boolean success;
         do {
@@ -601,15 +721,7 @@ void endTransaction(Transaction t, boolean hasChanges) {
         t.closeIt();
         int txId = t.transactionId;
         transactions.set(txId, null);
-
-        boolean success;
-        do {
-            VersionedBitSet original = openTransactions.get();
-            assert original.get(txId);
-            VersionedBitSet clone = original.clone();
-            clone.clear(txId);
-            success = openTransactions.compareAndSet(original, clone);
-        } while(!success);
+        openTransactions.release(txId);
 
         if (hasChanges) {
             boolean wasStored = t.wasStored;
@@ -618,7 +730,11 @@ void endTransaction(Transaction t, boolean hasChanges) {
             }
 
             if (store.getFileStore() != null) {
-                if (wasStored || store.getAutoCommitDelay() == 0) {
+                if (store.isGroupCommit()) {
+                    // share the chunk write and sync with concurrent commits,
+                    // which can only come from other open transactions
+                    store.groupCommit(openTransactions.nextSetBit(0) >= 0);
+                } else if (wasStored || store.getAutoCommitDelay() == 0) {
                     store.commit();
                 } else {
                     if (isUndoEmpty()) {
@@ -644,11 +760,16 @@ void endTransaction(Transaction t, boolean hasChanges) {
      * @return the array of root references or null if snapshotting is not possible
      */
     RootReference<Long,Record<?,?>>[] collectUndoLogRootReferences() {
-        BitSet opentransactions = openTransactions.get();
+        int length = openTransactions.length();
         @SuppressWarnings("unchecked")
-        RootReference<Long,Record<?,?>>[] undoLogRootReferences = new RootReference[opentransactions.length()];
-        for (int i = opentransactions.nextSetBit(0); i >= 0; i = opentransactions.nextSetBit(i+1)) {
-            MVMap<Long,Record<?,?>> undoLog = undoLogs[i];
+        RootReference<Long,Record<?,?>>[] undoLogRootReferences = new RootReference[length];
+        for (int i = openTransactions.nextSetBit(0); i >= 0 && i < length; i = openTransactions.nextSetBit(i+1)) {
+            Transaction t = transactions.get(i);
+            if (t != null && t.hasBufferedUndoLogRecords()) {
+                // records in the buffer of a transaction are not visible in the snapshot
+                return null;
+            }
+            MVMap<Long,Record<?,?>> undoLog = undoLogs.get(i);
             if (undoLog != null) {
                 RootReference<Long,Record<?,?>> rootReference = undoLog.getRoot();
                 if (rootReference.needFlush()) {
@@ -679,9 +800,12 @@ static long calculateUndoLogsTotalSize(RootReference<Long,Record<?,?>>[] undoLog
     }
 
     private boolean isUndoEmpty() {
-        BitSet openTrans = openTransactions.get();
-        for (int i = openTrans.nextSetBit(0); i >= 0; i = openTrans.nextSetBit(i + 1)) {
-            MVMap<Long,Record<?,?>> undoLog = undoLogs[i];
+        for (int i = openTransactions.nextSetBit(0); i >= 0; i = openTransactions.nextSetBit(i + 1)) {
+            Transaction t = transactions.get(i);
+            if (t != null && t.hasBufferedUndoLogRecords()) {
+                return false;
+            }
+            MVMap<Long,Record<?,?>> undoLog = undoLogs.get(i);
             if (undoLog != null && !undoLog.isEmpty()) {
                 return false;
             }
@@ -708,11 +832,17 @@ Transaction getTransaction(int transactionId) {
      */
     void rollbackTo(Transaction t, long maxLogId, long toLogId) {
         int transactionId = t.getId();
-        MVMap<Long,Record<?,?>> undoLog = undoLogs[transactionId];
+        MVMap<Long,Record<?,?>> undoLog = undoLogs.get(transactionId);
         RollbackDecisionMaker decisionMaker = new RollbackDecisionMaker(this, transactionId, toLogId, t.listener);
         for (long logId = maxLogId - 1; logId >= toLogId; logId--) {
-            Long undoKey = getOperationId(transactionId, logId);
-            undoLog.operate(undoKey, null, decisionMaker);
+            Record<?,?> op = t.getBufferedUndoLogRecord(logId);
+            if (op == null) {
+                Long undoKey = getOperationId(transactionId, logId);
+                undoLog.operate(undoKey, null, decisionMaker);
+            } else {
+                decisionMaker.decide(op, null);
+                t.removeUndoLogRecord(logId);
+            }
             decisionMaker.reset();
         }
     }
@@ -729,7 +859,7 @@ void rollbackTo(Transaction t, long maxLogId, long toLogId) {
     Iterator<Change> getChanges(final Transaction t, final long maxLogId,
             final long toLogId) {
 
-        final MVMap<Long,Record<?,?>> undoLog = undoLogs[t.getId()];
+        final MVMap<Long,Record<?,?>> undoLog = undoLogs.get(t.getId());
         return new Iterator<Change>() {
 
             private long logId = maxLogId - 1;
@@ -739,7 +869,10 @@ private void fetchNext() {
                 int transactionId = t.getId();
                 while (logId >= toLogId) {
                     Long undoKey = getOperationId(transactionId, logId);
-                    Record<?,?> op = undoLog.get(undoKey);
+                    Record<?,?> op = t.getBufferedUndoLogRecord(logId);
+                    if (op == null) {
+                        op = undoLog.get(undoKey);
+                    }
                     logId--;
                     if (op == null) {
                         // partially rolled back: load previous
@@ -810,6 +943,46 @@ public Change(String mapName, Object key, Object value) {
         }
     }
 
+    /**
+     * A transaction waiting for a lock on a map entry.
+     */
+    public static final class LockWait {
+
+        /**
+         * The name of the map.
+         */
+        public final String mapName;
+
+        /**
+         * The key of the entry.
+         */
+        public final Object key;
+
+        /**
+         * The waiting transaction.
+         */
+        public final Transaction transaction;
+
+        /**
+         * The transaction holding the entry, or null if the waiting
+         * transaction is retrying right now.
+         */
+        public final Transaction blocker;
+
+        /**
+         * The position in the queue of the entry, starting with 1.
+         */
+        public final int position;
+
+        LockWait(String mapName, Object key, Transaction transaction, Transaction blocker, int position) {
+            this.mapName = mapName;
+            this.key = key;
+            this.transaction = transaction;
+            this.blocker = blocker;
+            this.position = position;
+        }
+    }
+
     /**
      * This listener can be registered with the transaction to be notified of
      * every compensating change during transaction rollback.
@@ -947,4 +1120,50 @@ protected String asString(String name) {
             }
         }
     }
+
+    /**
+     * An array indexed by transaction id, which is allocated in segments on
+     * demand, so that a high limit of open transactions does not cost memory
+     * up front. Segments are never moved once allocated.
+     *
+     * @param <T> the element type
+     */
+    static final class SegmentedArray<T> {
+
+        private static final int SEGMENT_BITS = 10;
+        private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+        private final AtomicReferenceArray<AtomicReferenceArray<T>> segments =
+                new AtomicReferenceArray<>((MAX_OPEN_TRANSACTIONS >>> SEGMENT_BITS) + 1);
+
+        /**
+         * Get the element at the given index.
+         *
+         * @param index the index
+         * @return the element, or null
+         */
+        T get(int index) {
+            AtomicReferenceArray<T> segment = segments.get(index >>> SEGMENT_BITS);
+            return segment == null ? null : segment.get(index & SEGMENT_MASK);
+        }
+
+        /**
+         * Set the element at the given index.
+         *
+         * @param index the index
+         * @param value the new element
+         */
+        void set(int index, T value) {
+            int s = index >>> SEGMENT_BITS;
+            AtomicReferenceArray<T> segment = segments.get(s);
+            if (segment == null) {
+                if (value == null) {
+                    return;
+                }
+                segments.compareAndSet(s, null, new AtomicReferenceArray<>(1 << SEGMENT_BITS));
+                segment = segments.get(s);
+            }
+            segment.set(index & SEGMENT_MASK, value);
+        }
+    }
 }
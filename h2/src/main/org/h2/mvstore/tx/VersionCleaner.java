@@ -0,0 +1,230 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.tx;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.value.VersionedValue;
+
+/**
+ * Incrementally converts uncommitted map entries of transactions which no
+ * longer exist into plain committed entries, or removes them if they have no
+ * committed value.
+ * <p>
+ * Such entries are left behind when the store was not closed properly: a
+ * change of a map was persisted, but the undo log record describing it was
+ * not. Until they are cleaned up, every reader has to resolve them using the
+ * committing transactions of its snapshot, and every writer has to retry
+ * before treating them as rolled back. Entries of open transactions are never
+ * touched, and readers of older snapshots keep seeing the old pages.
+ * <p>
+ * The work is done in small steps, usually by the background thread of the
+ * store. A full scan of all open transactional maps is requested after
+ * recovery from an unclean shutdown, or explicitly.
+ */
+public final class VersionCleaner {
+
+    /**
+     * The number of entries scanned per background step.
+     */
+    private static final int BACKGROUND_STEP_SIZE = 4096;
+
+    private final TransactionStore transactionStore;
+
+    /**
+     * The ids of the maps which are not yet scanned completely, in the order
+     * of the scan, or null if no scan is in progress.
+     */
+    private ArrayList<Integer> pendingMaps;
+
+    /**
+     * The key in the first pending map to continue with, or null to start
+     * from the beginning.
+     */
+    private Object nextKey;
+
+    private final AtomicLong scannedEntryCount = new AtomicLong();
+    private final AtomicLong cleanedEntryCount = new AtomicLong();
+
+    VersionCleaner(TransactionStore transactionStore) {
+        this.transactionStore = transactionStore;
+    }
+
+    /**
+     * Request a scan of all maps which are currently open and transactional.
+     * A scan that is already in progress is restarted.
+     */
+    public synchronized void requestScan() {
+        MVStore store = transactionStore.store;
+        ArrayList<Integer> list = new ArrayList<>();
+        MVMap<String, String> meta = store.getMetaMap();
+        for (Iterator<String> it = meta.keyIterator(DataUtils.META_MAP); it.hasNext();) {
+            String key = it.next();
+            if (!key.startsWith(DataUtils.META_MAP)) {
+                break;
+            }
+            int mapId = DataUtils.parseHexInt(key.substring(DataUtils.META_MAP.length()));
+            if (getTransactionalMap(mapId) != null) {
+                list.add(mapId);
+            }
+        }
+        pendingMaps = list.isEmpty() ? null : list;
+        nextKey = null;
+    }
+
+    /**
+     * Scan up to the given number of entries, continuing where the previous
+     * step stopped, and clean the entries of transactions which no longer
+     * exist.
+     *
+     * @param maxEntries the maximum number of entries to scan
+     * @return the number of entries scanned, 0 if there is no pending work
+     */
+    public synchronized int clean(int maxEntries) {
+        int scanned = 0;
+        CleanupDecisionMaker<Object> decisionMaker = new CleanupDecisionMaker<>(transactionStore);
+        while (pendingMaps != null && scanned < maxEntries) {
+            MVMap<Object, VersionedValue<Object>> map = getTransactionalMap(pendingMaps.get(0));
+            if (map != null) {
+                Cursor<Object, VersionedValue<Object>> cursor = map.cursor(nextKey);
+                nextKey = null;
+                while (cursor.hasNext()) {
+                    Object key = cursor.next();
+                    if (scanned >= maxEntries) {
+                        nextKey = key;
+                        break;
+                    }
+                    scanned++;
+                    long operationId = cursor.getValue().getOperationId();
+                    if (operationId != 0 && !isOpen(operationId)) {
+                        decisionMaker.setOperationId(operationId);
+                        map.operate(key, null, decisionMaker);
+                        if (decisionMaker.isCleaned()) {
+                            cleanedEntryCount.incrementAndGet();
+                        }
+                    }
+                }
+                if (nextKey != null) {
+                    break;
+                }
+            }
+            pendingMaps.remove(0);
+            if (pendingMaps.isEmpty()) {
+                pendingMaps = null;
+            }
+        }
+        scannedEntryCount.addAndGet(scanned);
+        return scanned;
+    }
+
+    /**
+     * Do one step of pending work. This is called by the background thread of
+     * the store.
+     */
+    void cleanInBackground() {
+        if (pendingMaps != null && !transactionStore.store.isClosed()) {
+            clean(BACKGROUND_STEP_SIZE);
+        }
+    }
+
+    /**
+     * Get the number of maps which are not yet scanned completely.
+     *
+     * @return the number of maps, 0 if there is no pending work
+     */
+    public synchronized int getPendingMapCount() {
+        return pendingMaps == null ? 0 : pendingMaps.size();
+    }
+
+    /**
+     * Get the total number of scanned entries.
+     *
+     * @return the number of entries
+     */
+    public long getScannedEntryCount() {
+        return scannedEntryCount.get();
+    }
+
+    /**
+     * Get the total number of entries which were converted to committed
+     * entries or removed.
+     *
+     * @return the number of entries
+     */
+    public long getCleanedEntryCount() {
+        return cleanedEntryCount.get();
+    }
+
+    private boolean isOpen(long operationId) {
+        return transactionStore.openTransactions.get(TransactionStore.getTransactionId(operationId));
+    }
+
+    private MVMap<Object, VersionedValue<Object>> getTransactionalMap(int mapId) {
+        MVMap<Object, VersionedValue<Object>> map = transactionStore.store.getMap(mapId);
+        return map != null && !map.isClosed() && map.getValueType() instanceof VersionedValueType ? map : null;
+    }
+
+    /**
+     * Decides whether an uncommitted entry of a transaction which no longer
+     * exists is replaced with its committed value, or removed.
+     */
+    private static final class CleanupDecisionMaker<V> extends MVMap.DecisionMaker<VersionedValue<V>> {
+        private final TransactionStore store;
+        private long operationId;
+        private MVMap.Decision decision;
+
+        CleanupDecisionMaker(TransactionStore store) {
+            this.store = store;
+        }
+
+        void setOperationId(long operationId) {
+            this.operationId = operationId;
+            reset();
+        }
+
+        boolean isCleaned() {
+            return decision == MVMap.Decision.PUT || decision == MVMap.Decision.REMOVE;
+        }
+
+        @Override
+        public MVMap.Decision decide(VersionedValue<V> existingValue, VersionedValue<V> providedValue) {
+            assert decision == null;
+            if (existingValue == null || existingValue.getOperationId() != operationId
+                    // the transaction id was re-used in the meantime
+                    || store.openTransactions.get(TransactionStore.getTransactionId(operationId))) {
+                decision = MVMap.Decision.ABORT;
+            } else if (existingValue.getCommittedValue() == null) {
+                decision = MVMap.Decision.REMOVE;
+            } else {
+                decision = MVMap.Decision.PUT;
+            }
+            return decision;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends VersionedValue<V>> T selectValue(T existingValue, T providedValue) {
+            assert decision == MVMap.Decision.PUT;
+            assert existingValue != null;
+            return (T) VersionedValueCommitted.getInstance(existingValue.getCommittedValue());
+        }
+
+        @Override
+        public void reset() {
+            decision = null;
+        }
+
+        @Override
+        public String toString() {
+            return "cleanup " + operationId;
+        }
+    }
+}
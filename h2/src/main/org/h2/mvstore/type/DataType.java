@@ -84,6 +84,60 @@
      */
     void read(ByteBuffer buff, Object storage, int len);
 
+    /**
+     * Write a list of keys, which are sorted in ascending order. A data type
+     * may store each key as the difference to the previous one, for example
+     * without the prefix they have in common. Such keys are read with
+     * {@link #readSorted(ByteBuffer, Object, int)}. The default
+     * implementation does not support a sorted format.
+     *
+     * @param buff the target buffer
+     * @param storage the keys
+     * @param len the number of keys to write
+     * @return true if the keys were written in the sorted format, false if
+     *         nothing was written, and the keys need to be written with
+     *         {@link #write(WriteBuffer, Object, int)}
+     */
+    default boolean writeSorted(WriteBuffer buff, Object storage, int len) {
+        return false;
+    }
+
+    /**
+     * Read a list of keys written in the sorted format.
+     *
+     * @param buff the source buffer
+     * @param storage the keys
+     * @param len the number of keys to read
+     */
+    default void readSorted(ByteBuffer buff, Object storage, int len) {
+        read(buff, storage, len);
+    }
+
+    /**
+     * Get the key to store in an internal page, to separate the last key of
+     * a page from the first key of the following page. The result must be
+     * larger than the left key, and not larger than the right key. Shorter
+     * keys make internal pages smaller, so that the tree is flatter.
+     *
+     * @param left the last key of the left page
+     * @param right the first key of the right page
+     * @return the separator, the right key if no shorter one is known
+     */
+    default T getSeparator(T left, T right) {
+        return right;
+    }
+
+    /**
+     * Whether a list of values is written in a column-major layout, which
+     * older versions can not read. The leaf pages of a map with such a value
+     * type are marked with {@link org.h2.mvstore.DataUtils#PAGE_COLUMNAR_VALUES}.
+     *
+     * @return true if the values are written in column-major layout
+     */
+    default boolean isColumnar() {
+        return false;
+    }
+
     /**
      * Create storage object of array type to hold values
      *
@@ -137,6 +137,14 @@ public int getMemory(Object obj) {
         return switchType(obj).getMemory(obj);
     }
 
+    @Override
+    public Object getSeparator(Object left, Object right) {
+        if (left instanceof String && right instanceof String) {
+            return StringDataType.INSTANCE.getSeparator((String) left, (String) right);
+        }
+        return right;
+    }
+
     @Override
     public void write(WriteBuffer buff, Object obj) {
         switchType(obj).write(buff, obj);
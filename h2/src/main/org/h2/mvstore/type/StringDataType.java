@@ -68,5 +68,62 @@ public void write(WriteBuffer buff, String s) {
         int len = s.length();
         buff.putVarInt(len).putStringData(s, len);
     }
+
+    /**
+     * Write the keys with front coding: each key is stored as the length of
+     * the prefix it has in common with the previous key, followed by the
+     * rest of it.
+     */
+    @Override
+    public boolean writeSorted(WriteBuffer buff, Object storage, int len) {
+        String[] keys = cast(storage);
+        boolean shared = false;
+        for (int i = 1; i < len && !shared; i++) {
+            shared = getCommonPrefixLength(keys[i - 1], keys[i]) > 0;
+        }
+        if (!shared) {
+            return false;
+        }
+        String previous = "";
+        for (int i = 0; i < len; i++) {
+            String s = keys[i];
+            int prefix = getCommonPrefixLength(previous, s);
+            int suffix = s.length() - prefix;
+            buff.putVarInt(prefix).putVarInt(suffix).putStringData(s.substring(prefix), suffix);
+            previous = s;
+        }
+        return true;
+    }
+
+    @Override
+    public void readSorted(ByteBuffer buff, Object storage, int len) {
+        String[] keys = cast(storage);
+        String previous = "";
+        for (int i = 0; i < len; i++) {
+            int prefix = DataUtils.readVarInt(buff);
+            String suffix = DataUtils.readString(buff);
+            previous = prefix == 0 ? suffix : previous.substring(0, prefix).concat(suffix);
+            keys[i] = previous;
+        }
+    }
+
+    /**
+     * Get the shortest prefix of the right key which is larger than the left
+     * key.
+     */
+    @Override
+    public String getSeparator(String left, String right) {
+        int length = getCommonPrefixLength(left, right) + 1;
+        return length < right.length() ? right.substring(0, length) : right;
+    }
+
+    private static int getCommonPrefixLength(String a, String b) {
+        int len = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < len && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
 }
 
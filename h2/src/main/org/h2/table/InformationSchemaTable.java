@@ -8,6 +8,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
@@ -41,6 +42,8 @@
 import org.h2.mvstore.FileStore;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.db.Store;
+import org.h2.mvstore.tx.Transaction;
+import org.h2.mvstore.tx.TransactionStore;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
@@ -142,7 +145,9 @@ public final class InformationSchemaTable extends MetaTable {
 
     private static final int LOCKS = IN_DOUBT + 1;
 
-    private static final int QUERY_STATISTICS = LOCKS + 1;
+    private static final int LOCK_WAITS = LOCKS + 1;
+
+    private static final int QUERY_STATISTICS = LOCK_WAITS + 1;
 
     private static final int RIGHTS = QUERY_STATISTICS + 1;
 
@@ -756,6 +761,19 @@ public InformationSchemaTable(Schema schema, int id, int type) {
                     column("LOCK_TYPE"), //
             };
             break;
+        case LOCK_WAITS:
+            setMetaTableName("LOCK_WAITS");
+            isView = false;
+            cols = new Column[] {
+                    column("SESSION_ID", TypeInfo.TYPE_INTEGER), //
+                    column("BLOCKER_ID", TypeInfo.TYPE_INTEGER), //
+                    column("TABLE_SCHEMA"), //
+                    column("TABLE_NAME"), //
+                    column("INDEX_NAME"), //
+                    column("ROW_KEY"), //
+                    column("QUEUE_POSITION", TypeInfo.TYPE_INTEGER), //
+            };
+            break;
         case QUERY_STATISTICS:
             setMetaTableName("QUERY_STATISTICS");
             isView = false;
@@ -968,6 +986,9 @@ public ArrayList<Row> generateRows(SessionLocal session, SearchRow first, Search
         case LOCKS:
             locks(session, rows);
             break;
+        case LOCK_WAITS:
+            lockWaits(session, rows);
+            break;
         case QUERY_STATISTICS:
             queryStatistics(session, rows);
             break;
@@ -2719,6 +2740,56 @@ private void locks(SessionLocal session, ArrayList<Row> rows, SessionLocal sessi
         }
     }
 
+    private void lockWaits(SessionLocal session, ArrayList<Row> rows) {
+        boolean admin = session.getUser().isAdmin();
+        Store store = database.getStore();
+        HashMap<Integer, Index> indexes = null;
+        for (TransactionStore.LockWait wait : store.getTransactionStore().getLockWaits()) {
+            int sessionId = wait.transaction.getOwnerId();
+            if (!admin && sessionId != session.getId()) {
+                continue;
+            }
+            Table table = store.getTable(wait.mapName);
+            Index index = null;
+            if (table == null && wait.mapName.startsWith("index.")) {
+                if (indexes == null) {
+                    indexes = getIndexesById();
+                }
+                index = indexes.get(Integer.parseInt(wait.mapName.substring("index.".length())));
+                if (index != null) {
+                    table = index.getTable();
+                }
+            }
+            Transaction blocker = wait.blocker;
+            add(session, rows,
+                    // SESSION_ID
+                    ValueInteger.get(sessionId),
+                    // BLOCKER_ID
+                    blocker == null ? null : ValueInteger.get(blocker.getOwnerId()),
+                    // TABLE_SCHEMA
+                    table == null ? null : table.getSchema().getName(),
+                    // TABLE_NAME
+                    table == null ? null : table.getName(),
+                    // INDEX_NAME
+                    index == null ? null : index.getName(),
+                    // ROW_KEY
+                    String.valueOf(wait.key),
+                    // QUEUE_POSITION
+                    ValueInteger.get(wait.position)
+            );
+        }
+    }
+
+    private HashMap<Integer, Index> getIndexesById() {
+        HashMap<Integer, Index> indexes = new HashMap<>();
+        for (Schema schema : database.getAllSchemas()) {
+            for (Index index : schema.getAllIndexes()) {
+                indexes.put(index.getId(), index);
+            }
+        }
+        return indexes;
+    }
+
     private void queryStatistics(SessionLocal session, ArrayList<Row> rows) {
         QueryStatisticsData control = database.getQueryStatisticsData();
         if (control != null) {
@@ -2952,8 +3023,10 @@ private void settings(SessionLocal session, ArrayList<Row> rows) {
                 add(session, rows, "property." + s, Utils.getProperty(s, ""));
             }
         }
+        add(session, rows, "BATCH_EXECUTION", session.isBatchExecution() ? "TRUE" : "FALSE");
         add(session, rows, "DEFAULT_NULL_ORDERING", database.getDefaultNullOrdering().name());
         add(session, rows, "EXCLUSIVE", database.getExclusiveSession() == null ? "FALSE" : "TRUE");
+        add(session, rows, "MAX_PARALLEL_WORKERS", Integer.toString(session.getMaxParallelWorkers()));
         add(session, rows, "MODE", database.getMode().getName());
         add(session, rows, "QUERY_TIMEOUT", Integer.toString(session.getQueryTimeout()));
         add(session, rows, "TIME ZONE", session.currentTimeZone().getId());
@@ -3158,6 +3231,7 @@ public long getMaxDataModificationId() {
         case IN_DOUBT:
         case SESSIONS:
         case LOCKS:
+        case LOCK_WAITS:
         case SESSION_STATE:
             return Long.MAX_VALUE;
         }
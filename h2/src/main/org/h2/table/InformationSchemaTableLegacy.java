@@ -1097,9 +1097,11 @@ public ArrayList<Row> generateRows(SessionLocal session, SearchRow first, Search
                     add(session, rows, "property." + s, Utils.getProperty(s, ""));
                 }
             }
+            add(session, rows, "BATCH_EXECUTION", session.isBatchExecution() ? "TRUE" : "FALSE");
             add(session, rows, "DEFAULT_NULL_ORDERING", database.getDefaultNullOrdering().name());
             add(session, rows, "EXCLUSIVE", database.getExclusiveSession() == null ?
                     "FALSE" : "TRUE");
+            add(session, rows, "MAX_PARALLEL_WORKERS", Integer.toString(session.getMaxParallelWorkers()));
             add(session, rows, "MODE", database.getMode().getName());
             add(session, rows, "QUERY_TIMEOUT", Integer.toString(session.getQueryTimeout()));
             add(session, rows, "TIME ZONE", session.currentTimeZone().getId());
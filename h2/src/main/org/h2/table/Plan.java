@@ -112,7 +112,9 @@ public double calculateCost(SessionLocal session, AllColumnsForPlan allColumnsSe
             if (t.isDebugEnabled()) {
                 t.debug("Plan       :   for table filter {0}", tableFilter);
             }
-            PlanItem item = tableFilter.getBestPlanItem(session, allFilters, i, allColumnsSet);
+            PlanItem item = i == 0 ? tableFilter.getBestPlanItem(session, allFilters, i, allColumnsSet)
+                    : tableFilter.getBestPlanItem(session, allFilters, i, allColumnsSet, cost, allFilters[0],
+                            planItems.get(allFilters[0]).getIndex());
             planItems.put(tableFilter, item);
             if (t.isDebugEnabled()) {
                 t.debug("Plan       :   best plan item cost {0} index {1}",
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2004-2021 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (https://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.table;
+
+import org.h2.expression.ValueVector;
+import org.h2.result.Row;
+import org.h2.value.Value;
+
+/**
+ * A batch of rows that were read by a table filter. The values of a column
+ * are converted to a vector when they are first needed.
+ * <p>
+ * The vectors are built from the rows, even for tables with the COLUMNAR
+ * setting. The rows are read through the cursor of the transaction map,
+ * which decides for each row whether it is visible, and only pages without
+ * uncommitted changes are stored in column-major layout. A batch can also
+ * contain rows of several pages, or only some rows of a page. The encoded
+ * column of a page is still decoded in one pass, when the first of its
+ * values is converted.
+ */
+public final class RowBatch {
+
+    private final TableFilter filter;
+
+    private final Row[] rows;
+
+    private int size;
+
+    /**
+     * The vectors of the columns, with the vector of the row id at the end.
+     */
+    private final ValueVector[] columns;
+
+    RowBatch(TableFilter filter, int capacity) {
+        this.filter = filter;
+        rows = new Row[capacity];
+        columns = new ValueVector[filter.getTable().getColumns().length + 1];
+    }
+
+    /**
+     * Remove all rows.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            rows[i] = null;
+        }
+        size = 0;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = null;
+        }
+    }
+
+    /**
+     * Add a row.
+     *
+     * @param row the row
+     * @return true if the batch is full
+     */
+    boolean add(Row row) {
+        rows[size++] = row;
+        return size == rows.length;
+    }
+
+    /**
+     * Get the table filter that has read the rows.
+     *
+     * @return the table filter
+     */
+    public TableFilter getFilter() {
+        return filter;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a row.
+     *
+     * @param i the position of the row
+     * @return the row
+     */
+    public Row get(int i) {
+        return rows[i];
+    }
+
+    /**
+     * Get the values of a column of the rows.
+     *
+     * @param column the column
+     * @return the vector, or null if the values of this column can not be
+     *         stored in a vector
+     */
+    public ValueVector getColumn(Column column) {
+        int columnId = column.getColumnId();
+        int valueType = column.getType().getValueType();
+        if (!ValueVector.isSupported(valueType)) {
+            return null;
+        }
+        int index = columnId < 0 ? columns.length - 1 : columnId;
+        ValueVector vector = columns[index];
+        if (vector == null) {
+            vector = new ValueVector(valueType, size);
+            for (int i = 0; i < size; i++) {
+                Row row = rows[i];
+                if (columnId < 0) {
+                    vector.setLong(i, row.getKey());
+                } else {
+                    Value v = row.getValue(columnId);
+                    if (v == null) {
+                        return null;
+                    }
+                    vector.set(i, v);
+                }
+            }
+            columns[index] = vector;
+        }
+        return vector;
+    }
+
+}
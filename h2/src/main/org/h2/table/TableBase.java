@@ -73,6 +73,15 @@ public TableBase(CreateTableData data) {
         setColumns(data.columns.toArray(new Column[0]));
     }
 
+    /**
+     * Get the table engine parameters.
+     *
+     * @return the parameters, an empty list if there are none
+     */
+    public List<String> getTableEngineParams() {
+        return tableEngineParams;
+    }
+
     @Override
     public String getDropSQL() {
         StringBuilder builder = new StringBuilder("DROP TABLE IF EXISTS ");
@@ -6,6 +6,7 @@
 package org.h2.table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -14,15 +15,21 @@
 import org.h2.api.ErrorCode;
 import org.h2.command.query.AllColumnsForPlan;
 import org.h2.command.query.Select;
+import org.h2.engine.Constants;
 import org.h2.engine.Database;
+import org.h2.engine.DbSettings;
 import org.h2.engine.Right;
 import org.h2.engine.SessionLocal;
 import org.h2.expression.Expression;
+import org.h2.expression.ExpressionColumn;
 import org.h2.expression.condition.Comparison;
 import org.h2.expression.condition.ConditionAndOr;
+import org.h2.index.HashJoinIndex;
 import org.h2.index.Index;
 import org.h2.index.IndexCondition;
 import org.h2.index.IndexCursor;
+import org.h2.index.JoinIndex;
+import org.h2.index.MergeJoinIndex;
 import org.h2.message.DbException;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
@@ -31,6 +38,7 @@
 import org.h2.util.ParserUtil;
 import org.h2.util.StringUtils;
 import org.h2.util.Utils;
+import org.h2.value.CompareMode;
 import org.h2.value.TypeInfo;
 import org.h2.value.Value;
 import org.h2.value.ValueBigint;
@@ -70,6 +78,8 @@ public class TableFilter implements ColumnResolver {
     private final Select select;
     private String alias;
     private Index index;
+    private HashJoinIndex hashJoinIndex;
+    private MergeJoinIndex mergeJoinIndex;
     private final IndexHints indexHints;
     private int[] masks;
     private int scanCount;
@@ -105,6 +115,11 @@ public class TableFilter implements ColumnResolver {
     private Row current;
     private int state;
 
+    /**
+     * The batch of rows of the batch execution mode, or null.
+     */
+    private RowBatch batch;
+
     /**
      * The joined table (if there is one).
      */
@@ -212,6 +227,26 @@ public void lock(SessionLocal s) {
      */
     public PlanItem getBestPlanItem(SessionLocal s, TableFilter[] filters, int filter,
             AllColumnsForPlan allColumnsSet) {
+        return getBestPlanItem(s, filters, filter, allColumnsSet, 1d, null, null);
+    }
+
+    /**
+     * Get the best plan item (index, cost) to use for the current join
+     * order.
+     *
+     * @param s the session
+     * @param filters all joined table filters
+     * @param filter the current table filter index
+     * @param allColumnsSet the set of all columns
+     * @param outerCost the cost of the preceding tables, that is the
+     *            estimated number of times this table is read
+     * @param drivingFilter the first table filter of the join, or null if
+     *            this is the first one
+     * @param drivingIndex the index used to read the first table filter
+     * @return the best plan item
+     */
+    public PlanItem getBestPlanItem(SessionLocal s, TableFilter[] filters, int filter,
+            AllColumnsForPlan allColumnsSet, double outerCost, TableFilter drivingFilter, Index drivingIndex) {
         PlanItem item1 = null;
         SortOrder sortOrder = null;
         if (select != null) {
@@ -249,9 +284,32 @@ public PlanItem getBestPlanItem(SessionLocal s, TableFilter[] filters, int filte
             item = item1;
         }
 
+        if (masks != null && select != null && indexHints == null) {
+            DbSettings settings = s.getDatabase().getSettings();
+            PlanItem indexItem = item;
+            if (settings.optimizeHashJoin) {
+                PlanItem hashItem = getHashJoinPlanItem(s, masks, filters, filter, allColumnsSet, outerCost);
+                if (hashItem != null && hashItem.cost < item.cost) {
+                    item = hashItem;
+                }
+            }
+            if (settings.optimizeMergeJoin && drivingFilter != null) {
+                PlanItem mergeItem = getMergeJoinPlanItem(s, indexItem.getIndex(), masks, filters, filter,
+                        allColumnsSet, outerCost, drivingFilter, drivingIndex);
+                if (mergeItem != null && mergeItem.cost < item.cost) {
+                    item = mergeItem;
+                }
+            }
+        }
+
+        if (drivingFilter == null) {
+            drivingFilter = this;
+            drivingIndex = item.getIndex();
+        }
         if (nestedJoin != null) {
             setEvaluatable(true);
-            item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, filters, filter, allColumnsSet));
+            item.setNestedJoinPlan(nestedJoin.getBestPlanItem(s, filters, filter, allColumnsSet, outerCost,
+                    drivingFilter, drivingIndex));
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
             item.cost += item.cost * item.getNestedJoinPlan().cost;
@@ -261,7 +319,8 @@ public PlanItem getBestPlanItem(SessionLocal s, TableFilter[] filters, int filte
             do {
                 filter++;
             } while (filters[filter] != join);
-            item.setJoinPlan(join.getBestPlanItem(s, filters, filter, allColumnsSet));
+            item.setJoinPlan(join.getBestPlanItem(s, filters, filter, allColumnsSet,
+                    outerCost + outerCost * item.cost, drivingFilter, drivingIndex));
             // TODO optimizer: calculate cost of a join: should use separate
             // expected row number and lookup cost
             item.cost += item.cost * item.getJoinPlan().cost;
@@ -269,6 +328,158 @@ public PlanItem getBestPlanItem(SessionLocal s, TableFilter[] filters, int filte
         return item;
     }
 
+    /**
+     * Get the plan item for a hash join on the columns of the equality
+     * conditions of this table, if this is possible. The hash table is built
+     * once, so its cost is divided by the number of times the table is read.
+     * A hash join is only used if reading this table is not more expensive
+     * than reading the preceding tables, so that the smaller side of the join
+     * is kept in the hash table.
+     *
+     * @param s the session
+     * @param masks the index condition masks
+     * @param filters all joined table filters
+     * @param filter the current table filter index
+     * @param allColumnsSet the set of all columns
+     * @param outerCost the cost of the preceding tables, that is the
+     *            estimated number of times this table is read
+     * @return the plan item, or null if a hash join can not be used
+     */
+    private PlanItem getHashJoinPlanItem(SessionLocal s, int[] masks, TableFilter[] filters, int filter,
+            AllColumnsForPlan allColumnsSet, double outerCost) {
+        if (table.getTableType() != TableType.TABLE) {
+            return null;
+        }
+        if (table.getRowCountApproximation(s) < Constants.JOIN_INDEX_MIN_ROWS) {
+            return null;
+        }
+        double scanCost = table.getScanIndex(s).getCost(s, null, filters, filter, null, allColumnsSet);
+        if (scanCost > outerCost) {
+            return null;
+        }
+        CompareMode compareMode = s.getDatabase().getCompareMode();
+        ArrayList<Column> columns = Utils.newSmallArrayList();
+        for (IndexCondition condition : indexConditions) {
+            int compareType = condition.getCompareType();
+            if (!condition.isEvaluatable()
+                    || compareType != Comparison.EQUAL && compareType != Comparison.EQUAL_NULL_SAFE) {
+                continue;
+            }
+            Column column = condition.getColumn();
+            if (column.getColumnId() >= 0 && !columns.contains(column)
+                    && HashJoinIndex.isHashable(column, compareMode)
+                    && condition.getExpression().getType().getValueType() == column.getType().getValueType()) {
+                columns.add(column);
+            }
+        }
+        if (columns.isEmpty()) {
+            return null;
+        }
+        Column[] array = columns.toArray(new Column[0]);
+        if (hashJoinIndex == null || !Arrays.equals(hashJoinIndex.getColumns(), array)) {
+            hashJoinIndex = new HashJoinIndex(table, array);
+        }
+        PlanItem item = new PlanItem();
+        item.setIndex(hashJoinIndex);
+        item.setMasks(masks);
+        item.cost = hashJoinIndex.getCost(s, masks, filters, filter, null, allColumnsSet)
+                + scanCost / outerCost;
+        return item;
+    }
+
+    /**
+     * Get the plan item for a merge join with the first table filter, if the
+     * index of this table and the index of the first table are sorted by the
+     * columns of an equality condition. The index of this table is read about
+     * once, so its cost is divided by the number of times the table is read.
+     *
+     * @param s the session
+     * @param index the best index for lookups in this table
+     * @param masks the index condition masks
+     * @param filters all joined table filters
+     * @param filter the current table filter index
+     * @param allColumnsSet the set of all columns
+     * @param outerCost the cost of the preceding tables, that is the
+     *            estimated number of times this table is read
+     * @param drivingFilter the first table filter of the join
+     * @param drivingIndex the index used to read the first table filter
+     * @return the plan item, or null if a merge join can not be used
+     */
+    private PlanItem getMergeJoinPlanItem(SessionLocal s, Index index, int[] masks, TableFilter[] filters,
+            int filter, AllColumnsForPlan allColumnsSet, double outerCost, TableFilter drivingFilter,
+            Index drivingIndex) {
+        if (!isSortedIndex(index) || index.getIndexType().isScan()
+                || table.getRowCountApproximation(s) < Constants.JOIN_INDEX_MIN_ROWS) {
+            return null;
+        }
+        IndexColumn[] indexColumns = index.getIndexColumns();
+        IndexColumn first = indexColumns[0];
+        if ((first.sortType & SortOrder.DESCENDING) != 0) {
+            return null;
+        }
+        for (int i = 1; i < indexColumns.length; i++) {
+            if (masks[indexColumns[i].column.getColumnId()] != 0) {
+                // only the first column is merged
+                return null;
+            }
+        }
+        Column column = first.column;
+        boolean found = false;
+        for (IndexCondition condition : indexConditions) {
+            if (!condition.isEvaluatable() || condition.getCompareType() != Comparison.EQUAL
+                    || condition.getColumn() != column) {
+                continue;
+            }
+            Expression e = condition.getExpression();
+            if (e instanceof ExpressionColumn) {
+                ExpressionColumn c = (ExpressionColumn) e;
+                Column outerColumn = c.getColumn();
+                if (c.getTableFilter() == drivingFilter
+                        && outerColumn.getType().getValueType() == column.getType().getValueType()
+                        && drivingFilter.isSortedBy(drivingIndex, outerColumn)) {
+                    found = true;
+                    break;
+                }
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        if (mergeJoinIndex == null || mergeJoinIndex.getBase() != index) {
+            mergeJoinIndex = new MergeJoinIndex(index);
+        }
+        PlanItem item = new PlanItem();
+        item.setIndex(mergeJoinIndex);
+        item.setMasks(masks);
+        item.cost = mergeJoinIndex.getCost(s, masks, filters, filter, null, allColumnsSet)
+                + table.getScanIndex(s).getCost(s, null, filters, filter, null, allColumnsSet) / outerCost;
+        return item;
+    }
+
+    /**
+     * Check whether the rows of this table are read in ascending order of a
+     * column, when the given index is used.
+     *
+     * @param index the index
+     * @param column the column
+     * @return true if the rows are sorted by this column
+     */
+    private boolean isSortedBy(Index index, Column column) {
+        if (index == null || !isSortedIndex(index)) {
+            return false;
+        }
+        if (index.getIndexType().isScan()) {
+            return table.getMainIndexColumn() == column.getColumnId();
+        }
+        IndexColumn first = index.getIndexColumns()[0];
+        return first.column == column && (first.sortType & SortOrder.DESCENDING) == 0;
+    }
+
+    private boolean isSortedIndex(Index index) {
+        return table.getTableType() == TableType.TABLE && !(index instanceof JoinIndex)
+                && !index.getIndexType().isSpatial();
+    }
+
     /**
      * Set what plan item (index, cost, masks) to use.
      *
@@ -360,6 +571,10 @@ public void prepare() {
     public void startQuery(SessionLocal s) {
         this.session = s;
         scanCount = 0;
+        if (index instanceof JoinIndex) {
+            // the rows might have changed since the last execution
+            ((JoinIndex) index).release();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -368,6 +583,18 @@ public void startQuery(SessionLocal s) {
         }
     }
 
+    /**
+     * End the query. This will release the state of the indexes of hash and
+     * merge joins.
+     */
+    public void endQuery() {
+        visit(f -> {
+            if (f.index instanceof JoinIndex) {
+                ((JoinIndex) f.index).release();
+            }
+        });
+    }
+
     /**
      * Reset to the current position.
      */
@@ -474,6 +701,29 @@ public boolean next() {
         return false;
     }
 
+    /**
+     * Read the next rows into a batch. This method may only be used if this
+     * table filter is not joined with other tables. The rows of the batch are
+     * set as the current row when they are processed.
+     *
+     * @return the batch, or null if there are no more rows
+     */
+    public RowBatch nextBatch() {
+        RowBatch b = batch;
+        if (b == null) {
+            batch = b = new RowBatch(this, Constants.BATCH_SIZE);
+        } else {
+            b.clear();
+        }
+        while (next()) {
+            if (b.add(get())) {
+                break;
+            }
+        }
+        set(null);
+        return b.size() == 0 ? null : b;
+    }
+
     public boolean isNullRow() {
         return state == NULL_ROW;
     }
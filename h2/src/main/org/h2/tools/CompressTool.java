@@ -17,16 +17,13 @@
 import java.util.zip.ZipOutputStream;
 
 import org.h2.api.ErrorCode;
-import org.h2.compress.CompressDeflate;
-import org.h2.compress.CompressLZF;
-import org.h2.compress.CompressNo;
 import org.h2.compress.Compressor;
+import org.h2.compress.CompressorRegistry;
 import org.h2.compress.LZFInputStream;
 import org.h2.compress.LZFOutputStream;
 import org.h2.engine.Constants;
 import org.h2.message.DbException;
 import org.h2.util.Bits;
-import org.h2.util.StringUtils;
 import org.h2.util.Utils;
 
 /**
@@ -68,7 +65,7 @@ public static CompressTool getInstance() {
      * supplied, LZF is used
      *
      * @param in the byte array with the original data
-     * @param algorithm the algorithm (LZF, DEFLATE)
+     * @param algorithm the algorithm (LZF, DEFLATE, LZ4, LZ4HC)
      * @return the compressed data
      */
     public byte[] compress(byte[] in, String algorithm) {
@@ -232,8 +229,10 @@ private static Compressor getCompressor(String algorithm) {
             options = algorithm.substring(idx + 1);
             algorithm = algorithm.substring(0, idx);
         }
-        int a = getCompressAlgorithm(algorithm);
-        Compressor compress = getCompressor(a);
+        Compressor compress = CompressorRegistry.getCompressor(algorithm);
+        if (compress == null) {
+            throw DbException.get(ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1, algorithm);
+        }
         compress.setOptions(options);
         return compress;
     }
@@ -242,33 +241,23 @@ private static Compressor getCompressor(String algorithm) {
      * INTERNAL
      */
     public static int getCompressAlgorithm(String algorithm) {
-        algorithm = StringUtils.toUpperEnglish(algorithm);
-        if ("NO".equals(algorithm)) {
-            return Compressor.NO;
-        } else if ("LZF".equals(algorithm)) {
-            return Compressor.LZF;
-        } else if ("DEFLATE".equals(algorithm)) {
-            return Compressor.DEFLATE;
-        } else {
+        int a = CompressorRegistry.getAlgorithm(algorithm);
+        if (a < 0) {
             throw DbException.get(
                     ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1,
                     algorithm);
         }
+        return a;
     }
 
     private static Compressor getCompressor(int algorithm) {
-        switch (algorithm) {
-        case Compressor.NO:
-            return new CompressNo();
-        case Compressor.LZF:
-            return new CompressLZF();
-        case Compressor.DEFLATE:
-            return new CompressDeflate();
-        default:
+        Compressor compress = CompressorRegistry.getCompressor(algorithm);
+        if (compress == null) {
             throw DbException.get(
                     ErrorCode.UNSUPPORTED_COMPRESSION_ALGORITHM_1,
                     Integer.toString(algorithm));
         }
+        return compress;
     }
 
     /**
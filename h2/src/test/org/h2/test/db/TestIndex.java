@@ -109,6 +109,8 @@ public void test() throws SQLException {
 
         // This test uses own connection
         testEnumIndex();
+        testCreateIndexParallel();
+        testVarcharIndexPrefixes();
     }
 
     private void testOrderIndex() throws SQLException {
@@ -780,4 +782,89 @@ private void testEnumIndex() throws SQLException {
         deleteDb("index");
     }
 
+    private void testCreateIndexParallel() throws SQLException {
+        if (config.memory || config.networked) {
+            return;
+        }
+        deleteDb("index");
+        String url = "jdbc:h2:" + getBaseDir() + "/index;DB_CLOSE_DELAY=0;MAX_MEMORY_ROWS=1000;CREATE_INDEX_THREADS=4";
+        Connection conn = DriverManager.getConnection(url);
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, A INT, B VARCHAR, C INT)");
+        stat.execute("INSERT INTO TEST SELECT X, MOD(X * 7919, 10007), 'B' || MOD(X, 100), "
+                + "CASE WHEN MOD(X, 10) = 0 THEN NULL ELSE MOD(X, 5000) END FROM SYSTEM_RANGE(1, 20000)");
+        stat.execute("DELETE FROM TEST WHERE MOD(ID, 7) = 0");
+        stat.execute("CREATE INDEX IDX_B_A ON TEST(B, A)");
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).execute("CREATE UNIQUE INDEX IDX_C ON TEST(C)");
+        stat.execute("CREATE UNIQUE INDEX IDX_A_ID ON TEST(A, ID)");
+
+        conn.close();
+        conn = DriverManager.getConnection(url);
+        stat = conn.createStatement();
+        for (String condition : new String[] { "B = 'B17'", "B > 'B5' AND A < 5000", "A BETWEEN 100 AND 200" }) {
+            ResultSet rs = stat.executeQuery("SELECT COUNT(*), SUM(ID) FROM TEST WHERE " + condition);
+            rs.next();
+            ResultSet rs2 = conn.createStatement()
+                    .executeQuery("SELECT COUNT(*), SUM(ID) FROM TEST USE INDEX () WHERE " + condition);
+            rs2.next();
+            assertTrue(rs.getLong(1) > 0);
+            assertEquals(rs2.getLong(1), rs.getLong(1));
+            assertEquals(rs2.getLong(2), rs.getLong(2));
+        }
+        stat.execute("DROP TABLE TEST");
+
+        conn.close();
+        deleteDb("index");
+    }
+
+    private void testVarcharIndexPrefixes() throws SQLException {
+        deleteDb("index");
+        Connection conn = getConnection("index;COMPRESS_KEYS=TRUE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, URL VARCHAR, G INT, NAME VARCHAR_IGNORECASE)");
+        stat.execute("CREATE INDEX IDX_URL ON TEST(URL)");
+        stat.execute("CREATE INDEX IDX_G_URL ON TEST(G, URL)");
+        stat.execute("CREATE INDEX IDX_URL_DESC ON TEST(URL DESC, G)");
+        stat.execute("CREATE INDEX IDX_NAME ON TEST(NAME)");
+        stat.execute("INSERT INTO TEST SELECT X, 'https://www.example.com/' || MOD(X, 50) || '/page' || X || '.html', "
+                + "MOD(X, 7), CASEWHEN(MOD(X, 2) = 0, 'Name', 'NAME') || MOD(X, 300) FROM SYSTEM_RANGE(1, 20000)");
+        stat.execute("DELETE FROM TEST WHERE MOD(ID, 11) = 0");
+        stat.execute("UPDATE TEST SET URL = URL || '?q' WHERE MOD(ID, 13) = 0");
+        if (!config.memory) {
+            conn.close();
+            conn = getConnection("index;COMPRESS_KEYS=TRUE");
+            stat = conn.createStatement();
+        }
+        for (String condition : new String[] {
+                "URL = 'https://www.example.com/7/page1007.html'",
+                "URL >= 'https://www.example.com/1' AND URL < 'https://www.example.com/2'",
+                "URL LIKE 'https://www.example.com/3/page3%'",
+                "URL > 'https://www.example.com/33/page1' AND URL <= 'https://www.example.com/33/page5'",
+                "G = 3 AND URL > 'https://www.example.com/33'",
+                "NAME = 'name17' AND CAST(NAME AS VARCHAR) = 'NAME17'",
+                "NAME BETWEEN 'name1' AND 'NAME2'" }) {
+            ResultSet rs = stat.executeQuery("SELECT COUNT(*), SUM(ID) FROM TEST WHERE " + condition);
+            rs.next();
+            ResultSet rs2 = conn.createStatement()
+                    .executeQuery("SELECT COUNT(*), SUM(ID) FROM TEST USE INDEX () WHERE " + condition);
+            rs2.next();
+            assertTrue(condition, rs.getLong(1) > 0);
+            assertEquals(rs2.getLong(1), rs.getLong(1));
+            assertEquals(rs2.getLong(2), rs.getLong(2));
+        }
+        ResultSet rs = stat.executeQuery("SELECT URL FROM TEST ORDER BY URL DESC, G");
+        String last = null;
+        int count = 0;
+        while (rs.next()) {
+            String url = rs.getString(1);
+            assertTrue(last == null || last.compareTo(url) >= 0);
+            last = url;
+            count++;
+        }
+        assertEquals(20000 - 20000 / 11, count);
+        stat.execute("DROP TABLE TEST");
+        conn.close();
+        deleteDb("index");
+    }
+
 }
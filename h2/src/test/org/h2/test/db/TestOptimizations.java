@@ -17,6 +17,7 @@
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import org.h2.api.ErrorCode;
+import org.h2.engine.SysProperties;
 import org.h2.test.TestBase;
 import org.h2.test.TestDb;
 import org.h2.tools.SimpleResultSet;
@@ -70,6 +71,11 @@ public void test() throws Exception {
         }
         testOptimizeInJoinSelect();
         testOptimizeInJoin();
+        testHashJoin();
+        testMergeJoin();
+        testParallelAggregation();
+        testBatchExecution();
+        testGroupSpill();
         testMultiColumnRangeQuery();
         testDistinctOptimization();
         testQueryCacheTimestamp();
@@ -619,6 +625,313 @@ private void testOptimizeInJoin() throws SQLException {
         conn.close();
     }
 
+    private void testHashJoin() throws SQLException {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table a(id int primary key, x int) " +
+                "as select x, mod(x, 500) from system_range(1, 20000)");
+        stat.execute("create table b(id int primary key, y int, name varchar) " +
+                "as select x, x, 'n' || x from system_range(1, 2000)");
+        String[] queries = {
+                "select count(*), sum(b.id), min(b.name) from a join b %s on a.x = b.y",
+                "select count(*), count(b.id), sum(b.id) from a left join b %s on a.x = b.y",
+                "select count(*), sum(b.id) from a join b %s on a.x = b.y and b.name = 'n' || a.x",
+                "select a.id, b.name from a join b %s on a.x = b.y where a.id < 1000 order by a.id",
+        };
+        for (String query : queries) {
+            ResultSet rs = stat.executeQuery("explain " + String.format(query, ""));
+            rs.next();
+            assertContains(rs.getString(1), "/* PUBLIC.B.hashJoin: ");
+            // an empty index hint disables the hash join
+            rs = stat.executeQuery("explain " + String.format(query, "use index ()"));
+            rs.next();
+            assertContains(rs.getString(1), "/* PUBLIC.B.tableScan */");
+        }
+        for (int maxMemoryRows : new int[] { 10_000, 100 }) {
+            stat.execute("set max_memory_rows " + maxMemoryRows);
+            for (String query : queries) {
+                assertEquals(getResult(stat, String.format(query, "use index ()")),
+                        getResult(stat, String.format(query, "")));
+            }
+        }
+        stat.execute("set max_memory_rows 10000");
+        // the hash table is built again when the rows are changed
+        PreparedStatement prep = conn.prepareStatement(
+                "select count(*) from a join b on a.x = b.y where b.name = ?");
+        prep.setString(1, "n2000");
+        ResultSet rs = prep.executeQuery();
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        stat.execute("update b set y = 7 where id = 2000");
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(40, rs.getInt(1));
+        // no hash join if an index can be used
+        stat.execute("create index idx_b_y on b(y)");
+        rs = stat.executeQuery("explain select * from a join b on a.x = b.y");
+        rs.next();
+        assertContains(rs.getString(1), "/* PUBLIC.IDX_B_Y: Y = A.X */");
+        conn.close();
+    }
+
+    private void testMergeJoin() throws SQLException {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table a(id int primary key, x int) " +
+                "as select x, x / 3 from system_range(1, 6000)");
+        stat.execute("create index idx_a_x on a(x)");
+        stat.execute("create table b(id int primary key, x int, name varchar) " +
+                "as select x, case when mod(x, 7) = 0 then null else x / 2 end, 'n' || x " +
+                "from system_range(1, 8000)");
+        stat.execute("create index idx_b_x on b(x)");
+        String[] queries = {
+                "select a.id, b.name from a join b %s on a.id = b.x where a.id < 1000 order by a.id",
+                // duplicate keys on both sides
+                "select count(*), sum(b.id) from a join b %s on a.x = b.x where a.x > 10",
+                "select count(*), count(b.id), sum(b.id) from a left join b %s on a.id = b.x " +
+                        "where a.id between 100 and 5000",
+                // keys that are far apart
+                "select count(*), sum(b.id) from a join b %s on a.id = b.x where mod(a.id, 100) = 0 " +
+                        "and a.id > 0",
+        };
+        for (String query : queries) {
+            ResultSet rs = stat.executeQuery("explain " + String.format(query, ""));
+            rs.next();
+            assertContains(rs.getString(1), "/* PUBLIC.IDX_B_X.mergeJoin: X = A.");
+            // an index hint disables the merge join
+            rs = stat.executeQuery("explain " + String.format(query, "use index (idx_b_x)"));
+            rs.next();
+            assertFalse(rs.getString(1).contains(".mergeJoin"));
+            assertEquals(getResult(stat, String.format(query, "use index (idx_b_x)")),
+                    getResult(stat, String.format(query, "")));
+        }
+        // the rows are read again when the statement is executed again
+        PreparedStatement prep = conn.prepareStatement(
+                "select count(*) from a join b on a.id = b.x where a.id > ?");
+        prep.setInt(1, 3990);
+        ResultSet rs = prep.executeQuery();
+        rs.next();
+        assertEquals(17, rs.getInt(1));
+        stat.execute("update b set x = 3995 where id < 10");
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(26, rs.getInt(1));
+        conn.close();
+    }
+
+    private void testParallelAggregation() throws Exception {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, g int, v int, d double, s varchar) " +
+                "as select x, mod(x, 7), case when mod(x, 5) = 0 then null else x end, x / 3, " +
+                "'s' || mod(x, 11) from system_range(1, 50000)");
+        String[] queries = {
+                "select count(*), count(v), sum(v), min(s), max(s), avg(d) from test",
+                "select g, count(*), sum(v), avg(v), every(v > 10), bit_or_agg(v) from test " +
+                        "where s <> 's3' group by g",
+                "select g, mod(id, 2) m, max(v) from test group by g, m having count(*) > 3560",
+                "select s, sum(v) filter (where g = 1) from test group by s",
+                "select sum(v) from test where d < 0",
+        };
+        String[] expected = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            expected[i] = getResult(stat, queries[i] + " order by 1");
+        }
+        stat.execute("set max_parallel_workers 4");
+        for (int i = 0; i < queries.length; i++) {
+            String query = queries[i];
+            ResultSet rs = stat.executeQuery("explain " + query);
+            rs.next();
+            assertContains(rs.getString(1), "/* parallel: 4 */");
+            assertEquals(expected[i], getResult(stat, query + " order by 1"));
+        }
+        PreparedStatement prep = conn.prepareStatement("select g, count(*) from test where v < ? group by g");
+        for (int max : new int[] { 100, 40000 }) {
+            prep.setInt(1, max);
+            ResultSet rs = prep.executeQuery();
+            long count = 0;
+            while (rs.next()) {
+                count += rs.getLong(2);
+            }
+            assertEquals(max - 1 - (max - 1) / 5, count);
+        }
+        // aggregates that can not be merged, and subqueries
+        for (String query : new String[] {
+                "select count(distinct g) from test",
+                "select listagg(s) from test where id < 10",
+                "select g, sum(v) from test where v > (select min(id) from test) group by g",
+                "select sum(v) filter (where g in (select 1)) from test" }) {
+            ResultSet rs = stat.executeQuery("explain " + query);
+            rs.next();
+            assertFalse(rs.getString(1).contains("/* parallel"));
+        }
+        // the copies of the query use the current time zone of the session
+        String zoneQuery = "select cast(timestamp '2021-01-01 00:00:00' + g * interval '5' hour "
+                + "as timestamp with time zone) t, count(*) from test group by t order by 1";
+        ResultSet rs = stat.executeQuery("explain " + zoneQuery);
+        rs.next();
+        assertContains(rs.getString(1), "/* parallel: 4 */");
+        prep = conn.prepareStatement(zoneQuery);
+        prep.executeQuery().close();
+        stat.execute("set time zone '+09:00'");
+        stat.execute("set max_parallel_workers 1");
+        String zoneExpected = getResult(stat, zoneQuery);
+        stat.execute("set max_parallel_workers 4");
+        rs = prep.executeQuery();
+        for (String line : zoneExpected.split("\n")) {
+            assertTrue(rs.next());
+            assertEquals(line, rs.getString(1) + ' ' + rs.getString(2) + ' ');
+        }
+        assertFalse(rs.next());
+        stat.execute("set time zone local");
+        // more parallel queries than threads
+        Task[] tasks = new Task[Runtime.getRuntime().availableProcessors() * 2];
+        for (int i = 0; i < tasks.length; i++) {
+            Connection c = getConnection("optimizations");
+            String query = queries[i % queries.length];
+            String queryExpected = expected[i % queries.length];
+            tasks[i] = new Task() {
+                @Override
+                public void call() throws Exception {
+                    try (Statement s = c.createStatement()) {
+                        s.execute("set max_parallel_workers 4");
+                        for (int j = 0; j < 10; j++) {
+                            String result = getResult(s, query + " order by 1");
+                            if (!result.equals(queryExpected)) {
+                                throw new Exception(query + ": " + result);
+                            }
+                        }
+                    } finally {
+                        c.close();
+                    }
+                }
+            };
+            tasks[i].execute();
+        }
+        for (Task t : tasks) {
+            t.get();
+        }
+        stat.execute("set max_parallel_workers 2");
+        rs = stat.executeQuery("explain " + queries[0]);
+        rs.next();
+        assertContains(rs.getString(1), "/* parallel: 2 */");
+        assertThrows(ErrorCode.INVALID_VALUE_2, stat).execute("set max_parallel_workers 0");
+        conn.close();
+    }
+
+    private void testBatchExecution() throws SQLException {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, g int, v int, b bigint, d double, r real, " +
+                "f boolean, s varchar) as select x, mod(x, 7), case when mod(x, 5) = 0 then null else x end, " +
+                "x * 1000000000, case when mod(x, 3) = 0 then null else x / 4e0 end, x / 8, mod(x, 2) = 0, " +
+                "'s' || x from system_range(1, 5000)");
+        String[] queries = {
+                "select id, v, s from test where v > 100 and d < 1000.5 order by id",
+                "select id from test where v + g * 2 < 300 or f and r >= 600 order by id",
+                "select id, d from test where d - r * 2 <> 0 and b <= 4000000000000 order by id",
+                "select id from test where v is not distinct from g or id = 4999 order by id",
+                "select id from test where v between 10 and 20 and s like 's1%' order by id",
+                "select id, rownum() from test where v > 4900 order by id",
+                "select id from test where v > 100 order by id offset 10 rows fetch first 5 rows only",
+                // division by zero and overflows are checked in row mode
+                "select id from test where g <> 3 and v / (g - 3) > 500 order by id",
+                "select id from test where v < 2000 and v * 1000000 > 1900000000 order by id",
+                "select count(*), count(v), sum(v), sum(b), sum(r), avg(v), avg(b), avg(d) from test",
+                "select min(v), max(v), min(d), max(r), min(f), max(b), count(*) from test where g = 2",
+                "select sum(v) s, count(d) from test where v + 1 > 10 and s > 's2'",
+                "select sum(v + g), max(v * 2), avg(d / 2) from test where f",
+                "select count(*), sum(v) from test where id < 0",
+        };
+        String[] expected = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            expected[i] = getResult(stat, queries[i]);
+        }
+        stat.execute("set batch_execution true");
+        ResultSet rs = stat.executeQuery(
+                "select setting_value from information_schema.settings where setting_name = 'BATCH_EXECUTION'");
+        rs.next();
+        assertEquals("TRUE", rs.getString(1));
+        for (int i = 0; i < queries.length; i++) {
+            assertEquals(queries[i], expected[i], getResult(stat, queries[i]));
+        }
+        PreparedStatement prep = conn.prepareStatement("select count(*), sum(v) from test where v < ?");
+        prep.setInt(1, 100);
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(80, rs.getInt(1));
+        assertEquals(4000, rs.getInt(2));
+        prep.setInt(1, 11);
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(8, rs.getInt(1));
+        assertEquals(40, rs.getInt(2));
+        // the errors of row mode are reported
+        assertThrows(ErrorCode.DIVISION_BY_ZERO_1, stat).executeQuery("select id from test where v / (g - 3) > 1");
+        assertThrows(ErrorCode.NUMERIC_VALUE_OUT_OF_RANGE_1, stat).executeQuery("select sum(v * 1000000) from test");
+        conn.close();
+    }
+
+    private void testGroupSpill() throws SQLException {
+        deleteDb("optimizations");
+        Connection conn = getConnection("optimizations");
+        Statement stat = conn.createStatement();
+        stat.execute("create table test(id int primary key, g int, s varchar, v int) as " +
+                "select x, mod(x * 7, 3000), 's' || mod(x, 1000), x from system_range(1, 20000)");
+        String[] queries = {
+                "select g, count(*), sum(v), min(s) from test group by g order by g",
+                "select s, g, count(*), listagg(v) within group (order by v) from test where v > 10 " +
+                        "group by s, g having count(*) > 1 order by s, g",
+                "select g, count(distinct s), max(v) from test group by g order by 3 desc offset 100 rows " +
+                        "fetch first 10 rows only",
+                "select g, s, avg(v) from test group by g, s order by g, s offset 2990 rows",
+        };
+        String[] expected = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            expected[i] = getResult(stat, queries[i]);
+        }
+        stat.execute("set max_memory_rows 100");
+        for (int i = 0; i < queries.length; i++) {
+            assertEquals(queries[i], expected[i], getResult(stat, queries[i]));
+        }
+        PreparedStatement prep = conn.prepareStatement("select count(*), sum(c) from " +
+                "(select g, count(*) c from test where v <= ? group by g)");
+        prep.setInt(1, 20000);
+        ResultSet rs = prep.executeQuery();
+        rs.next();
+        assertEquals(3000, rs.getInt(1));
+        assertEquals(20000, rs.getInt(2));
+        prep.setInt(1, 50);
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(50, rs.getInt(1));
+        assertEquals(50, rs.getInt(2));
+        if (!config.memory) {
+            rs = stat.executeQuery("explain analyze select g, count(*) from test group by g");
+            rs.next();
+            assertContains(rs.getString(1), "/* spilled rows: ");
+        }
+        stat.execute("set max_memory_rows " + SysProperties.MAX_MEMORY_ROWS);
+        conn.close();
+    }
+
+    private static String getResult(Statement stat, String query) throws SQLException {
+        ResultSet rs = stat.executeQuery(query);
+        StringBuilder builder = new StringBuilder();
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            for (int i = 1; i <= columnCount; i++) {
+                builder.append(rs.getString(i)).append(' ');
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
     private void testMinMaxNullOptimization() throws SQLException {
         deleteDb("optimizations");
         Connection conn = getConnection("optimizations");
@@ -1154,7 +1467,7 @@ private void testUseCoveringIndex() throws SQLException {
                 "FROM table_b b JOIN table_a a ON b.table_a_id = a.id GROUP BY b.table_a_id " +
                 "HAVING A.ACTIVE = TRUE");
         rs.next();
-        assertContains(rs.getString(1), "/* PUBLIC.TABLE_B_IDX: TABLE_A_ID = A.ID */");
+        assertContains(rs.getString(1), "/* PUBLIC.TABLE_B_IDX.mergeJoin: TABLE_A_ID = A.ID */");
 
         rs = stat.executeQuery("EXPLAIN ANALYZE SELECT MAX(id) FROM table_b GROUP BY table_a_id");
         rs.next();
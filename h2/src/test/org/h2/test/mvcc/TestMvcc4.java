@@ -14,6 +14,7 @@
 import java.util.concurrent.CountDownLatch;
 import org.h2.test.TestBase;
 import org.h2.test.TestDb;
+import org.h2.util.Task;
 
 /**
  * Additional MVCC (multi version concurrency) test cases.
@@ -41,8 +42,9 @@ public boolean isEnabled() {
     }
 
     @Override
-    public void test() throws SQLException {
+    public void test() throws Exception {
         testSelectForUpdateAndUpdateConcurrency();
+        testLockWaits();
     }
 
     private void testSelectForUpdateAndUpdateConcurrency() throws SQLException {
@@ -131,8 +133,48 @@ public void run() {
 
         setup.close();
     }
-}
-
-
-
 
+    private void testLockWaits() throws Exception {
+        deleteDb("mvcc4");
+        try (Connection c1 = getConnection("mvcc4");
+                Connection c2 = getConnection("mvcc4;LOCK_TIMEOUT=10000")) {
+            Statement s1 = c1.createStatement();
+            s1.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, V INT)");
+            s1.execute("INSERT INTO TEST VALUES (1, 0)");
+            c1.setAutoCommit(false);
+            s1.execute("UPDATE TEST SET V = V + 1 WHERE ID = 1");
+            ResultSet rs = s1.executeQuery("CALL SESSION_ID()");
+            rs.next();
+            int id1 = rs.getInt(1);
+            Statement s2 = c2.createStatement();
+            rs = s2.executeQuery("CALL SESSION_ID()");
+            rs.next();
+            int id2 = rs.getInt(1);
+            Task task = new Task() {
+                @Override
+                public void call() throws Exception {
+                    s2.execute("UPDATE TEST SET V = V + 1 WHERE ID = 1");
+                }
+            }.execute();
+            do {
+                rs = s1.executeQuery("SELECT SESSION_ID, BLOCKER_ID, TABLE_SCHEMA, TABLE_NAME, INDEX_NAME,"
+                        + " ROW_KEY, QUEUE_POSITION FROM INFORMATION_SCHEMA.LOCK_WAITS");
+            } while (!rs.next());
+            assertEquals(id2, rs.getInt(1));
+            assertEquals(id1, rs.getInt(2));
+            assertEquals("PUBLIC", rs.getString(3));
+            assertEquals("TEST", rs.getString(4));
+            assertNull(rs.getString(5));
+            assertEquals("1", rs.getString(6));
+            assertEquals(1, rs.getInt(7));
+            assertFalse(rs.next());
+            c1.commit();
+            task.get();
+            rs = s1.executeQuery("SELECT V FROM TEST");
+            rs.next();
+            assertEquals(2, rs.getInt(1));
+            rs = s1.executeQuery("SELECT * FROM INFORMATION_SCHEMA.LOCK_WAITS");
+            assertFalse(rs.next());
+        }
+    }
+}
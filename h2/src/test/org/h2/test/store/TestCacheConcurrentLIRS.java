@@ -8,6 +8,7 @@
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.h2.mvstore.cache.CacheLongKeyLIRS;
 import org.h2.test.TestBase;
 import org.h2.util.Task;
@@ -28,12 +29,15 @@ public static void main(String... a) throws Exception {
 
     @Override
     public void test() throws Exception {
-        testConcurrent();
+        testConcurrent(0);
+        testConcurrent(16);
+        testConcurrentReads();
     }
 
-    private void testConcurrent() {
+    private void testConcurrent(int readBufferSize) {
         CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
         cc.maxMemory = 100;
+        cc.readBufferSize = readBufferSize;
         final CacheLongKeyLIRS<Integer> test = new CacheLongKeyLIRS<>(cc);
         int threadCount = 8;
         final CountDownLatch wait = new CountDownLatch(1);
@@ -89,6 +93,105 @@ public void call() throws Exception {
             totalCount += x;
         }
         trace("requests: " + totalCount);
+        assertTrue(test.getUsedMemory() <= 100);
+    }
+
+    /**
+     * Concurrently read and add entries, with synchronized and buffered
+     * reads, for skewed reads of hot entries, and for scans over more entries
+     * than fit in the cache. All values read must be the values added, each
+     * read must be counted as a hit or a miss, and the size and the used
+     * memory must match the resident entries afterwards.
+     */
+    private void testConcurrentReads() {
+        int threadCount = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        for (boolean scan : new boolean[] { false, true }) {
+            for (int readBufferSize : new int[] { 0, 16 }) {
+                CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
+                cc.maxMemory = 10_000;
+                cc.readBufferSize = readBufferSize;
+                CacheLongKeyLIRS<Integer> cache = new CacheLongKeyLIRS<>(cc);
+                int[] keys = new int[16 * 1024];
+                Random random = new Random(1);
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = scan ? i : (int) Math.abs(random.nextGaussian() * 200);
+                }
+                for (int i = 0; i < 12_000; i++) {
+                    cache.put(i, i);
+                }
+                long hits = cache.getHits(), misses = cache.getMisses();
+                long count = runReads(cache, keys, threadCount);
+                hits = cache.getHits() - hits;
+                misses = cache.getMisses() - misses;
+                trace((scan ? "scan" : "skewed") + " readBufferSize: " + readBufferSize
+                        + " threads: " + threadCount + " reads/ms: " + count / 500
+                        + " hit ratio: " + 100 * hits / (hits + misses + 1));
+                assertEquals(count, hits + misses);
+                if (scan) {
+                    // the scan reads more entries than fit in the cache
+                    assertTrue(misses > 0);
+                } else {
+                    assertTrue(hits > 0);
+                }
+                // non-resident entries may still return their values
+                for (long key : cache.keySet()) {
+                    Integer value = cache.peek(key);
+                    assertTrue(value == null || value == key);
+                }
+                // the used memory is not compared with the limit, as reads
+                // make non-resident entries resident again if their values
+                // were not garbage collected yet, until the next put evicts
+                int resident = cache.sizeHot() + cache.keys(true, false).size();
+                assertEquals(resident, cache.size());
+                assertEquals(resident, cache.getUsedMemory());
+            }
+        }
+    }
+
+    /**
+     * Read the given keys in all threads for some time, and add the entries
+     * that are not in the cache.
+     *
+     * @param cache the cache
+     * @param keys the keys to read
+     * @param threadCount the number of threads
+     * @return the number of reads
+     */
+    private static long runReads(CacheLongKeyLIRS<Integer> cache, int[] keys, int threadCount) {
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicLong total = new AtomicLong();
+        Task[] tasks = new Task[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            int x = i;
+            tasks[i] = new Task() {
+                @Override
+                public void call() {
+                    long count = 0;
+                    for (int j = x * 31; !stopped.get(); j++) {
+                        int key = keys[j & (keys.length - 1)];
+                        Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.put(key, key);
+                        } else if (value != key) {
+                            throw new IllegalStateException("key: " + key + " value: " + value);
+                        }
+                        count++;
+                    }
+                    total.addAndGet(count);
+                }
+            };
+            tasks[i].execute("t" + i);
+        }
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        stopped.set(true);
+        for (Task t : tasks) {
+            t.get();
+        }
+        return total.get();
     }
 
 }
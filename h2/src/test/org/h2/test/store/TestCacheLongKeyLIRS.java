@@ -44,6 +44,7 @@ private void testCache() {
         testLimitMemory();
         testScanResistance();
         testRandomOperations();
+        testReadBuffer();
     }
 
     private void testRandomSmallCache() {
@@ -451,6 +452,61 @@ private void testRandomOperations() {
         }
     }
 
+    private void testReadBuffer() {
+        CacheLongKeyLIRS.Config cc = new CacheLongKeyLIRS.Config();
+        cc.maxMemory = 10;
+        cc.segmentCount = 1;
+        cc.stackMoveDistance = 0;
+        cc.readBufferSize = 3;
+        assertThrows(IllegalArgumentException.class, () -> new CacheLongKeyLIRS<Integer>(cc));
+        cc.readBufferSize = 4;
+        Random r = new Random(1);
+        for (int j = 0; j < 100; j++) {
+            CacheLongKeyLIRS<Integer> test = new CacheLongKeyLIRS<>(cc);
+            HashMap<Integer, Integer> good = new HashMap<>();
+            long gets = 0;
+            for (int i = 0; i < 10000; i++) {
+                int key = r.nextInt(20);
+                switch (r.nextInt(4)) {
+                case 0:
+                    int value = r.nextInt();
+                    good.put(key, value);
+                    test.put(key, value);
+                    break;
+                case 1:
+                    good.remove(key);
+                    test.remove(key);
+                    break;
+                default:
+                    Integer a = good.get(key);
+                    Integer b = test.get(key);
+                    gets++;
+                    if (a == null) {
+                        assertNull(b);
+                    } else if (b != null) {
+                        assertEquals(a, b);
+                    }
+                }
+            }
+            verify(test, null);
+            assertEquals(gets, test.getHits() + test.getMisses());
+        }
+        // entries, which are read often, become hot
+        CacheLongKeyLIRS<Integer> test = new CacheLongKeyLIRS<>(cc);
+        for (int i = 0; i < 20; i++) {
+            test.put(i, i);
+            for (int k = 0; k < 5; k++) {
+                for (int j = 0; j < 4; j++) {
+                    test.get(j);
+                }
+            }
+        }
+        for (int j = 0; j < 4; j++) {
+            assertEquals(j, test.peek(j).intValue());
+        }
+        verify(test, null);
+    }
+
     private static <V> String toString(CacheLongKeyLIRS<V> cache) {
         StringBuilder buff = new StringBuilder();
         buff.append("mem: " + cache.getUsedMemory());
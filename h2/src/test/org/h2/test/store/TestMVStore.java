@@ -5,6 +5,7 @@
  */
 package org.h2.test.store;
 
+import java.io.StringWriter;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
@@ -14,9 +15,13 @@
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import org.h2.compress.CompressLZF;
+import org.h2.compress.Compressor;
+import org.h2.compress.CompressorRegistry;
 import org.h2.mvstore.Chunk;
 import org.h2.mvstore.Cursor;
 import org.h2.mvstore.DataUtils;
@@ -24,14 +29,27 @@
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.MVStoreException;
+import org.h2.mvstore.MVStoreTool;
 import org.h2.mvstore.OffHeapStore;
+import org.h2.mvstore.Page;
+import org.h2.mvstore.tx.Transaction;
+import org.h2.mvstore.tx.TransactionMap;
+import org.h2.mvstore.tx.TransactionStore;
 import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.LongDataType;
 import org.h2.mvstore.type.ObjectDataType;
 import org.h2.mvstore.type.StringDataType;
+import org.h2.result.RowFactory;
+import org.h2.result.SearchRow;
 import org.h2.store.fs.FilePath;
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
+import org.h2.util.Task;
 import org.h2.util.Utils;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueInteger;
+import org.h2.value.ValueVarchar;
 
 /**
  * Tests the MVStore.
@@ -58,6 +76,21 @@ public void test() throws Exception {
         testEntrySet();
         testCompressEmptyPage();
         testCompressed();
+        testMapCompression();
+        testRegisteredCodec();
+        testCompressionDictionary();
+        testParallelSerialization();
+        testAsyncWrites();
+        testSyncAfterChange();
+        testMappedReads();
+        testShrinkMappedReads();
+        testOffHeapCache();
+        testThrottledCompaction();
+        testCompactShrink();
+        testBulkLoad();
+        testAppendOptimized();
+        testTruncatedKeys();
+        testGroupCommit();
         testFileFormatExample();
         testMaxChunkLength();
         testCacheInfo();
@@ -68,6 +101,7 @@ public void test() throws Exception {
         testIsEmpty();
         testOffHeapStorage();
         testNewerWriteVersion();
+        testColumnarFormat();
         testCompactFully();
         testBackgroundExceptionListener();
         testOldVersion();
@@ -260,6 +294,854 @@ private void testCompressed() {
         }
     }
 
+    private void testMapCompression() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        String data = new String(new char[1000]).replace((char) 0, 'x');
+        assertThrows(IllegalArgumentException.class,
+                () -> new MVMap.Builder<String, String>().compression("unknown"));
+        long[] sizes = new long[4];
+        String[] codecs = { "NO", "LZ4", "LZ4HC", "DEFLATE" };
+        for (int i = 0; i < codecs.length; i++) {
+            FileUtils.delete(fileName);
+            try (MVStore s = new MVStore.Builder().fileName(fileName).compressHigh().open()) {
+                MVMap<String, String> map = s.openMap("data",
+                        new MVMap.Builder<String, String>().compression(codecs[i]));
+                MVMap<String, String> other = s.openMap("other");
+                for (int j = 0; j < 2000; j++) {
+                    map.put(data + j, data);
+                }
+                other.put("x", data);
+            }
+            sizes[i] = FileUtils.size(fileName);
+            try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+                MVMap<String, String> map = s.openMap("data");
+                assertEquals(codecs[i], map.getCompression());
+                assertNull(s.openMap("other").getCompression());
+                assertEquals(2000, map.size());
+                for (int j = 0; j < 2000; j++) {
+                    assertEquals(data, map.get(data + j));
+                }
+            }
+        }
+        // NO overrides the compression level of the store
+        assertTrue(sizes[1] < sizes[0]);
+        assertTrue(sizes[3] < sizes[1]);
+        // older versions must not open a store with pages compressed by
+        // another algorithm than the one of the store
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            s.openMap("other").put("x", data);
+            s.commit();
+            assertEquals("2", s.getStoreHeader().get("format").toString());
+            s.openMap("data", new MVMap.Builder<String, String>().compression("LZ4")).put("x", data);
+            s.commit();
+            Map<String, Object> header = s.getStoreHeader();
+            assertEquals("3", header.get("format").toString());
+            assertEquals("3", header.get("formatRead").toString());
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            assertEquals("3", s.getStoreHeader().get("formatRead").toString());
+            assertEquals(data, s.openMap("data").get("x"));
+        }
+    }
+
+    private void testRegisteredCodec() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        if (CompressorRegistry.getAlgorithm("TEST_STATEFUL") < 0) {
+            CompressorRegistry.register("TEST_STATEFUL", StatefulCompressor::new);
+        }
+        String data = new String(new char[1000]).replace((char) 0, 'x');
+        int count = 2000;
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data",
+                    new MVMap.Builder<Integer, String>().compression("TEST_STATEFUL"));
+            for (int i = 0; i < count; i++) {
+                map.put(i, data + i);
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).cacheSize(0).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            // each page is expanded by a compressor that no other thread uses
+            Task[] tasks = new Task[4];
+            for (int t = 0; t < tasks.length; t++) {
+                tasks[t] = new Task() {
+                    @Override
+                    public void call() {
+                        for (int j = 0; j < 5; j++) {
+                            for (int i = 0; i < count; i++) {
+                                if (!(data + i).equals(map.get(i))) {
+                                    throw new IllegalStateException("Wrong value for " + i);
+                                }
+                            }
+                        }
+                    }
+                }.execute();
+            }
+            for (Task task : tasks) {
+                task.get();
+            }
+        }
+        FileUtils.delete(fileName);
+    }
+
+    /**
+     * A compressor that must not be used by several threads at the same time.
+     */
+    static final class StatefulCompressor implements Compressor {
+
+        private final CompressLZF lzf = new CompressLZF();
+
+        private boolean inUse;
+
+        @Override
+        public int getAlgorithm() {
+            return 100;
+        }
+
+        @Override
+        public int compress(byte[] in, int inPos, int inLen, byte[] out, int outPos) {
+            return lzf.compress(in, inPos, inLen, out, outPos);
+        }
+
+        @Override
+        public void expand(byte[] in, int inPos, int inLen, byte[] out, int outPos, int outLen) {
+            if (inUse) {
+                throw new IllegalStateException("Used concurrently");
+            }
+            inUse = true;
+            Thread.yield();
+            lzf.expand(in, inPos, inLen, out, outPos, outLen);
+            inUse = false;
+        }
+
+        @Override
+        public void setOptions(String options) {
+            // ignore
+        }
+
+    }
+
+    private void testCompressionDictionary() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        assertThrows(IllegalArgumentException.class,
+                () -> new MVMap.Builder<Integer, String>().compressionDictionary(0));
+        long[] sizes = new long[2];
+        for (String codec : new String[] { "LZ4", "DEFLATE" }) {
+            for (int i = 0; i < sizes.length; i++) {
+                FileUtils.delete(fileName);
+                MVMap.Builder<Integer, String> builder = new MVMap.Builder<Integer, String>().compression(codec);
+                if (i == 1) {
+                    builder.compressionDictionary(4096);
+                }
+                try (MVStore s = new MVStore.Builder().fileName(fileName).pageSplitSize(1024).open()) {
+                    MVMap<Integer, String> map = s.openMap("data", builder);
+                    for (int j = 0; j < 1000; j++) {
+                        map.put(j, getDictionaryTestRow(j));
+                    }
+                    s.commit();
+                    if (i == 1) {
+                        assertTrue(s.trainDictionary(map));
+                        s.commit();
+                    }
+                    for (int j = 1000; j < 5000; j++) {
+                        map.put(j, getDictionaryTestRow(j));
+                    }
+                    s.commit();
+                    if (i == 1) {
+                        // pages written with the old dictionary stay readable
+                        assertTrue(s.trainDictionary(map));
+                    }
+                    for (int j = 0; j < 5000; j += 2) {
+                        map.put(j, getDictionaryTestRow(j + 1));
+                    }
+                }
+                sizes[i] = FileUtils.size(fileName);
+                try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+                    MVMap<Integer, String> map = s.openMap("data");
+                    assertEquals(i == 1 ? 4096 : 0, map.getDictionarySize());
+                    assertEquals(5000, map.size());
+                    for (int j = 0; j < 5000; j++) {
+                        assertEquals(getDictionaryTestRow(j % 2 == 0 ? j + 1 : j), map.get(j));
+                    }
+                    s.compact(100, 1024 * 1024);
+                }
+                try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+                    MVMap<Integer, String> map = s.openMap("data");
+                    assertEquals(5000, map.size());
+                    assertEquals(getDictionaryTestRow(4999), map.get(4999));
+                }
+            }
+            assertTrue(codec + " " + sizes[1] + " " + sizes[0], sizes[1] < sizes[0]);
+            // the same data always results in the same dictionary
+            String[] dictionaries = new String[2];
+            for (int i = 0; i < dictionaries.length; i++) {
+                FileUtils.delete(fileName);
+                try (MVStore s = new MVStore.Builder().fileName(fileName).pageSplitSize(1024).open()) {
+                    MVMap<Integer, String> map = s.openMap("data",
+                            new MVMap.Builder<Integer, String>().compression(codec).compressionDictionary(4096));
+                    for (int j = 0; j < 1000; j++) {
+                        map.put(j, getDictionaryTestRow(j));
+                    }
+                    s.commit();
+                    assertTrue(s.trainDictionary(map));
+                    for (Map.Entry<String, String> e : s.getMetaMap().entrySet()) {
+                        if (e.getKey().startsWith(DataUtils.META_DICTIONARY)) {
+                            dictionaries[i] = e.getValue();
+                        }
+                    }
+                }
+            }
+            assertNotNull(dictionaries[0]);
+            assertEquals(dictionaries[0], dictionaries[1]);
+        }
+    }
+
+    private static String getDictionaryTestRow(int i) {
+        String[] states = { "PENDING", "SHIPPED", "DELIVERED", "CANCELLED" };
+        return "{\"customer\":\"customer-" + (i * 7919 % 1000) + "\",\"status\":\"" + states[i % 4]
+                + "\",\"warehouse\":\"EU-WEST-" + (i % 3) + "\",\"comment\":\"standard delivery\"}";
+    }
+
+    private void testParallelSerialization() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        for (int level = 0; level <= 2; level++) {
+            long lastSize = 0;
+            for (int threads = 1; threads <= 4; threads += 3) {
+                FileUtils.delete(fileName);
+                MVStore.Builder builder = new MVStore.Builder().
+                        fileName(fileName).
+                        autoCommitDisabled().
+                        serializationThreads(threads);
+                if (level == 1) {
+                    builder.compress();
+                } else if (level == 2) {
+                    builder.compressHigh();
+                }
+                try (MVStore s = builder.open()) {
+                    for (int m = 0; m < 10; m++) {
+                        MVMap<Integer, String> map = s.openMap("data" + m);
+                        for (int i = 0; i < 2000; i++) {
+                            map.put(i, "Hello " + m + " " + i);
+                        }
+                    }
+                    s.commit();
+                    for (int m = 0; m < 10; m += 2) {
+                        MVMap<Integer, String> map = s.openMap("data" + m);
+                        for (int i = 0; i < 2000; i += 7) {
+                            map.put(i, "World " + m + " " + i);
+                        }
+                    }
+                    s.commit();
+                }
+                long size = FileUtils.size(fileName);
+                if (threads > 1) {
+                    assertEquals(lastSize, size);
+                }
+                lastSize = size;
+                try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+                    for (int m = 0; m < 10; m++) {
+                        MVMap<Integer, String> map = s.openMap("data" + m);
+                        assertEquals(2000, map.size());
+                        for (int i = 0; i < 2000; i++) {
+                            String prefix = m % 2 == 0 && i % 7 == 0 ? "World " : "Hello ";
+                            assertEquals(prefix + m + " " + i, map.get(i));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void testAsyncWrites() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                autoCommitBufferSize(1).
+                writeThreads(3).
+                open()) {
+            s.setRetentionTime(0);
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 5000; i++) {
+                map.put(i, "Hello " + i);
+                if (i % 500 == 0) {
+                    s.tryCommit();
+                }
+            }
+            s.commit();
+            FileStore fileStore = s.getFileStore();
+            assertEquals(0, fileStore.getPendingWriteCount());
+            long syncCount = fileStore.getSyncCount();
+            s.sync();
+            s.sync();
+            assertEquals(syncCount + 1, fileStore.getSyncCount());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            assertEquals(5000, map.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+    }
+
+    private void testMappedReads() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 5000; i++) {
+                map.put(i, "Hello " + i);
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).cacheSize(0).mappedReads().open()) {
+            assertTrue(s.getFileStore().isMappedReads());
+            MVMap<Integer, String> map = s.openMap("data");
+            assertEquals(5000, map.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+            // the file grows, new pages are read from the remapped file
+            for (int i = 5000; i < 10000; i++) {
+                map.put(i, "Hello " + i);
+            }
+            s.commit();
+            for (int i = 0; i < 10000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            assertFalse(s.getFileStore().isMappedReads());
+            assertEquals(10000, s.openMap("data").size());
+        }
+        FileUtils.delete(fileName);
+        FileStore fileStore = new FileStore();
+        fileStore.open(fileName, false, null);
+        try {
+            fileStore.writeFully(0, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+            fileStore.startMappedReads();
+            assertTrue(fileStore.isMappedReads());
+            assertEquals(3, fileStore.readFully(2, 1).get());
+            // the file grows
+            fileStore.writeFully(4, ByteBuffer.wrap(new byte[] { 5, 6 }));
+            assertEquals(0x0506, fileStore.readFully(4, 2).getShort());
+            // the file shrinks, and grows again
+            fileStore.truncate(2);
+            fileStore.writeFully(2, ByteBuffer.wrap(new byte[] { 7 }));
+            ByteBuffer buff = fileStore.readFully(0, 3);
+            assertEquals(1, buff.get());
+            assertEquals(2, buff.get());
+            assertEquals(7, buff.get());
+        } finally {
+            fileStore.close();
+        }
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).
+                encryptionKey("007".toCharArray()).mappedReads().open()) {
+            assertFalse(s.getFileStore().isMappedReads());
+            s.openMap("data").put(1, "Hello");
+        }
+    }
+
+    private void testShrinkMappedReads() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).cacheSize(0).mappedReads()
+                .autoCommitDisabled().open()) {
+            assertTrue(s.getFileStore().isMappedReads());
+            s.setRetentionTime(0);
+            MVMap<Integer, String> map = s.openMap("data");
+            MVMap<Integer, String> temp = s.openMap("temp");
+            for (int i = 0; i < 10_000; i++) {
+                temp.put(i, "Hello world " + i);
+                if (i % 100 == 99) {
+                    s.commit();
+                }
+            }
+            for (int i = 0; i < 10_000; i++) {
+                map.put(i, "Hello " + i);
+                if (i % 100 == 99) {
+                    s.commit();
+                }
+            }
+            s.removeMap(temp);
+            s.commit();
+            assertTrue(s.compact(100, 10 * 1024 * 1024));
+            s.commit();
+            long sizeBefore = s.getFileStore().size();
+            Task reader = new Task() {
+                @Override
+                public void call() {
+                    // all pages are read from the mapped segments, as the
+                    // cache is disabled
+                    for (int i = 0; !stop; i = (i + 7) % 10_000) {
+                        String value = map.get(i);
+                        if (!("Hello " + i).equals(value)) {
+                            throw new IllegalStateException(i + ": " + value);
+                        }
+                    }
+                }
+            };
+            reader.execute();
+            // the file is truncated while the pages are read
+            int steps = 0;
+            for (int i = 0; i < 100; i++) {
+                // new versions, so that the moved chunks can be dropped
+                map.put(10_000, "Hello " + i);
+                s.commit();
+                if (s.compactShrink(16 * 1024)) {
+                    steps++;
+                }
+                Thread.sleep(1);
+            }
+            reader.get();
+            assertTrue(steps > 0);
+            assertTrue(s.getFileStore().size() < sizeBefore);
+            assertTrue(s.getFileStore().isMappedReads());
+            for (int i = 0; i < 10_000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+        FileUtils.delete(fileName);
+    }
+
+    private void testOffHeapCache() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).compress().open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 5000; i++) {
+                map.put(i, "Hello " + i);
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).
+                cacheSize(0).offHeapCacheSize(4).open()) {
+            assertEquals(4, s.getOffHeapCacheSize());
+            assertEquals(0, s.getOffHeapCacheHitRatio());
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 5000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+            long readCount = s.getFileStore().getReadCount();
+            long used = s.getOffHeapCache().getUsedMemory();
+            assertTrue(used > 0);
+            // pages are read from the off-heap cache
+            for (int i = 0; i < 5000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+            assertEquals(readCount, s.getFileStore().getReadCount());
+            assertEquals(used, s.getOffHeapCache().getUsedMemory());
+            assertTrue(s.getOffHeapCacheHitRatio() > 90);
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            assertEquals(0, s.getOffHeapCacheSize());
+            assertNull(s.getOffHeapCache());
+        }
+        FileUtils.delete(fileName);
+        // more pages than fit into the off-heap cache
+        String value = new String(new char[100]).replace((char) 0, 'x');
+        int count = 50_000;
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < count; i++) {
+                map.put(i, value + i);
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).
+                cacheSize(0).offHeapCacheSize(1).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int j = 0; j < 3; j++) {
+                for (int i = 0; i < count; i++) {
+                    assertEquals(value + i, map.get(i));
+                }
+                // the direct memory is reused, not allocated again
+                assertEquals(s.getOffHeapCache().getMaxMemory(), s.getOffHeapCache().getUsedMemory());
+            }
+            // pages that are read often stay in the cache
+            long readCount = s.getFileStore().getReadCount();
+            for (int j = 0; j < 3; j++) {
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(value + i, map.get(i));
+                }
+            }
+            assertTrue(s.getFileStore().getReadCount() - readCount < 10);
+        }
+        FileUtils.delete(fileName);
+    }
+
+    private void testThrottledCompaction() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        long start = System.nanoTime();
+        try (MVStore s = new MVStore.Builder().fileName(fileName).
+                autoCompactRate(256, 20).open()) {
+            s.setRetentionTime(0);
+            s.setAutoCommitDelay(100);
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 20_000; i++) {
+                map.put(i, "Hello " + i);
+                if (i % 1000 == 999) {
+                    s.commit();
+                }
+            }
+            // the old chunks are now nearly empty
+            for (int i = 0; i < 20_000; i++) {
+                if (i % 1000 < 900) {
+                    map.remove(i);
+                }
+            }
+            s.commit();
+            for (int i = 0; i < 200 && s.getCompactRewrittenChunkCount() == 0; i++) {
+                Thread.sleep(50);
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000 + 100;
+            assertTrue(s.getCompactStepCount() > 0);
+            assertTrue(s.getCompactRewrittenChunkCount() > 0);
+            // the rate limit, plus a burst of one second, plus one step
+            assertTrue(s.getCompactWrittenBytes() <= 256 * 1024 * (millis + 2000) / 1000);
+            for (int i = 900; i < 20_000; i += 1000) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            assertEquals(2000, map.size());
+            assertEquals(0, s.getCompactStepCount());
+        }
+    }
+
+    private void testCompactShrink() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open()) {
+            s.setRetentionTime(0);
+            MVMap<Integer, String> map = s.openMap("data");
+            MVMap<Integer, String> temp = s.openMap("temp");
+            for (int i = 0; i < 10_000; i++) {
+                temp.put(i, "Hello world " + i);
+                if (i % 100 == 99) {
+                    s.commit();
+                }
+            }
+            for (int i = 0; i < 10_000; i++) {
+                map.put(i, "Hello " + i);
+                if (i % 100 == 99) {
+                    s.commit();
+                }
+            }
+            s.removeMap(temp);
+            s.commit();
+            // the remaining data is re-written to the end of the file,
+            // so that the chunks at the start are no longer used
+            assertTrue(s.compact(100, 10 * 1024 * 1024));
+            s.commit();
+            long sizeBefore = s.getFileStore().size();
+            Task writer = new Task() {
+                @Override
+                public void call() {
+                    for (int i = 0; i < 5000; i++) {
+                        int key = 10_000 + i % 1000;
+                        map.put(key, "Hello " + key);
+                        assertEquals("Hello " + (i % 10_000), map.get(i % 10_000));
+                        if (i % 100 == 0) {
+                            s.commit();
+                        }
+                    }
+                }
+            };
+            writer.execute();
+            // shrink while the data is read and written concurrently
+            int steps = 0;
+            while (!writer.isFinished()) {
+                if (s.compactShrink(16 * 1024)) {
+                    steps++;
+                }
+                Thread.sleep(1);
+            }
+            writer.get();
+            while (s.compactShrink(16 * 1024)) {
+                steps++;
+            }
+            assertTrue(steps > 0);
+            assertTrue(s.getFileStore().size() < sizeBefore);
+            for (int i = 0; i < 11_000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            for (int i = 0; i < 11_000; i++) {
+                assertEquals("Hello " + i, map.get(i));
+            }
+        }
+    }
+
+    private void testBulkLoad() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).keysPerPage(8).
+                autoCommitBufferSize(64).open()) {
+            for (int count : new int[] { 0, 1, 8, 9, 72, 73, 100_000 }) {
+                MVMap<Integer, String> map = s.openMap("data" + count);
+                MVMap.BulkLoader<Integer, String> loader = map.bulkLoader();
+                for (int i = 0; i < count; i++) {
+                    loader.add(2 * i, "Hello " + i);
+                }
+                if (count > 0) {
+                    assertThrows(IllegalArgumentException.class, () -> loader.add(2 * count - 2, "x"));
+                }
+                loader.finish();
+                assertThrows(IllegalStateException.class, () -> loader.add(2 * count, "x"));
+                verifyBulkLoad(map, count);
+                if (count > 0) {
+                    assertThrows(IllegalStateException.class, () -> map.bulkLoader());
+                    // the tree can be modified as usual
+                    map.put(1, "Hello");
+                    map.remove(0);
+                    assertEquals(count, map.size());
+                    map.remove(1);
+                    map.put(0, "Hello 0");
+                }
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            verifyBulkLoad(s.openMap("data100000"), 100_000);
+        }
+        try (MVStore s = new MVStore.Builder().keysPerPage(8).open()) {
+            MVMap<Integer, String> map = s.openMap("data");
+            MVMap.BulkLoader<Integer, String> loader = map.bulkLoader();
+            for (int i = 0; i < 1000; i++) {
+                loader.add(2 * i, "Hello " + i);
+            }
+            loader.finish();
+            verifyBulkLoad(map, 1000);
+        }
+    }
+
+    private void verifyBulkLoad(MVMap<Integer, String> map, int count) {
+        assertEquals(count, map.size());
+        Cursor<Integer, String> cursor = map.cursor(null);
+        for (int i = 0; i < count; i++) {
+            assertTrue(cursor.hasNext());
+            assertEquals(2 * i, cursor.next().intValue());
+            assertEquals("Hello " + i, cursor.getValue());
+            assertEquals("Hello " + i, map.get(2 * i));
+            assertNull(map.get(2 * i + 1));
+            assertEquals(i, map.getKeyIndex(2 * i));
+            assertEquals(2 * i, map.getKey(i).intValue());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    private void testAppendOptimized() {
+        try (MVStore s = new MVStore.Builder().keysPerPage(8).open()) {
+            MVMap<Integer, String> plain = s.openMap("plain");
+            MVMap<Integer, String> map = s.openMap("data");
+            map.setAppendOptimized(true);
+            assertTrue(map.isAppendOptimized());
+            int count = 10_000;
+            for (int i = 0; i < count; i++) {
+                plain.put(2 * i, "Hello " + i);
+                map.put(2 * i, "Hello " + i);
+            }
+            verifyBulkLoad(map, count);
+            // all leaves except the last one are full
+            assertEquals((count + 7) / 8, getLeafCount(map.getRootPage()));
+            assertTrue(getLeafCount(plain.getRootPage()) > count / 5);
+            // keys out of order are still added in the middle of the pages
+            for (int i = 0; i < count; i++) {
+                map.put(2 * i + 1, "Hello");
+            }
+            for (int i = 0; i < count; i++) {
+                assertEquals("Hello", map.remove(2 * i + 1));
+            }
+            verifyBulkLoad(map, count);
+        }
+    }
+
+    private void testTruncatedKeys() {
+        StringDataType type = StringDataType.INSTANCE;
+        assertEquals("b", type.getSeparator("a", "bcd"));
+        assertEquals("abd", type.getSeparator("abc", "abde"));
+        assertEquals("abc", type.getSeparator("ab", "abcd"));
+        assertEquals("ab", type.getSeparator("a", "ab"));
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        String prefix = "https://www.example.com/documents/";
+        int count = 5_000;
+        try (MVStore s = new MVStore.Builder().fileName(fileName).keysPerPage(16).open()) {
+            MVMap<String, Integer> map = s.openMap("data",
+                    new MVMap.Builder<String, Integer>().keyType(type));
+            for (int i = 0; i < count; i++) {
+                map.put(getTruncatedKeysTestKey(prefix, i), i);
+            }
+            // the keys of the nodes are the shortest distinguishing prefixes
+            assertFalse(map.getRootPage().isLeaf());
+            checkSeparatorLength(map.getRootPage(), prefix.length() + 5);
+            s.commit();
+            // the keys are written in the plain format by default
+            assertEquals("2", s.getStoreHeader().get("format").toString());
+        }
+        long plainSize = FileUtils.size(fileName);
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).keysPerPage(16).compressKeys().open()) {
+            MVMap<String, Integer> map = s.openMap("data",
+                    new MVMap.Builder<String, Integer>().keyType(type));
+            for (int i = 0; i < count; i++) {
+                map.put(getTruncatedKeysTestKey(prefix, i), i);
+            }
+            s.commit();
+            // older versions can not read front coded keys
+            assertEquals("3", s.getStoreHeader().get("format").toString());
+        }
+        assertTrue(FileUtils.size(fileName) < plainSize);
+        MVStoreTool.dump(fileName, new StringWriter(), true);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).keysPerPage(16).open()) {
+            MVMap<String, Integer> map = s.openMap("data",
+                    new MVMap.Builder<String, Integer>().keyType(type));
+            checkSeparatorLength(map.getRootPage(), prefix.length() + 5);
+            assertEquals(count, map.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, map.get(getTruncatedKeysTestKey(prefix, i)).intValue());
+            }
+            assertEquals(getTruncatedKeysTestKey(prefix, 1000), map.ceilingKey(prefix + "01"));
+            assertEquals(getTruncatedKeysTestKey(prefix, 1999), map.lowerKey(prefix + "02"));
+            int i = 0;
+            for (String key : map.keySet()) {
+                assertEquals(getTruncatedKeysTestKey(prefix, i++), key);
+            }
+            assertEquals(count, i);
+            for (i = 0; i < count; i += 2) {
+                assertEquals(i, map.remove(getTruncatedKeysTestKey(prefix, i)).intValue());
+            }
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<String, Integer> map = s.openMap("data",
+                    new MVMap.Builder<String, Integer>().keyType(type));
+            assertEquals(count / 2, map.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i % 2 == 0 ? null : (Integer) i, map.get(getTruncatedKeysTestKey(prefix, i)));
+            }
+        }
+    }
+
+    private static String getTruncatedKeysTestKey(String prefix, int i) {
+        return prefix + String.format("%05d", i) + "/attachments/index.html";
+    }
+
+    private void checkSeparatorLength(Page<String, ?> p, int maxLength) {
+        if (!p.isLeaf()) {
+            for (int i = 0; i < p.getKeyCount(); i++) {
+                assertTrue(p.getKey(i), p.getKey(i).length() <= maxLength);
+            }
+            for (int i = 0; i < p.getRawChildPageCount(); i++) {
+                checkSeparatorLength(p.getChildPage(i), maxLength);
+            }
+        }
+    }
+
+    private static int getLeafCount(Page<?, ?> p) {
+        if (p.isLeaf()) {
+            return 1;
+        }
+        int count = 0;
+        for (int i = 0; i < p.getRawChildPageCount(); i++) {
+            count += getLeafCount(p.getChildPage(i));
+        }
+        return count;
+    }
+
+    private void testGroupCommit() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        int threadCount = 8, rounds = 20;
+        try (MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                autoCommitDisabled().
+                groupCommit(threadCount, 5_000_000).
+                open()) {
+            assertTrue(s.isGroupCommit());
+            MVMap<Integer, Integer> map = s.openMap("data");
+            CyclicBarrier barrier = new CyclicBarrier(threadCount);
+            Task[] tasks = new Task[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                int offset = i * rounds;
+                tasks[i] = new Task() {
+                    @Override
+                    public void call() throws Exception {
+                        for (int j = 0; j < rounds; j++) {
+                            barrier.await();
+                            map.put(offset + j, j);
+                            s.groupCommit();
+                        }
+                    }
+                };
+                tasks[i].execute();
+            }
+            for (Task task : tasks) {
+                task.get();
+            }
+            assertFalse(s.hasUnsavedChanges());
+            assertEquals(threadCount * rounds, s.getGroupCommitTransactionCount());
+            assertEquals(threadCount, s.getGroupCommitLargestBatch());
+            assertTrue(s.getGroupCommitCount() < threadCount * rounds);
+            // a single commit does not wait for others to join
+            map.put(-1, -1);
+            long start = System.nanoTime();
+            s.groupCommit(false);
+            assertTrue(System.nanoTime() - start < 2_000_000_000L);
+            assertFalse(s.hasUnsavedChanges());
+            // an interrupted commit stops waiting, and stays interrupted
+            map.put(-2, -2);
+            start = System.nanoTime();
+            Thread.currentThread().interrupt();
+            s.groupCommit();
+            assertTrue(Thread.interrupted());
+            assertTrue(System.nanoTime() - start < 2_000_000_000L);
+            assertFalse(s.hasUnsavedChanges());
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            MVMap<Integer, Integer> map = s.openMap("data");
+            assertEquals(threadCount * rounds + 2, map.size());
+        }
+    }
+
+    private void testSyncAfterChange() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        FileStore fileStore = new FileStore();
+        fileStore.open(fileName, false, null);
+        try {
+            fileStore.writeFully(0, ByteBuffer.wrap(new byte[100]));
+            fileStore.sync();
+            assertEquals(1, fileStore.getSyncCount());
+            // nothing was changed since the last sync
+            fileStore.sync();
+            assertEquals(1, fileStore.getSyncCount());
+            fileStore.truncate(50);
+            fileStore.sync();
+            assertEquals(2, fileStore.getSyncCount());
+            assertEquals(50, fileStore.size());
+            // a write past the end extends the file
+            fileStore.writeFully(200, ByteBuffer.wrap(new byte[10]));
+            fileStore.sync();
+            assertEquals(3, fileStore.getSyncCount());
+            assertEquals(210, fileStore.size());
+            fileStore.sync();
+            assertEquals(3, fileStore.getSyncCount());
+            fileStore.truncate(0);
+            fileStore.sync();
+            assertEquals(4, fileStore.getSyncCount());
+        } finally {
+            fileStore.close();
+        }
+        FileUtils.delete(fileName);
+    }
+
     private void testFileFormatExample() {
         String fileName = getBaseDir() + "/" + getTestName();
         FileUtils.delete(fileName);
@@ -426,7 +1308,7 @@ private void testNewerWriteVersion() {
         Map<String, Object> header = s.getStoreHeader();
         assertEquals("2", header.get("format").toString());
         header.put("formatRead", "2");
-        header.put("format", "3");
+        header.put("format", "4");
         forceWriteStoreHeader(s);
         MVMap<Integer, String> m = s.openMap("data");
         forceWriteStoreHeader(s);
@@ -465,6 +1347,54 @@ private void testNewerWriteVersion() {
 
     }
 
+    private void testColumnarFormat() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        RowFactory rowFactory = RowFactory.getDefaultRowFactory().createRowFactory(null,
+                CompareMode.getInstance(null, 0), null, null, null, null, 2, false);
+        org.h2.mvstore.db.RowDataType rowType = rowFactory.getRowDataType();
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            Transaction t = ts.begin();
+            TransactionMap<Long, SearchRow> map = t.openMap("rows", LongDataType.INSTANCE, rowType);
+            for (long i = 0; i < 100; i++) {
+                map.put(i, rowFactory.createRow(new Value[] { ValueInteger.get((int) i / 10),
+                        ValueVarchar.get("row " + i) }, 0));
+            }
+            t.commit();
+            s.commit();
+            assertEquals("2", s.getStoreHeader().get("format").toString());
+            t = ts.begin();
+            map = t.openMap("columns", LongDataType.INSTANCE, rowType.getColumnarType());
+            for (long i = 0; i < 100; i++) {
+                map.put(i, rowFactory.createRow(new Value[] { ValueInteger.get((int) i / 10),
+                        ValueVarchar.get("row " + i) }, 0));
+            }
+            t.commit();
+            s.commit();
+            // older versions would read the columns as rows
+            assertEquals("3", s.getStoreHeader().get("format").toString());
+            assertEquals("3", s.getStoreHeader().get("formatRead").toString());
+        }
+        try (MVStore s = new MVStore.Builder().fileName(fileName).open()) {
+            assertEquals("3", s.getStoreHeader().get("format").toString());
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            Transaction t = ts.begin();
+            TransactionMap<Long, SearchRow> map = t.openMap("columns", LongDataType.INSTANCE,
+                    rowType.getColumnarType());
+            assertEquals(100, map.size());
+            for (long i = 0; i < 100; i++) {
+                SearchRow row = map.get(i);
+                assertEquals(i / 10, row.getValue(0).getInt());
+                assertEquals("row " + i, row.getValue(1).getString());
+            }
+            t.commit();
+        }
+        FileUtils.delete(fileName);
+    }
+
     private void testCompactFully() {
         String fileName = getBaseDir() + "/" + getTestName();
         FileUtils.delete(fileName);
@@ -718,7 +1648,8 @@ private void testFileFormatChange() {
             Map<String, Object> header = s.getStoreHeader();
             int format = Integer.parseInt(header.get("format").toString());
             assertEquals(2, format);
-            header.put("format", Integer.toString(format + 1));
+            // a format newer than the supported format 3
+            header.put("format", "4");
             forceWriteStoreHeader(s);
         }
         assertThrows(DataUtils.ERROR_UNSUPPORTED_FORMAT, () -> openStore(fileName).close());
@@ -19,16 +19,19 @@
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.h2.api.ErrorCode;
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
+import org.h2.engine.SessionLocal;
 import org.h2.jdbc.JdbcConnection;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.db.LobStorageMap;
+import org.h2.mvstore.db.MVTable;
 import org.h2.mvstore.tx.TransactionStore;
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
@@ -98,6 +101,8 @@ public void test() throws Exception {
         testReuseDiskSpace();
 */
         testDataTypes();
+        testColumnar();
+        testLazyRows();
 //        testSimple();
 //        if (!config.travis) {
 //            testReverseDeletePerformance();
@@ -611,7 +616,8 @@ private void testExplainAnalyze() throws Exception {
             String readCount = plan.substring(plan.indexOf("reads: "));
             readCount = readCount.substring("reads: ".length(), readCount.indexOf('\n'));
             int rc = Integer.parseInt(readCount);
-            assertTrue(plan, rc >= 60 && rc <= 80);
+            // the rows are appended, so that the leaf pages are full
+            assertTrue(plan, rc >= 30 && rc <= 40);
         }
     }
 
@@ -1117,6 +1123,119 @@ private void testReuseDiskSpace() throws Exception {
         }
     }
 
+    private void testColumnar() throws Exception {
+        deleteDb(getTestName());
+        Connection conn = getConnection(getTestName());
+        Statement stat = conn.createStatement();
+        String columns = "(ID INT PRIMARY KEY, G INT, B BIGINT, S SMALLINT, V VARCHAR, "
+                + "I VARCHAR_IGNORECASE, D DECIMAL(10, 2), T TIMESTAMP, N INT)";
+        stat.execute("CREATE TABLE TEST" + columns + " WITH \"COLUMNAR\"");
+        stat.execute("CREATE TABLE REF" + columns);
+        stat.execute("CREATE INDEX IDX_TEST_V ON TEST(V)");
+        for (String table : new String[] { "TEST", "REF" }) {
+            stat.execute("INSERT INTO " + table + " SELECT X, X / 100, X * 1000000007 - 500, -X, "
+                    + "'value ' || MOD(X, 7), CASEWHEN(MOD(X, 3) = 0, 'abc', 'ABC'), MOD(X, 13) / 4, "
+                    + "TIMESTAMP '2021-01-01 00:00:00' + X * INTERVAL '1' SECOND, "
+                    + "CASEWHEN(MOD(X, 5) = 0, NULL, X) FROM SYSTEM_RANGE(1, 10000)");
+            stat.execute("UPDATE " + table + " SET V = 'updated' WHERE MOD(ID, 17) = 0");
+            stat.execute("DELETE FROM " + table + " WHERE MOD(ID, 19) = 0");
+        }
+        conn.close();
+
+        conn = getConnection(getTestName());
+        stat = conn.createStatement();
+        assertTrue(isColumnar(conn, "TEST"));
+        assertFalse(isColumnar(conn, "REF"));
+        checkSameRows(stat, "TEST", "REF");
+        ResultSet rs = stat.executeQuery("SELECT SUM(G), COUNT(N), MAX(I) FROM TEST");
+        rs.next();
+        ResultSet rs2 = conn.createStatement().executeQuery("SELECT SUM(G), COUNT(N), MAX(I) FROM REF");
+        rs2.next();
+        assertEquals(rs2.getLong(1), rs.getLong(1));
+        assertEquals(rs2.getLong(2), rs.getLong(2));
+        assertEquals(rs2.getString(3), rs.getString(3));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM TEST WHERE V = 'updated'");
+        rs.next();
+        assertEquals(10000 / 17 - 10000 / (17 * 19), rs.getInt(1));
+
+        // the setting is kept when the table is re-created
+        stat.execute("ALTER TABLE TEST ADD COLUMN X INT DEFAULT 1");
+        stat.execute("ALTER TABLE REF ADD COLUMN X INT DEFAULT 1");
+        stat.execute("UPDATE TEST SET X = 2 WHERE ID < 100");
+        stat.execute("UPDATE REF SET X = 2 WHERE ID < 100");
+        conn.close();
+        conn = getConnection(getTestName());
+        stat = conn.createStatement();
+        assertTrue(isColumnar(conn, "TEST"));
+        checkSameRows(stat, "TEST", "REF");
+        conn.close();
+        deleteDb(getTestName());
+    }
+
+    private void testLazyRows() throws Exception {
+        if (config.memory) {
+            return;
+        }
+        deleteDb(getTestName());
+        Connection conn = getConnection(getTestName());
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, A TIME WITH TIME ZONE, B TIMESTAMP WITH TIME ZONE, "
+                + "C INTERVAL DAY TO SECOND, D INTERVAL YEAR, E DECFLOAT, F ENUM('x', 'y'), G JSON, H CHAR(3), "
+                + "I CLOB, J BLOB, K INT ARRAY, L ROW(X INT, Y VARCHAR), M NUMERIC(40), N VARCHAR, O DOUBLE, "
+                + "P REAL, Q VARBINARY)");
+        stat.execute("INSERT INTO TEST VALUES (1, TIME WITH TIME ZONE '10:00:00+05:45', "
+                + "TIMESTAMP WITH TIME ZONE '2021-01-01 10:00:00.123-08:00', INTERVAL '-1 10:00:01.5' DAY TO SECOND, "
+                + "INTERVAL '3' YEAR, 'Infinity', 'y', JSON '{\"a\":[1,2]}', 'ab', SPACE(10000), X'0102', "
+                + "ARRAY[1, NULL, 3], ROW(1, 'r\u1234'), 1234567890123456789012345678901234567890, "
+                + "'text \u00ff\u1234', 1.5, 2.5, X'00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff')");
+        stat.execute("INSERT INTO TEST(ID, E, N) VALUES (2, 1.25E-10, '')");
+        stat.execute("INSERT INTO TEST(ID) VALUES (3)");
+        ResultSet rs = stat.executeQuery("SELECT * FROM TEST ORDER BY ID");
+        int columnCount = rs.getMetaData().getColumnCount();
+        ArrayList<String[]> expected = new ArrayList<>();
+        while (rs.next()) {
+            String[] row = new String[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = rs.getString(i + 1);
+            }
+            expected.add(row);
+        }
+        conn.close();
+
+        conn = getConnection(getTestName());
+        stat = conn.createStatement();
+        // read the columns one at a time, in reverse order
+        for (int i = columnCount - 1; i > 0; i--) {
+            String column = String.valueOf((char) ('A' + i - 1));
+            rs = stat.executeQuery("SELECT " + column + " FROM TEST ORDER BY ID");
+            for (String[] row : expected) {
+                assertTrue(rs.next());
+                assertEquals(column, row[i], rs.getString(1));
+            }
+            assertFalse(rs.next());
+        }
+        conn.close();
+        deleteDb(getTestName());
+    }
+
+    private static boolean isColumnar(Connection conn, String tableName) {
+        Database db = ((SessionLocal) ((JdbcConnection) conn).getSession()).getDatabase();
+        return ((MVTable) db.getSchema("PUBLIC").findTableOrView(null, tableName)).isColumnar();
+    }
+
+    private void checkSameRows(Statement stat, String table1, String table2) throws SQLException {
+        for (String query : new String[] { "SELECT * FROM " + table1 + " EXCEPT SELECT * FROM " + table2,
+                "SELECT * FROM " + table2 + " EXCEPT SELECT * FROM " + table1,
+                "SELECT ID, CAST(I AS VARCHAR) FROM " + table1 + " EXCEPT SELECT ID, CAST(I AS VARCHAR) FROM "
+                        + table2 }) {
+            ResultSet rs = stat.executeQuery(query);
+            assertFalse(query, rs.next());
+        }
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM " + table1);
+        rs.next();
+        assertEquals(10000 - 10000 / 19, rs.getInt(1));
+    }
+
     private void testDataTypes() throws Exception {
         deleteDb(getTestName());
         String dbName = getTestName() + ";MV_STORE=TRUE";
@@ -16,14 +16,20 @@
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.MVStoreException;
 import org.h2.mvstore.tx.Transaction;
 import org.h2.mvstore.tx.TransactionMap;
 import org.h2.mvstore.tx.TransactionStore;
 import org.h2.mvstore.tx.TransactionStore.Change;
+import org.h2.mvstore.tx.VersionCleaner;
 import org.h2.mvstore.type.LongDataType;
 import org.h2.mvstore.type.MetaType;
 import org.h2.mvstore.type.ObjectDataType;
@@ -31,6 +37,7 @@
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
 import org.h2.util.Task;
+import org.h2.value.VersionedValue;
 
 /**
  * Test concurrent transactions.
@@ -66,6 +73,11 @@ public void test() throws Exception {
         testStoreMultiThreadedReads();
         testCommitAfterMapRemoval();
         testDeadLock();
+        testLockWaitQueue();
+        testLockWaitQueueInterloper();
+        testBufferedUndoLog();
+        testVersionCleaner();
+        testConcurrentBeginCommit();
     }
 
     private void testHCLFKey() {
@@ -918,6 +930,345 @@ private void testDeadLock() {
         }
     }
 
+    private void testLockWaitQueue() throws Exception {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s,
+                    new MetaType<>(null, s.backgroundExceptionHandler), new ObjectDataType(), 10000);
+            ts.init();
+            Transaction owner = ts.begin();
+            TransactionMap<Integer, Integer> map = owner.openMap("counter");
+            map.put(1, 0);
+            int waiterCount = 4;
+            Transaction[] txs = new Transaction[waiterCount];
+            Task[] tasks = new Task[waiterCount];
+            for (int i = 0; i < waiterCount; i++) {
+                Transaction tx = ts.begin();
+                txs[i] = tx;
+                int value = i + 1;
+                tasks[i] = new Task() {
+                    @Override
+                    public void call() throws Exception {
+                        TransactionMap<Integer, Integer> m = tx.openMap("counter");
+                        m.put(1, value);
+                    }
+                }.execute();
+                while (ts.getLockWaits().size() <= i) {
+                    Thread.sleep(1);
+                }
+            }
+            List<TransactionStore.LockWait> waits = ts.getLockWaits();
+            assertEquals(waiterCount, waits.size());
+            for (int i = 0; i < waiterCount; i++) {
+                TransactionStore.LockWait wait = waits.get(i);
+                assertEquals("counter", wait.mapName);
+                assertEquals(1, wait.key);
+                assertTrue(txs[i] == wait.transaction);
+                assertTrue(owner == wait.blocker);
+                assertEquals(i + 1, wait.position);
+            }
+            owner.commit();
+            for (int i = 0; i < waiterCount; i++) {
+                // only the first waiter gets the entry,
+                // the others now wait for it in the same order
+                tasks[i].get();
+                waits = ts.getLockWaits();
+                assertEquals(waiterCount - i - 1, waits.size());
+                for (int j = 0; j < waits.size(); j++) {
+                    TransactionStore.LockWait wait = waits.get(j);
+                    assertTrue(txs[i + j + 1] == wait.transaction);
+                    assertTrue(txs[i] == wait.blocker);
+                    assertEquals(j + 1, wait.position);
+                }
+                txs[i].commit();
+            }
+            Transaction tx = ts.begin();
+            map = tx.openMap("counter");
+            assertEquals(waiterCount, (int) map.get(1));
+            tx.commit();
+        }
+    }
+
+    private void testLockWaitQueueInterloper() throws Exception {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s,
+                    new MetaType<>(null, s.backgroundExceptionHandler), new ObjectDataType(), 10000);
+            ts.init();
+            // the first waiter only retries when it is woken up, so the
+            // interloper usually gets the entry first, but not always
+            for (int attempt = 0;; attempt++) {
+                Transaction owner = ts.begin();
+                TransactionMap<Integer, Integer> map = owner.openMap("data");
+                map.put(1, 0);
+                Transaction first = ts.begin();
+                Transaction second = ts.begin();
+                // the second waiter holds another entry
+                second.<Integer, Integer>openMap("data").put(2, 0);
+                Task firstTask = putTask(first, 1).execute();
+                while (ts.getLockWaits().size() < 1) {
+                    Thread.sleep(1);
+                }
+                Task secondTask = putTask(second, 1).execute();
+                while (ts.getLockWaits().size() < 2) {
+                    Thread.sleep(1);
+                }
+                owner.commit();
+                Transaction interloper = ts.begin();
+                TransactionMap<Integer, Integer> m = interloper.openMap("data");
+                if (!m.tryPut(1, 3)) {
+                    // the first waiter was faster
+                    interloper.rollback();
+                    firstTask.get();
+                    first.commit();
+                    secondTask.get();
+                    second.commit();
+                    assertTrue(attempt < 100);
+                    continue;
+                }
+                // the first waiter joins again, behind the interloper
+                while (getLockWaitBlocker(ts, first) != interloper) {
+                    Thread.sleep(1);
+                }
+                // the second waiter now waits for the interloper as well
+                assertTrue(getLockWaitBlocker(ts, second) == interloper);
+                long start = System.nanoTime();
+                try {
+                    m.put(2, 3);
+                    fail();
+                } catch (MVStoreException e) {
+                    // detected without waiting for the lock timeout
+                    assertEquals(DataUtils.ERROR_TRANSACTIONS_DEADLOCK, e.getErrorCode());
+                }
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+                interloper.rollback();
+                firstTask.get();
+                first.commit();
+                secondTask.get();
+                second.commit();
+                break;
+            }
+        }
+    }
+
+    private static Task putTask(Transaction tx, int value) {
+        return new Task() {
+            @Override
+            public void call() throws Exception {
+                TransactionMap<Integer, Integer> m = tx.openMap("data");
+                m.put(1, value);
+            }
+        };
+    }
+
+    private static Transaction getLockWaitBlocker(TransactionStore ts, Transaction tx) {
+        for (TransactionStore.LockWait wait : ts.getLockWaits()) {
+            if (wait.transaction == tx) {
+                return wait.blocker;
+            }
+        }
+        return null;
+    }
+
+    private void testBufferedUndoLog() {
+        String fileName = getBaseDir() + "/testBufferedUndoLog.h3";
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open()) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+
+            // a short transaction does not use the undo log map
+            Transaction tx = ts.begin();
+            MVMap<Long, Object> undoLog = s.openMap(TransactionStore.UNDO_LOG_NAME_PREFIX + '.' + tx.getId());
+            TransactionMap<Long, String> m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            for (long i = 0; i < 10; i++) {
+                m.put(i, "a" + i);
+            }
+            assertTrue(undoLog.isEmpty());
+            Transaction tx2 = ts.begin();
+            TransactionMap<Long, String> m2 = tx2.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            assertEquals(0, m2.sizeAsLong());
+            assertNull(m2.get(1L));
+            long savepoint = tx.setSavepoint();
+            m.put(1L, "b1");
+            m.remove(2L);
+            Iterator<Change> changes = tx.getChanges(savepoint);
+            assertEquals(2L, changes.next().key);
+            assertEquals(1L, changes.next().key);
+            assertFalse(changes.hasNext());
+            tx.rollbackToSavepoint(savepoint);
+            assertEquals("a1", m.get(1L));
+            assertEquals("a2", m.get(2L));
+            tx.commit();
+            assertTrue(undoLog.isEmpty());
+            assertEquals(10, m2.sizeAsLong());
+            assertEquals("a1", m2.get(1L));
+            tx2.commit();
+
+            // a larger transaction switches to the undo log map
+            tx = ts.begin();
+            m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            for (long i = 0; i < 30; i++) {
+                m.put(i, "c" + i);
+                if (i == 10) {
+                    savepoint = tx.setSavepoint();
+                }
+            }
+            assertFalse(undoLog.isEmpty());
+            tx.rollbackToSavepoint(savepoint);
+            assertEquals("c10", m.get(10L));
+            assertEquals("c9", m.get(9L));
+            assertNull(m.get(11L));
+            tx.rollback();
+            assertTrue(undoLog.isEmpty());
+            tx = ts.begin();
+            m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            assertEquals(10, m.sizeAsLong());
+            assertEquals("a0", m.get(0L));
+
+            // storing writes the buffered records of open transactions
+            m.put(100L, "open");
+            tx2 = ts.begin();
+            m2 = tx2.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            m2.put(200L, "committed");
+            tx2.commit();
+            s.commit();
+            assertFalse(undoLog.isEmpty());
+            s.closeImmediately();
+        }
+
+        try (MVStore s = MVStore.open(fileName)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            List<Transaction> list = ts.getOpenTransactions();
+            assertEquals(1, list.size());
+            assertEquals(Transaction.STATUS_OPEN, list.get(0).getStatus());
+            list.get(0).rollback();
+            Transaction tx = ts.begin();
+            TransactionMap<Long, String> m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            assertNull(m.get(100L));
+            assertEquals("committed", m.get(200L));
+            assertEquals(11, m.sizeAsLong());
+            tx.commit();
+        }
+        FileUtils.delete(fileName);
+    }
+
+    private void testVersionCleaner() {
+        String fileName = getBaseDir() + "/testVersionCleaner.h3";
+        FileUtils.delete(fileName);
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open()) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            Transaction tx = ts.begin();
+            TransactionMap<Long, String> m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            for (long i = 0; i < 10; i++) {
+                m.put(i, "a");
+            }
+            tx.commit();
+            tx = ts.begin();
+            m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            for (long i = 0; i < 5; i++) {
+                m.put(i, "b");
+            }
+            m.put(10L, "b");
+            m.put(11L, "b");
+            // persist the changes without the undo log, as after a crash in between
+            s.setBeforeStoreAction(null);
+            s.commit();
+            s.closeImmediately();
+        }
+
+        try (MVStore s = new MVStore.Builder().fileName(fileName).autoCommitDisabled().open()) {
+            assertTrue(s.isUncleanShutdown());
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            assertTrue(ts.getOpenTransactions().isEmpty());
+            Transaction tx = ts.begin();
+            TransactionMap<Long, String> m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            tx.commit();
+            ts.endLeftoverTransactions();
+            VersionCleaner cleaner = ts.getVersionCleaner();
+            assertEquals(1, cleaner.getPendingMapCount());
+            MVMap<Long, VersionedValue<String>> map = s.openMap("test");
+            assertEquals(12, map.size());
+            assertEquals(5, cleaner.clean(5));
+            assertEquals(1, cleaner.getPendingMapCount());
+            assertEquals(5, cleaner.getCleanedEntryCount());
+            assertEquals(7, cleaner.clean(100));
+            assertEquals(0, cleaner.getPendingMapCount());
+            assertEquals(0, cleaner.clean(100));
+            assertEquals(12, cleaner.getScannedEntryCount());
+            assertEquals(7, cleaner.getCleanedEntryCount());
+            assertEquals(10, map.size());
+            for (long i = 0; i < 10; i++) {
+                VersionedValue<String> v = map.get(i);
+                assertEquals(0, v.getOperationId());
+                assertEquals("a", v.getCurrentValue());
+            }
+            tx = ts.begin();
+            m = tx.openMap("test", LongDataType.INSTANCE, StringDataType.INSTANCE);
+            assertEquals(10, m.sizeAsLong());
+            m.put(0L, "c");
+            tx.commit();
+        }
+
+        try (MVStore s = MVStore.open(fileName)) {
+            assertFalse(s.isUncleanShutdown());
+        }
+        FileUtils.delete(fileName);
+    }
+
+    /**
+     * Measure the throughput of short transactions begun and committed by
+     * hundreds of threads, and verify that no transaction id is handed out
+     * twice.
+     */
+    private void testConcurrentBeginCommit() throws Exception {
+        try (MVStore s = MVStore.open(null)) {
+            TransactionStore ts = new TransactionStore(s);
+            ts.init();
+            // more than the old limit of 65535 open transactions
+            ts.setMaxTransactionId(100_000);
+            for (int threadCount : new int[] { 1, 16, 256 }) {
+                AtomicIntegerArray inUse = new AtomicIntegerArray(100_001);
+                AtomicLong total = new AtomicLong();
+                AtomicBoolean stopped = new AtomicBoolean();
+                CountDownLatch start = new CountDownLatch(1);
+                Task[] tasks = new Task[threadCount];
+                for (int i = 0; i < threadCount; i++) {
+                    int x = i;
+                    tasks[i] = new Task() {
+                        @Override
+                        public void call() throws Exception {
+                            start.await();
+                            long count = 0;
+                            for (; !stopped.get(); count++) {
+                                Transaction tx = ts.begin();
+                                int id = tx.getId();
+                                assertTrue(inUse.compareAndSet(id, 0, 1));
+                                if ((count & 15) == 0) {
+                                    TransactionMap<Integer, Integer> map = tx.openMap("data");
+                                    map.put(x, (int) count);
+                                }
+                                assertTrue(inUse.compareAndSet(id, 1, 0));
+                                tx.commit();
+                            }
+                            total.addAndGet(count);
+                        }
+                    };
+                    tasks[i].execute();
+                }
+                start.countDown();
+                Thread.sleep(500);
+                stopped.set(true);
+                for (Task t : tasks) {
+                    t.get();
+                }
+                trace("threads: " + threadCount + " begin/commit per ms: " + total.get() / 500);
+                assertTrue(ts.getOpenTransactions().isEmpty());
+            }
+        }
+    }
+
     private void testDeadLock(int threadCount, int stepCount) {
         try (MVStore s = MVStore.open(null)) {
             s.setAutoCommitDelay(0);
@@ -21,6 +21,9 @@
 
 import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
+import org.h2.compress.CompressorRegistry;
+import org.h2.compress.DictionaryCompressor;
+import org.h2.compress.DictionaryTrainer;
 import org.h2.engine.Constants;
 import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
@@ -71,6 +74,7 @@ public void test() throws Exception {
         }
         test(4000000);
         testVariableEnd();
+        testDictionary();
     }
 
     private void testVariableSizeInt() {
@@ -122,6 +126,33 @@ public void call() {
         }
     }
 
+    private void testDictionary() {
+        Random r = new Random(1);
+        ArrayList<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            StringBuilder buff = new StringBuilder();
+            for (int j = 0; j < 20; j++) {
+                buff.append("{\"name\":\"item-").append(r.nextInt(1000))
+                        .append("\",\"state\":\"ACTIVE\",\"region\":\"north\"}");
+            }
+            samples.add(buff.toString().getBytes());
+        }
+        byte[] dictionary = DictionaryTrainer.train(samples, 1024);
+        assertTrue(dictionary.length > 0 && dictionary.length <= 1024);
+        byte[] in = samples.get(0);
+        for (String name : new String[] { "LZ4", "LZ4HC", "DEFLATE" }) {
+            DictionaryCompressor compressor = (DictionaryCompressor) CompressorRegistry.getCompressor(name);
+            byte[] out = new byte[in.length * 2 + 100];
+            int plainLen = compressor.compress(in, 0, in.length, out, 0);
+            int len = compressor.compress(in, 0, in.length, out, 0, dictionary);
+            assertTrue(name + " " + len + " " + plainLen, len < plainLen);
+            byte[] test = new byte[in.length];
+            compressor.expand(out, 0, len, test, 0, in.length, dictionary);
+            assertEquals(in, test);
+        }
+        assertFalse(CompressorRegistry.getCompressor("LZF") instanceof DictionaryCompressor);
+    }
+
     private void testVariableEnd() {
         CompressTool utils = CompressTool.getInstance();
         StringBuilder b = new StringBuilder();
@@ -246,7 +277,7 @@ private void testByteArray(int len) throws IOException {
             CompressTool utils = CompressTool.getInstance();
             // level 9 is highest, strategy 2 is huffman only
             for (String a : new String[] { "LZF", "No",
-                    "Deflate", "Deflate level 9 strategy 2" }) {
+                    "Deflate", "Deflate level 9 strategy 2", "LZ4", "LZ4HC", "LZ4 high" }) {
                 long time = System.nanoTime();
                 byte[] out = utils.compress(b, a);
                 byte[] test = utils.expand(out);